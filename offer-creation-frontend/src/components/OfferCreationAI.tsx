@@ -40,6 +40,53 @@ interface SkuData {
   end_date: string;
 }
 
+// The server stops working on a request after this long, and so do we
+const REQUEST_TIMEOUT_MS = 120000;
+
+const newRequestId = () =>
+  `${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 10)}`;
+
+// Extraction requests that share a timeout. Each one carries the timeout and an id, so the
+// server stops at the same moment and can be told to cancel when the user leaves the page.
+const startExtraction = () => {
+  const controller = new AbortController();
+  const requestIds: string[] = [];
+  const cancelOnServer = () => {
+    requestIds.forEach((id) =>
+      navigator.sendBeacon(`http://localhost:8080/api/requests/${id}/cancel`)
+    );
+  };
+  const timer = window.setTimeout(() => controller.abort(), REQUEST_TIMEOUT_MS);
+  window.addEventListener("pagehide", cancelOnServer);
+
+  const post = (url: string, init: RequestInit) => {
+    const requestId = newRequestId();
+    requestIds.push(requestId);
+    return fetch(url, {
+      ...init,
+      method: "POST",
+      signal: controller.signal,
+      headers: {
+        ...(init.headers as Record<string, string>),
+        "X-Request-Timeout": String(REQUEST_TIMEOUT_MS),
+        "X-Request-Id": requestId,
+      },
+    });
+  };
+  const finish = () => {
+    window.clearTimeout(timer);
+    window.removeEventListener("pagehide", cancelOnServer);
+  };
+  return { post, finish };
+};
+
+const errorMessage = (err: unknown) => {
+  if (err instanceof DOMException && err.name === "AbortError") {
+    return "The request timed out, please try again";
+  }
+  return err instanceof Error ? err.message : "An error occurred";
+};
+
 const OfferCreationAI: React.FC = () => {
   const [step, setStep] = useState<number>(1);
   const [formData, setFormData] = useState<OfferData>({
@@ -95,20 +142,19 @@ const OfferCreationAI: React.FC = () => {
       return;
     }
 
+    const extraction = startExtraction();
     try {
       setLoading(true);
       setError("");
 
       const [jsonResponse, excelResponse] = await Promise.all([
-        fetch("http://localhost:8080/api/offer/extractText", {
-          method: "POST",
+        extraction.post("http://localhost:8080/api/offer/extractText", {
           headers: {
             "Content-Type": "application/json",
           },
           body: JSON.stringify({ text: rawText }),
         }),
-        fetch("http://localhost:8080/api/offer/extract-from-text", {
-          method: "POST",
+        extraction.post("http://localhost:8080/api/offer/extract-from-text", {
           headers: {
             "Content-Type": "text/plain",
           },
@@ -148,8 +194,9 @@ const OfferCreationAI: React.FC = () => {
       // Move to the next step
       setStep(3);
     } catch (err) {
-      setError(err instanceof Error ? err.message : "An error occurred");
+      setError(errorMessage(err));
     } finally {
+      extraction.finish();
       setLoading(false);
     }
   };
@@ -165,6 +212,7 @@ const OfferCreationAI: React.FC = () => {
       return;
     }
 
+    const extraction = startExtraction();
     try {
       setLoading(true);
       setError("");
@@ -173,12 +221,10 @@ const OfferCreationAI: React.FC = () => {
       formData.append("file", file);
 
       const [jsonResponse, csvResponse] = await Promise.all([
-        fetch("http://localhost:8080/api/offer/extract-json", {
-          method: "POST",
+        extraction.post("http://localhost:8080/api/offer/extract-json", {
           body: formData,
         }),
-        fetch("http://localhost:8080/api/csv/process", {
-          method: "POST",
+        extraction.post("http://localhost:8080/api/csv/process", {
           body: formData,
         }),
       ]);
@@ -208,8 +254,9 @@ const OfferCreationAI: React.FC = () => {
       // Move to the next step
       setStep(3);
     } catch (err) {
-      setError(err instanceof Error ? err.message : "An error occurred");
+      setError(errorMessage(err));
     } finally {
+      extraction.finish();
       setLoading(false);
     }
   };
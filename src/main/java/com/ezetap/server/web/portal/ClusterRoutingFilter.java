@@ -0,0 +1,78 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.ConsistentHashRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sends POSTs to the extraction endpoints to the node that owns their input. Clients (or a
+ * load balancer hashing the same header) pass a hash of the uploaded content, e.g. its
+ * SHA-256, as {@code X-Input-Hash}; a request that reaches another node gets a 307 to the
+ * owner, which keeps the method and body. It runs before rate limiting and admission so a
+ * redirected request costs the wrong node nothing. Requests without the header are handled
+ * where they land.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRoutingFilter.class);
+    private static final String INPUT_HASH_HEADER = "X-Input-Hash";
+
+    @Autowired
+    private ConsistentHashRing ring;
+
+    @Value("${offer.cluster.paths:/api/offer/,/api/csv/}")
+    private List<String> routedPaths;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!ring.isEnabled() || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String inputHash = request.getHeader(INPUT_HASH_HEADER);
+        if (inputHash == null || inputHash.trim().isEmpty()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : routedPaths) {
+            if (path.startsWith(prefix.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String owner = ring.owner(request.getHeader(INPUT_HASH_HEADER).trim());
+        if (owner.equals(ring.getSelf())) {
+            ring.recordRoute(true);
+            chain.doFilter(request, response);
+            return;
+        }
+
+        ring.recordRoute(false);
+        String location = owner + request.getRequestURI() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
+        logger.debug("Redirecting {} to owner {}", request.getRequestURI(), owner);
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader("Location", location);
+        // CORS headers are normally added by the controllers, which this response never reaches
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Expose-Headers", "Location");
+    }
+}
@@ -0,0 +1,59 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.Span;
+import com.ezetap.server.web.portal.service.Tracing;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Opens a span for the controller method handling a traced request (see {@link TracingFilter}),
+ * named after the controller and method, with the size and type of an uploaded file.
+ */
+@Component
+public class ControllerTracingInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+    private static final String SPAN_ATTRIBUTE = ControllerTracingInterceptor.class.getName() + ".span";
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (Tracing.current() == null || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        HandlerMethod method = (HandlerMethod) handler;
+        Span span = Tracing.start(method.getBeanType().getSimpleName() + "." + method.getMethod().getName());
+        if (request instanceof MultipartHttpServletRequest) {
+            MultipartFile file = ((MultipartHttpServletRequest) request).getFile("file");
+            if (file != null) {
+                span.setAttribute("file.name", file.getOriginalFilename());
+                span.setAttribute("file.size", file.getSize());
+                span.setAttribute("file.content_type", file.getContentType());
+            }
+        }
+        request.setAttribute(SPAN_ATTRIBUTE, span);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object span = request.getAttribute(SPAN_ATTRIBUTE);
+        if (span instanceof Span) {
+            request.removeAttribute(SPAN_ATTRIBUTE);
+            if (ex != null) {
+                ((Span) span).recordError(ex);
+            }
+            ((Span) span).close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.DeadlineTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Gives each POST to the extraction endpoints a deadline: {@code X-Request-Timeout}
+ * milliseconds from arrival when the client sends it, the configured default otherwise. It
+ * starts before rate limiting and admission so time spent queueing counts against it.
+ * {@code X-Request-Id} names the request for {@code POST /api/requests/{id}/cancel}.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class DeadlineFilter extends OncePerRequestFilter {
+    private static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    private static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    @Autowired
+    private DeadlineTracker deadlineTracker;
+
+    @Value("${offer.deadline.paths:/api/offer/,/api/csv/}")
+    private List<String> deadlinePaths;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!deadlineTracker.isEnabled() || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : deadlinePaths) {
+            if (path.startsWith(prefix.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Long timeoutMs = null;
+        String header = request.getHeader(TIMEOUT_HEADER);
+        if (header != null) {
+            try {
+                timeoutMs = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                // Ignored; the default deadline applies
+            }
+        }
+        try (DeadlineTracker.Handle ignored = deadlineTracker.start(timeoutMs, request.getHeader(REQUEST_ID_HEADER))) {
+            chain.doFilter(request, response);
+        }
+    }
+}
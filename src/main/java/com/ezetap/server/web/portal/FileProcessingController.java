@@ -1,8 +1,11 @@
 package com.ezetap.server.web.portal;
 
+import com.ezetap.server.web.portal.service.HeapBudgetExceededException;
 import com.ezetap.server.web.portal.service.OfferExtractionService;
+import com.ezetap.server.web.portal.service.RequestCancelledException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -30,8 +33,7 @@ public class FileProcessingController {
                 return ResponseEntity.badRequest().build();
             }
 
-            byte[] fileBytes = file.getBytes();
-            byte[] processedFile = offerExtractionService.processCsvFile(fileBytes);
+            byte[] processedFile = offerExtractionService.processCsvFile(file);
             
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"));
@@ -41,6 +43,15 @@ public class FileProcessingController {
             return ResponseEntity.ok()
                     .headers(headers)
                     .body(processedFile);
+        } catch (RequestCancelledException e) {
+            logger.warn("{}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+        } catch (HeapBudgetExceededException e) {
+            logger.warn("{}", e.getMessage());
+            if (e.isRetryable()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "5").build();
+            }
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
         } catch (Exception e) {
             logger.error("Error processing CSV file: {}", e.getMessage());
             return ResponseEntity.internalServerError().build();
@@ -0,0 +1,52 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.LlmScheduler;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/health")
+@CrossOrigin(origins = "*", allowedHeaders = "*")
+@Api(value = "Health API", tags = {"Health"})
+public class HealthController {
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Autowired
+    private ApplicationAvailability availability;
+
+    @ApiOperation(
+        value = "Liveness check",
+        notes = "Never shed by admission control. Reports the LLM calls in flight; see /api/metrics/admission for shedding state."
+    )
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> health() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", "UP");
+        health.put("llmCallsInFlight", llmScheduler.getInFlight());
+        return ResponseEntity.ok(health);
+    }
+
+    @ApiOperation(
+        value = "Readiness check",
+        notes = "503 until startup warm-up has finished, so load balancers only send traffic once the first request will be fast."
+    )
+    @GetMapping("/ready")
+    public ResponseEntity<Map<String, Object>> ready() {
+        ReadinessState state = availability.getReadinessState();
+        Map<String, Object> readiness = new LinkedHashMap<>();
+        readiness.put("status", state.name());
+        HttpStatus status = state == ReadinessState.ACCEPTING_TRAFFIC ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status).body(readiness);
+    }
+}
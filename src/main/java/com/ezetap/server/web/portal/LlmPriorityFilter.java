@@ -0,0 +1,52 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.LlmScheduler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sets the {@link LlmScheduler} class for the LLM calls made while handling a request: the
+ * text endpoints the UI calls are interactive, everything else is file work. A client can
+ * lower its own requests to batch with {@code X-Priority: batch}, never raise them. Runs first
+ * so admission control sees the class.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class LlmPriorityFilter extends OncePerRequestFilter {
+    private static final String PRIORITY_HEADER = "X-Priority";
+
+    @Value("${offer.llm.scheduler.interactive-paths:/api/offer/extractText,/api/offer/extract-rows,/api/offer/extract-from-text}")
+    private List<String> interactivePaths;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        LlmScheduler.Priority priority = LlmScheduler.Priority.FILE;
+        for (String interactivePath : interactivePaths) {
+            if (path.equals(interactivePath.trim())) {
+                priority = LlmScheduler.Priority.INTERACTIVE;
+                break;
+            }
+        }
+        if ("batch".equalsIgnoreCase(request.getHeader(PRIORITY_HEADER))) {
+            priority = LlmScheduler.Priority.BATCH;
+        }
+        LlmScheduler.setPriority(priority);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            LlmScheduler.clearPriority();
+        }
+    }
+}
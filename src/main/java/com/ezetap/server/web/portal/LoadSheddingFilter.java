@@ -0,0 +1,78 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.LlmScheduler;
+import com.ezetap.server.web.portal.service.LoadShedder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link LoadShedder} to POSTs on the extraction endpoints, after
+ * {@link LlmPriorityFilter} has classified the request and before the upload is read. Shed
+ * requests get 503 with Retry-After. Everything else, including {@code /api/health}, is
+ * always admitted.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 5)
+public class LoadSheddingFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(LoadSheddingFilter.class);
+
+    @Autowired
+    private LoadShedder loadShedder;
+
+    @Value("${offer.admission.paths:/api/offer/,/api/csv/}")
+    private List<String> sheddablePaths;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!loadShedder.isEnabled() || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : sheddablePaths) {
+            if (path.startsWith(prefix.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long retryNanos = loadShedder.tryAdmit(LlmScheduler.currentPriority());
+        if (retryNanos == 0) {
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                loadShedder.release();
+            }
+            return;
+        }
+
+        long retryAfter = Math.max(1, (retryNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        logger.warn("Shedding {} {} (retry after {}s)", request.getMethod(), request.getRequestURI(), retryAfter);
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        // CORS headers are normally added by the controllers, which this response never reaches
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Expose-Headers", "Retry-After");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Server is overloaded, retry after " + retryAfter + " seconds\"}");
+    }
+}
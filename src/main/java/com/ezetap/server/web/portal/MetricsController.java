@@ -0,0 +1,167 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.AzureOpenAIEndpointPool;
+import com.ezetap.server.web.portal.service.ClientRateLimiter;
+import com.ezetap.server.web.portal.service.ConsistentHashRing;
+import com.ezetap.server.web.portal.service.DeadlineTracker;
+import com.ezetap.server.web.portal.service.HeapBudget;
+import com.ezetap.server.web.portal.service.LlmHedger;
+import com.ezetap.server.web.portal.service.LlmResultCache;
+import com.ezetap.server.web.portal.service.LlmScheduler;
+import com.ezetap.server.web.portal.service.LoadShedder;
+import com.ezetap.server.web.portal.service.StartupWarmup;
+import com.ezetap.server.web.portal.service.ModelRouter;
+import com.ezetap.server.web.portal.service.ParallelCsvReader;
+import com.ezetap.server.web.portal.service.SheetLayoutCatalog;
+import com.ezetap.server.web.portal.service.SheetRelevanceClassifier;
+import com.ezetap.server.web.portal.service.TraceExporter;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = "*", allowedHeaders = "*")
+@Api(value = "Metrics API", tags = {"Metrics"})
+public class MetricsController {
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private AzureOpenAIEndpointPool endpointPool;
+
+    @Autowired
+    private ClientRateLimiter rateLimiter;
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Autowired
+    private LoadShedder loadShedder;
+
+    @Autowired
+    private StartupWarmup startupWarmup;
+
+    @Autowired
+    private LlmHedger llmHedger;
+
+    @Autowired
+    private DeadlineTracker deadlineTracker;
+
+    @Autowired
+    private SheetLayoutCatalog layoutCatalog;
+
+    @Autowired
+    private SheetRelevanceClassifier sheetClassifier;
+
+    @Autowired
+    private ParallelCsvReader csvReader;
+
+    @Autowired
+    private LlmResultCache resultCache;
+
+    @Autowired
+    private ConsistentHashRing ring;
+
+    @Autowired
+    private HeapBudget heapBudget;
+
+    @Autowired
+    private TraceExporter traceExporter;
+
+    @ApiOperation(value = "Per-route latency, error and escalation counts for LLM calls")
+    @GetMapping("/routing")
+    public ResponseEntity<Map<String, Object>> getRoutingMetrics() {
+        return ResponseEntity.ok(modelRouter.getMetrics());
+    }
+
+    @ApiOperation(value = "Health, circuit-breaker state and load of each Azure OpenAI pool target")
+    @GetMapping("/pool")
+    public ResponseEntity<List<Map<String, Object>>> getPoolMetrics() {
+        return ResponseEntity.ok(endpointPool.getMetrics());
+    }
+
+    @ApiOperation(value = "Tracked clients and admitted/rejected counts of the per-client rate limiter")
+    @GetMapping("/rate-limit")
+    public ResponseEntity<Map<String, Object>> getRateLimitMetrics() {
+        return ResponseEntity.ok(rateLimiter.getMetrics());
+    }
+
+    @ApiOperation(value = "Queue depth, in-flight calls and wait times per LLM scheduler priority class")
+    @GetMapping("/scheduler")
+    public ResponseEntity<Map<String, Object>> getSchedulerMetrics() {
+        return ResponseEntity.ok(llmScheduler.getMetrics());
+    }
+
+    @ApiOperation(value = "Admitted requests, shedding state and queue delay per priority class")
+    @GetMapping("/admission")
+    public ResponseEntity<Map<String, Object>> getAdmissionMetrics() {
+        return ResponseEntity.ok(loadShedder.getMetrics());
+    }
+
+    @ApiOperation(value = "Startup timings: context ready, warm-up and time to first fast response after JVM start")
+    @GetMapping("/startup")
+    public ResponseEntity<Map<String, Object>> getStartupMetrics() {
+        return ResponseEntity.ok(startupWarmup.getReport());
+    }
+
+    @ApiOperation(value = "Hedged LLM calls: hedge and win rates, hedge delay per route, p99 with and without hedging")
+    @GetMapping("/hedging")
+    public ResponseEntity<Map<String, Object>> getHedgingMetrics() {
+        return ResponseEntity.ok(llmHedger.getMetrics());
+    }
+
+    @ApiOperation(value = "Requests completed and cancelled by deadline or by the client, with the stage each cancellation hit")
+    @GetMapping("/deadlines")
+    public ResponseEntity<Map<String, Object>> getDeadlineMetrics() {
+        return ResponseEntity.ok(deadlineTracker.getMetrics());
+    }
+
+    @ApiOperation(value = "Learned sheet layouts: stored mappings, local conversions, fallbacks to the model")
+    @GetMapping("/layouts")
+    public ResponseEntity<Map<String, Object>> getLayoutMetrics() {
+        return ResponseEntity.ok(layoutCatalog.getMetrics());
+    }
+
+    @ApiOperation(value = "Sheet relevance filter: sheets seen, sheets left out of prompts and why")
+    @GetMapping("/sheets")
+    public ResponseEntity<Map<String, Object>> getSheetMetrics() {
+        return ResponseEntity.ok(sheetClassifier.getMetrics());
+    }
+
+    @ApiOperation(value = "Parallel CSV reader: large files parsed, records and throughput")
+    @GetMapping("/csv")
+    public ResponseEntity<Map<String, Object>> getCsvMetrics() {
+        return ResponseEntity.ok(csvReader.getMetrics());
+    }
+
+    @ApiOperation(value = "LLM result cache: hits, deduplicated in-flight extractions and shared store contents")
+    @GetMapping("/llm-cache")
+    public ResponseEntity<Map<String, Object>> getLlmCacheMetrics() {
+        return ResponseEntity.ok(resultCache.getMetrics());
+    }
+
+    @ApiOperation(value = "Cluster routing: nodes, share of the input hash space per node, local and redirected requests")
+    @GetMapping("/cluster")
+    public ResponseEntity<Map<String, Object>> getClusterMetrics() {
+        return ResponseEntity.ok(ring.getMetrics());
+    }
+
+    @ApiOperation(value = "Upload heap budget: reserved and waiting, rejections, estimated vs measured heap per upload type")
+    @GetMapping("/memory")
+    public ResponseEntity<Map<String, Object>> getMemoryMetrics() {
+        return ResponseEntity.ok(heapBudget.getMetrics());
+    }
+
+    @ApiOperation(value = "Trace export counts and duration per span name")
+    @GetMapping("/tracing")
+    public ResponseEntity<Map<String, Object>> getTracingMetrics() {
+        return ResponseEntity.ok(traceExporter.getMetrics());
+    }
+}
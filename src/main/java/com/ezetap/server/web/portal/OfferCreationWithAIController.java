@@ -1,7 +1,12 @@
 package com.ezetap.server.web.portal;
 
+import com.ezetap.server.web.portal.service.HeapBudgetExceededException;
 import com.ezetap.server.web.portal.service.OfferExtractionService;
+import com.ezetap.server.web.portal.service.OfferValidationException;
+import com.ezetap.server.web.portal.service.RequestCancelledException;
 import com.ezetap.shared.api.input.brand.emi.RawTextRequest;
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.ezetap.shared.api.output.brand.emi.OfferValidationReport;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -20,6 +25,7 @@ import javax.servlet.ServletOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.io.OutputStream;
 import java.util.Base64;
@@ -30,6 +36,8 @@ import java.util.Base64;
 @Api(value = "Offer Creation API", tags = {"Offer Creation"})
 public class OfferCreationWithAIController {
     private static final Logger logger = LoggerFactory.getLogger(OfferCreationWithAIController.class);
+    // Uploads refused for lack of heap usually fit once the requests ahead of them finish
+    private static final int HEAP_RETRY_AFTER_SECONDS = 5;
     
     @Autowired
     private OfferExtractionService offerService;
@@ -55,6 +63,8 @@ public class OfferCreationWithAIController {
                 return ResponseEntity.badRequest().body("Either file or text must be provided");
             }
             return ResponseEntity.ok(jsonResponse);
+        } catch (OfferValidationException | RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing input: ", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -89,9 +99,9 @@ public class OfferCreationWithAIController {
             byte[] excelBytes;
             if (contentType.equals("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet") || 
                 contentType.equals("application/vnd.ms-excel")) {
-                excelBytes = offerService.processExcelFile(file.getBytes());
+                excelBytes = offerService.processExcelFile(file);
             } else if (contentType.equals("text/csv")) {
-                excelBytes = offerService.processCsvFile(file.getBytes());
+                excelBytes = offerService.processCsvFile(file);
             } else {
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported file type. Only Excel and CSV files are supported.");
                 return;
@@ -109,6 +119,23 @@ public class OfferCreationWithAIController {
                 outputStream.write(excelBytes);
                 outputStream.flush();
             }
+        } catch (RequestCancelledException e) {
+            logger.warn("Excel generation cancelled: {}", e.getMessage());
+            try {
+                response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, e.getMessage());
+            } catch (Exception ex) {
+                logger.error("Error sending error response: ", ex);
+            }
+        } catch (HeapBudgetExceededException e) {
+            logger.warn("Excel generation not admitted: {}", e.getMessage());
+            try {
+                if (e.isRetryable()) {
+                    response.setHeader("Retry-After", String.valueOf(HEAP_RETRY_AFTER_SECONDS));
+                }
+                response.sendError(heapBudgetStatus(e).value(), e.getMessage());
+            } catch (Exception ex) {
+                logger.error("Error sending error response: ", ex);
+            }
         } catch (Exception e) {
             logger.error("Error generating Excel: ", e);
             try {
@@ -130,6 +157,25 @@ public class OfferCreationWithAIController {
         try {
             String jsonResponse = offerService.extractFromRawText(rawText, false);
             return ResponseEntity.ok(jsonResponse);
+        } catch (OfferValidationException | RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error processing text: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error processing text: " + e.getMessage());
+        }
+    }
+
+    @ApiOperation(
+        value = "Extract offer rows from raw text as JSON",
+        notes = "Returns the extracted offer rows together with overlapping or duplicate offers for the same SKU, bank and card type, and a per-row validation report."
+    )
+    @PostMapping(value = "/extract-rows", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> extractRows(@RequestBody String rawText) {
+        try {
+            return ResponseEntity.ok(offerService.extractFromRawText(rawText, true));
+        } catch (OfferValidationException | RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing text: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -140,11 +186,11 @@ public class OfferCreationWithAIController {
     @PostMapping("/extract-from-text")
     public ResponseEntity<byte[]> extractFromText(@RequestBody String rawText) {
         try {
-            // First get the JSON response for Excel format
-            String jsonResponse = offerService.extractFromRawText(rawText, true);
+            // First extract the offer rows for Excel format
+            List<OfferRow> offerRows = offerService.extractOfferRowsFromText(rawText);
             
-            // Generate Excel from the JSON response
-            byte[] excelBytes = offerService.generateExcelFromJson(jsonResponse);
+            // Generate Excel from the offer rows
+            byte[] excelBytes = offerService.generateExcel(offerRows);
             
             // Set response headers for Excel download
             HttpHeaders headers = new HttpHeaders();
@@ -153,6 +199,8 @@ public class OfferCreationWithAIController {
             headers.setContentLength(excelBytes.length);
             
             return new ResponseEntity<>(excelBytes, headers, HttpStatus.OK);
+        } catch (OfferValidationException | RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing text: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -194,13 +242,11 @@ public class OfferCreationWithAIController {
                 throw new IllegalArgumentException("No input provided");
             }
 
-            // Validate JSON structure
-            JsonNode jsonNode = objectMapper.readTree(jsonOutput);
-            validateRequiredFields(jsonNode);
-            
             return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(jsonOutput);
+        } catch (OfferValidationException | RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             return ResponseEntity
                 .status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -217,7 +263,7 @@ public class OfferCreationWithAIController {
             }
 
             // Process the CSV file
-            byte[] excelBytes = offerService.processCsvFile(file.getBytes());
+            byte[] excelBytes = offerService.processCsvFile(file);
             
             // Set response headers for Excel download
             HttpHeaders headers = new HttpHeaders();
@@ -226,6 +272,8 @@ public class OfferCreationWithAIController {
             headers.setContentLength(excelBytes.length);
             
             return new ResponseEntity<>(excelBytes, headers, HttpStatus.OK);
+        } catch (RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing CSV file: ", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -233,29 +281,33 @@ public class OfferCreationWithAIController {
         }
     }
 
-    private void validateRequiredFields(JsonNode json) throws IllegalArgumentException {
-        String[] requiredFields = {
-            "sku_code", "min_amount", "bank_name", "card_type",
-            "full_swipe_offer_amount_type", "emi_offer_amount_type",
-            "full_swipe_offer_value", "emi_offer_value",
-            "start_date", "end_date"
-        };
-        
-        for (String field : requiredFields) {
-            if (!json.has(field) || json.get(field).asText().trim().isEmpty()) {
-                throw new IllegalArgumentException("Missing required field: " + field);
-            }
-        }
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    @ExceptionHandler(OfferValidationException.class)
+    public OfferValidationReport handleOfferValidationException(OfferValidationException e) {
+        logger.warn("Extracted offers failed validation: {}", e.getMessage());
+        return e.getReport();
+    }
 
-        // Validate date formats
-        validateDateFormat(json.get("start_date").asText());
-        validateDateFormat(json.get("end_date").asText());
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    @ExceptionHandler(RequestCancelledException.class)
+    public ErrorResponse handleRequestCancelledException(RequestCancelledException e) {
+        logger.warn("{}", e.getMessage());
+        return new ErrorResponse(e.getMessage());
     }
 
-    private void validateDateFormat(String date) throws IllegalArgumentException {
-        if (!date.matches("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}")) {
-            throw new IllegalArgumentException("Invalid date format. Expected format: yyyy-MM-dd HH:mm:ss");
+    @ExceptionHandler(HeapBudgetExceededException.class)
+    public ResponseEntity<ErrorResponse> handleHeapBudgetExceededException(HeapBudgetExceededException e) {
+        logger.warn("Upload not admitted: {}", e.getMessage());
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(heapBudgetStatus(e));
+        if (e.isRetryable()) {
+            response.header("Retry-After", String.valueOf(HEAP_RETRY_AFTER_SECONDS));
         }
+        return response.body(new ErrorResponse(e.getMessage()));
+    }
+
+    // Busy now: 503, retry later. Too large for the heap budget at any time: 413
+    private static HttpStatus heapBudgetStatus(HeapBudgetExceededException e) {
+        return e.isRetryable() ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.PAYLOAD_TOO_LARGE;
     }
 
     @ResponseStatus(HttpStatus.BAD_REQUEST)
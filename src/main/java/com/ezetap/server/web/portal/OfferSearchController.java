@@ -0,0 +1,71 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.OfferFieldNormalizer;
+import com.ezetap.server.web.portal.service.OfferSearchIndex;
+import com.ezetap.shared.api.output.brand.emi.OfferSearchResult;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/search")
+@CrossOrigin(origins = "*", allowedHeaders = "*")
+@Api(value = "Offer Search API", tags = {"Offer Search"})
+public class OfferSearchController {
+    private static final int MAX_RESULTS = 200;
+
+    @Autowired
+    private OfferSearchIndex searchIndex;
+
+    @Autowired
+    private OfferFieldNormalizer fieldNormalizer;
+
+    @ApiOperation(
+        value = "Full-text search over past extractions",
+        notes = "q searches offer fields and source text (e.g. \"10% axis emi redmi pad\"). brand, bank, cardType and " +
+            "month (yyyy-MM) narrow the results and each has facet counts in the response."
+    )
+    @GetMapping
+    public ResponseEntity<OfferSearchResult> search(
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "brand", required = false) String brand,
+            @RequestParam(value = "bank", required = false) String bank,
+            @RequestParam(value = "cardType", required = false) String cardType,
+            @RequestParam(value = "month", required = false) String month,
+            @RequestParam(value = "activeAt", required = false) String activeAt,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) throws IOException {
+        if (limit < 1 || limit > MAX_RESULTS) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_RESULTS);
+        }
+        LocalDateTime activeTime = null;
+        if (activeAt != null && !activeAt.trim().isEmpty()) {
+            try {
+                activeTime = LocalDateTime.parse(fieldNormalizer.normalizeDate(activeAt, false), OfferFieldNormalizer.DATE_TIME_FORMAT);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid activeAt date: " + activeAt);
+            }
+        }
+        Map<String, String> filters = new LinkedHashMap<>();
+        filters.put("brand", brand);
+        filters.put("bank", bank);
+        filters.put("card_type", cardType);
+        filters.put("month", month);
+        return ResponseEntity.ok(searchIndex.search(query, filters, activeTime, limit));
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(IllegalArgumentException.class)
+    public Map<String, String> handleIllegalArgumentException(IllegalArgumentException e) {
+        return Collections.singletonMap("error", e.getMessage());
+    }
+}
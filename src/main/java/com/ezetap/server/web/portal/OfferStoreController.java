@@ -0,0 +1,64 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.OfferFieldNormalizer;
+import com.ezetap.server.web.portal.service.OfferStore;
+import com.ezetap.shared.api.output.brand.emi.OfferPage;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/offers")
+@CrossOrigin(origins = "*", allowedHeaders = "*")
+@Api(value = "Offer Store API", tags = {"Offer Store"})
+public class OfferStoreController {
+    private static final int MAX_PAGE_SIZE = 500;
+
+    @Autowired
+    private OfferStore offerStore;
+
+    @Autowired
+    private OfferFieldNormalizer fieldNormalizer;
+
+    @ApiOperation(
+        value = "Query previously extracted offers",
+        notes = "Filters are optional. Pages are keyset-paginated: pass next_cursor as 'after' to get the next page. " +
+            "Use active=true for offers live now, or activeAt for a given date/time."
+    )
+    @GetMapping
+    public ResponseEntity<OfferPage> findOffers(
+            @RequestParam(value = "brand", required = false) String brand,
+            @RequestParam(value = "bank", required = false) String bank,
+            @RequestParam(value = "sku", required = false) String sku,
+            @RequestParam(value = "active", defaultValue = "false") boolean active,
+            @RequestParam(value = "activeAt", required = false) String activeAt,
+            @RequestParam(value = "after", defaultValue = "0") long after,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        LocalDateTime activeTime = active ? LocalDateTime.now() : null;
+        if (activeAt != null && !activeAt.trim().isEmpty()) {
+            try {
+                activeTime = LocalDateTime.parse(fieldNormalizer.normalizeDate(activeAt, false), OfferFieldNormalizer.DATE_TIME_FORMAT);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid activeAt date: " + activeAt);
+            }
+        }
+        return ResponseEntity.ok(offerStore.find(brand, bank, sku, activeTime, after, limit));
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(IllegalArgumentException.class)
+    public Map<String, String> handleIllegalArgumentException(IllegalArgumentException e) {
+        return Collections.singletonMap("error", e.getMessage());
+    }
+}
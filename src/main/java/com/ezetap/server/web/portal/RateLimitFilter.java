@@ -0,0 +1,114 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.ClientRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link ClientRateLimiter} to the extraction endpoints. It runs ahead of the
+ * DispatcherServlet, so a rejected upload is never parsed. Clients are identified by the
+ * {@code X-API-Key} header when it is one of the configured keys, otherwise by remote address;
+ * an unknown key must not buy a fresh bucket. The token estimate comes from the request size,
+ * since that is all that is known before the body is read.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class RateLimitFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitFilter.class);
+    private static final String API_KEY_HEADER = "X-API-Key";
+
+    @Autowired
+    private ClientRateLimiter rateLimiter;
+
+    @Value("${offer.rate-limit.paths:/api/offer/,/api/csv/}")
+    private List<String> limitedPaths;
+
+    @Value("${offer.rate-limit.bytes-per-token:4}")
+    private int bytesPerToken;
+
+    @Value("${offer.rate-limit.trust-forwarded-for:false}")
+    private boolean trustForwardedFor;
+
+    @Value("${offer.rate-limit.api-keys:}")
+    private List<String> apiKeys;
+
+    private final Set<String> knownKeys = new HashSet<>();
+
+    @PostConstruct
+    public void init() {
+        for (String apiKey : apiKeys) {
+            if (!apiKey.trim().isEmpty()) {
+                knownKeys.add(apiKey.trim());
+            }
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!rateLimiter.isEnabled() || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : limitedPaths) {
+            if (path.startsWith(prefix.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String clientId = clientId(request);
+        long length = request.getContentLengthLong();
+        // Without a length (chunked upload) assume the worst; the limiter caps it at the token burst
+        long estimatedTokens = length < 0 ? Long.MAX_VALUE : (length + bytesPerToken - 1) / Math.max(1, bytesPerToken);
+        long waitNanos = rateLimiter.tryAcquire(clientId, estimatedTokens);
+        if (waitNanos == 0) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        logger.warn("Rate limited {} on {} (retry after {}s)", clientId, request.getRequestURI(), retryAfter);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        // CORS headers are normally added by the controllers, which this response never reaches
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setHeader("Access-Control-Expose-Headers", "Retry-After");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Rate limit exceeded, retry after " + retryAfter + " seconds\"}");
+    }
+
+    private String clientId(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        if (apiKey != null && knownKeys.contains(apiKey.trim())) {
+            return "key:" + apiKey.trim();
+        }
+        String forwardedFor = trustForwardedFor ? request.getHeader("X-Forwarded-For") : null;
+        if (forwardedFor != null && !forwardedFor.trim().isEmpty()) {
+            return "ip:" + forwardedFor.split(",")[0].trim();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
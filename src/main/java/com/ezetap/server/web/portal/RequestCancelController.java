@@ -0,0 +1,31 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.DeadlineTracker;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/requests")
+@CrossOrigin(origins = "*", allowedHeaders = "*")
+@Api(value = "Request API", tags = {"Requests"})
+public class RequestCancelController {
+
+    @Autowired
+    private DeadlineTracker deadlineTracker;
+
+    @ApiOperation(
+        value = "Cancel a running extraction",
+        notes = "Cancels the request sent with this X-Request-Id: its LLM call is aborted and later stages are skipped. " +
+            "The frontend calls this when the user leaves or its own timeout fires. 404 if no such request is running."
+    )
+    @PostMapping("/{requestId}/cancel")
+    public ResponseEntity<Void> cancel(@PathVariable String requestId) {
+        if (deadlineTracker.cancel(requestId, "cancelled by client")) {
+            return ResponseEntity.accepted().build();
+        }
+        return ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,73 @@
+package com.ezetap.server.web.portal;
+
+import com.ezetap.server.web.portal.service.LlmScheduler;
+import com.ezetap.server.web.portal.service.Span;
+import com.ezetap.server.web.portal.service.Tracing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Opens the root span of each request to the extraction endpoints, joining the caller's
+ * trace when it sends a W3C {@code traceparent} header. The trace id is returned as
+ * {@code X-Trace-Id} so a slow response can be looked up in the exported spans. It runs
+ * after the deadline starts and before routing, rate limiting and admission, so time spent
+ * queueing there shows as the gap before the controller span.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class TracingFilter extends OncePerRequestFilter {
+    private static final String TRACEPARENT_HEADER = "traceparent";
+    private static final String TRACE_ID_HEADER = "X-Trace-Id";
+    private static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    @Value("${offer.tracing.paths:/api/offer/,/api/csv/}")
+    private List<String> tracedPaths;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!Tracing.isEnabled()) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : tracedPaths) {
+            if (path.startsWith(prefix.trim())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        try (Span span = Tracing.startRoot(request.getMethod() + " " + path, request.getHeader(TRACEPARENT_HEADER))) {
+            span.setAttribute("http.request.method", request.getMethod());
+            span.setAttribute("url.path", path);
+            span.setAttribute("http.request.body.size", request.getContentLengthLong() >= 0 ? request.getContentLengthLong() : null);
+            span.setAttribute("request.id", request.getHeader(REQUEST_ID_HEADER));
+            span.setAttribute("llm.priority", LlmScheduler.currentPriority().name().toLowerCase());
+            response.setHeader(TRACE_ID_HEADER, span.getTraceId());
+            try {
+                chain.doFilter(request, response);
+            } catch (IOException | ServletException | RuntimeException e) {
+                span.recordError(e);
+                throw e;
+            }
+            span.setAttribute("http.response.status_code", response.getStatus());
+            if (response.getStatus() >= 500) {
+                span.setError("HTTP " + response.getStatus());
+            }
+        }
+    }
+}
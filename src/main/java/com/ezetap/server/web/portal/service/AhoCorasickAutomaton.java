@@ -0,0 +1,120 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.*;
+
+/**
+ * Case-insensitive Aho-Corasick automaton. Built once from a set of patterns, it reports every
+ * occurrence of every pattern in a single left-to-right pass over the text, so scan cost is
+ * linear in the text length regardless of how many patterns there are.
+ */
+final class AhoCorasickAutomaton {
+    // Per state: sorted transition characters and their target states
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] failure;
+    // Pattern ending at this state, or -1
+    private final int[] output;
+    // Nearest state on the failure chain that ends a pattern (0 = none)
+    private final int[] dictionarySuffix;
+    private final int[] patternLengths;
+
+    interface MatchListener {
+        void onMatch(int start, int end, int patternIndex);
+    }
+
+    AhoCorasickAutomaton(List<String> patterns) {
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        trie.add(new HashMap<>());
+        outputs.add(-1);
+        patternLengths = new int[patterns.size()];
+
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            patternLengths[p] = pattern.length();
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = normalize(pattern.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    outputs.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (outputs.get(state) < 0) {
+                outputs.set(state, p);
+            }
+        }
+
+        int size = trie.size();
+        transitionChars = new char[size][];
+        transitionTargets = new int[size][];
+        output = new int[size];
+        for (int s = 0; s < size; s++) {
+            List<Character> keys = new ArrayList<>(trie.get(s).keySet());
+            Collections.sort(keys);
+            transitionChars[s] = new char[keys.size()];
+            transitionTargets[s] = new int[keys.size()];
+            for (int k = 0; k < keys.size(); k++) {
+                transitionChars[s][k] = keys.get(k);
+                transitionTargets[s][k] = trie.get(s).get(keys.get(k));
+            }
+            output[s] = outputs.get(s);
+        }
+
+        // Breadth-first failure links
+        failure = new int[size];
+        dictionarySuffix = new int[size];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int target : transitionTargets[0]) {
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int k = 0; k < transitionChars[state].length; k++) {
+                char c = transitionChars[state][k];
+                int child = transitionTargets[state][k];
+                int fallback = failure[state];
+                while (fallback != 0 && next(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int link = next(fallback, c);
+                failure[child] = link >= 0 && link != child ? link : 0;
+                dictionarySuffix[child] = output[failure[child]] >= 0 ? failure[child] : dictionarySuffix[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    int getPatternLength(int patternIndex) {
+        return patternLengths[patternIndex];
+    }
+
+    void scan(CharSequence text, MatchListener listener) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            while (state != 0 && next(state, c) < 0) {
+                state = failure[state];
+            }
+            int target = next(state, c);
+            state = target < 0 ? 0 : target;
+            for (int s = output[state] >= 0 ? state : dictionarySuffix[state]; s != 0; s = dictionarySuffix[s]) {
+                int pattern = output[s];
+                listener.onMatch(i + 1 - patternLengths[pattern], i + 1, pattern);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        int index = Arrays.binarySearch(transitionChars[state], c);
+        return index >= 0 ? transitionTargets[state][index] : -1;
+    }
+
+    private static char normalize(char c) {
+        return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+    }
+}
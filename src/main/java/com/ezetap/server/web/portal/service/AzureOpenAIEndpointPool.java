@@ -0,0 +1,366 @@
+package com.ezetap.server.web.portal.service;
+
+import com.azure.ai.openai.OpenAIClient;
+import com.azure.ai.openai.OpenAIClientBuilder;
+import com.azure.ai.openai.models.ChatCompletions;
+import com.azure.ai.openai.models.ChatCompletionsOptions;
+import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.policy.AddHeadersPolicy;
+import com.azure.core.http.policy.FixedDelayOptions;
+import com.azure.core.http.policy.RetryOptions;
+import com.azure.core.http.rest.RequestOptions;
+import com.azure.core.http.rest.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pool of Azure OpenAI endpoint+key+deployment targets. Each call goes to the healthy target of
+ * the requested tier with the fewest outstanding requests relative to its weight and remaining
+ * token quota. A target that returns 429/5xx (or fails at the transport level) is skipped and
+ * the call fails over to the next one; repeated failures open that target's circuit breaker.
+ */
+@Component
+public class AzureOpenAIEndpointPool {
+    private static final Logger logger = LoggerFactory.getLogger(AzureOpenAIEndpointPool.class);
+
+    @Autowired
+    private AzureOpenAIPoolProperties properties;
+
+    @Value("${azure.openai.endpoint}")
+    private String endpoint;
+
+    @Value("${azure.openai.key}")
+    private String key;
+
+    @Value("${azure.openai.deployment-id}")
+    private String deploymentId;
+
+    @Value("${azure.openai.small-deployment-id:}")
+    private String smallDeploymentId;
+
+    private final List<PoolTarget> targets = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        List<AzureOpenAIPoolProperties.Target> configured = new ArrayList<>(properties.getTargets());
+        if (configured.isEmpty()) {
+            configured.add(fallbackTarget("default", deploymentId, "large"));
+            if (smallDeploymentId != null && !smallDeploymentId.trim().isEmpty()) {
+                configured.add(fallbackTarget("default-small", smallDeploymentId, "small"));
+            }
+        }
+        for (AzureOpenAIPoolProperties.Target target : configured) {
+            targets.add(new PoolTarget(target, buildClient(target)));
+        }
+        logger.info("Azure OpenAI pool initialized with {} target(s)", targets.size());
+    }
+
+    private AzureOpenAIPoolProperties.Target fallbackTarget(String name, String deployment, String tier) {
+        AzureOpenAIPoolProperties.Target target = new AzureOpenAIPoolProperties.Target();
+        target.setName(name);
+        target.setEndpoint(endpoint);
+        target.setKey(key);
+        target.setDeploymentId(deployment);
+        target.setTier(tier);
+        return target;
+    }
+
+    private OpenAIClient buildClient(AzureOpenAIPoolProperties.Target target) {
+        // Failover is handled by the pool, so the SDK must not sit on a throttled target retrying
+        OpenAIClientBuilder builder = new OpenAIClientBuilder()
+                .endpoint(target.getEndpoint())
+                .retryOptions(new RetryOptions(new FixedDelayOptions(0, Duration.ZERO)));
+        if (target.getEndpoint().startsWith("http://")) {
+            // The SDK refuses key credentials over plain HTTP; this is only for local mock servers
+            builder.addPolicy(new AddHeadersPolicy(new HttpHeaders().set("api-key", target.getKey())));
+        } else {
+            builder.credential(new AzureKeyCredential(target.getKey()));
+        }
+        return builder.buildClient();
+    }
+
+    public boolean hasTargets(ModelRouter.Route route) {
+        for (PoolTarget target : targets) {
+            if (target.route == route) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The endpoint and deployment of every target of {@code route}, sorted. */
+    public List<String> getDeployments(ModelRouter.Route route) {
+        List<String> deployments = new ArrayList<>();
+        for (PoolTarget target : targets) {
+            if (target.route == route) {
+                deployments.add(target.config.getEndpoint() + "/" + target.config.getDeploymentId());
+            }
+        }
+        Collections.sort(deployments);
+        return deployments;
+    }
+
+    public ChatCompletions getChatCompletions(ModelRouter.Route route, ChatCompletionsOptions options) throws Exception {
+        return getChatCompletions(route, options, null, null);
+    }
+
+    /**
+     * Same as {@link #getChatCompletions(ModelRouter.Route, ChatCompletionsOptions)}, but targets
+     * named in {@code avoid} are only used when no other target is available, and the name of
+     * each target tried is written to {@code currentTarget}. Used by {@link LlmHedger} to send a
+     * hedge to a different deployment than the call it backs up.
+     */
+    public ChatCompletions getChatCompletions(ModelRouter.Route route, ChatCompletionsOptions options,
+                                              Set<String> avoid, AtomicReference<String> currentTarget) throws Exception {
+        Set<PoolTarget> tried = new HashSet<>();
+        Exception lastError = null;
+        PoolTarget target;
+        // Identifies this call to the breaker, so only the half-open probe's own outcome releases it
+        Object call = new Object();
+        while ((target = acquire(route, tried, avoid, call)) != null) {
+            tried.add(target);
+            if (currentTarget != null) {
+                currentTarget.set(target.name());
+            }
+            target.outstanding.incrementAndGet();
+            target.requests.incrementAndGet();
+            Span span = Tracing.start("chat.completions", Span.Kind.CLIENT);
+            span.setAttribute("llm.target", target.name());
+            span.setAttribute("gen_ai.request.model", target.config.getDeploymentId());
+            try {
+                Response<ChatCompletions> response = target.client.getChatCompletionsWithResponse(
+                        target.config.getDeploymentId(), options, new RequestOptions());
+                target.updateQuota(response.getHeaders());
+                target.onSuccess(call);
+                ChatCompletions completions = response.getValue();
+                span.setAttribute("http.response.status_code", response.getStatusCode());
+                if (completions.getUsage() != null) {
+                    span.setAttribute("gen_ai.usage.input_tokens", completions.getUsage().getPromptTokens());
+                    span.setAttribute("gen_ai.usage.output_tokens", completions.getUsage().getCompletionTokens());
+                }
+                if (completions.getChoices() != null && !completions.getChoices().isEmpty()
+                        && completions.getChoices().get(0).getFinishReason() != null) {
+                    span.setAttribute("gen_ai.response.finish_reason", completions.getChoices().get(0).getFinishReason().toString());
+                }
+                return completions;
+            } catch (HttpResponseException e) {
+                span.recordError(e);
+                int status = e.getResponse() != null ? e.getResponse().getStatusCode() : 0;
+                span.setAttribute("http.response.status_code", status);
+                if (status != 429 && status < 500) {
+                    // The target is healthy, the request itself was rejected
+                    target.onSuccess(call);
+                    throw e;
+                }
+                logger.warn("Target {} returned {}, failing over", target.name(), status);
+                target.onFailure(status == 429 ? retryAfterMs(e.getResponse().getHeaders()) : 0, call);
+                lastError = e;
+            } catch (RuntimeException e) {
+                if (isInterruption(e)) {
+                    // Cancelled by the caller (a hedge won, the request's deadline passed), not a target failure
+                    span.setAttribute("llm.cancelled", true);
+                    target.onCancelled(call);
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                span.recordError(e);
+                logger.warn("Target {} failed ({}), failing over", target.name(), e.getMessage());
+                target.onFailure(0, call);
+                lastError = e;
+            } finally {
+                span.close();
+                target.outstanding.decrementAndGet();
+            }
+        }
+        if (lastError != null) {
+            throw lastError;
+        }
+        throw new Exception("No healthy Azure OpenAI target available for " + route + " route");
+    }
+
+    private PoolTarget acquire(ModelRouter.Route route, Set<PoolTarget> tried, Set<String> avoid, Object call) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            PoolTarget best = null;
+            double bestScore = Double.MAX_VALUE;
+            boolean bestAvoided = true;
+            for (PoolTarget target : targets) {
+                if (target.route != route || tried.contains(target) || !target.isCallable(now)) {
+                    continue;
+                }
+                // Avoided targets only compete until a target that is not avoided turns up
+                boolean avoided = avoid != null && avoid.contains(target.name());
+                if (avoided && !bestAvoided) {
+                    continue;
+                }
+                if (bestAvoided && !avoided) {
+                    bestScore = Double.MAX_VALUE;
+                    bestAvoided = false;
+                }
+                double score = target.loadScore();
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = target;
+                }
+            }
+            if (best == null || best.tryEnter(now, call)) {
+                return best;
+            }
+            // Another caller took the half-open probe slot; consider the remaining targets
+            tried.add(best);
+        }
+    }
+
+    // The SDK reports an interrupted call as a wrapped InterruptedException, clearing the flag
+    private static boolean isInterruption(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long retryAfterMs(HttpHeaders headers) {
+        if (headers == null) {
+            return 0;
+        }
+        try {
+            String retryAfterMs = headers.getValue("retry-after-ms");
+            if (retryAfterMs != null) {
+                return Long.parseLong(retryAfterMs.trim());
+            }
+            String retryAfter = headers.getValue("Retry-After");
+            if (retryAfter != null) {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            }
+        } catch (NumberFormatException e) {
+            // Fall back to the configured open duration
+        }
+        return 0;
+    }
+
+    public List<Map<String, Object>> getMetrics() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (PoolTarget target : targets) {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("name", target.name());
+            metrics.put("tier", target.route.name().toLowerCase(Locale.ROOT));
+            metrics.put("deploymentId", target.config.getDeploymentId());
+            metrics.put("state", target.state(now));
+            metrics.put("outstanding", target.outstanding.get());
+            metrics.put("requests", target.requests.get());
+            metrics.put("failures", target.failures.get());
+            metrics.put("remainingTokens", target.remainingTokens);
+            result.add(metrics);
+        }
+        return result;
+    }
+
+    private class PoolTarget {
+        private final AzureOpenAIPoolProperties.Target config;
+        private final OpenAIClient client;
+        private final ModelRouter.Route route;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        // The call let through as the half-open probe, null when none is in flight
+        private final AtomicReference<Object> halfOpenProbe = new AtomicReference<>();
+        private volatile long openUntil;
+        private volatile long remainingTokens = -1;
+
+        PoolTarget(AzureOpenAIPoolProperties.Target config, OpenAIClient client) {
+            this.config = config;
+            this.client = client;
+            this.route = "small".equalsIgnoreCase(config.getTier()) ? ModelRouter.Route.SMALL : ModelRouter.Route.LARGE;
+        }
+
+        String name() {
+            return config.getName() != null ? config.getName() : config.getEndpoint() + "/" + config.getDeploymentId();
+        }
+
+        boolean isCallable(long now) {
+            return openUntil == 0 || (now >= openUntil && halfOpenProbe.get() == null);
+        }
+
+        boolean tryEnter(long now, Object call) {
+            if (openUntil == 0) {
+                return true;
+            }
+            // Breaker cool-down elapsed: let exactly one probe request through
+            return now >= openUntil && halfOpenProbe.compareAndSet(null, call);
+        }
+
+        double loadScore() {
+            double quotaFactor = 1.0;
+            long tpm = config.getTokensPerMinute();
+            long remaining = remainingTokens;
+            if (tpm > 0 && remaining >= 0) {
+                quotaFactor = Math.max(0.05, Math.min(1.0, (double) remaining / tpm));
+            }
+            return (outstanding.get() + 1) / (Math.max(1, config.getWeight()) * quotaFactor);
+        }
+
+        void updateQuota(HttpHeaders headers) {
+            String remaining = headers != null ? headers.getValue("x-ratelimit-remaining-tokens") : null;
+            if (remaining != null) {
+                try {
+                    remainingTokens = Long.parseLong(remaining.trim());
+                } catch (NumberFormatException e) {
+                    // Leave the previous estimate in place
+                }
+            }
+        }
+
+        void onSuccess(Object call) {
+            consecutiveFailures.set(0);
+            openUntil = 0;
+            halfOpenProbe.compareAndSet(call, null);
+        }
+
+        void onFailure(long retryAfterMs, Object call) {
+            failures.incrementAndGet();
+            int count = consecutiveFailures.incrementAndGet();
+            boolean probe = halfOpenProbe.get() == call;
+            if (retryAfterMs > 0) {
+                // Throttled: stay away for as long as the service asked us to
+                openUntil = System.currentTimeMillis() + retryAfterMs;
+            } else if (count >= properties.getFailureThreshold() || probe) {
+                openUntil = System.currentTimeMillis() + properties.getOpenDurationMs();
+            }
+            halfOpenProbe.compareAndSet(call, null);
+        }
+
+        // A cancelled probe says nothing about the target; leave the breaker as it is and let the next caller probe
+        void onCancelled(Object call) {
+            halfOpenProbe.compareAndSet(call, null);
+        }
+
+        String state(long now) {
+            if (openUntil == 0) {
+                return "CLOSED";
+            }
+            return now < openUntil ? "OPEN" : "HALF_OPEN";
+        }
+    }
+}
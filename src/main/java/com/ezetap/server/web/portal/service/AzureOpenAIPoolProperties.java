@@ -0,0 +1,112 @@
+package com.ezetap.server.web.portal.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Endpoint/deployment targets for {@link AzureOpenAIEndpointPool}, bound from
+ * {@code azure.openai.pool.*}. When no targets are configured the pool falls back to the
+ * single {@code azure.openai.endpoint}/{@code key}/{@code deployment-id} settings.
+ */
+@Component
+@ConfigurationProperties(prefix = "azure.openai.pool")
+public class AzureOpenAIPoolProperties {
+    private List<Target> targets = new ArrayList<>();
+    private int failureThreshold = 3;
+    private long openDurationMs = 30000;
+
+    public List<Target> getTargets() {
+        return targets;
+    }
+
+    public void setTargets(List<Target> targets) {
+        this.targets = targets;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getOpenDurationMs() {
+        return openDurationMs;
+    }
+
+    public void setOpenDurationMs(long openDurationMs) {
+        this.openDurationMs = openDurationMs;
+    }
+
+    public static class Target {
+        private String name;
+        private String endpoint;
+        private String key;
+        private String deploymentId;
+        // "large" or "small", matching ModelRouter.Route
+        private String tier = "large";
+        private int weight = 1;
+        // Tokens-per-minute quota of the deployment, used to weight by remaining quota
+        private long tokensPerMinute;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getDeploymentId() {
+            return deploymentId;
+        }
+
+        public void setDeploymentId(String deploymentId) {
+            this.deploymentId = deploymentId;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        public void setTier(String tier) {
+            this.tier = tier;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public long getTokensPerMinute() {
+            return tokensPerMinute;
+        }
+
+        public void setTokensPerMinute(long tokensPerMinute) {
+            this.tokensPerMinute = tokensPerMinute;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Tags bank/issuer mentions ("HDFC", "HDFC Bank CC", "SBI Card", ...) using an Aho-Corasick
+ * automaton built once from the alias catalog at {@code offer.bank-catalog}. A scan is a single
+ * linear pass over the text however many aliases the catalog holds. Overlapping matches resolve
+ * to the leftmost, then longest alias, and only whole-word matches count.
+ */
+@Component
+public class BankEntityMatcher {
+    private static final Logger logger = LoggerFactory.getLogger(BankEntityMatcher.class);
+
+    @Value("${offer.bank-catalog:classpath:catalog/bank-aliases.txt}")
+    private Resource catalog;
+
+    private AhoCorasickAutomaton automaton;
+    // Canonical bank name per automaton pattern
+    private List<String> canonicalNames;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Map<String, String> aliases = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(catalog.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                String canonical = (separator < 0 ? line : line.substring(0, separator)).trim();
+                if (canonical.isEmpty()) {
+                    logger.warn("Skipping bank catalog line {} without a canonical name", lineNumber);
+                    continue;
+                }
+                addAlias(aliases, canonical, canonical);
+                if (separator >= 0) {
+                    for (String alias : line.substring(separator + 1).split("\\|")) {
+                        addAlias(aliases, alias.trim(), canonical);
+                    }
+                }
+            }
+        }
+
+        automaton = new AhoCorasickAutomaton(new ArrayList<>(aliases.keySet()));
+        canonicalNames = new ArrayList<>(aliases.values());
+        logger.info("Loaded {} bank aliases for {} banks from {}", aliases.size(),
+            new HashSet<>(canonicalNames).size(), catalog.getDescription());
+    }
+
+    private void addAlias(Map<String, String> aliases, String alias, String canonical) {
+        if (alias.isEmpty()) {
+            return;
+        }
+        String key = alias.replaceAll("\\s+", " ");
+        String existing = aliases.get(key.toLowerCase(Locale.ROOT));
+        if (existing != null && !existing.equals(canonical)) {
+            logger.warn("Bank alias '{}' is listed for both {} and {}, keeping {}", alias, existing, canonical, existing);
+            return;
+        }
+        aliases.put(key.toLowerCase(Locale.ROOT), canonical);
+    }
+
+    /**
+     * Returns the non-overlapping bank mentions in {@code text}, in order of appearance.
+     */
+    public List<BankMention> findMentions(CharSequence text) {
+        List<BankMention> candidates = new ArrayList<>();
+        if (text == null || text.length() == 0) {
+            return candidates;
+        }
+        automaton.scan(text, (start, end, pattern) -> {
+            if (isWordBoundary(text, start - 1) && isWordBoundary(text, end)) {
+                candidates.add(new BankMention(start, end, canonicalNames.get(pattern)));
+            }
+        });
+
+        // Leftmost-longest: "HDFC Bank CC" wins over the "HDFC" inside it
+        candidates.sort(Comparator.comparingInt(BankMention::getStart)
+            .thenComparing(Comparator.comparingInt(BankMention::getEnd).reversed()));
+        List<BankMention> mentions = new ArrayList<>();
+        int covered = 0;
+        for (BankMention mention : candidates) {
+            if (mention.getStart() >= covered) {
+                mentions.add(mention);
+                covered = mention.getEnd();
+            }
+        }
+        return mentions;
+    }
+
+    /**
+     * Returns the distinct canonical bank names mentioned in {@code text}, in order of first appearance.
+     */
+    public Set<String> findBanks(CharSequence text) {
+        Set<String> banks = new LinkedHashSet<>();
+        for (BankMention mention : findMentions(text)) {
+            banks.add(mention.getBank());
+        }
+        return banks;
+    }
+
+    /**
+     * Maps a bank name such as "HDFC Bank CC" or "sbi card, axis" to its canonical form
+     * ("HDFC Bank", "SBI Cards, Axis Bank"). Names with no catalog match are returned trimmed.
+     */
+    public String canonicalize(String bankName) {
+        if (bankName == null) {
+            return null;
+        }
+        Set<String> banks = findBanks(bankName);
+        return banks.isEmpty() ? bankName.trim() : String.join(", ", banks);
+    }
+
+    private static boolean isWordBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    public static class BankMention {
+        private final int start;
+        private final int end;
+        private final String bank;
+
+        BankMention(int start, int end, String bank) {
+            this.start = start;
+            this.end = end;
+            this.bank = bank;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public String getBank() {
+            return bank;
+        }
+    }
+}
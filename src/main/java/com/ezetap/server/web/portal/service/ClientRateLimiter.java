@@ -0,0 +1,172 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client token buckets for the extraction endpoints: one bucket counts requests, the other
+ * the estimated LLM tokens a request will cost. Each bucket is a single "theoretical arrival
+ * time" (GCRA) updated with compare-and-set, so admitting a request takes no lock. A bucket
+ * that has refilled completely carries no state worth keeping; a background sweep drops those
+ * one stripe at a time, so the map only holds clients that are currently being limited.
+ */
+@Component
+public class ClientRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(ClientRateLimiter.class);
+    private static final int STRIPES = 16;
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    @Value("${offer.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.rate-limit.requests-per-minute:30}")
+    private long requestsPerMinute;
+
+    @Value("${offer.rate-limit.request-burst:10}")
+    private long requestBurst;
+
+    @Value("${offer.rate-limit.tokens-per-minute:60000}")
+    private long tokensPerMinute;
+
+    @Value("${offer.rate-limit.token-burst:30000}")
+    private long tokenBurst;
+
+    @Value("${offer.rate-limit.sweep-interval-ms:5000}")
+    private long sweepIntervalMs;
+
+    @SuppressWarnings("unchecked")
+    private final ConcurrentHashMap<String, ClientState>[] stripes = new ConcurrentHashMap[STRIPES];
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedByRequests = new AtomicLong();
+    private final AtomicLong rejectedByTokens = new AtomicLong();
+    private long requestInterval;
+    private long tokenInterval;
+    private ScheduledExecutorService sweeper;
+    private int nextStripe;
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        requestInterval = NANOS_PER_MINUTE / Math.max(1, requestsPerMinute);
+        tokenInterval = NANOS_PER_MINUTE / Math.max(1, tokensPerMinute);
+        if (!enabled) {
+            logger.info("Client rate limiting disabled (offer.rate-limit.enabled=false)");
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Each tick sweeps one stripe, so every stripe is visited once per STRIPES ticks
+        long tick = Math.max(1, sweepIntervalMs / STRIPES);
+        sweeper.scheduleWithFixedDelay(this::sweepNextStripe, tick, tick, TimeUnit.MILLISECONDS);
+        logger.info("Client rate limit: {} requests/min (burst {}), {} tokens/min (burst {})",
+            requestsPerMinute, requestBurst, tokensPerMinute, tokenBurst);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Charges one request and {@code estimatedTokens} to {@code clientId}. Returns 0 when the
+     * request is admitted, otherwise the nanoseconds until it would be; a rejected request is
+     * not charged. An estimate larger than the token burst is charged as the full burst, so an
+     * oversized request drains the budget instead of never getting through.
+     */
+    public long tryAcquire(String clientId, long estimatedTokens) {
+        if (!enabled) {
+            return 0;
+        }
+        ClientState state = stripeFor(clientId).computeIfAbsent(clientId, id -> new ClientState());
+        long now = System.nanoTime();
+        long requestCost = requestInterval;
+        long wait = acquire(state.requestTat, requestCost, requestInterval * requestBurst, now);
+        if (wait > 0) {
+            rejectedByRequests.incrementAndGet();
+            return wait;
+        }
+        long tokens = Math.min(Math.max(0, estimatedTokens), tokenBurst);
+        wait = acquire(state.tokenTat, tokens * tokenInterval, tokenInterval * tokenBurst, now);
+        if (wait > 0) {
+            // Give back the request slot taken above
+            state.requestTat.addAndGet(-requestCost);
+            rejectedByTokens.incrementAndGet();
+            return wait;
+        }
+        admitted.incrementAndGet();
+        return 0;
+    }
+
+    // GCRA: the bucket is full while tat <= now; a request fits while it keeps tat within
+    // tolerance (the burst) of now
+    private static long acquire(AtomicLong tat, long cost, long tolerance, long now) {
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + cost;
+            long excess = next - now - tolerance;
+            if (excess > 0) {
+                return excess;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private ConcurrentHashMap<String, ClientState> stripeFor(String clientId) {
+        int hash = clientId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private void sweepNextStripe() {
+        ConcurrentHashMap<String, ClientState> stripe = stripes[nextStripe];
+        nextStripe = (nextStripe + 1) % STRIPES;
+        long now = System.nanoTime();
+        // A request racing with removal charges a bucket that was full anyway, so at most it
+        // gets that one request for free
+        stripe.values().removeIf(state -> state.requestTat.get() <= now && state.tokenTat.get() <= now);
+    }
+
+    public Map<String, Object> getMetrics() {
+        int clients = 0;
+        for (ConcurrentHashMap<String, ClientState> stripe : stripes) {
+            clients += stripe.size();
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("trackedClients", clients);
+        metrics.put("admitted", admitted.get());
+        metrics.put("rejectedByRequests", rejectedByRequests.get());
+        metrics.put("rejectedByTokens", rejectedByTokens.get());
+        return metrics;
+    }
+
+    private static class ClientState {
+        // Start full: a theoretical arrival time in the past
+        private final AtomicLong requestTat = new AtomicLong(Long.MIN_VALUE / 2);
+        private final AtomicLong tokenTat = new AtomicLong(Long.MIN_VALUE / 2);
+    }
+}
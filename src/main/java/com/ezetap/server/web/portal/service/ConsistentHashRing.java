@@ -0,0 +1,131 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assigns input hashes to the nodes listed in {@code offer.cluster.nodes} so that a given
+ * input is always handled by the same node, whose in-process state (in-flight work, warm
+ * caches) it then finds. Each node is placed on the ring {@code virtual-nodes} times; adding
+ * or removing a node moves only the inputs on its arcs. Every node must be configured with
+ * the same list, and {@code offer.cluster.self} naming its own entry.
+ */
+@Component
+public class ConsistentHashRing {
+    private static final Logger logger = LoggerFactory.getLogger(ConsistentHashRing.class);
+
+    @Value("${offer.cluster.nodes:}")
+    private List<String> nodes;
+
+    @Value("${offer.cluster.self:}")
+    private String self;
+
+    @Value("${offer.cluster.virtual-nodes:160}")
+    private int virtualNodes;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final AtomicLong local = new AtomicLong();
+    private final AtomicLong redirected = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        List<String> configured = new ArrayList<>();
+        for (String node : nodes) {
+            if (!node.trim().isEmpty()) {
+                configured.add(normalize(node));
+            }
+        }
+        nodes = configured;
+        self = self.trim().isEmpty() ? "" : normalize(self);
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        if (!nodes.isEmpty() && !nodes.contains(self)) {
+            logger.warn("offer.cluster.self '{}' is not one of offer.cluster.nodes {}, routing disabled", self, nodes);
+        } else if (isEnabled()) {
+            logger.info("Routing inputs across {} nodes as {}", nodes.size(), self);
+        }
+    }
+
+    /** Whether there is more than one node and this one is among them. */
+    public boolean isEnabled() {
+        return nodes.size() > 1 && nodes.contains(self);
+    }
+
+    /** This node's name: its {@code offer.cluster.self} entry, else the JVM's process name. */
+    public String getSelf() {
+        return self.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : self;
+    }
+
+    /** The node that owns {@code inputHash}; this node when routing is disabled. */
+    public String owner(String inputHash) {
+        if (!isEnabled()) {
+            return getSelf();
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(inputHash));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public void recordRoute(boolean isLocal) {
+        (isLocal ? local : redirected).incrementAndGet();
+    }
+
+    // First 8 bytes of the MD5 digest: spreads short, similar keys evenly around the ring
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("self", getSelf());
+        metrics.put("virtualNodes", virtualNodes);
+        // Share of the hash space owned by each node
+        Map<String, Double> shares = new LinkedHashMap<>();
+        if (!ring.isEmpty()) {
+            double total = Math.pow(2, 64);
+            Map<String, Double> arcs = new HashMap<>();
+            long previous = ring.lastKey();
+            for (Map.Entry<Long, String> entry : ring.entrySet()) {
+                // Unsigned distance from the previous point, wrapping around at the first one
+                long distance = entry.getKey() - previous;
+                double arc = ring.size() == 1 ? total : (distance >>> 1) * 2.0 + (distance & 1);
+                arcs.merge(entry.getValue(), arc, Double::sum);
+                previous = entry.getKey();
+            }
+            for (String node : nodes) {
+                shares.put(node, Math.round(arcs.getOrDefault(node, 0.0) / total * 1000) / 1000.0);
+            }
+        }
+        metrics.put("nodes", shares);
+        metrics.put("handledLocally", local.get());
+        metrics.put("redirected", redirected.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,456 @@
+package com.ezetap.server.web.portal.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RFC 4180 tokenizer that works on the bytes of a CSV upload rather than on decoded lines.
+ * Delimiters, quotes and line breaks are ASCII and never occur inside a UTF-8 multi-byte
+ * sequence, so records are split on raw bytes and each field is decoded once, straight from
+ * the buffer. Quoted fields may contain delimiters, line breaks and doubled quotes; CRLF, LF
+ * and lone CR all end a record.
+ *
+ * {@link #forBytes(byte[])} detects the encoding (BOM, UTF-16 without BOM, UTF-8, falling
+ * back to Windows-1252) and the delimiter (Excel's {@code sep=} line, otherwise the candidate
+ * that splits the first records most consistently).
+ */
+final class CsvTokenizer {
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte[] DELIMITERS = {',', ';', '\t', '|'};
+    private static final int SNIFF_RECORDS = 20;
+    static final int SNIFF_BYTES = 64 * 1024;
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private final ByteBuffer buffer;
+    // Backing array of a heap buffer, read directly; null for direct or mapped buffers
+    private final byte[] array;
+    private final int end;
+    private final byte delimiter;
+    private final Charset charset;
+    private int position;
+    private int recordNumber;
+    private byte[] scratch = new byte[256];
+    // Per column: where the previous record's unquoted value sat (or a copy of its bytes, for
+    // input without a backing array) and its decoded string
+    private int[] previousStart = new int[16];
+    private byte[][] previousBytes = new byte[16][];
+    private int[] previousLength = new int[16];
+    private String[] previousValue = new String[16];
+
+    /** Tokenizes {@code buffer} from its position to its limit. */
+    CsvTokenizer(ByteBuffer buffer, byte delimiter, Charset charset) {
+        this.buffer = buffer;
+        this.array = buffer.hasArray() && buffer.arrayOffset() == 0 ? buffer.array() : null;
+        this.position = buffer.position();
+        this.end = buffer.limit();
+        this.delimiter = delimiter;
+        this.charset = charset;
+    }
+
+    /**
+     * A tokenizer for a whole upload, with its encoding and delimiter detected. UTF-16 input is
+     * transcoded to UTF-8 first, which is the only case where the bytes are copied.
+     */
+    static CsvTokenizer forBytes(byte[] bytes) {
+        Format format = Format.detect(bytes, bytes.length, true);
+        if (format.isUtf16()) {
+            bytes = transcode(bytes, format.offset, format.charset);
+            format = Format.detect(bytes, bytes.length, true);
+        }
+        return new CsvTokenizer(ByteBuffer.wrap(bytes, format.offset, bytes.length - format.offset),
+            format.delimiter, format.charset);
+    }
+
+    /** Encoding, delimiter and first byte of the records of a CSV, detected from its start. */
+    static final class Format {
+        final Charset charset;
+        final byte delimiter;
+        // Past the BOM and any "sep=" line
+        final int offset;
+
+        private Format(Charset charset, byte delimiter, int offset) {
+            this.charset = charset;
+            this.delimiter = delimiter;
+            this.offset = offset;
+        }
+
+        boolean isUtf16() {
+            return charset == StandardCharsets.UTF_16LE || charset == StandardCharsets.UTF_16BE;
+        }
+
+        /**
+         * Detects the format from the first {@code length} bytes of {@code head}. Unless
+         * {@code whole} says that is the entire input, UTF-8 is judged on those bytes only.
+         */
+        static Format detect(byte[] head, int length, boolean whole) {
+            if (startsWith(head, length, 0xFF, 0xFE)) {
+                return new Format(StandardCharsets.UTF_16LE, (byte) ',', 2);
+            }
+            if (startsWith(head, length, 0xFE, 0xFF)) {
+                return new Format(StandardCharsets.UTF_16BE, (byte) ',', 2);
+            }
+            Charset utf16 = sniffUtf16(head, length);
+            if (utf16 != null) {
+                return new Format(utf16, (byte) ',', 0);
+            }
+
+            int offset = 0;
+            Charset charset;
+            if (startsWith(head, length, 0xEF, 0xBB, 0xBF)) {
+                charset = StandardCharsets.UTF_8;
+                offset = 3;
+            } else {
+                // A sample may end inside a multi-byte sequence; judge it up to its last line break
+                int checked = whole ? length : lastLineBreak(head, length);
+                charset = isUtf8(head, checked) ? StandardCharsets.UTF_8 : WINDOWS_1252;
+            }
+
+            // Excel writes "sep=;" as the first line when the export uses another separator
+            if (length - offset >= 5 && startsWith(head, offset, "sep=")
+                    && (length - offset == 5 || head[offset + 5] == CR || head[offset + 5] == LF)) {
+                byte delimiter = head[offset + 4];
+                offset += 5;
+                if (offset < length && head[offset] == CR) {
+                    offset++;
+                }
+                if (offset < length && head[offset] == LF) {
+                    offset++;
+                }
+                return new Format(charset, delimiter, offset);
+            }
+            return new Format(charset, sniffDelimiter(head, offset, Math.min(length, offset + SNIFF_BYTES)), offset);
+        }
+
+        private static int lastLineBreak(byte[] head, int length) {
+            for (int i = length - 1; i >= 0; i--) {
+                if (head[i] == LF || head[i] == CR) {
+                    return i;
+                }
+            }
+            return length;
+        }
+    }
+
+    byte getDelimiter() {
+        return delimiter;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /** 1-based number of the record last returned by {@link #next}, blank records included. */
+    int getRecordNumber() {
+        return recordNumber;
+    }
+
+    /** Reads the next record into {@code fields}; false when the input is exhausted. */
+    boolean next(List<String> fields) {
+        fields.clear();
+        if (position >= end) {
+            return false;
+        }
+        recordNumber++;
+        while (true) {
+            if (position < end && byteAt(position) == QUOTE) {
+                position = readQuoted(position + 1, fields);
+            } else {
+                int start = position;
+                position = fieldEnd(position);
+                fields.add(decodeColumn(fields.size(), start, position));
+            }
+            if (position >= end) {
+                return true;
+            }
+            byte b = byteAt(position++);
+            if (b == delimiter) {
+                continue;
+            }
+            if (b == CR && position < end && byteAt(position) == LF) {
+                position++;
+            }
+            return true;
+        }
+    }
+
+    // First delimiter or line break at or after pos
+    private int fieldEnd(int pos) {
+        if (array != null) {
+            while (pos < end) {
+                byte b = array[pos];
+                if (b == delimiter || b == LF || b == CR) {
+                    break;
+                }
+                pos++;
+            }
+            return pos;
+        }
+        while (pos < end) {
+            byte b = buffer.get(pos);
+            if (b == delimiter || b == LF || b == CR) {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    // pos is just after the opening quote; returns the position after the field
+    private int readQuoted(int pos, List<String> fields) {
+        int start = pos;
+        // Bytes of the field in scratch once a doubled quote forces a copy, -1 until then
+        int copied = -1;
+        while (pos < end) {
+            byte b = byteAt(pos);
+            if (b == QUOTE) {
+                if (pos + 1 < end && byteAt(pos + 1) == QUOTE) {
+                    if (copied < 0) {
+                        copied = copy(start, pos);
+                    }
+                    ensureScratch(copied + 1);
+                    scratch[copied++] = QUOTE;
+                    pos += 2;
+                    continue;
+                }
+                String value = copied < 0 ? decode(start, pos) : new String(scratch, 0, copied, charset);
+                // Text between the closing quote and the next delimiter is kept, as Excel does
+                int tail = ++pos;
+                pos = fieldEnd(pos);
+                fields.add(pos > tail ? value + decode(tail, pos) : value);
+                return pos;
+            }
+            if (copied >= 0) {
+                ensureScratch(copied + 1);
+                scratch[copied++] = b;
+            }
+            pos++;
+        }
+        // Unterminated quote: the rest of the input is the field
+        fields.add(copied < 0 ? decode(start, end) : new String(scratch, 0, copied, charset));
+        return end;
+    }
+
+    private byte byteAt(int pos) {
+        return array != null ? array[pos] : buffer.get(pos);
+    }
+
+    /**
+     * Decodes an unquoted field, reusing the string of the same column in the previous record
+     * when the bytes are equal. Offer sheets repeat banks, card types and dates row after row,
+     * so this saves most of the allocations and retained strings of a large upload.
+     */
+    private String decodeColumn(int column, int start, int stop) {
+        if (start == stop) {
+            return "";
+        }
+        if (column >= previousValue.length) {
+            int size = Math.max(column + 1, previousValue.length * 2);
+            previousStart = Arrays.copyOf(previousStart, size);
+            previousLength = Arrays.copyOf(previousLength, size);
+            previousValue = Arrays.copyOf(previousValue, size);
+            previousBytes = Arrays.copyOf(previousBytes, size);
+        }
+        int length = stop - start;
+        String previous = previousValue[column];
+        if (array != null) {
+            if (previous != null && previousLength[column] == length
+                    && Arrays.equals(array, previousStart[column], previousStart[column] + length, array, start, stop)) {
+                return previous;
+            }
+            String value = new String(array, start, length, charset);
+            previousStart[column] = start;
+            previousLength[column] = length;
+            previousValue[column] = value;
+            return value;
+        }
+        // Mapped input is copied out anyway; compare against a copy of the previous value's bytes
+        copy(start, stop);
+        byte[] bytes = previousBytes[column];
+        if (previous != null && previousLength[column] == length && Arrays.equals(bytes, 0, length, scratch, 0, length)) {
+            return previous;
+        }
+        if (bytes == null || bytes.length < length) {
+            bytes = previousBytes[column] = new byte[Math.max(length, 16)];
+        }
+        System.arraycopy(scratch, 0, bytes, 0, length);
+        String value = new String(scratch, 0, length, charset);
+        previousLength[column] = length;
+        previousValue[column] = value;
+        return value;
+    }
+
+    private String decode(int start, int stop) {
+        if (start == stop) {
+            return "";
+        }
+        if (array != null) {
+            return new String(array, start, stop - start, charset);
+        }
+        return new String(scratch, 0, copy(start, stop), charset);
+    }
+
+    // Copies [start, stop) to the start of scratch and returns its length
+    private int copy(int start, int stop) {
+        int length = stop - start;
+        ensureScratch(length);
+        if (array != null) {
+            System.arraycopy(array, start, scratch, 0, length);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(scratch, 0, length);
+        }
+        return length;
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            byte[] grown = new byte[Math.max(length, scratch.length * 2)];
+            System.arraycopy(scratch, 0, grown, 0, scratch.length);
+            scratch = grown;
+        }
+    }
+
+    /**
+     * Picks the delimiter whose count in the first non-blank record is non-zero and repeated by
+     * the most following records; more columns wins a tie, then the order of DELIMITERS.
+     */
+    static byte sniffDelimiter(byte[] bytes, int start, int stop) {
+        int[][] counts = new int[DELIMITERS.length][SNIFF_RECORDS];
+        int records = 0;
+        boolean quoted = false;
+        boolean content = false;
+        for (int i = start; i < stop && records < SNIFF_RECORDS; i++) {
+            byte b = bytes[i];
+            if (b == QUOTE) {
+                quoted = !quoted;
+                content = true;
+            } else if (quoted) {
+                continue;
+            } else if (b == LF || b == CR) {
+                if (content) {
+                    records++;
+                }
+                content = false;
+            } else {
+                content = true;
+                for (int d = 0; d < DELIMITERS.length; d++) {
+                    if (b == DELIMITERS[d]) {
+                        counts[d][records]++;
+                    }
+                }
+            }
+        }
+        if (content && records < SNIFF_RECORDS) {
+            records++;
+        }
+
+        byte best = DELIMITERS[0];
+        long bestScore = 0;
+        for (int d = 0; d < DELIMITERS.length; d++) {
+            int columns = counts[d][0];
+            if (columns == 0) {
+                continue;
+            }
+            int consistent = 0;
+            for (int r = 0; r < records; r++) {
+                if (counts[d][r] == columns) {
+                    consistent++;
+                }
+            }
+            long score = (long) consistent * 1_000_000 + columns;
+            if (score > bestScore) {
+                bestScore = score;
+                best = DELIMITERS[d];
+            }
+        }
+        return best;
+    }
+
+    // UTF-16 without a BOM shows up as a NUL in every other byte of ASCII text
+    private static Charset sniffUtf16(byte[] bytes, int length) {
+        int pairs = Math.min(length, 4096) / 2;
+        if (pairs < 2) {
+            return null;
+        }
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i < pairs * 2; i += 2) {
+            if (bytes[i] == 0) {
+                evenZeros++;
+            }
+            if (bytes[i + 1] == 0) {
+                oddZeros++;
+            }
+        }
+        if (oddZeros * 10 >= pairs * 4 && evenZeros * 20 < pairs) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (evenZeros * 10 >= pairs * 4 && oddZeros * 20 < pairs) {
+            return StandardCharsets.UTF_16BE;
+        }
+        return null;
+    }
+
+    // Well-formed UTF-8 (no overlong forms or surrogates checked; this only tells UTF-8 from legacy code pages)
+    static boolean isUtf8(byte[] bytes, int length) {
+        int i = 0;
+        while (i < length) {
+            int b = bytes[i];
+            if (b >= 0) {
+                i++;
+                continue;
+            }
+            int continuation;
+            if ((b & 0xE0) == 0xC0) {
+                continuation = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                continuation = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+            if (i + continuation >= length) {
+                return false;
+            }
+            for (int k = 1; k <= continuation; k++) {
+                if ((bytes[i + k] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    private static byte[] transcode(byte[] bytes, int offset, Charset charset) {
+        return new String(bytes, offset, bytes.length - offset, charset).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (bytes[offset + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts a {@link RequestDeadline} for each extraction request and cancels it when the
+ * deadline passes, from a single timer thread, so an LLM call still running at that point is
+ * aborted rather than merely ignored. Timeouts asked for by clients are capped at
+ * {@code max-ms}.
+ *
+ * A blocking servlet does not learn that the client went away until it writes the response,
+ * so a client that gives up early (a closed tab, its own timeout) cancels the request by the
+ * id it sent with it, see {@link #cancel(String, String)}.
+ */
+@Component
+public class DeadlineTracker {
+    private static final Logger logger = LoggerFactory.getLogger(DeadlineTracker.class);
+
+    @Value("${offer.deadline.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.deadline.default-ms:120000}")
+    private long defaultMs;
+
+    @Value("${offer.deadline.max-ms:600000}")
+    private long maxMs;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "request-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong cancelledByClient = new AtomicLong();
+    private final Map<String, AtomicLong> cancelledAtStage = new ConcurrentHashMap<>();
+    private final Map<String, RequestDeadline> byRequestId = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Binds a deadline to the current thread, {@code requestedMs} from now or the configured
+     * default when the client asked for none (null or not positive). {@code requestId}, if
+     * given, is what the client can later cancel the request by.
+     */
+    public Handle start(Long requestedMs, String requestId) {
+        long timeoutMs = requestedMs != null && requestedMs > 0 ? Math.min(requestedMs, maxMs) : defaultMs;
+        RequestDeadline deadline = new RequestDeadline(TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+        RequestDeadline.bind(deadline);
+        if (requestId != null && byRequestId.putIfAbsent(requestId, deadline) != null) {
+            // Ids are only useful when unique; a clash leaves the earlier request cancellable
+            requestId = null;
+        }
+        started.incrementAndGet();
+        return new Handle(deadline, requestId, timer.schedule(deadline::expire, timeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    /** Cancels the running request with id {@code requestId}; false if there is none. */
+    public boolean cancel(String requestId, String reason) {
+        RequestDeadline deadline = byRequestId.get(requestId);
+        if (deadline == null) {
+            return false;
+        }
+        if (!deadline.isCancelled()) {
+            cancelledByClient.incrementAndGet();
+        }
+        deadline.cancel(reason);
+        return true;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("defaultMs", defaultMs);
+        metrics.put("maxMs", maxMs);
+        metrics.put("started", started.get());
+        metrics.put("completed", completed.get());
+        metrics.put("cancelled", cancelled.get());
+        metrics.put("cancelledByClient", cancelledByClient.get());
+        Map<String, Long> stages = new LinkedHashMap<>();
+        cancelledAtStage.forEach((stage, count) -> stages.put(stage, count.get()));
+        metrics.put("cancelledAtStage", stages);
+        return metrics;
+    }
+
+    public class Handle implements AutoCloseable {
+        private final RequestDeadline deadline;
+        private final String requestId;
+        private final ScheduledFuture<?> expiry;
+
+        private Handle(RequestDeadline deadline, String requestId, ScheduledFuture<?> expiry) {
+            this.deadline = deadline;
+            this.requestId = requestId;
+            this.expiry = expiry;
+        }
+
+        public RequestDeadline getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public void close() {
+            expiry.cancel(false);
+            RequestDeadline.unbind();
+            if (requestId != null) {
+                byRequestId.remove(requestId, deadline);
+            }
+            if (deadline.isCancelled()) {
+                cancelled.incrementAndGet();
+                cancelledAtStage.computeIfAbsent(deadline.getStage(), stage -> new AtomicLong()).incrementAndGet();
+                logger.info("Request cancelled at stage {} (timeout {} ms)", deadline.getStage(),
+                    TimeUnit.NANOSECONDS.toMillis(deadline.getTimeoutNanos()));
+            } else {
+                completed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission by heap: an upload reserves its estimated peak heap from a fixed budget before it
+ * is parsed, and waits up to {@code max-wait-ms} (first come, first served) while the budget
+ * is taken by others. One that could never fit is rejected outright. The estimate is
+ * {@code base-mb} plus the upload size times a factor for its type (XSSF holds the unzipped
+ * sheet XML as DOM objects, so workbooks cost far more per byte than CSV), and is raised by
+ * {@code bytes-per-row} per offer row before the output workbook is built.
+ *
+ * The reservation is bound to the request thread like {@link RequestDeadline}. On release it
+ * records what the request actually used, so the factors can be tuned from
+ * {@code /api/metrics/memory}: bytes allocated by the request thread (work on other threads is
+ * not seen) and the largest rise in used heap sampled at stage boundaries. The rise includes
+ * garbage not yet collected and the work of concurrent requests, so it reads high; it is
+ * closest to the truth for requests that ran alone.
+ */
+@Component
+public class HeapBudget {
+    private static final Logger logger = LoggerFactory.getLogger(HeapBudget.class);
+    private static final ThreadLocal<Reservation> CURRENT = new ThreadLocal<>();
+    private static final long MB = 1024 * 1024;
+
+    public enum Kind { XLSX, XLS, CSV, MAPPED_CSV }
+
+    @Value("${offer.memory.enabled:true}")
+    private boolean enabled;
+
+    // 0 = budget-fraction of the maximum heap
+    @Value("${offer.memory.budget-mb:0}")
+    private long budgetMb;
+
+    @Value("${offer.memory.budget-fraction:0.6}")
+    private double budgetFraction;
+
+    @Value("${offer.memory.max-wait-ms:10000}")
+    private long maxWaitMs;
+
+    @Value("${offer.memory.base-mb:8}")
+    private long baseMb;
+
+    @Value("${offer.memory.xlsx-factor:180}")
+    private double xlsxFactor;
+
+    @Value("${offer.memory.xls-factor:8}")
+    private double xlsFactor;
+
+    @Value("${offer.memory.csv-factor:8}")
+    private double csvFactor;
+
+    @Value("${offer.memory.mapped-csv-factor:6}")
+    private double mappedCsvFactor;
+
+    @Value("${offer.memory.bytes-per-row:2048}")
+    private long bytesPerRow;
+
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private Semaphore budget;
+    private long budgetKb;
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong rejectedTooLarge = new AtomicLong();
+    private final AtomicLong rejectedTimeout = new AtomicLong();
+    private final KindStats[] stats = new KindStats[Kind.values().length];
+
+    @PostConstruct
+    public void init() {
+        long budgetBytes = budgetMb > 0 ? budgetMb * MB : (long) (Runtime.getRuntime().maxMemory() * budgetFraction);
+        budgetKb = Math.min(Integer.MAX_VALUE, budgetBytes / 1024);
+        // Fair, so a large upload is not starved by a stream of small ones
+        budget = new Semaphore((int) budgetKb, true);
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new KindStats();
+        }
+        logger.info("Upload heap budget {} MB of {} MB max heap", budgetKb / 1024, Runtime.getRuntime().maxMemory() / MB);
+    }
+
+    /** Estimated peak heap of processing an upload of {@code size} bytes. */
+    public long estimate(Kind kind, long size) {
+        double factor = kind == Kind.XLSX ? xlsxFactor : kind == Kind.XLS ? xlsFactor
+            : kind == Kind.CSV ? csvFactor : mappedCsvFactor;
+        return baseMb * MB + (long) (size * factor);
+    }
+
+    /**
+     * Reserves the estimated heap for an upload, waiting while the budget is in use, and binds
+     * it to the current thread until closed.
+     *
+     * @throws HeapBudgetExceededException if the estimate exceeds the whole budget, or the
+     *         budget did not free up within {@code max-wait-ms}
+     */
+    public Reservation reserve(Kind kind, long size) {
+        long estimate = estimate(kind, size);
+        Reservation reservation = new Reservation(kind, size, estimate);
+        if (!enabled) {
+            return reservation;
+        }
+        int permits = toKb(estimate);
+        if (permits > budgetKb) {
+            rejectedTooLarge.incrementAndGet();
+            throw new HeapBudgetExceededException(String.format(Locale.ROOT,
+                "%s upload of %d MB needs an estimated %d MB of heap, more than the %d MB budget",
+                kind, size / MB, estimate / MB, budgetKb / 1024), false);
+        }
+        long start = System.nanoTime();
+        acquire(permits, kind, estimate);
+        waitNanos.addAndGet(System.nanoTime() - start);
+        reservation.reservedKb = permits;
+        reservation.bind();
+        return reservation;
+    }
+
+    /**
+     * Raises the current request's reservation to cover an output workbook of {@code rows}
+     * rows, waiting for the budget like {@link #reserve}. Without a reservation this does nothing.
+     */
+    public static void recordRows(int rows) {
+        Reservation reservation = CURRENT.get();
+        if (reservation != null) {
+            reservation.owner().grow(reservation, rows);
+        }
+    }
+
+    /** Samples the heap for the current request's measured usage. */
+    public static void sample() {
+        Reservation reservation = CURRENT.get();
+        if (reservation != null) {
+            reservation.sample();
+        }
+    }
+
+    private void grow(Reservation reservation, int rows) {
+        long needed = reservation.estimate + rows * bytesPerRow;
+        reservation.sample();
+        if (!enabled) {
+            reservation.estimate = needed;
+            return;
+        }
+        int extra = toKb(needed) - reservation.reservedKb;
+        if (reservation.reservedKb + extra > budgetKb) {
+            rejectedTooLarge.incrementAndGet();
+            throw new HeapBudgetExceededException(String.format(Locale.ROOT,
+                "%d rows need an estimated %d MB of heap, more than the %d MB budget",
+                rows, needed / MB, budgetKb / 1024), false);
+        }
+        acquire(extra, reservation.kind, needed);
+        reservation.reservedKb += extra;
+        reservation.estimate = needed;
+    }
+
+    private void acquire(int permits, Kind kind, long estimate) {
+        boolean acquired;
+        try (Span span = Tracing.start("heap.reserve")) {
+            span.setAttribute("heap.estimate_mb", estimate / MB);
+            acquired = RequestDeadline.interruptibly("memory",
+                () -> budget.tryAcquire(permits, waitMillis(), TimeUnit.MILLISECONDS));
+            span.setAttribute("heap.admitted", acquired);
+        } catch (RequestCancelledException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HeapBudgetExceededException("Interrupted while waiting for heap", true);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        if (!acquired) {
+            rejectedTimeout.incrementAndGet();
+            throw new HeapBudgetExceededException(String.format(Locale.ROOT,
+                "No heap for a %s upload needing %d MB: %d of %d MB reserved", kind, estimate / MB,
+                (budgetKb - budget.availablePermits()) / 1024, budgetKb / 1024), true);
+        }
+    }
+
+    // No longer than the request has left
+    private long waitMillis() {
+        return Math.max(0, Math.min(maxWaitMs, TimeUnit.NANOSECONDS.toMillis(RequestDeadline.remainingNanos())));
+    }
+
+    private static int toKb(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + 1023) / 1024);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("budgetMb", budgetKb / 1024);
+        metrics.put("reservedMb", (budgetKb - budget.availablePermits()) / 1024);
+        metrics.put("waiting", budget.getQueueLength());
+        metrics.put("heapUsedMb", memoryBean.getHeapMemoryUsage().getUsed() / MB);
+        metrics.put("heapMaxMb", Runtime.getRuntime().maxMemory() / MB);
+        metrics.put("rejectedTooLarge", rejectedTooLarge.get());
+        metrics.put("rejectedTimeout", rejectedTimeout.get());
+        metrics.put("totalWaitMs", waitNanos.get() / 1_000_000);
+        for (Kind kind : Kind.values()) {
+            KindStats kindStats = stats[kind.ordinal()];
+            long count = kindStats.count.get();
+            Map<String, Object> kindMetrics = new LinkedHashMap<>();
+            kindMetrics.put("requests", count);
+            if (count > 0) {
+                kindMetrics.put("avgUploadMb", round(kindStats.uploadBytes.get() / (double) count / MB));
+                kindMetrics.put("avgEstimatedMb", round(kindStats.estimatedBytes.get() / (double) count / MB));
+                kindMetrics.put("avgAllocatedMb", round(kindStats.allocatedBytes.get() / (double) count / MB));
+                kindMetrics.put("avgHeapRiseMb", round(kindStats.heapRiseBytes.get() / (double) count / MB));
+                kindMetrics.put("maxHeapRiseToEstimate", kindStats.maxRiseRatio.get() / 1000.0);
+            }
+            metrics.put(kind.name().toLowerCase(Locale.ROOT), kindMetrics);
+        }
+        return metrics;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /** Heap held for one upload; closing it returns the heap to the budget and records usage. */
+    public class Reservation implements AutoCloseable {
+        private final Kind kind;
+        private final long uploadBytes;
+        private final long heapAtStart;
+        private final long allocatedAtStart;
+        private final long threadId;
+        private long estimate;
+        private int reservedKb;
+        private long peakHeapRise;
+        private boolean bound;
+
+        Reservation(Kind kind, long uploadBytes, long estimate) {
+            this.kind = kind;
+            this.uploadBytes = uploadBytes;
+            this.estimate = estimate;
+            this.heapAtStart = memoryBean.getHeapMemoryUsage().getUsed();
+            this.threadId = Thread.currentThread().getId();
+            this.allocatedAtStart = allocatedBytes();
+        }
+
+        private HeapBudget owner() {
+            return HeapBudget.this;
+        }
+
+        private void bind() {
+            if (CURRENT.get() == null) {
+                CURRENT.set(this);
+                bound = true;
+            }
+        }
+
+        void sample() {
+            peakHeapRise = Math.max(peakHeapRise, memoryBean.getHeapMemoryUsage().getUsed() - heapAtStart);
+        }
+
+        private long allocatedBytes() {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(threadId);
+            }
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            sample();
+            if (bound) {
+                CURRENT.remove();
+            }
+            if (reservedKb > 0) {
+                budget.release(reservedKb);
+                reservedKb = 0;
+            }
+            KindStats kindStats = stats[kind.ordinal()];
+            kindStats.count.incrementAndGet();
+            kindStats.uploadBytes.addAndGet(uploadBytes);
+            kindStats.estimatedBytes.addAndGet(estimate);
+            kindStats.allocatedBytes.addAndGet(Math.max(0, allocatedBytes() - allocatedAtStart));
+            kindStats.heapRiseBytes.addAndGet(Math.max(0, peakHeapRise));
+            kindStats.maxRiseRatio.accumulateAndGet(Math.max(0, peakHeapRise) * 1000 / Math.max(1, estimate), Math::max);
+        }
+    }
+
+    private static class KindStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong uploadBytes = new AtomicLong();
+        private final AtomicLong estimatedBytes = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong heapRiseBytes = new AtomicLong();
+        private final AtomicLong maxRiseRatio = new AtomicLong();
+    }
+}
@@ -0,0 +1,18 @@
+package com.ezetap.server.web.portal.service;
+
+/**
+ * Thrown by {@link HeapBudget} when an upload cannot be given the heap it is estimated to
+ * need: for now ({@link #isRetryable()}), or at all.
+ */
+public class HeapBudgetExceededException extends RuntimeException {
+    private final boolean retryable;
+
+    public HeapBudgetExceededException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
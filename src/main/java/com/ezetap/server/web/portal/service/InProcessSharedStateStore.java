@@ -0,0 +1,118 @@
+package com.ezetap.server.web.portal.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SharedStateStore} for a single node: an LRU map bounded by {@code max-entries}.
+ * Expired entries are dropped when they are next looked up.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.shared-state.store", havingValue = "in-process", matchIfMissing = true)
+public class InProcessSharedStateStore implements SharedStateStore {
+
+    @Value("${offer.shared-state.max-entries:10000}")
+    private int maxEntries;
+
+    // Guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Override
+    public String get(String namespace, String key) {
+        String id = id(namespace, key);
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(id);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    @Override
+    public void put(String namespace, String key, String value, long ttlMillis) {
+        synchronized (entries) {
+            entries.put(id(namespace, key), new Entry(value, ttlMillis));
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String namespace, String key, String value, long ttlMillis) {
+        String id = id(namespace, key);
+        synchronized (entries) {
+            Entry existing = entries.get(id);
+            if (existing != null && !existing.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            entries.put(id, new Entry(value, ttlMillis));
+            return true;
+        }
+    }
+
+    @Override
+    public void remove(String namespace, String key) {
+        synchronized (entries) {
+            entries.remove(id(namespace, key));
+        }
+    }
+
+    @Override
+    public void remove(String namespace, String key, String value) {
+        String id = id(namespace, key);
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.value.equals(value)) {
+                entries.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("store", "in-process");
+        synchronized (entries) {
+            metrics.put("entries", entries.size());
+        }
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("evictions", evictions.get());
+        return metrics;
+    }
+
+    private static String id(String namespace, String key) {
+        return namespace + '\u0000' + key;
+    }
+
+    private static class Entry {
+        private final String value;
+        private final long expiresAt;
+
+        Entry(String value, long ttlMillis) {
+            this.value = value;
+            this.expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
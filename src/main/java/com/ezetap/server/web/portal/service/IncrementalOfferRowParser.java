@@ -0,0 +1,74 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams offer objects out of a possibly truncated JSON reply, either {@code {"offers":[...]}}
+ * or a bare array. Every object that was fully written is kept; parsing stops at the first
+ * incomplete one instead of failing the whole reply.
+ */
+final class IncrementalOfferRowParser {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalOfferRowParser.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private IncrementalOfferRowParser() {
+    }
+
+    static List<OfferRow> parseCompleteRows(String json) {
+        List<OfferRow> rows = new ArrayList<>();
+        if (json == null) {
+            return rows;
+        }
+        try (JsonParser parser = MAPPER.getFactory().createParser(json)) {
+            // Skip to the offers array, whether wrapped in {"offers": ...} or at the top level
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                while ((token = parser.nextToken()) == JsonToken.FIELD_NAME && !"offers".equals(parser.getCurrentName())) {
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+                token = token == JsonToken.FIELD_NAME ? parser.nextToken() : null;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                return rows;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                rows.add(parser.readValueAs(OfferRow.class));
+            }
+        } catch (IOException e) {
+            // Truncated inside an object (or between tokens): everything read so far is complete
+            logger.info("Stopped at incomplete offer after {} complete rows: {}", rows.size(), e.getMessage());
+        }
+        return rows;
+    }
+
+    /**
+     * Parses a {@code sheet:row} source reference into {sheet, row}, or null if it has none.
+     */
+    static int[] parseSourceRow(String sourceRow) {
+        if (sourceRow == null) {
+            return null;
+        }
+        String[] parts = sourceRow.trim().split(":");
+        try {
+            if (parts.length == 2) {
+                return new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+            }
+            if (parts.length == 1 && !parts[0].isEmpty()) {
+                return new int[]{1, Integer.parseInt(parts[0].trim())};
+            }
+        } catch (NumberFormatException e) {
+            // Not a row reference
+        }
+        return null;
+    }
+}
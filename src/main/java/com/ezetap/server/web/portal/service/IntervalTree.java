@@ -0,0 +1,70 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Static interval tree over closed {@code [start, end]} intervals. Intervals are sorted by start
+ * and laid out as an implicit balanced tree (the middle of each range is its root), with every
+ * node holding the largest end in its subtree. An overlap query prunes any subtree whose largest
+ * end is before the query start, so it costs O(log n + k) for k reported intervals.
+ */
+final class IntervalTree {
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] ids;
+    private final long[] maxEnds;
+
+    IntervalTree(long[] starts, long[] ends, int[] ids) {
+        int size = ids.length;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+        this.starts = new long[size];
+        this.ends = new long[size];
+        this.ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.starts[i] = starts[order[i]];
+            this.ends[i] = ends[order[i]];
+            this.ids[i] = ids[order[i]];
+        }
+        this.maxEnds = new long[size];
+        buildMaxEnds(0, size - 1);
+    }
+
+    private long buildMaxEnds(int low, int high) {
+        if (low > high) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (low + high) >>> 1;
+        maxEnds[mid] = Math.max(ends[mid], Math.max(buildMaxEnds(low, mid - 1), buildMaxEnds(mid + 1, high)));
+        return maxEnds[mid];
+    }
+
+    /**
+     * Reports the id of every interval that shares at least one point with {@code [from, to]}.
+     */
+    void query(long from, long to, IntConsumer consumer) {
+        query(0, starts.length - 1, from, to, consumer);
+    }
+
+    private void query(int low, int high, long from, long to, IntConsumer consumer) {
+        if (low > high) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        if (maxEnds[mid] < from) {
+            return;
+        }
+        query(low, mid - 1, from, to, consumer);
+        // Everything right of mid starts at or after starts[mid]
+        if (starts[mid] <= to) {
+            if (ends[mid] >= from) {
+                consumer.accept(ids[mid]);
+            }
+            query(mid + 1, high, from, to, consumer);
+        }
+    }
+}
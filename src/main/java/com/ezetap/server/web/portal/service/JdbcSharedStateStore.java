@@ -0,0 +1,200 @@
+package com.ezetap.server.web.portal.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SharedStateStore} in the {@code shared_state} table. With {@code jdbc-url} set the
+ * table lives in that database, which every node must reach (locally, an H2 file opened with
+ * {@code AUTO_SERVER=TRUE} lets several processes share it); otherwise it is kept in the
+ * application datasource. {@link #putIfAbsent} relies on the primary key: an insert that
+ * collides with an expired entry removes it and tries once more.
+ */
+@Component
+@ConditionalOnProperty(name = "offer.shared-state.store", havingValue = "jdbc")
+public class JdbcSharedStateStore implements SharedStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(JdbcSharedStateStore.class);
+
+    @Value("${offer.shared-state.jdbc-url:}")
+    private String jdbcUrl;
+
+    @Value("${offer.shared-state.jdbc-username:sa}")
+    private String jdbcUsername;
+
+    @Value("${offer.shared-state.jdbc-password:}")
+    private String jdbcPassword;
+
+    @Value("${offer.shared-state.sweep-interval-ms:60000}")
+    private long sweepIntervalMs;
+
+    @Value("${offer.shared-state.jdbc-pool-size:4}")
+    private int jdbcPoolSize;
+
+    @Autowired
+    private JdbcTemplate applicationJdbcTemplate;
+
+    private HikariDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shared-state-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong swept = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (jdbcUrl.isEmpty()) {
+            jdbcTemplate = applicationJdbcTemplate;
+        } else {
+            dataSource = new HikariDataSource();
+            dataSource.setPoolName("shared-state");
+            dataSource.setJdbcUrl(jdbcUrl);
+            dataSource.setUsername(jdbcUsername);
+            dataSource.setPassword(jdbcPassword);
+            dataSource.setMaximumPoolSize(jdbcPoolSize);
+            jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+        // Created here rather than in schema.sql, which only runs against the application datasource
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS shared_state (" +
+            "namespace VARCHAR(64) NOT NULL, " +
+            "state_key VARCHAR(255) NOT NULL, " +
+            "state_value CLOB, " +
+            "expires_at BIGINT NOT NULL, " +
+            "PRIMARY KEY (namespace, state_key))");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_shared_state_expiry ON shared_state (expires_at)");
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Shared state in {}", jdbcUrl.isEmpty() ? "the application database" : jdbcUrl);
+    }
+
+    @PreDestroy
+    public void close() {
+        sweeper.shutdownNow();
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Override
+    public String get(String namespace, String key) {
+        try {
+            List<String> values = jdbcTemplate.queryForList(
+                "SELECT state_value FROM shared_state WHERE namespace = ? AND state_key = ? AND expires_at > ?",
+                String.class, namespace, key, System.currentTimeMillis());
+            return values.isEmpty() ? null : values.get(0);
+        } catch (DataAccessException e) {
+            failed("read", namespace, key, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String namespace, String key, String value, long ttlMillis) {
+        try {
+            jdbcTemplate.update("MERGE INTO shared_state (namespace, state_key, state_value, expires_at) " +
+                "KEY (namespace, state_key) VALUES (?, ?, ?, ?)", namespace, key, value, expiresAt(ttlMillis));
+        } catch (DataAccessException e) {
+            failed("write", namespace, key, e);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String namespace, String key, String value, long ttlMillis) {
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    jdbcTemplate.update("INSERT INTO shared_state (namespace, state_key, state_value, expires_at) " +
+                        "VALUES (?, ?, ?, ?)", namespace, key, value, expiresAt(ttlMillis));
+                    return true;
+                } catch (DuplicateKeyException e) {
+                    int removed = jdbcTemplate.update(
+                        "DELETE FROM shared_state WHERE namespace = ? AND state_key = ? AND expires_at <= ?",
+                        namespace, key, System.currentTimeMillis());
+                    if (removed == 0) {
+                        return false;
+                    }
+                }
+            }
+            return false;
+        } catch (DataAccessException e) {
+            failed("claim", namespace, key, e);
+            // Without the store every node works on its own, as before
+            return true;
+        }
+    }
+
+    @Override
+    public void remove(String namespace, String key) {
+        try {
+            jdbcTemplate.update("DELETE FROM shared_state WHERE namespace = ? AND state_key = ?", namespace, key);
+        } catch (DataAccessException e) {
+            failed("delete", namespace, key, e);
+        }
+    }
+
+    @Override
+    public void remove(String namespace, String key, String value) {
+        try {
+            jdbcTemplate.update("DELETE FROM shared_state WHERE namespace = ? AND state_key = ? AND state_value = ?",
+                namespace, key, value);
+        } catch (DataAccessException e) {
+            failed("delete", namespace, key, e);
+        }
+    }
+
+    private void sweep() {
+        try {
+            swept.addAndGet(jdbcTemplate.update("DELETE FROM shared_state WHERE expires_at <= ?", System.currentTimeMillis()));
+        } catch (DataAccessException e) {
+            logger.warn("Failed to sweep expired shared state: {}", e.getMessage());
+        }
+    }
+
+    private void failed(String operation, String namespace, String key, DataAccessException e) {
+        failures.incrementAndGet();
+        logger.warn("Shared state {} of {}/{} failed: {}", operation, namespace, key, e.getMessage());
+    }
+
+    private static long expiresAt(long ttlMillis) {
+        return ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : Long.MAX_VALUE;
+    }
+
+    @Override
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("store", "jdbc");
+        metrics.put("database", jdbcUrl.isEmpty() ? "application" : jdbcUrl);
+        try {
+            Map<String, Object> namespaces = new LinkedHashMap<>();
+            jdbcTemplate.query("SELECT namespace, COUNT(*) AS entries FROM shared_state WHERE expires_at > ? GROUP BY namespace",
+                rs -> {
+                    namespaces.put(rs.getString("namespace"), rs.getLong("entries"));
+                }, System.currentTimeMillis());
+            metrics.put("entries", namespaces);
+        } catch (DataAccessException e) {
+            metrics.put("entries", null);
+        }
+        metrics.put("expiredSwept", swept.get());
+        metrics.put("failures", failures.get());
+        return metrics;
+    }
+}
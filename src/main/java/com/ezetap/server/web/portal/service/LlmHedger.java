@@ -0,0 +1,249 @@
+package com.ezetap.server.web.portal.service;
+
+import com.azure.ai.openai.models.ChatCompletions;
+import com.azure.ai.openai.models.ChatCompletionsOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedged chat completions: when a call has not returned after the {@code percentile} latency
+ * of recent calls on its route, an identical call is sent, to a different pool target when
+ * there is one, and whichever succeeds first is returned. The other is cancelled by
+ * interrupting its thread, which disposes the SDK's HTTP request. Each call earns
+ * {@code budget-ratio} of a hedge credit and each hedge spends one, so hedges stay within
+ * that fraction of calls.
+ *
+ * To report what hedging saves without keeping losing primaries alive, the primary-only
+ * percentiles count a hedge win as a draw from the primaries that ran past the hedge delay and
+ * finished on their own (hedge denied by the budget, or hedge lost), taken among those at least
+ * as slow as the win. With no such primary yet the win's own latency is used, a lower bound.
+ */
+@Component
+public class LlmHedger {
+    private static final Logger logger = LoggerFactory.getLogger(LlmHedger.class);
+    private static final int LATENCY_SAMPLES = 512;
+    private static final long CREDIT_UNIT = 1_000_000;
+    private static final long MAX_CREDITS = 10 * CREDIT_UNIT;
+
+    @Autowired
+    private AzureOpenAIEndpointPool endpointPool;
+
+    @Value("${offer.llm.hedge.enabled:false}")
+    private boolean enabled;
+
+    @Value("${offer.llm.hedge.percentile:95}")
+    private double percentile;
+
+    @Value("${offer.llm.hedge.min-delay-ms:2000}")
+    private long minDelayMs;
+
+    @Value("${offer.llm.hedge.min-samples:20}")
+    private int minSamples;
+
+    @Value("${offer.llm.hedge.budget-ratio:0.05}")
+    private double budgetRatio;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "llm-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<ModelRouter.Route, LatencyWindow> windows = new EnumMap<>(ModelRouter.Route.class);
+    // Whole calls as seen by the caller, and the primary attempts alone
+    private final LatencyWindow observed = new LatencyWindow();
+    private final LatencyWindow primaryOnly = new LatencyWindow();
+    // Primaries that outlived the hedge delay and completed themselves
+    private final LatencyWindow slowPrimaries = new LatencyWindow();
+    private final AtomicLong credits = new AtomicLong(CREDIT_UNIT);
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+
+    public LlmHedger() {
+        for (ModelRouter.Route route : ModelRouter.Route.values()) {
+            windows.put(route, new LatencyWindow());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public ChatCompletions getChatCompletions(ModelRouter.Route route, ChatCompletionsOptions options) throws Exception {
+        if (!enabled) {
+            return endpointPool.getChatCompletions(route, options);
+        }
+        calls.incrementAndGet();
+        earnCredit();
+        long start = System.nanoTime();
+        long delayNanos = hedgeDelayNanos(route);
+
+        CompletionService<ChatCompletions> completion = new ExecutorCompletionService<>(executor);
+        AtomicReference<String> primaryTarget = new AtomicReference<>();
+        Future<ChatCompletions> primary = completion.submit(Tracing.wrap(
+            () -> endpointPool.getChatCompletions(route, options, null, primaryTarget)));
+        Future<ChatCompletions> hedge = null;
+        try {
+            Future<ChatCompletions> done = delayNanos < 0 ? completion.take() : completion.poll(delayNanos, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                if (spendCredit()) {
+                    hedges.incrementAndGet();
+                    String avoid = primaryTarget.get();
+                    logger.info("No {} completion after {} ms, sending hedge (avoiding {})", route,
+                        TimeUnit.NANOSECONDS.toMillis(delayNanos), avoid);
+                    Tracing.attribute("llm.hedged", true);
+                    hedge = completion.submit(Tracing.wrap(() -> endpointPool.getChatCompletions(route, options,
+                        avoid != null ? Collections.singleton(avoid) : null, null)));
+                } else {
+                    budgetDenied.incrementAndGet();
+                }
+                done = completion.take();
+            }
+
+            ChatCompletions result;
+            try {
+                result = done.get();
+            } catch (ExecutionException e) {
+                if (hedge == null) {
+                    throw unwrap(e);
+                }
+                // One attempt failed; the other may still succeed
+                done = completion.take();
+                result = getOrUnwrap(done);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (done == hedge) {
+                Tracing.attribute("llm.hedge_won", true);
+                hedgeWins.incrementAndGet();
+                primaryOnly.record(slowPrimaries.sampleAtLeast(elapsed), 1);
+            } else {
+                primaryOnly.record(elapsed, 1);
+                if (delayNanos >= 0 && elapsed >= delayNanos) {
+                    slowPrimaries.record(elapsed, 1);
+                }
+            }
+            observed.record(elapsed, 1);
+            windows.get(route).record(elapsed, 1);
+            return result;
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    // -1 when there are too few samples to tell what a slow call is
+    private long hedgeDelayNanos(ModelRouter.Route route) {
+        long quantile = windows.get(route).quantile(percentile / 100.0, minSamples);
+        if (quantile < 0) {
+            return -1;
+        }
+        return Math.max(quantile, TimeUnit.MILLISECONDS.toNanos(minDelayMs));
+    }
+
+    private void earnCredit() {
+        long earned = (long) (budgetRatio * CREDIT_UNIT);
+        credits.getAndUpdate(current -> Math.min(MAX_CREDITS, current + earned));
+    }
+
+    private boolean spendCredit() {
+        while (true) {
+            long current = credits.get();
+            if (current < CREDIT_UNIT) {
+                return false;
+            }
+            if (credits.compareAndSet(current, current - CREDIT_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    private static ChatCompletions getOrUnwrap(Future<ChatCompletions> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    public Map<String, Object> getMetrics() {
+        long callCount = calls.get();
+        long hedgeCount = hedges.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("calls", callCount);
+        metrics.put("hedges", hedgeCount);
+        metrics.put("hedgeRate", callCount == 0 ? 0.0 : (double) hedgeCount / callCount);
+        metrics.put("hedgeWins", hedgeWins.get());
+        metrics.put("winRate", hedgeCount == 0 ? 0.0 : (double) hedgeWins.get() / hedgeCount);
+        metrics.put("budgetDenied", budgetDenied.get());
+        Map<String, Object> delays = new LinkedHashMap<>();
+        for (ModelRouter.Route route : ModelRouter.Route.values()) {
+            long delay = hedgeDelayNanos(route);
+            delays.put(route.name().toLowerCase(Locale.ROOT), delay < 0 ? null : delay / 1_000_000);
+        }
+        metrics.put("hedgeDelayMs", delays);
+        long p99 = observed.quantile(0.99, 1);
+        long p99Primary = primaryOnly.quantile(0.99, 1);
+        metrics.put("p50Ms", Math.max(0, observed.quantile(0.5, 1)) / 1_000_000);
+        metrics.put("p99Ms", Math.max(0, p99) / 1_000_000);
+        metrics.put("p99PrimaryOnlyMs", Math.max(0, p99Primary) / 1_000_000);
+        return metrics;
+    }
+
+    // Ring buffer of recent latencies
+    private static class LatencyWindow {
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private long count;
+
+        synchronized void record(long nanos, int weight) {
+            for (int i = 0; i < weight; i++) {
+                samples[(int) (count % LATENCY_SAMPLES)] = nanos;
+                count++;
+            }
+        }
+
+        synchronized long quantile(double q, int minCount) {
+            int size = (int) Math.min(count, LATENCY_SAMPLES);
+            if (size == 0 || size < minCount) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(size * q) - 1)];
+        }
+
+        // A random recent latency of at least minNanos, or minNanos itself if there is none
+        synchronized long sampleAtLeast(long minNanos) {
+            int size = (int) Math.min(count, LATENCY_SAMPLES);
+            long[] candidates = new long[size];
+            int found = 0;
+            for (int i = 0; i < size; i++) {
+                if (samples[i] >= minNanos) {
+                    candidates[found++] = samples[i];
+                }
+            }
+            return found == 0 ? minNanos : candidates[ThreadLocalRandom.current().nextInt(found)];
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of model extractions in the {@link SharedStateStore}, keyed by a hash of the
+ * route, the pool deployments that can serve it and the prompt, so an input already
+ * extracted by any node is not sent to the model again.
+ * Incomplete results, such as output still truncated after the last continuation, are
+ * returned but not cached. Identical extractions running at the same time are done once: on this node
+ * later callers wait for the first, and across nodes the first to claim the key in the store
+ * does the work while the others poll for its result. A claim lapses after
+ * {@code claim-ttl-ms}, so a node that dies mid-call only delays the others.
+ */
+@Component
+public class LlmResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(LlmResultCache.class);
+    private static final String RESULTS = "llm-result";
+    private static final String CLAIMS = "llm-claim";
+
+    @Value("${offer.llm.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.llm.cache.ttl-ms:86400000}")
+    private long ttlMs;
+
+    @Value("${offer.llm.cache.claim-ttl-ms:180000}")
+    private long claimTtlMs;
+
+    @Value("${offer.llm.cache.poll-ms:500}")
+    private long pollMs;
+
+    @Autowired
+    private AzureOpenAIEndpointPool endpointPool;
+
+    @Autowired
+    private SharedStateStore store;
+
+    @Autowired
+    private ConsistentHashRing ring;
+
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong joinedLocal = new AtomicLong();
+    private final AtomicLong joinedRemote = new AtomicLong();
+    private final AtomicLong claimsLapsed = new AtomicLong();
+
+    /**
+     * Cache key of a model extraction from {@code prompt} sent to {@code route}. Every pool
+     * deployment is part of it, since escalations and continuations may use either tier;
+     * changing a target's deployment starts a new set of results.
+     */
+    public String key(String prompt, ModelRouter.Route route) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(route.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            for (ModelRouter.Route tier : ModelRouter.Route.values()) {
+                for (String deployment : endpointPool.getDeployments(tier)) {
+                    digest.update(deployment.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+            }
+            byte[] hash = digest.digest(prompt.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The cached result for {@code key}, or the result of {@code compute}, which is then
+     * cached unless it says otherwise. A failed computation is not cached; callers waiting on
+     * it try for themselves.
+     */
+    public String get(String key, Callable<Result> compute) throws Exception {
+        if (!enabled) {
+            return compute.call().value;
+        }
+        String cached = store.get(RESULTS, key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            Tracing.attribute("llm.cache", "hit");
+            return cached;
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            joinedLocal.incrementAndGet();
+            Tracing.attribute("llm.cache", "joined");
+            try {
+                return RequestDeadline.interruptibly("llm", running::get);
+            } catch (ExecutionException e) {
+                return compute.call().value;
+            }
+        }
+        try {
+            String result = awaitOrCompute(key, compute);
+            mine.complete(result);
+            return result;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private String awaitOrCompute(String key, Callable<Result> compute) throws Exception {
+        boolean waited = false;
+        while (!store.putIfAbsent(CLAIMS, key, ring.getSelf(), claimTtlMs)) {
+            // Another node is on it; its result shows up under the key or its claim goes away
+            if (!waited) {
+                waited = true;
+                logger.info("Extraction {} is running on another node, waiting for its result", key);
+            }
+            RequestDeadline.interruptibly("llm", () -> {
+                TimeUnit.MILLISECONDS.sleep(pollMs);
+                return null;
+            });
+            String result = store.get(RESULTS, key);
+            if (result != null) {
+                joinedRemote.incrementAndGet();
+                Tracing.attribute("llm.cache", "joined-remote");
+                return result;
+            }
+        }
+        try {
+            if (waited) {
+                // The claim was released or lapsed without a result
+                claimsLapsed.incrementAndGet();
+                String result = store.get(RESULTS, key);
+                if (result != null) {
+                    joinedRemote.incrementAndGet();
+                    Tracing.attribute("llm.cache", "joined-remote");
+                    return result;
+                }
+            }
+            misses.incrementAndGet();
+            Tracing.attribute("llm.cache", "miss");
+            Result result = compute.call();
+            if (result.cacheable) {
+                store.put(RESULTS, key, result.value, ttlMs);
+            }
+            return result.value;
+        } finally {
+            // The claim may have lapsed during a long call and been taken by another node
+            store.remove(CLAIMS, key, ring.getSelf());
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        long hitCount = hits.get();
+        long joined = joinedLocal.get() + joinedRemote.get();
+        long missCount = misses.get();
+        long lookups = hitCount + joined + missCount;
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("joinedOnThisNode", joinedLocal.get());
+        metrics.put("joinedFromOtherNode", joinedRemote.get());
+        metrics.put("claimsLapsed", claimsLapsed.get());
+        metrics.put("hitRate", lookups == 0 ? 0.0 : Math.round((hitCount + joined) * 1000.0 / lookups) / 1000.0);
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("store", store.getMetrics());
+        return metrics;
+    }
+
+    /** A computed value and whether it may be cached. */
+    public static final class Result {
+        private final String value;
+        private final boolean cacheable;
+
+        private Result(String value, boolean cacheable) {
+            this.value = value;
+            this.cacheable = cacheable;
+        }
+
+        public static Result of(String value, boolean cacheable) {
+            return new Result(value, cacheable);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Owns a fixed number of LLM call slots and shares them between priority classes with
+ * start-time fair queueing: each call is tagged with its class's virtual start time plus its
+ * estimated prompt tokens divided by the class weight, and a free slot goes to the queued call
+ * with the smallest tag. A call that has waited longer than {@code max-wait-ms} is served
+ * first regardless of tags (aging), so batch work is never starved. Some slots are reserved
+ * for interactive calls, so a short text request never waits behind a full set of bulk calls.
+ *
+ * The class of a call is taken from the calling thread (see {@link #setPriority}).
+ */
+@Component
+public class LlmScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(LlmScheduler.class);
+    private static final int WAIT_SAMPLES = 1024;
+    private static final ThreadLocal<Priority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+    public enum Priority {
+        INTERACTIVE, FILE, BATCH
+    }
+
+    @Value("${offer.llm.scheduler.slots:4}")
+    private int slots;
+
+    @Value("${offer.llm.scheduler.reserved-interactive-slots:1}")
+    private int reservedInteractiveSlots;
+
+    @Value("${offer.llm.scheduler.weight.interactive:8}")
+    private double interactiveWeight;
+
+    @Value("${offer.llm.scheduler.weight.file:3}")
+    private double fileWeight;
+
+    @Value("${offer.llm.scheduler.weight.batch:1}")
+    private double batchWeight;
+
+    @Value("${offer.llm.scheduler.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    @Value("${offer.llm.scheduler.batch-rows:500}")
+    private int batchRows;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ClassQueue[] queues = new ClassQueue[Priority.values().length];
+    private int inFlight;
+    private double virtualTime;
+    private long maxWaitNanos;
+
+    @PostConstruct
+    public void init() {
+        slots = Math.max(1, slots);
+        reservedInteractiveSlots = Math.max(0, Math.min(reservedInteractiveSlots, slots - 1));
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        queues[Priority.INTERACTIVE.ordinal()] = new ClassQueue(interactiveWeight);
+        queues[Priority.FILE.ordinal()] = new ClassQueue(fileWeight);
+        queues[Priority.BATCH.ordinal()] = new ClassQueue(batchWeight);
+        logger.info("LLM scheduler: {} slots ({} reserved for interactive), weights {}/{}/{}", slots,
+            reservedInteractiveSlots, interactiveWeight, fileWeight, batchWeight);
+    }
+
+    /** Class of the LLM calls made by the current thread until {@link #clearPriority()}. */
+    public static void setPriority(Priority priority) {
+        CURRENT_PRIORITY.set(priority);
+    }
+
+    public static void clearPriority() {
+        CURRENT_PRIORITY.remove();
+    }
+
+    public static Priority currentPriority() {
+        Priority priority = CURRENT_PRIORITY.get();
+        return priority != null ? priority : Priority.FILE;
+    }
+
+    /** Uploads with more data rows than this are scheduled as batch work. */
+    public int getBatchRows() {
+        return batchRows;
+    }
+
+    /**
+     * Runs {@code call} in an LLM slot, queueing under the current thread's priority until one
+     * is granted. {@code estimatedTokens} is the call's cost in the fair-queueing tags.
+     */
+    public <T> T call(int estimatedTokens, Callable<T> call) throws Exception {
+        Waiter waiter;
+        try (Span span = Tracing.start("llm.queue")) {
+            span.setAttribute("llm.priority", currentPriority().name().toLowerCase());
+            waiter = acquire(currentPriority(), Math.max(1, estimatedTokens));
+        }
+        try {
+            return call.call();
+        } finally {
+            release(waiter);
+        }
+    }
+
+    private Waiter acquire(Priority priority, int cost) throws InterruptedException {
+        lock.lock();
+        try {
+            ClassQueue queue = queues[priority.ordinal()];
+            Waiter waiter = new Waiter(priority, lock.newCondition());
+            waiter.startTag = Math.max(virtualTime, queue.lastFinishTag);
+            queue.lastFinishTag = waiter.startTag + cost / queue.weight;
+            queue.waiting.add(waiter);
+            dispatch();
+            while (!waiter.granted) {
+                try {
+                    waiter.condition.await();
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        releaseLocked(waiter);
+                    } else {
+                        queue.waiting.remove(waiter);
+                    }
+                    throw e;
+                }
+            }
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Waiter waiter) {
+        lock.lock();
+        try {
+            releaseLocked(waiter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(Waiter waiter) {
+        inFlight--;
+        queues[waiter.priority.ordinal()].inFlight--;
+        dispatch();
+    }
+
+    // Hands free slots to queued calls; called with the lock held
+    private void dispatch() {
+        while (inFlight < slots) {
+            long now = System.nanoTime();
+            Waiter next = null;
+            boolean aged = false;
+            boolean bulkAllowed = inFlight < slots - reservedInteractiveSlots;
+            for (ClassQueue queue : queues) {
+                Waiter head = queue.waiting.peekFirst();
+                if (head == null || (head.priority != Priority.INTERACTIVE && !bulkAllowed)) {
+                    continue;
+                }
+                boolean headAged = now - head.enqueuedAt > maxWaitNanos;
+                if (next == null || (headAged && !aged)
+                        || (headAged == aged && (aged ? head.enqueuedAt < next.enqueuedAt : head.startTag < next.startTag))) {
+                    next = head;
+                    aged = headAged;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            ClassQueue queue = queues[next.priority.ordinal()];
+            queue.waiting.pollFirst();
+            queue.inFlight++;
+            queue.recordGrant(now - next.enqueuedAt, aged);
+            inFlight++;
+            virtualTime = Math.max(virtualTime, next.startTag);
+            next.granted = true;
+            next.condition.signal();
+        }
+    }
+
+    /** How long the oldest queued call of {@code priority} has been waiting for a slot; 0 if none. */
+    public long queueDelayNanos(Priority priority) {
+        lock.lock();
+        try {
+            Waiter head = queues[priority.ordinal()].waiting.peekFirst();
+            return head == null ? 0 : System.nanoTime() - head.enqueuedAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        lock.lock();
+        try {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("slots", slots);
+            metrics.put("reservedInteractiveSlots", reservedInteractiveSlots);
+            metrics.put("inFlight", inFlight);
+            for (Priority priority : Priority.values()) {
+                metrics.put(priority.name().toLowerCase(Locale.ROOT), queues[priority.ordinal()].metrics());
+            }
+            return metrics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Waiter {
+        private final Priority priority;
+        private final Condition condition;
+        private final long enqueuedAt = System.nanoTime();
+        private double startTag;
+        private boolean granted;
+
+        Waiter(Priority priority, Condition condition) {
+            this.priority = priority;
+            this.condition = condition;
+        }
+    }
+
+    // Per-class queue and wait statistics, guarded by the scheduler lock
+    private static class ClassQueue {
+        private final double weight;
+        private final ArrayDeque<Waiter> waiting = new ArrayDeque<>();
+        private final long[] recentWaits = new long[WAIT_SAMPLES];
+        private double lastFinishTag;
+        private int inFlight;
+        private long granted;
+        private long agedGrants;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        ClassQueue(double weight) {
+            this.weight = Math.max(0.01, weight);
+        }
+
+        void recordGrant(long waitNanos, boolean aged) {
+            recentWaits[(int) (granted % WAIT_SAMPLES)] = waitNanos;
+            granted++;
+            if (aged) {
+                agedGrants++;
+            }
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        }
+
+        Map<String, Object> metrics() {
+            int samples = (int) Math.min(granted, WAIT_SAMPLES);
+            long[] waits = Arrays.copyOf(recentWaits, samples);
+            Arrays.sort(waits);
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("weight", weight);
+            metrics.put("queued", waiting.size());
+            metrics.put("inFlight", inFlight);
+            metrics.put("granted", granted);
+            metrics.put("agedGrants", agedGrants);
+            metrics.put("avgWaitMs", granted == 0 ? 0 : totalWaitNanos / granted / 1_000_000);
+            metrics.put("p95WaitMs", samples == 0 ? 0 : waits[(int) Math.ceil(samples * 0.95) - 1] / 1_000_000);
+            metrics.put("maxWaitMs", maxWaitNanos / 1_000_000);
+            return metrics;
+        }
+    }
+}
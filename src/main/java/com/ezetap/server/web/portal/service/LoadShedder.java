@@ -0,0 +1,128 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for requests that will make LLM calls, applied before the request body is
+ * read. It follows the CoDel rule on the {@link LlmScheduler} queue of the request's priority
+ * class: a queue whose oldest call has waited longer than {@code target-ms} for a whole
+ * {@code interval-ms} is overloaded, and new requests for that class are rejected until the
+ * delay drops below target again. Requests already admitted keep their place, so the service
+ * keeps working at capacity instead of every request timing out. A cap on concurrently
+ * admitted requests bounds the uploads held in memory.
+ */
+@Component
+public class LoadShedder {
+    private static final Logger logger = LoggerFactory.getLogger(LoadShedder.class);
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Value("${offer.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.admission.target-ms:5000}")
+    private long targetMs;
+
+    @Value("${offer.admission.interval-ms:10000}")
+    private long intervalMs;
+
+    @Value("${offer.admission.max-concurrent-requests:32}")
+    private int maxConcurrentRequests;
+
+    private final AtomicInteger admittedRequests = new AtomicInteger();
+    private final AtomicLong rejectedAtCapacity = new AtomicLong();
+    private final CoDelState[] states = new CoDelState[LlmScheduler.Priority.values().length];
+    private long targetNanos;
+    private long intervalNanos;
+
+    @PostConstruct
+    public void init() {
+        targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new CoDelState();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Admits a request of {@code priority} and returns 0, or returns the suggested retry delay
+     * in nanoseconds when it is shed. Every admitted request must be paired with {@link #release()}.
+     */
+    public long tryAdmit(LlmScheduler.Priority priority) {
+        long now = System.nanoTime();
+        long delay = llmScheduler.queueDelayNanos(priority);
+        CoDelState state = states[priority.ordinal()];
+        if (state.overloaded(delay, now)) {
+            state.rejected.incrementAndGet();
+            return Math.max(delay, TimeUnit.SECONDS.toNanos(1));
+        }
+        if (admittedRequests.incrementAndGet() > maxConcurrentRequests) {
+            admittedRequests.decrementAndGet();
+            rejectedAtCapacity.incrementAndGet();
+            return Math.max(delay, TimeUnit.SECONDS.toNanos(1));
+        }
+        return 0;
+    }
+
+    public void release() {
+        admittedRequests.decrementAndGet();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("admittedRequests", admittedRequests.get());
+        metrics.put("maxConcurrentRequests", maxConcurrentRequests);
+        metrics.put("rejectedAtCapacity", rejectedAtCapacity.get());
+        metrics.put("llmCallsInFlight", llmScheduler.getInFlight());
+        for (LlmScheduler.Priority priority : LlmScheduler.Priority.values()) {
+            CoDelState state = states[priority.ordinal()];
+            Map<String, Object> classMetrics = new LinkedHashMap<>();
+            classMetrics.put("overloaded", state.dropping);
+            classMetrics.put("queueDelayMs", llmScheduler.queueDelayNanos(priority) / 1_000_000);
+            classMetrics.put("rejected", state.rejected.get());
+            metrics.put(priority.name().toLowerCase(Locale.ROOT), classMetrics);
+        }
+        return metrics;
+    }
+
+    private class CoDelState {
+        private final AtomicLong rejected = new AtomicLong();
+        // When the delay first went above target, plus one interval; 0 while below target
+        private long firstAboveTime;
+        private volatile boolean dropping;
+
+        synchronized boolean overloaded(long delay, long now) {
+            if (delay < targetNanos) {
+                firstAboveTime = 0;
+                if (dropping) {
+                    dropping = false;
+                    logger.info("LLM queue delay back under {} ms, admitting requests again", targetMs);
+                }
+            } else if (firstAboveTime == 0) {
+                firstAboveTime = now + intervalNanos;
+            } else if (!dropping && now - firstAboveTime >= 0) {
+                dropping = true;
+                logger.warn("LLM queue delay above {} ms for {} ms, shedding new requests", targetMs, intervalMs);
+            }
+            return dropping;
+        }
+    }
+}
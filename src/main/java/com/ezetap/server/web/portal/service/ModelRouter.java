@@ -0,0 +1,172 @@
+package com.ezetap.server.web.portal.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores each extraction input and decides which Azure OpenAI deployment should handle it.
+ * Short, recognizable inputs go to the small deployment; large or unusual layouts go to the
+ * large one. Routing is disabled (everything goes LARGE) until the pool has a small target.
+ */
+@Component
+public class ModelRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ModelRouter.class);
+
+    // Header keywords we see in brand offer sheets; used to judge how recognizable a layout is
+    private static final String[] KNOWN_HEADER_KEYWORDS = {
+        "product", "variant", "sku", "model", "bank", "card", "emi", "cashback", "discount",
+        "offer", "start", "end", "date", "amount", "min", "max", "tenure", "subvention", "state"
+    };
+
+    public enum Route { SMALL, LARGE }
+
+    @Autowired
+    private AzureOpenAIEndpointPool endpointPool;
+
+    @Value("${azure.openai.routing.max-simple-rows:40}")
+    private int maxSimpleRows;
+
+    @Value("${azure.openai.routing.max-simple-prompt-tokens:4000}")
+    private int maxSimplePromptTokens;
+
+    @Value("${azure.openai.routing.min-layout-score:0.5}")
+    private double minLayoutScore;
+
+    private final Map<Route, RouteMetrics> metrics = new EnumMap<>(Route.class);
+
+    public ModelRouter() {
+        for (Route route : Route.values()) {
+            metrics.put(route, new RouteMetrics());
+        }
+    }
+
+    public boolean isRoutingEnabled() {
+        return endpointPool.hasTargets(Route.SMALL);
+    }
+
+    public Route route(String prompt, String inputContent) {
+        if (!isRoutingEnabled()) {
+            return Route.LARGE;
+        }
+        Complexity complexity = score(prompt, inputContent);
+        Route route = complexity.rows <= maxSimpleRows
+                && complexity.promptTokens <= maxSimplePromptTokens
+                && complexity.layoutScore >= minLayoutScore ? Route.SMALL : Route.LARGE;
+        logger.info("Routing to {} (rows: {}, prompt tokens: {}, layout score: {})",
+                route, complexity.rows, complexity.promptTokens, String.format("%.2f", complexity.layoutScore));
+        return route;
+    }
+
+    Complexity score(String prompt, String inputContent) {
+        int rows = 0;
+        int headerKeywords = 0;
+        int headerCells = 0;
+        boolean hasHeaders = false;
+
+        String content = inputContent != null ? inputContent : "";
+        for (String line : content.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.startsWith("Headers:")) {
+                hasHeaders = true;
+                for (String header : trimmed.substring("Headers:".length()).split("\t")) {
+                    String normalized = header.trim().toLowerCase(Locale.ROOT);
+                    if (normalized.isEmpty()) {
+                        continue;
+                    }
+                    headerCells++;
+                    for (String keyword : KNOWN_HEADER_KEYWORDS) {
+                        if (normalized.contains(keyword)) {
+                            headerKeywords++;
+                            break;
+                        }
+                    }
+                }
+            } else if (!trimmed.startsWith("===")) {
+                rows++;
+            }
+        }
+
+        // Free text has no layout to recognize, so only its size counts
+        double layoutScore = hasHeaders && headerCells > 0 ? (double) headerKeywords / headerCells : 1.0;
+        int promptTokens = estimateTokens(prompt);
+        return new Complexity(rows, promptTokens, layoutScore);
+    }
+
+    static int estimateTokens(String text) {
+        // Roughly four characters per token for the GPT tokenizers on English/tabular text
+        return text == null ? 0 : (text.length() + 3) / 4;
+    }
+
+    public void recordSuccess(Route route, long latencyNanos) {
+        metrics.get(route).record(latencyNanos, false);
+    }
+
+    public void recordFailure(Route route, long latencyNanos) {
+        metrics.get(route).record(latencyNanos, true);
+    }
+
+    public void recordEscalation() {
+        metrics.get(Route.SMALL).escalations.incrementAndGet();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("routingEnabled", isRoutingEnabled());
+        for (Route route : Route.values()) {
+            result.put(route.name().toLowerCase(Locale.ROOT), metrics.get(route).snapshot());
+        }
+        return result;
+    }
+
+    static class Complexity {
+        final int rows;
+        final int promptTokens;
+        final double layoutScore;
+
+        Complexity(int rows, int promptTokens, double layoutScore) {
+            this.rows = rows;
+            this.promptTokens = promptTokens;
+            this.layoutScore = layoutScore;
+        }
+    }
+
+    private static class RouteMetrics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong escalations = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+        void record(long latencyNanos, boolean error) {
+            calls.incrementAndGet();
+            if (error) {
+                errors.incrementAndGet();
+            }
+            totalLatencyNanos.addAndGet(latencyNanos);
+            maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+        }
+
+        Map<String, Object> snapshot() {
+            long callCount = calls.get();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("calls", callCount);
+            snapshot.put("errors", errors.get());
+            snapshot.put("escalations", escalations.get());
+            snapshot.put("avgLatencyMs", callCount == 0 ? 0 : totalLatencyNanos.get() / callCount / 1_000_000);
+            snapshot.put("maxLatencyMs", maxLatencyNanos.get() / 1_000_000);
+            return snapshot;
+        }
+    }
+}
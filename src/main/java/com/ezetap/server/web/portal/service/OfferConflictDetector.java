@@ -0,0 +1,271 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferConflict;
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Finds extracted offers that would be live at the same time for the same SKU, bank and card
+ * type. Rows are grouped by that key, with SKU and bank lists split into their items and "Both"
+ * card types counted as Credit and Debit. Each group gets an {@link IntervalTree} over its
+ * start/end dates, and every row queries it for the rows overlapping its own window. That is
+ * O(n log n + k) for k conflicts, rather than comparing every pair in a group.
+ *
+ * "All" SKUs or banks are wildcards. Like "Both" card types, such a row also joins every group
+ * it covers, e.g. an "All" SKU row for HDFC joins every HDFC group. Rows with an "All" SKU and a
+ * specific bank overlap rows with a specific SKU and "All" banks without covering each other's
+ * group, so those two sets are checked against each other with one more tree per card type.
+ */
+@Component
+public class OfferConflictDetector {
+    private static final Logger logger = LoggerFactory.getLogger(OfferConflictDetector.class);
+    private static final String ALL = "all";
+
+    public List<OfferConflict> detect(List<OfferRow> rows) {
+        long startTime = System.nanoTime();
+        long[] starts = new long[rows.size()];
+        long[] ends = new long[rows.size()];
+        Map<String, Group> groups = new LinkedHashMap<>();
+        List<Wildcard> wildcards = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            OfferRow row = rows.get(i);
+            starts[i] = OfferValidator.parseDateTime(row.getStartDate());
+            ends[i] = OfferValidator.parseDateTime(row.getEndDate());
+            // Rows without a usable window are reported by validation instead
+            if (starts[i] < 0 || ends[i] < 0 || starts[i] > ends[i]) {
+                continue;
+            }
+            for (String sku : splitList(row.getSkuCode())) {
+                for (String bank : splitList(row.getBankName())) {
+                    String skuKey = normalizeKey(sku);
+                    String bankKey = normalizeKey(bank);
+                    for (String cardType : cardTypes(row.getCardType())) {
+                        String key = skuKey + '\u0000' + bankKey + '\u0000' + cardType;
+                        Group group = groups.computeIfAbsent(key, k -> new Group(sku, bank, cardType, skuKey, bankKey));
+                        group.add(i);
+                        if (ALL.equals(skuKey) || ALL.equals(bankKey)) {
+                            wildcards.add(new Wildcard(i, group));
+                        }
+                    }
+                }
+            }
+        }
+        addWildcards(groups.values(), wildcards);
+
+        // A pair can overlap in several groups (e.g. two banks in common); report it once
+        Map<Long, OfferConflict> conflicts = new LinkedHashMap<>();
+        for (Group group : groups.values()) {
+            if (group.size < 2) {
+                continue;
+            }
+            int[] members = Arrays.copyOf(group.members, group.size);
+            long[] groupStarts = new long[members.length];
+            long[] groupEnds = new long[members.length];
+            for (int m = 0; m < members.length; m++) {
+                groupStarts[m] = starts[members[m]];
+                groupEnds[m] = ends[members[m]];
+            }
+            IntervalTree tree = new IntervalTree(groupStarts, groupEnds, members);
+            for (int a : members) {
+                tree.query(starts[a], ends[a], b -> {
+                    // Each pair once, from its lower row
+                    if (b > a) {
+                        conflicts.computeIfAbsent(((long) a << 32) | b, pair -> conflict(rows, a, b, group));
+                    }
+                });
+            }
+        }
+        crossWildcards(rows, starts, ends, wildcards, conflicts);
+
+        if (!conflicts.isEmpty()) {
+            logger.info("Found {} offer conflicts among {} rows in {} groups ({} ms)", conflicts.size(), rows.size(),
+                groups.size(), (System.nanoTime() - startTime) / 1_000_000);
+        }
+        return new ArrayList<>(conflicts.values());
+    }
+
+    private static void addWildcards(Collection<Group> groups, List<Wildcard> wildcards) {
+        if (wildcards.isEmpty()) {
+            return;
+        }
+        Map<String, List<Group>> bySku = new HashMap<>();
+        Map<String, List<Group>> byBank = new HashMap<>();
+        Map<String, List<Group>> byCardType = new HashMap<>();
+        for (Group group : groups) {
+            bySku.computeIfAbsent(group.skuKey + '\u0000' + group.cardType, k -> new ArrayList<>()).add(group);
+            byBank.computeIfAbsent(group.bankKey + '\u0000' + group.cardType, k -> new ArrayList<>()).add(group);
+            byCardType.computeIfAbsent(group.cardType, k -> new ArrayList<>()).add(group);
+        }
+        for (Wildcard wildcard : wildcards) {
+            Group own = wildcard.group;
+            List<Group> covered = ALL.equals(own.skuKey) && ALL.equals(own.bankKey) ? byCardType.get(own.cardType)
+                : ALL.equals(own.skuKey) ? byBank.get(own.bankKey + '\u0000' + own.cardType)
+                : bySku.get(own.skuKey + '\u0000' + own.cardType);
+            for (Group group : covered) {
+                if (group != own) {
+                    group.add(wildcard.row);
+                }
+            }
+        }
+    }
+
+    private void crossWildcards(List<OfferRow> rows, long[] starts, long[] ends, List<Wildcard> wildcards,
+                                Map<Long, OfferConflict> conflicts) {
+        Map<String, List<Wildcard>> anySku = new HashMap<>();
+        Map<String, List<Wildcard>> anyBank = new HashMap<>();
+        for (Wildcard wildcard : wildcards) {
+            Group own = wildcard.group;
+            if (ALL.equals(own.skuKey) != ALL.equals(own.bankKey)) {
+                (ALL.equals(own.skuKey) ? anySku : anyBank).computeIfAbsent(own.cardType, k -> new ArrayList<>()).add(wildcard);
+            }
+        }
+        for (Map.Entry<String, List<Wildcard>> entry : anyBank.entrySet()) {
+            List<Wildcard> anySkuRows = anySku.get(entry.getKey());
+            if (anySkuRows == null) {
+                continue;
+            }
+            List<Wildcard> anyBankRows = entry.getValue();
+            long[] treeStarts = new long[anyBankRows.size()];
+            long[] treeEnds = new long[anyBankRows.size()];
+            int[] ids = new int[anyBankRows.size()];
+            for (int m = 0; m < ids.length; m++) {
+                treeStarts[m] = starts[anyBankRows.get(m).row];
+                treeEnds[m] = ends[anyBankRows.get(m).row];
+                ids[m] = m;
+            }
+            IntervalTree tree = new IntervalTree(treeStarts, treeEnds, ids);
+            for (Wildcard x : anySkuRows) {
+                tree.query(starts[x.row], ends[x.row], m -> {
+                    Wildcard y = anyBankRows.get(m);
+                    if (y.row == x.row) {
+                        return;
+                    }
+                    int a = Math.min(x.row, y.row);
+                    int b = Math.max(x.row, y.row);
+                    // They meet on the specific SKU of one and the specific bank of the other
+                    conflicts.computeIfAbsent(((long) a << 32) | b, pair -> conflict(rows, a, b,
+                        new Group(y.group.sku, x.group.bank, entry.getKey(), y.group.skuKey, x.group.bankKey)));
+                });
+            }
+        }
+    }
+
+    private OfferConflict conflict(List<OfferRow> rows, int a, int b, Group group) {
+        OfferRow rowA = rows.get(a);
+        OfferRow rowB = rows.get(b);
+        OfferConflict conflict = new OfferConflict();
+        conflict.setType(sameTerms(rowA, rowB) ? OfferConflict.Type.DUPLICATE : OfferConflict.Type.OVERLAP);
+        conflict.setRowA(a + 1);
+        conflict.setRowB(b + 1);
+        conflict.setSourceRowA(rowA.getSourceRow());
+        conflict.setSourceRowB(rowB.getSourceRow());
+        conflict.setSkuCode(group.sku);
+        conflict.setBankName(group.bank);
+        conflict.setCardType(group.cardType);
+        // Canonical yyyy-MM-dd HH:mm:ss strings sort chronologically
+        conflict.setOverlapStart(max(rowA.getStartDate(), rowB.getStartDate()));
+        conflict.setOverlapEnd(min(rowA.getEndDate(), rowB.getEndDate()));
+        return conflict;
+    }
+
+    private boolean sameTerms(OfferRow a, OfferRow b) {
+        for (String field : OfferRow.FIELDS) {
+            if (!normalizeKey(a.get(field)).equals(normalizeKey(b.get(field)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        if (items.isEmpty()) {
+            items.add("All");
+        }
+        return items;
+    }
+
+    private static List<String> cardTypes(String cardType) {
+        if ("Credit".equals(cardType) || "Debit".equals(cardType)) {
+            return Collections.singletonList(cardType);
+        }
+        return Arrays.asList("Credit", "Debit");
+    }
+
+    // Lower-cased with whitespace runs collapsed, without going through a regex per value
+    private static String normalizeKey(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = key.length() > 0;
+            } else {
+                if (space) {
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    private static String max(String a, String b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static String min(String a, String b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static class Group {
+        private final String sku;
+        private final String bank;
+        private final String cardType;
+        private final String skuKey;
+        private final String bankKey;
+        private int[] members = new int[4];
+        private int size;
+
+        Group(String sku, String bank, String cardType, String skuKey, String bankKey) {
+            this.sku = sku;
+            this.bank = bank;
+            this.cardType = cardType;
+            this.skuKey = skuKey;
+            this.bankKey = bankKey;
+        }
+
+        void add(int row) {
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            members[size++] = row;
+        }
+    }
+
+    // A row's membership of a group keyed on "All"
+    private static class Wildcard {
+        private final int row;
+        private final Group group;
+
+        Wildcard(int row, Group group) {
+            this.row = row;
+            this.group = group;
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package com.ezetap.server.web.portal.service;
 
-import com.azure.ai.openai.OpenAIClient;
-import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.*;
-import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.util.BinaryData;
+import com.ezetap.shared.api.output.brand.emi.OfferConflict;
+import com.ezetap.shared.api.output.brand.emi.OfferExtractionResult;
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.ezetap.shared.api.output.brand.emi.OfferValidationReport;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -17,9 +24,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import com.azure.ai.openai.models.ChatRequestMessage;
 import com.azure.ai.openai.models.ChatRequestUserMessage;
 import com.azure.ai.openai.models.ChatCompletions;
@@ -28,31 +41,102 @@ import com.azure.ai.openai.models.ChatCompletionsOptions;
 @Service
 public class OfferExtractionService {
     private static final Logger logger = LoggerFactory.getLogger(OfferExtractionService.class);
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final Pattern DATE_PREFIX_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}.*");
 
-    @Value("${azure.openai.endpoint}")
-    private String endpoint;
+    private static final String[] CONFLICT_HEADERS = {
+        "Conflict", "Offer Row A", "Offer Row B", "Sku Code", "Bank Name", "Card Type", "Overlap Start", "Overlap End"
+    };
 
-    @Value("${azure.openai.key}")
-    private String key;
+    private static final String[] SKIPPED_SHEET_HEADERS = {
+        "Sheet", "Reason", "Relevance Score"
+    };
 
-    @Value("${azure.openai.deployment-id}")
-    private String deploymentId;
+    private static final String[] VALIDATION_HEADERS = {
+        "Offer Row", "Source Row", "Severity", "Field", "Problem"
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int LAYOUT_EXAMPLE_ROWS = 5;
+    // Rows of a sheet kept for learning its layout after the request has returned
+    private static final int LAYOUT_SAMPLE_ROWS = 200;
+    private static final ObjectReader OFFER_ROWS_READER = MAPPER.readerFor(OfferOutputSchema.OfferRowsArguments.class);
 
     @Value("${azure.openai.api-version}")
     private String apiVersion;
 
-    private OpenAIClient getClient() {
-        return new OpenAIClientBuilder()
-                .endpoint(endpoint)
-                .credential(new AzureKeyCredential(key))
-                .buildClient();
-    }
+    @Value("${azure.openai.max-continuations:5}")
+    private int maxContinuations;
+
+    @Value("${azure.openai.routing.max-invalid-ratio:0.2}")
+    private double maxInvalidRatio;
+
+    @Value("${offer.deadline.min-llm-ms:1000}")
+    private long minLlmMs;
+
+    @Value("${offer.upload.max-workbook-bytes:10485760}")
+    private long maxWorkbookBytes;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private OfferFieldNormalizer fieldNormalizer;
+
+    @Autowired
+    private BankEntityMatcher bankMatcher;
+
+    @Autowired
+    private SkuCatalogIndex skuCatalog;
+
+    @Autowired
+    private OfferValidator validator;
+
+    @Autowired
+    private OfferConflictDetector conflictDetector;
+
+    @Autowired
+    private OfferStore offerStore;
+
+    @Autowired
+    private OfferSearchIndex searchIndex;
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Autowired
+    private LlmHedger llmHedger;
+
+    @Autowired
+    private SheetLayoutCatalog layoutCatalog;
+
+    @Autowired
+    private SheetRelevanceClassifier sheetClassifier;
+
+    @Autowired
+    private ParallelCsvReader csvReader;
+
+    @Autowired
+    private LlmResultCache resultCache;
+
+    @Autowired
+    private HeapBudget heapBudget;
+
+    @Autowired
+    private OfferWorkbookTemplate workbookTemplate;
 
     public String extractAndGenerateOfferJson(MultipartFile file) throws Exception {
+        byte[] fileBytes = readWorkbookUpload(file);
+        try (HeapBudget.Reservation reservation = heapBudget.reserve(uploadKind(fileBytes), fileBytes.length)) {
+            return extractOfferJson(fileBytes);
+        }
+    }
+
+    private String extractOfferJson(byte[] fileBytes) throws Exception {
         // Convert MultipartFile to ByteArrayInputStream
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(file.getBytes());
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(fileBytes);
         String fileContent = readExcelFile(inputStream);
+        HeapBudget.sample();
         logger.info("Excel Content:\n{}", fileContent);
         
         String prompt = "You are an expert at analyzing Excel data and converting it into structured JSON format. " +
@@ -83,195 +167,207 @@ public class OfferExtractionService {
             "Excel Data:\n" + fileContent;
 
         try {
-            String response = callAIService(prompt);
-            logger.info("AI Response:\n{}", response);
+            JsonNode node = callForOfferSummary(prompt, fileContent);
+            logger.info("AI Response:\n{}", node);
             
-            // Validate the response
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode node = mapper.readTree(response);
-            
-            // Validate required fields
-            String[] requiredFields = {
-                "brand", "offerType", "offerStartDate", "offerEndDate",
-                "offerDescription", "orgAcquisitionType", "velocityCheckType",
-                "commonVelocityEnabled", "velocityCheckApplied", "velocityCheckCount",
-                "priority", "offerCode"
-            };
-            
-            for (String field : requiredFields) {
-                if (!node.has(field)) {
-                    throw new IOException("Missing required field: " + field);
-                }
-            }
-            
-            return response;
+            validator.requireValid(node);
+            return node.toString();
+        } catch (OfferValidationException | RequestCancelledException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing response: {}", e.getMessage());
             throw new Exception("Error processing response: " + e.getMessage());
         }
     }
 
-    private byte[] createExcelFromJson(String jsonResponse) throws IOException {
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Extracted Offers");
-            
-            // Create header style
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-            headerStyle.setBorderBottom(BorderStyle.THIN);
-            headerStyle.setBorderTop(BorderStyle.THIN);
-            headerStyle.setBorderLeft(BorderStyle.THIN);
-            headerStyle.setBorderRight(BorderStyle.THIN);
-            headerStyle.setWrapText(true);
-
-            // Define headers with exact format
-            String[] headers = {
-                "Sku Code (All/Specific SKU/NA)*",
-                "Min Amount*",
-                "Max Amount",
-                "Include States",
-                "Exclude States",
-                "Bank Name (All/Specific Bank/Few Banks)*",
-                "Card Type (Credit/Debit/Both)",
-                "Full Swipe Offer Amount Type (Fixed/Percentage)*",
-                "Full Swipe Offer Value",
-                "Full Swipe Offer Max Amount (Percentage Type Case)",
-                "EMI Offer Amount Type (Fixed/Percentage)*",
-                "EMI Offer Value",
-                "EMI Offer Max Amount (Percentage Type Case)",
-                "Full Swipe Subvention Type (Fixed/Percentage)",
-                "Full Swipe Bank Subvention Value",
-                "Full Swipe Brand Subvention Value",
-                "EMI Subvention Type (Fixed/Percentage)",
-                "EMI Bank Subvention Value",
-                "EMI Brand Subvention Value",
-                "Start Date(yyyy-MM-dd HH:mm:sss)",
-                "End Date(yyyy-MM-dd HH:mm:sss)"
-            };
-
-            // Create header row
-            Row headerRow = sheet.createRow(0);
+    private byte[] writeOfferWorkbook(List<OfferRow> rows, String sheetName) throws IOException {
+        return writeOfferWorkbook(rows, sheetName, Collections.emptyList());
+    }
+
+    private byte[] writeOfferWorkbook(List<OfferRow> rows, String sheetName,
+                                      List<TabularData.SkippedSheet> skippedSheets) throws IOException {
+        try (Span span = Tracing.start("workbook.write")) {
+            span.setAttribute("offer.rows", rows.size());
+            byte[] workbook = writeOfferSheets(rows, sheetName, skippedSheets);
+            span.setAttribute("output.bytes", workbook.length);
+            return workbook;
+        }
+    }
+
+    private byte[] writeOfferSheets(List<OfferRow> rows, String sheetName,
+                                    List<TabularData.SkippedSheet> skippedSheets) throws IOException {
+        SXSSFWorkbook workbook = workbookTemplate.newOfferWorkbook(sheetName);
+        try {
+            // Header row and styles come from the template
+            Sheet sheet = workbook.getSheetAt(0);
+            CellStyle headerStyle = workbookTemplate.headerStyle(workbook);
+            CellStyle dateStyle = workbookTemplate.dateStyle(workbook);
+            String[] headers = OfferWorkbookTemplate.OFFER_ROW_HEADERS;
+            OfferWorkbookTemplate.ColumnWidths widths = new OfferWorkbookTemplate.ColumnWidths(headers.length);
             for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-                sheet.setColumnWidth(i, 256 * 30); // 30 characters width
+                widths.header(i, headers[i], 3);
             }
-            headerRow.setHeight((short) 900); // 45 points height
 
-            // Parse JSON and populate data rows
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(jsonResponse);
-            
+            // Populate data rows in OfferRow.FIELDS column order
             int rowNum = 1;
-            for (JsonNode offer : rootNode) {
+            for (OfferRow offer : rows) {
+                if (rowNum % 256 == 0) {
+                    RequestDeadline.checkpoint("workbook");
+                }
                 Row row = sheet.createRow(rowNum++);
-                populateRowFromJson(row, offer);
+                for (int i = 0; i < OfferRow.FIELDS.length; i++) {
+                    widths.record(i, createCell(row, i, offer.get(OfferRow.FIELDS[i]), dateStyle));
+                }
             }
+            widths.apply(sheet);
 
-            // Auto-size columns
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
+            List<OfferConflict> conflicts = conflictDetector.detect(rows);
+            Tracing.attribute("conflicts", conflicts.size());
+            if (!conflicts.isEmpty()) {
+                writeConflictSheet(workbook, conflicts, headerStyle);
+            }
+            if (!skippedSheets.isEmpty()) {
+                writeSkippedSheetsSheet(workbook, skippedSheets, headerStyle);
+            }
+            OfferValidationReport validation = validator.validateRows(rows);
+            Tracing.attribute("validation.errors", validation.getErrorCount());
+            if (!validation.getRows().isEmpty()) {
+                writeValidationSheet(workbook, validation, headerStyle);
             }
 
             // Write to byte array
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             workbook.write(outputStream);
             return outputStream.toByteArray();
+        } finally {
+            // Deletes the rows spilled to disk
+            workbook.dispose();
+            workbook.close();
         }
     }
 
-    private void populateRowFromJson(Row row, JsonNode offerNode) {
-        int columnIndex = 0;
-        
-        // Create cells for each field
-        createCell(row, columnIndex++, offerNode.get("sku_code"));
-        createCell(row, columnIndex++, offerNode.get("min_amount"));
-        createCell(row, columnIndex++, offerNode.get("max_amount"));
-        createCell(row, columnIndex++, offerNode.get("include_states"));
-        createCell(row, columnIndex++, offerNode.get("exclude_states"));
-        createCell(row, columnIndex++, offerNode.get("bank_name"));
-        createCell(row, columnIndex++, offerNode.get("card_type"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_offer_amount_type"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_offer_value"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_offer_max_amount"));
-        createCell(row, columnIndex++, offerNode.get("emi_offer_amount_type"));
-        createCell(row, columnIndex++, offerNode.get("emi_offer_value"));
-        createCell(row, columnIndex++, offerNode.get("emi_offer_max_amount"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_subvention_type"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_bank_subvention_value"));
-        createCell(row, columnIndex++, offerNode.get("full_swipe_brand_subvention_value"));
-        createCell(row, columnIndex++, offerNode.get("emi_subvention_type"));
-        createCell(row, columnIndex++, offerNode.get("emi_bank_subvention_value"));
-        createCell(row, columnIndex++, offerNode.get("emi_brand_subvention_value"));
-        createCell(row, columnIndex++, offerNode.get("start_date"));
-        createCell(row, columnIndex++, offerNode.get("end_date"));
-    }
-
-    private void createCell(Row row, int columnIndex, JsonNode node) {
+    private void writeConflictSheet(Workbook workbook, List<OfferConflict> conflicts, CellStyle headerStyle) {
+        Sheet sheet = workbook.createSheet("Conflicts");
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < CONFLICT_HEADERS.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(CONFLICT_HEADERS[i]);
+            cell.setCellStyle(headerStyle);
+            sheet.setColumnWidth(i, 256 * 22);
+        }
+
+        int rowNum = 1;
+        for (OfferConflict conflict : conflicts) {
+            Row row = sheet.createRow(rowNum++);
+            row.createCell(0).setCellValue(conflict.getType().name());
+            // Offer n sits on sheet row n + 1, below the header
+            row.createCell(1).setCellValue(conflict.getRowA() + 1);
+            row.createCell(2).setCellValue(conflict.getRowB() + 1);
+            row.createCell(3).setCellValue(conflict.getSkuCode());
+            row.createCell(4).setCellValue(conflict.getBankName());
+            row.createCell(5).setCellValue(conflict.getCardType());
+            row.createCell(6).setCellValue(conflict.getOverlapStart());
+            row.createCell(7).setCellValue(conflict.getOverlapEnd());
+        }
+    }
+
+    // Lists the input sheets that were not sent to the model, so a wrong skip is visible
+    private void writeSkippedSheetsSheet(Workbook workbook, List<TabularData.SkippedSheet> skippedSheets,
+                                         CellStyle headerStyle) {
+        Sheet sheet = workbook.createSheet("Skipped Sheets");
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < SKIPPED_SHEET_HEADERS.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(SKIPPED_SHEET_HEADERS[i]);
+            cell.setCellStyle(headerStyle);
+            sheet.setColumnWidth(i, 256 * (i == 1 ? 60 : 22));
+        }
+
+        int rowNum = 1;
+        for (TabularData.SkippedSheet skipped : skippedSheets) {
+            Row row = sheet.createRow(rowNum++);
+            row.createCell(0).setCellValue(skipped.getName());
+            row.createCell(1).setCellValue(skipped.getReason());
+            row.createCell(2).setCellValue(Math.round(skipped.getScore() * 100) / 100.0);
+        }
+    }
+
+    // Lists every problem of every offer row, so incomplete rows can be fixed before upload
+    private void writeValidationSheet(Workbook workbook, OfferValidationReport validation, CellStyle headerStyle) {
+        Sheet sheet = workbook.createSheet("Validation");
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < VALIDATION_HEADERS.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(VALIDATION_HEADERS[i]);
+            cell.setCellStyle(headerStyle);
+            sheet.setColumnWidth(i, 256 * (i == 4 ? 60 : i == 3 ? 32 : 14));
+        }
+
+        int rowNum = 1;
+        for (OfferValidationReport.RowReport report : validation.getRows()) {
+            rowNum = writeIssues(sheet, rowNum, report, "Error", report.getErrors());
+            rowNum = writeIssues(sheet, rowNum, report, "Warning", report.getWarnings());
+        }
+    }
+
+    private int writeIssues(Sheet sheet, int rowNum, OfferValidationReport.RowReport report, String severity,
+                            List<OfferValidationReport.Issue> issues) {
+        for (OfferValidationReport.Issue issue : issues) {
+            Row row = sheet.createRow(rowNum++);
+            // Offer n sits on sheet row n + 1, below the header
+            row.createCell(0).setCellValue(report.getRow() + 1);
+            row.createCell(1).setCellValue(report.getSourceRow() != null ? report.getSourceRow() : "");
+            row.createCell(2).setCellValue(severity);
+            row.createCell(3).setCellValue(issue.getField() != null ? issue.getField() : "");
+            row.createCell(4).setCellValue(issue.getMessage());
+        }
+        return rowNum;
+    }
+
+    // Returns the written text's length, for the column width
+    private int createCell(Row row, int columnIndex, String rawValue, CellStyle dateStyle) {
         Cell cell = row.createCell(columnIndex);
-        if (node != null && !node.isNull()) {
-            String value = node.asText().trim();
+        if (rawValue != null) {
+            String value = rawValue.trim();
             // Try to parse as number if it looks like one
-            if (value.matches("-?\\d+(\\.\\d+)?")) {
+            if (NUMBER_PATTERN.matcher(value).matches()) {
                 try {
                     double numValue = Double.parseDouble(value);
                     cell.setCellValue(numValue);
-                    return;
+                    return value.length();
                 } catch (NumberFormatException e) {
                     // Not a number, continue with string handling
                 }
             }
             // Handle date format
-            if (value.matches("\\d{4}-\\d{2}-\\d{2}.*")) {
-                try {
-                    cell.setCellValue(value);
-                    CellStyle dateStyle = row.getSheet().getWorkbook().createCellStyle();
-                    dateStyle.setDataFormat((short)14); // mm/dd/yyyy
-                    cell.setCellStyle(dateStyle);
-                    return;
-                } catch (Exception e) {
-                    // Not a valid date, continue with string handling
-                }
+            if (DATE_PREFIX_PATTERN.matcher(value).matches()) {
+                cell.setCellValue(value);
+                cell.setCellStyle(dateStyle);
+                return value.length();
             }
             // Default to string value
             cell.setCellValue(value);
+            return value.length();
         } else {
             cell.setCellValue("");
+            return 0;
         }
     }
 
-    private void createCell(Row row, int columnIndex, String value) {
-        Cell cell = row.createCell(columnIndex);
-        cell.setCellValue(value != null ? value : "");
-    }
-
+    // Keys are normalized header names (see TabularData.normalizeHeader); the first of duplicate headers wins
     private Map<String, Integer> getHeaderMap(Row headerRow) {
         Map<String, Integer> headerMap = new HashMap<>();
         if (headerRow != null) {
             for (Cell cell : headerRow) {
-                String headerName = cell.getStringCellValue().trim();
-                headerMap.put(headerName, cell.getColumnIndex());
+                String headerName = TabularData.normalizeHeader(getCellValueAsString(cell));
+                if (!headerName.isEmpty()) {
+                    headerMap.putIfAbsent(headerName, cell.getColumnIndex());
+                }
             }
         }
         return headerMap;
     }
 
-    private String getCellValue(Row row, Map<String, Integer> headerMap, String headerName) {
-        Integer colIndex = headerMap.get(headerName);
-        if (colIndex != null) {
-            Cell cell = row.getCell(colIndex);
-            return getCellValueAsString(cell);
-        }
-        return "";
-    }
-
     private String getCellValueAsString(Cell cell) {
         if (cell == null) {
             return "";
@@ -282,7 +378,7 @@ public class OfferExtractionService {
                 return cell.getStringCellValue().trim();
             case NUMERIC:
                 if (DateUtil.isCellDateFormatted(cell)) {
-                    return DATE_FORMAT.format(cell.getDateCellValue());
+                    return fieldNormalizer.formatCellDate(cell.getLocalDateTimeCellValue());
                 }
                 // Remove decimal if it's a whole number
                 double value = cell.getNumericCellValue();
@@ -311,433 +407,967 @@ public class OfferExtractionService {
         if (dateStr == null || dateStr.trim().isEmpty()) {
             return "";
         }
-        // If the date already matches our format, return it
-        if (dateStr.matches("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}")) {
-            return dateStr;
-        }
-        try {
-            // Parse the date and format it as required
-            Date date = new SimpleDateFormat("yyyy-MM-dd").parse(dateStr);
-            return DATE_FORMAT.format(date);
-        } catch (Exception e) {
-            logger.error("Error parsing date: " + dateStr, e);
-            return dateStr;
-        }
+        return fieldNormalizer.normalizeDate(dateStr, false);
     }
 
-    private String readCsvFile(MultipartFile file) throws IOException {
-        StringBuilder csvText = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                csvText.append(line).append("\n");
-            }
+    private String readExcelFile(ByteArrayInputStream inputStream) throws IOException {
+        return readWorkbook(inputStream).toPromptText();
+    }
+
+    private TabularData readWorkbook(ByteArrayInputStream inputStream) throws IOException {
+        try (Span span = Tracing.start("parse.workbook")) {
+            span.setAttribute("file.size", inputStream.available());
+            TabularData data = readWorkbookSheets(inputStream);
+            span.setAttribute("sheets", data.getSheets().size());
+            span.setAttribute("sheets.skipped", data.getSkippedSheets().size());
+            span.setAttribute("rows", data.getDataRowCount());
+            return data;
         }
-        return csvText.toString();
     }
 
-    private String readExcelFile(ByteArrayInputStream inputStream) throws IOException {
-        StringBuilder excelText = new StringBuilder();
+    private TabularData readWorkbookSheets(ByteArrayInputStream inputStream) throws IOException {
+        TabularData data = new TabularData();
+        Map<TabularData.SheetData, SheetRelevanceClassifier.Verdict> verdicts = new LinkedHashMap<>();
         try (Workbook workbook = new XSSFWorkbook(inputStream)) {
             for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+                RequestDeadline.checkpoint("parse");
                 Sheet sheet = workbook.getSheetAt(sheetIndex);
                 int rowCount = sheet.getLastRowNum() + 1; // +1 because getLastRowNum is 0-based
-                int dataRowCount = 0;
+                TabularData.SheetData sheetData = data.addSheet(sheet.getSheetName(), rowCount);
                 
-                // Count non-empty rows
-                for (Row row : sheet) {
-                    boolean hasData = false;
-                    for (Cell cell : row) {
-                        if (cell != null && cell.getCellType() != CellType.BLANK) {
-                            hasData = true;
-                            break;
-                        }
-                    }
-                    if (hasData) dataRowCount++;
-                }
-                
-                logger.info("Sheet {}: {} - Total Rows: {}, Data Rows: {}", 
-                    sheetIndex + 1, sheet.getSheetName(), rowCount, dataRowCount);
-                
-                excelText.append("\n\n=== Sheet ").append(sheetIndex + 1)
-                    .append(": ").append(sheet.getSheetName())
-                    .append(" (Total Rows: ").append(rowCount)
-                    .append(", Data Rows: ").append(dataRowCount).append(") ===\n\n");
-                
-                // Add column headers
+                // Column headers
                 Row headerRow = sheet.getRow(0);
                 if (headerRow != null) {
-                    excelText.append("Headers: ");
+                    List<String> headers = new ArrayList<>();
                     for (Cell cell : headerRow) {
-                        excelText.append(getCellValueAsString(cell)).append("\t");
+                        headers.add(getCellValueAsString(cell));
                     }
-                    excelText.append("\n\n");
+                    sheetData.setHeaders(headers);
+                    sheetData.setHeaderMap(getHeaderMap(headerRow), 1);
                 }
                 
-                // Add data rows
+                // Data rows (non-empty only), also kept by column for learned layouts
                 for (Row row : sheet) {
                     boolean rowHasData = false;
-                    StringBuilder rowText = new StringBuilder();
+                    List<String> cells = new ArrayList<>();
+                    String[] columns = new String[Math.max(0, row.getLastCellNum())];
                     for (Cell cell : row) {
                         String cellValue = getCellValueAsString(cell);
                         if (!cellValue.isEmpty()) rowHasData = true;
-                        rowText.append(cellValue).append("\t");
+                        cells.add(cellValue);
+                        columns[cell.getColumnIndex()] = cellValue;
                     }
                     if (rowHasData) {
-                        excelText.append("Row ").append(row.getRowNum() + 1).append(": ").append(rowText).append("\n");
+                        sheetData.addRow(row.getRowNum() + 1, cells, columns);
                     }
                 }
+                sheetData.setLayoutFingerprint(layoutCatalog.fingerprint(sheetData));
+                boolean hidden = workbook.isSheetHidden(sheetIndex) || workbook.isSheetVeryHidden(sheetIndex);
+                boolean pivot = sheet instanceof XSSFSheet && !((XSSFSheet) sheet).getPivotTables().isEmpty();
+                verdicts.put(sheetData, sheetClassifier.classify(sheetData, hidden, pivot));
+                
+                logger.info("Sheet {}: {} - Total Rows: {}, Data Rows: {}", 
+                    sheetIndex + 1, sheet.getSheetName(), rowCount, sheetData.getRows().size());
             }
         }
-        return excelText.toString();
+        // Non-offer sheets (T&C, notes, pivots, hidden helpers) stay out of the prompt
+        sheetClassifier.filter(data, verdicts);
+        return data;
+    }
+
+    // Charset and delimiter are detected from the bytes; quoted fields may span lines
+    private TabularData readCsv(byte[] fileBytes) {
+        try (Span span = Tracing.start("parse.csv")) {
+            span.setAttribute("file.size", fileBytes.length);
+            TabularData data = TabularData.fromCsv("CSV", fileBytes);
+            fingerprintSheets(data);
+            span.setAttribute("rows", data.getDataRowCount());
+            return data;
+        }
+    }
+
+    private void fingerprintSheets(TabularData data) {
+        for (TabularData.SheetData sheet : data.getSheets()) {
+            sheet.setLayoutFingerprint(layoutCatalog.fingerprint(sheet));
+            logger.info("CSV: Total Records: {}, Data Rows: {}, Columns: {}", sheet.getTotalRows(),
+                sheet.getRows().size(), sheet.getHeaders().size());
+        }
     }
 
     public String extractFromRawText(String rawText, boolean isExcelFormat) throws IOException {
-        logger.info("Extracting JSON from raw text: {}", rawText);
-        
-        String prompt;
         if (isExcelFormat) {
-            prompt = "You are a business assistant AI. Your task is to extract structured offer data from raw text. " +
-                "The text may contain information about multiple offers that need to be processed individually.\n\n" +
-                "### INSTRUCTIONS:\n" +
-                "1. Process **every distinct offer** mentioned in the text.\n" +
-                "2. Each offer should be mapped to **one JSON object**.\n" +
-                "3. Your final output must be a **JSON array** of multiple offer objects.\n" +
-                "4. Do **not** merge or combine information across different offers.\n" +
-                "5. If the text describes 4 offers, your output must have 4 JSON objects.\n" +
-                "6. **DO NOT OMIT ANY OFFER** – include all, even if some fields are missing.\n" +
-                "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
-                "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
-                "- If the text mentions specific products, combine product name, variant, and Product ID like:\n" +
-                "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
-                "- Use this combined value as the **`sku_code`** field.\n" +
-                "  - If an offer applies to multiple SKUs, list them as comma-separated.\n" +
-                "  - If the offer applies to all products, use `\"All\"`.\n" +
-                "  - If no SKU info is present, use `\"NA\"`.\n\n" +
-                "### YOUR OUTPUT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
-                "[\n" +
-                "  {\n" +
-                "    \"sku_code\": \"\",\n" +
-                "    \"min_amount\": \"\",\n" +
-                "    \"max_amount\": \"\",\n" +
-                "    \"include_states\": \"\",\n" +
-                "    \"exclude_states\": \"\",\n" +
-                "    \"bank_name\": \"\",\n" +
-                "    \"card_type\": \"\",\n" +
-                "    \"full_swipe_offer_amount_type\": \"\",\n" +
-                "    \"full_swipe_offer_value\": \"\",\n" +
-                "    \"full_swipe_offer_max_amount\": \"\",\n" +
-                "    \"emi_offer_amount_type\": \"\",\n" +
-                "    \"emi_offer_value\": \"\",\n" +
-                "    \"emi_offer_max_amount\": \"\",\n" +
-                "    \"full_swipe_subvention_type\": \"\",\n" +
-                "    \"full_swipe_bank_subvention_value\": \"\",\n" +
-                "    \"full_swipe_brand_subvention_value\": \"\",\n" +
-                "    \"emi_subvention_type\": \"\",\n" +
-                "    \"emi_bank_subvention_value\": \"\",\n" +
-                "    \"emi_brand_subvention_value\": \"\",\n" +
-                "    \"start_date\": \"\",\n" +
-                "    \"end_date\": \"\"\n" +
-                "  }\n" +
-                "]\n\n" +
-                "### ADDITIONAL INSTRUCTIONS:\n" +
-                "1. For dates, use format: YYYY-MM-DD HH:mm:ss\n" +
-                "2. For amount fields, use numbers without currency symbols\n" +
-                "3. For percentage fields, use the word \"Percentage\"\n" +
-                "4. For fixed amount fields, use the word \"Fixed\"\n" +
-                "5. For card type, use \"Credit\", \"Debit\", or \"Both\"\n" +
-                "6. For bank name, use the actual bank name or \"All\"\n\n" +
-                "Text Data:\n" + rawText + "\n\n" +
-                "Please analyze the text and return a JSON array of offer objects with the exact structure shown above.";
-        } else {
-            prompt = "You are an expert at analyzing text and converting it into structured JSON format. " +
-                "Your task is to analyze the following text and convert it into a JSON object with the following structure:\n\n" +
-                "{\n" +
-                "  \"brand\": \"Brand name (e.g., OPPO)\",\n" +
-                "  \"offerType\": \"Additional Cashback\",\n" +
-                "  \"offerStartDate\": \"YYYY-MM-DD\",\n" +
-                "  \"offerEndDate\": \"YYYY-MM-DD\",\n" +
-                "  \"offerDescription\": \"Detailed description of the offer\",\n" +
-                "  \"orgAcquisitionType\": \"Direct\",\n" +
-                "  \"velocityCheckType\": \"PERDAY\",\n" +
-                "  \"commonVelocityEnabled\": true,\n" +
-                "  \"velocityCheckApplied\": \"Per Transaction\",\n" +
-                "  \"velocityCheckCount\": 1,\n" +
-                "  \"priority\": 1,\n" +
-                "  \"offerCode\": \"Generated offer code (e.g., BRAND_YYYY-MM-DD_YYYY-MM-DD)\"\n" +
-                "}\n\n" +
-                "CRITICAL INSTRUCTIONS:\n" +
-                "1. The response MUST be a single JSON object\n" +
-                "2. All fields must be present in the response\n" +
-                "3. Dates must be in YYYY-MM-DD format\n" +
-                "4. offerType should always be \"Additional Cashback\"\n" +
-                "5. orgAcquisitionType should always be \"Direct\"\n" +
-                "6. velocityCheckType should always be \"PERDAY\"\n" +
-                "7. commonVelocityEnabled should always be true\n" +
-                "8. velocityCheckApplied should always be \"Per Transaction\"\n" +
-                "9. velocityCheckCount should always be 1\n" +
-                "10. priority should always be 1\n" +
-                "11. offerCode should be generated based on brand and dates\n\n" +
-                "Text Data:\n" + rawText + "\n\n" +
-                "Please analyze the text and return a JSON object with the exact structure shown above.";
+            List<OfferRow> rows = extractOfferRowsFromText(rawText);
+            return MAPPER.writeValueAsString(new OfferExtractionResult(rows, conflictDetector.detect(rows),
+                validator.validateRows(rows)));
         }
+        logger.info("Extracting JSON from raw text: {}", rawText);
+        
+        String prompt = "You are an expert at analyzing text and converting it into structured JSON format. " +
+            "Your task is to analyze the following text and convert it into a JSON object with the following structure:\n\n" +
+            "{\n" +
+            "  \"brand\": \"Brand name (e.g., OPPO)\",\n" +
+            "  \"offerType\": \"Additional Cashback\",\n" +
+            "  \"offerStartDate\": \"YYYY-MM-DD\",\n" +
+            "  \"offerEndDate\": \"YYYY-MM-DD\",\n" +
+            "  \"offerDescription\": \"Detailed description of the offer\",\n" +
+            "  \"orgAcquisitionType\": \"Direct\",\n" +
+            "  \"velocityCheckType\": \"PERDAY\",\n" +
+            "  \"commonVelocityEnabled\": true,\n" +
+            "  \"velocityCheckApplied\": \"Per Transaction\",\n" +
+            "  \"velocityCheckCount\": 1,\n" +
+            "  \"priority\": 1,\n" +
+            "  \"offerCode\": \"Generated offer code (e.g., BRAND_YYYY-MM-DD_YYYY-MM-DD)\"\n" +
+            "}\n\n" +
+            "CRITICAL INSTRUCTIONS:\n" +
+            "1. The response MUST be a single JSON object\n" +
+            "2. All fields must be present in the response\n" +
+            "3. Dates must be in YYYY-MM-DD format\n" +
+            "4. offerType should always be \"Additional Cashback\"\n" +
+            "5. orgAcquisitionType should always be \"Direct\"\n" +
+            "6. velocityCheckType should always be \"PERDAY\"\n" +
+            "7. commonVelocityEnabled should always be true\n" +
+            "8. velocityCheckApplied should always be \"Per Transaction\"\n" +
+            "9. velocityCheckCount should always be 1\n" +
+            "10. priority should always be 1\n" +
+            "11. offerCode should be generated based on brand and dates\n\n" +
+            "Text Data:\n" + rawText + "\n\n" +
+            "Please analyze the text and return a JSON object with the exact structure shown above.";
 
         try {
-            String response = callAIService(prompt);
-            logger.info("AI Response:\n{}", response);
-            
-            // Validate that the response is valid JSON
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode node = mapper.readTree(response);
-            
-            if (isExcelFormat) {
-                if (!node.isArray()) {
-                    // If the response is not an array, wrap it in an array
-                    ArrayNode arrayNode = mapper.createArrayNode();
-                    arrayNode.add(node);
-                    response = mapper.writeValueAsString(arrayNode);
-                    node = mapper.readTree(response);
-                }
-            } else {
-                if (!node.isObject()) {
-                    throw new IOException("Invalid JSON response format: Expected an object");
-                }
-            }
+            JsonNode node = callForOfferSummary(prompt, rawText);
+            logger.info("AI Response:\n{}", node);
             
-            // Validate required fields based on format
-            String[] requiredFields;
-            if (isExcelFormat) {
-                requiredFields = new String[]{
-                    "sku_code", "min_amount", "max_amount", "include_states", "exclude_states",
-                    "bank_name", "card_type", "full_swipe_offer_amount_type", "full_swipe_offer_value",
-                    "full_swipe_offer_max_amount", "emi_offer_amount_type", "emi_offer_value",
-                    "emi_offer_max_amount", "full_swipe_subvention_type", "full_swipe_bank_subvention_value",
-                    "full_swipe_brand_subvention_value", "emi_subvention_type", "emi_bank_subvention_value",
-                    "emi_brand_subvention_value", "start_date", "end_date"
-                };
-                
-                // Validate each object in the array
-                for (JsonNode offerNode : node) {
-                    for (String field : requiredFields) {
-                        if (!offerNode.has(field)) {
-                            throw new IOException("Missing required field: " + field);
-                        }
-                    }
-                }
-            } else {
-                requiredFields = new String[]{
-                    "brand", "offerType", "offerStartDate", "offerEndDate",
-                    "offerDescription", "orgAcquisitionType", "velocityCheckType",
-                    "commonVelocityEnabled", "velocityCheckApplied", "velocityCheckCount",
-                    "priority", "offerCode"
-                };
-                
-                for (String field : requiredFields) {
-                    if (!node.has(field)) {
-                        throw new IOException("Missing required field: " + field);
-                    }
-                }
-            }
+            validator.requireValid(node);
+            return node.toString();
+        } catch (OfferValidationException | RequestCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error processing text: {}", e.getMessage());
+            throw new IOException("Error processing text: " + e.getMessage());
+        }
+    }
+
+    public List<OfferRow> extractOfferRowsFromText(String rawText) throws IOException {
+        logger.info("Extracting offer rows from raw text: {}", rawText);
+        
+        try {
+            List<OfferRow> rows = callForOfferRows(this::buildTextRowsPrompt, rawText, null, bankMatcher.findBanks(rawText));
+            logger.info("AI returned {} offer rows", rows.size());
             
-            return response;
+            // Rows with missing or malformed values are kept, as the prompt asks; their problems are
+            // reported alongside them (see extractFromRawText and the workbook's Validation sheet)
+            long extractionId = offerStore.save("text", rows);
+            searchIndex.submit(extractionId, "text", rows, null, rawText);
+            return rows;
+        } catch (RequestCancelledException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing text: {}", e.getMessage());
             throw new IOException("Error processing text: " + e.getMessage());
         }
     }
 
+    private String buildTextRowsPrompt(String rawText) {
+        return "You are a business assistant AI. Your task is to extract structured offer data from raw text. " +
+            "The text may contain information about multiple offers that need to be processed individually.\n\n" +
+            "### INSTRUCTIONS:\n" +
+            "1. Process **every distinct offer** mentioned in the text.\n" +
+            "2. Each offer should be mapped to **one JSON object**.\n" +
+            "3. Return all offer objects in the `offers` array of the `record_offers` function call.\n" +
+            "4. Do **not** merge or combine information across different offers.\n" +
+            "5. If the text describes 4 offers, your output must have 4 JSON objects.\n" +
+            "6. **DO NOT OMIT ANY OFFER** – include all, even if some fields are missing.\n" +
+            "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
+            "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
+            "- If the text mentions specific products, combine product name, variant, and Product ID like:\n" +
+            "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
+            "- Use this combined value as the **`sku_code`** field.\n" +
+            "  - If an offer applies to multiple SKUs, list them as comma-separated.\n" +
+            "  - If the offer applies to all products, use `\"All\"`.\n" +
+            "  - If no SKU info is present, use `\"NA\"`.\n\n" +
+            "### EACH OFFER OBJECT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
+            "[\n" +
+            "  {\n" +
+            "    \"sku_code\": \"\",\n" +
+            "    \"min_amount\": \"\",\n" +
+            "    \"max_amount\": \"\",\n" +
+            "    \"include_states\": \"\",\n" +
+            "    \"exclude_states\": \"\",\n" +
+            "    \"bank_name\": \"\",\n" +
+            "    \"card_type\": \"\",\n" +
+            "    \"full_swipe_offer_amount_type\": \"\",\n" +
+            "    \"full_swipe_offer_value\": \"\",\n" +
+            "    \"full_swipe_offer_max_amount\": \"\",\n" +
+            "    \"emi_offer_amount_type\": \"\",\n" +
+            "    \"emi_offer_value\": \"\",\n" +
+            "    \"emi_offer_max_amount\": \"\",\n" +
+            "    \"full_swipe_subvention_type\": \"\",\n" +
+            "    \"full_swipe_bank_subvention_value\": \"\",\n" +
+            "    \"full_swipe_brand_subvention_value\": \"\",\n" +
+            "    \"emi_subvention_type\": \"\",\n" +
+            "    \"emi_bank_subvention_value\": \"\",\n" +
+            "    \"emi_brand_subvention_value\": \"\",\n" +
+            "    \"start_date\": \"\",\n" +
+            "    \"end_date\": \"\"\n" +
+            "  }\n" +
+            "]\n\n" +
+            "### ADDITIONAL INSTRUCTIONS:\n" +
+            "1. Copy dates, amounts, card types and Fixed/Percentage types as written in the input\n" +
+            "2. For bank name, use the actual bank name or \"All\"\n\n" +
+            "Text Data:\n" + rawText + "\n\n" +
+            "Please analyze the text and record every offer object with the exact structure shown above.";
+    }
+
+    private String buildExcelRowsPrompt(String excelContent) {
+        return "You are a business assistant AI. Your task is to extract structured offer data from a product offer sheet provided in Excel format. Each row in the Excel sheet represents a distinct offer entry and must be processed individually.\n\n" +
+            "### INSTRUCTIONS:\n" +
+            "1. Process **every row** in every sheet.\n" +
+            "2. Each row should be mapped to **one JSON object**.\n" +
+            "3. Return all offer objects in the `offers` array of the `record_offers` function call.\n" +
+            "4. Do **not** merge or combine information across rows.\n" +
+            "5. If a sheet has 4 rows, your output must have 4 JSON objects.\n" +
+            "6. **DO NOT OMIT ANY ROW** – include all, even if some fields are missing.\n" +
+            "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
+            "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
+            "- Each row contains the product name, variant, and Product ID. Combine these to form the SKU like:\n" +
+            "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
+            "- Use this combined value as the **`sku_code`** field.\n" +
+            "- If a row applies to multiple SKUs, list them as comma-separated.\n" +
+            "- If the offer applies to all SKUs, use `\"All\"`.\n" +
+            "- If no SKU info is present, use `\"NA\"`.\n\n" +
+            "### SPECIAL CLARIFICATION FOR `source_row`:\n" +
+            "- Set `source_row` to the sheet and row number of the input row the offer came from, written as `sheet:row`.\n" +
+            "  For example `\"1:15\"` for `Row 15` under `=== Sheet 1`.\n\n" +
+            "### EACH OFFER OBJECT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
+            "[\n" +
+            "  {\n" +
+            "    \"sku_code\": \"\",\n" +
+            "    \"min_amount\": \"\",\n" +
+            "    \"max_amount\": \"\",\n" +
+            "    \"include_states\": \"\",\n" +
+            "    \"exclude_states\": \"\",\n" +
+            "    \"bank_name\": \"\",\n" +
+            "    \"card_type\": \"\",\n" +
+            "    \"full_swipe_offer_amount_type\": \"\",\n" +
+            "    \"full_swipe_offer_value\": \"\",\n" +
+            "    \"full_swipe_offer_max_amount\": \"\",\n" +
+            "    \"emi_offer_amount_type\": \"\",\n" +
+            "    \"emi_offer_value\": \"\",\n" +
+            "    \"emi_offer_max_amount\": \"\",\n" +
+            "    \"full_swipe_subvention_type\": \"\",\n" +
+            "    \"full_swipe_bank_subvention_value\": \"\",\n" +
+            "    \"full_swipe_brand_subvention_value\": \"\",\n" +
+            "    \"emi_subvention_type\": \"\",\n" +
+            "    \"emi_bank_subvention_value\": \"\",\n" +
+            "    \"emi_brand_subvention_value\": \"\",\n" +
+            "    \"start_date\": \"\",\n" +
+            "    \"end_date\": \"\"\n" +
+            "  }\n" +
+            "]\n\n" +
+            "### ADDITIONAL INSTRUCTIONS:\n" +
+            "1. Copy dates, amounts, card types and Fixed/Percentage types as written in the input\n" +
+            "2. For bank name, use the actual bank name or \"All\"\n\n" +
+            "Excel Data:\n" + excelContent;
+    }
+
+    private String buildTabularRowsPrompt(String fileContent) {
+        return "You are a business assistant AI. Your task is to extract structured offer data from a product offer sheet provided in tabular format. Each row represents a distinct offer entry and must be processed individually.\n\n" +
+            "### INSTRUCTIONS:\n" +
+            "1. Process **every row** in the data.\n" +
+            "2. Each row should be mapped to **one JSON object**.\n" +
+            "3. Return all offer objects in the `offers` array of the `record_offers` function call.\n" +
+            "4. Do **not** merge or combine information across rows.\n" +
+            "5. If there are 4 rows, your output must have 4 JSON objects.\n" +
+            "6. **DO NOT OMIT ANY ROW** – include all, even if some fields are missing.\n" +
+            "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
+            "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
+            "- Each row contains the product name, variant, and Product ID. Combine these to form the SKU like:\n" +
+            "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
+            "- Use this combined value as the **`sku_code`** field.\n" +
+            "- If a row applies to multiple SKUs, list them as comma-separated.\n" +
+            "- If the offer applies to all SKUs, use `\"All\"`.\n" +
+            "- If no SKU info is present, use `\"NA\"`.\n\n" +
+            "### SPECIAL CLARIFICATION FOR `source_row`:\n" +
+            "- Set `source_row` to the sheet and row number of the input row the offer came from, written as `sheet:row`.\n" +
+            "  For example `\"1:15\"` for `Row 15` under `=== Sheet 1`.\n\n" +
+            "### EACH OFFER OBJECT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
+            "[\n" +
+            "  {\n" +
+            "    \"sku_code\": \"\",\n" +
+            "    \"min_amount\": \"\",\n" +
+            "    \"max_amount\": \"\",\n" +
+            "    \"include_states\": \"\",\n" +
+            "    \"exclude_states\": \"\",\n" +
+            "    \"bank_name\": \"\",\n" +
+            "    \"card_type\": \"\",\n" +
+            "    \"full_swipe_offer_amount_type\": \"\",\n" +
+            "    \"full_swipe_offer_value\": \"\",\n" +
+            "    \"full_swipe_offer_max_amount\": \"\",\n" +
+            "    \"emi_offer_amount_type\": \"\",\n" +
+            "    \"emi_offer_value\": \"\",\n" +
+            "    \"emi_offer_max_amount\": \"\",\n" +
+            "    \"full_swipe_subvention_type\": \"\",\n" +
+            "    \"full_swipe_bank_subvention_value\": \"\",\n" +
+            "    \"full_swipe_brand_subvention_value\": \"\",\n" +
+            "    \"emi_subvention_type\": \"\",\n" +
+            "    \"emi_bank_subvention_value\": \"\",\n" +
+            "    \"emi_brand_subvention_value\": \"\",\n" +
+            "    \"start_date\": \"\",\n" +
+            "    \"end_date\": \"\"\n" +
+            "  }\n" +
+            "]\n\n" +
+            "### ADDITIONAL INSTRUCTIONS:\n" +
+            "1. Copy dates, amounts, card types and Fixed/Percentage types as written in the input\n" +
+            "2. For bank name, use the actual bank name or \"All\"\n\n" +
+            "Data:\n" + fileContent;
+    }
+
     public byte[] generateExcelFromJson(String jsonResponse) throws IOException {
         logger.info("Generating Excel from JSON response");
         logger.info("Raw JSON response: {}", jsonResponse);
-        
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("Offers");
-            
-            // Parse JSON response
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(jsonResponse);
-            logger.info("Parsed JSON structure: {}", rootNode.toString());
-            
-            if (!rootNode.isArray()) {
-                logger.info("Converting single object to array");
-                ArrayNode arrayNode = mapper.createArrayNode();
-                arrayNode.add(rootNode);
-                rootNode = arrayNode;
+        return generateExcel(toOfferRows(MAPPER.readTree(jsonResponse)));
+    }
+
+    /**
+     * Runs one synthetic extraction through everything except the model call: writes an offer
+     * workbook, reads it back, builds the prompt and request, binds a canned record_offers
+     * reply, then normalizes, validates and checks the rows. Nothing is stored. Run at startup
+     * so the first real request does not pay for POI/XMLBeans and Azure SDK class loading.
+     */
+    public void warmUp() throws Exception {
+        OfferRow sample = new OfferRow();
+        sample.setSkuCode("Redmi Pad|4GB+128GB|43553");
+        sample.setMinAmount("10000");
+        sample.setBankName("HDFC Bank");
+        sample.setCardType("Credit");
+        sample.setFullSwipeOfferAmountType("Fixed");
+        sample.setFullSwipeOfferValue("1000");
+        sample.setEmiOfferAmountType("Percentage");
+        sample.setEmiOfferValue("10");
+        sample.setEmiOfferMaxAmount("1500");
+        sample.setStartDate("01/01/2025");
+        sample.setEndDate("31/01/2025");
+        sample.setSourceRow("1:2");
+
+        TabularData data = readWorkbook(new ByteArrayInputStream(writeOfferWorkbook(Collections.singletonList(sample), "Offers")));
+        String content = data.toPromptText();
+        String prompt = annotateBanks(buildExcelRowsPrompt(content), bankMatcher.findBanks(content));
+        BinaryData.fromObject(buildChatOptions(prompt, true)).toString();
+        readCsv(String.join(",", OfferWorkbookTemplate.OFFER_ROW_HEADERS).getBytes(StandardCharsets.UTF_8));
+
+        OfferOutputSchema.OfferRowsArguments arguments = new OfferOutputSchema.OfferRowsArguments();
+        arguments.setOffers(Collections.singletonList(sample));
+        ObjectNode function = MAPPER.createObjectNode()
+            .put("name", OfferOutputSchema.RECORD_OFFERS_FUNCTION)
+            .put("arguments", MAPPER.writeValueAsString(arguments));
+        ObjectNode message = MAPPER.createObjectNode().put("role", "assistant");
+        message.putArray("tool_calls").addObject().put("id", "warmup").put("type", "function").set("function", function);
+        ObjectNode reply = MAPPER.createObjectNode().put("id", "warmup").put("created", 0);
+        reply.putArray("choices").addObject().put("index", 0).put("finish_reason", "tool_calls").set("message", message);
+        ChatCompletions completions = BinaryData.fromString(reply.toString()).toObject(ChatCompletions.class);
+
+        List<OfferRow> rows = new ArrayList<>(readOfferRows(completions.getChoices().get(0)).rows);
+        fieldNormalizer.normalize(rows);
+        reconcileBankNames(rows, data, bankMatcher.findBanks(content));
+        skuCatalog.resolve(rows);
+        MAPPER.writeValueAsString(new OfferExtractionResult(rows, conflictDetector.detect(rows), validator.validateRows(rows)));
+    }
+
+    public byte[] generateExcel(List<OfferRow> rows) throws IOException {
+        logger.info("Number of offers to process: {}", rows.size());
+        try {
+            RequestDeadline.checkpoint("workbook");
+            return writeOfferWorkbook(rows, "Offers");
+        } catch (RequestCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error generating Excel from JSON: ", e);
+            throw new IOException("Error generating Excel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the banks found in the input to a rows prompt, so the model is pointed at the
+     * canonical catalog names rather than whatever spelling the sheet uses.
+     */
+    private String annotateBanks(String prompt, Set<String> banks) {
+        if (banks.isEmpty()) {
+            return prompt;
+        }
+        return prompt + "\n\n### DETECTED BANKS:\n" +
+            "The input mentions these banks/issuers: " + String.join(", ", banks) + ".\n" +
+            "Use exactly these names in bank_name for offers that apply to them.";
+    }
+
+    /**
+     * Checks the model's bank_name against the banks tagged locally. Names are mapped to their
+     * canonical form; when the source row names a bank the model did not pick (or the model
+     * gave a bank the row does not mention), the row's own banks win.
+     */
+    private void reconcileBankNames(List<OfferRow> rows, TabularData data, Set<String> documentBanks) {
+        for (OfferRow row : rows) {
+            String modelBank = row.getBankName();
+            Set<String> modelBanks = bankMatcher.findBanks(modelBank);
+            Set<String> rowBanks = Collections.emptySet();
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            if (data != null && sourceRow != null) {
+                TabularData.SheetRow source = data.findRow(sourceRow[0], sourceRow[1]);
+                if (source != null) {
+                    rowBanks = bankMatcher.findBanks(String.join("\t", source.getCells()));
+                }
             }
-            
-            logger.info("Number of offers to process: {}", rootNode.size());
-            
-            // Create header row
-            Row headerRow = sheet.createRow(0);
-            String[] headers = {
-                "Sku Code (All/Specific SKU/NA)*",
-                "Min Amount*",
-                "Max Amount",
-                "Include States",
-                "Exclude States",
-                "Bank Name (All/Specific Bank/Few Banks)*",
-                "Card Type (Credit/Debit/Both)",
-                "Full Swipe Offer Amount Type (Fixed/Percentage)*",
-                "Full Swipe Offer Value",
-                "Full Swipe Offer Max Amount (Percentage Type Case)",
-                "EMI Offer Amount Type (Fixed/Percentage)*",
-                "EMI Offer Value",
-                "EMI Offer Max Amount (Percentage Type Case)",
-                "Full Swipe Subvention Type (Fixed/Percentage)",
-                "Full Swipe Bank Subvention Value",
-                "Full Swipe Brand Subvention Value",
-                "EMI Subvention Type (Fixed/Percentage)",
-                "EMI Bank Subvention Value",
-                "EMI Brand Subvention Value",
-                "Start Date(yyyy-MM-dd HH:mm:sss)",
-                "End Date(yyyy-MM-dd HH:mm:sss)"
-            };
-            
-            // Create header style
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-            headerStyle.setBorderBottom(BorderStyle.THIN);
-            headerStyle.setBorderTop(BorderStyle.THIN);
-            headerStyle.setBorderLeft(BorderStyle.THIN);
-            headerStyle.setBorderRight(BorderStyle.THIN);
-            headerStyle.setWrapText(true);
-            
-            // Populate header row
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-                sheet.setColumnWidth(i, 256 * 30); // 30 characters width
+
+            if (!rowBanks.isEmpty() && (modelBanks.isEmpty() || !rowBanks.containsAll(modelBanks))) {
+                String bankName = String.join(", ", rowBanks);
+                logger.info("Overriding bank_name '{}' with '{}' found in source row {}", modelBank, bankName, row.getSourceRow());
+                row.setBankName(bankName);
+            } else if (!modelBanks.isEmpty()) {
+                if (!documentBanks.containsAll(modelBanks)) {
+                    logger.warn("bank_name '{}' names banks not mentioned in the input ({})", modelBank, documentBanks);
+                }
+                row.setBankName(String.join(", ", modelBanks));
             }
-            headerRow.setHeight((short) 900); // 45 points height
-            
-            // Handle both single object and array cases
-            if (rootNode.isArray()) {
-                // Process each object in the array
-                int rowNum = 1;
-                for (JsonNode offerNode : rootNode) {
-                    Row dataRow = sheet.createRow(rowNum++);
-                    int colNum = 0;
-                    
-                    // Map the JSON fields to Excel columns
-                    createCell(dataRow, colNum++, offerNode.get("sku_code"));
-                    createCell(dataRow, colNum++, offerNode.get("min_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("include_states"));
-                    createCell(dataRow, colNum++, offerNode.get("exclude_states"));
-                    createCell(dataRow, colNum++, offerNode.get("bank_name"));
-                    createCell(dataRow, colNum++, offerNode.get("card_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("start_date"));
-                    createCell(dataRow, colNum++, offerNode.get("end_date"));
+        }
+    }
+
+    /**
+     * Extracts offer rows with the model, or takes them from {@link LlmResultCache} when the
+     * same prompt has been extracted before, then normalizes them. {@code documentBanks} are
+     * the catalog banks mentioned in {@code inputContent}.
+     */
+    private List<OfferRow> callForOfferRows(Function<String, String> promptBuilder, String inputContent,
+                                            TabularData data, Set<String> documentBanks) throws Exception {
+        if (data != null && data.getDataRowCount() > llmScheduler.getBatchRows()
+                && LlmScheduler.currentPriority() == LlmScheduler.Priority.FILE) {
+            // Bulk uploads yield to interactive and regular file work
+            LlmScheduler.setPriority(LlmScheduler.Priority.BATCH);
+        }
+        String prompt;
+        try (Span span = Tracing.start("prompt.build")) {
+            prompt = annotateBanks(promptBuilder.apply(inputContent), documentBanks);
+            span.setAttribute("input.rows", data != null ? data.getDataRowCount() : null);
+            span.setAttribute("prompt.chars", prompt.length());
+            span.setAttribute("prompt.tokens", ModelRouter.estimateTokens(prompt));
+            span.setAttribute("banks", documentBanks.size());
+        }
+        // Model output is cached as returned; the local steps below run on every request
+        List<OfferRow> rows;
+        try (Span span = Tracing.start("llm.extract")) {
+            ModelRouter.Route route = modelRouter.route(prompt, inputContent);
+            String cached = resultCache.get(resultCache.key(prompt, route), () -> {
+                ExtractedRows extracted = callModelForOfferRows(prompt, route, promptBuilder, inputContent, data, documentBanks);
+                // Output cut short at max-continuations is returned, but must not be served again for a day
+                return LlmResultCache.Result.of(MAPPER.writeValueAsString(extracted.rows), !extracted.truncated);
+            });
+            rows = new ArrayList<>(Arrays.asList(MAPPER.readValue(cached, OfferRow[].class)));
+            span.setAttribute("offer.rows", rows.size());
+        }
+
+        // Dates, amounts and enum values are normalized here rather than by the model
+        RequestDeadline.checkpoint("normalize");
+        try (Span span = Tracing.start("normalize")) {
+            span.setAttribute("offer.rows", rows.size());
+            fieldNormalizer.normalize(rows);
+            reconcileBankNames(rows, data, documentBanks);
+            skuCatalog.resolve(rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Extracts offer rows, following up on truncated replies. When the completion hits the
+     * token limit the fully formed rows are kept and a continuation call is made for the input
+     * after the last completed source row (or, for free text, after the last recorded offer).
+     * The last source row of a truncated reply may have lost some of its offers, so it counts
+     * as incomplete: its offers are dropped and it is requested again. The result is truncated
+     * if the output was still cut off when the continuations ran out or stopped adding rows.
+     */
+    private ExtractedRows callModelForOfferRows(String firstPrompt, ModelRouter.Route firstRoute,
+                                                Function<String, String> promptBuilder, String inputContent,
+                                                TabularData data, Set<String> documentBanks) throws Exception {
+        ExtractedRows result = callAIService(firstPrompt, firstRoute, true,
+                this::readOfferRows, extracted -> isCompleteOfferRows(extracted.rows));
+        List<OfferRow> rows = new ArrayList<>(result.rows);
+
+        List<OfferRow> replyRows = result.rows;
+        boolean truncated = result.truncated;
+        int continuations = 0;
+        while (truncated) {
+            if (continuations++ >= maxContinuations) {
+                logger.warn("AI output still truncated after {} continuations, returning {} offers", maxContinuations, rows.size());
+                break;
+            }
+            int[] lastSourceRow = lastCompletedSourceRow(rows, replyRows);
+            String prompt;
+            String remainingInput;
+            if (data != null && lastSourceRow != null) {
+                if (!data.hasRowsAfter(lastSourceRow[0], lastSourceRow[1])) {
+                    // Nothing left after the continuation point
+                    truncated = false;
+                    break;
                 }
+                remainingInput = data.toPromptText(lastSourceRow[0], lastSourceRow[1]);
+                prompt = annotateBanks(promptBuilder.apply(remainingInput), documentBanks);
             } else {
-                // Handle single object case
-                Row dataRow = sheet.createRow(1);
-                int colNum = 0;
-                
-                // Map the JSON fields to Excel columns
-                createCell(dataRow, colNum++, rootNode.get("sku_code"));
-                createCell(dataRow, colNum++, rootNode.get("min_amount"));
-                createCell(dataRow, colNum++, rootNode.get("max_amount"));
-                createCell(dataRow, colNum++, rootNode.get("include_states"));
-                createCell(dataRow, colNum++, rootNode.get("exclude_states"));
-                createCell(dataRow, colNum++, rootNode.get("bank_name"));
-                createCell(dataRow, colNum++, rootNode.get("card_type"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_offer_amount_type"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_offer_value"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_offer_max_amount"));
-                createCell(dataRow, colNum++, rootNode.get("emi_offer_amount_type"));
-                createCell(dataRow, colNum++, rootNode.get("emi_offer_value"));
-                createCell(dataRow, colNum++, rootNode.get("emi_offer_max_amount"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_subvention_type"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_bank_subvention_value"));
-                createCell(dataRow, colNum++, rootNode.get("full_swipe_brand_subvention_value"));
-                createCell(dataRow, colNum++, rootNode.get("emi_subvention_type"));
-                createCell(dataRow, colNum++, rootNode.get("emi_bank_subvention_value"));
-                createCell(dataRow, colNum++, rootNode.get("emi_brand_subvention_value"));
-                createCell(dataRow, colNum++, rootNode.get("start_date"));
-                createCell(dataRow, colNum++, rootNode.get("end_date"));
+                remainingInput = inputContent;
+                prompt = annotateBanks(promptBuilder.apply(inputContent), documentBanks) + "\n\n### CONTINUATION:\n" +
+                    rows.size() + " offers were already recorded. Record ONLY the offers that come after this last recorded offer:\n" +
+                    (rows.isEmpty() ? "(none)" : MAPPER.writeValueAsString(rows.get(rows.size() - 1)));
             }
-            
-            // Auto-size columns
-            for (int i = 0; i < headers.length; i++) {
-                sheet.autoSizeColumn(i);
+            logger.info("AI output truncated after {} offers, requesting continuation {} (last source row: {})",
+                rows.size(), continuations, lastSourceRow != null ? lastSourceRow[0] + ":" + lastSourceRow[1] : "n/a");
+
+            result = callAIService(prompt, remainingInput, true, this::readOfferRows, extracted -> isCompleteOfferRows(extracted.rows));
+            truncated = result.truncated;
+            replyRows = new ArrayList<>();
+            for (OfferRow row : result.rows) {
+                int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+                // Drop rows the model repeated from before the continuation point
+                if (lastSourceRow != null && sourceRow != null && compareSourceRows(sourceRow, lastSourceRow) <= 0) {
+                    continue;
+                }
+                rows.add(row);
+                replyRows.add(row);
+            }
+            if (replyRows.isEmpty()) {
+                break;
             }
-            
-            // Write to byte array
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            workbook.write(outputStream);
-            return outputStream.toByteArray();
-        } catch (Exception e) {
-            logger.error("Error generating Excel from JSON: ", e);
-            throw new IOException("Error generating Excel: " + e.getMessage());
         }
+        return new ExtractedRows(rows, truncated);
     }
 
-    private String extractBankNames(String offerDescription) {
-        // Extract bank names from the offer description
-        String[] banks = {"SBI Cards", "HDFC Bank", "Axis Bank", "BOB Cards", 
-                         "IDFC First Bank", "Federal Bank", "DBS Cards"};
-        List<String> foundBanks = new ArrayList<>();
-        
-        for (String bank : banks) {
-            if (offerDescription.contains(bank)) {
-                foundBanks.add(bank);
+    /**
+     * Extracts the rows of an upload, converting it locally when every sheet has a learned
+     * layout. Otherwise the model extracts it, and the layouts of its sheets are learned for
+     * next time.
+     */
+    private List<OfferRow> extractTabularRows(Function<String, String> promptBuilder, String inputContent,
+                                              TabularData data) throws Exception {
+        // One linear scan of the input tags every catalog bank mentioned in it
+        Set<String> documentBanks = bankMatcher.findBanks(inputContent);
+        List<OfferRow> rows = convertKnownLayouts(data, documentBanks);
+        if (rows != null) {
+            return rows;
+        }
+        rows = callForOfferRows(promptBuilder, inputContent, data, documentBanks);
+        if (layoutCatalog.isEnabled()) {
+            for (TabularData.SheetData sheet : data.getSheets()) {
+                if (hasDataRows(sheet)) {
+                    learnLayout(sheet, rows, documentBanks);
+                }
             }
         }
-        
-        if (foundBanks.isEmpty()) {
-            return "All";
-        } else if (foundBanks.size() == 1) {
-            return foundBanks.get(0);
-        } else {
-            return String.join(", ", foundBanks);
+        return rows;
+    }
+
+    // Learning runs after the request has returned, so it keeps only a sample of the sheet and its offers
+    private void learnLayout(TabularData.SheetData sheet, List<OfferRow> rows, Set<String> documentBanks) {
+        TabularData sample = TabularData.sample(sheet, LAYOUT_SAMPLE_ROWS);
+        TabularData.SheetData sampleSheet = sample.getSheets().get(0);
+        List<OfferRow> sampleRows = new ArrayList<>();
+        for (OfferRow row : rows) {
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            if (sourceRow != null && sample.findRow(sourceRow[0], sourceRow[1]) != null) {
+                sampleRows.add(row);
+            }
         }
+        layoutCatalog.learn(sampleSheet, () -> askForLayoutMapping(sampleSheet, sampleRows),
+            mapping -> replayLayout(mapping, sample, sampleSheet, sampleRows, documentBanks));
     }
 
-    private String callAIService(String prompt) throws Exception {
-        OpenAIClient client = getClient();
-        
+    // Null when a sheet has no learned layout or the converted rows do not look right
+    private List<OfferRow> convertKnownLayouts(TabularData data, Set<String> documentBanks) {
+        if (!layoutCatalog.isEnabled()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Map<String, List<OfferRow>> rowsByLayout = new LinkedHashMap<>();
+        List<OfferRow> rows = new ArrayList<>();
+        for (TabularData.SheetData sheet : data.getSheets()) {
+            if (!hasDataRows(sheet)) {
+                continue;
+            }
+            SheetLayoutCatalog.LayoutMapping mapping = layoutCatalog.find(sheet.getLayoutFingerprint());
+            if (mapping == null) {
+                return null;
+            }
+            List<OfferRow> sheetRows = layoutCatalog.apply(mapping, sheet);
+            rowsByLayout.computeIfAbsent(sheet.getLayoutFingerprint(), fingerprint -> new ArrayList<>()).addAll(sheetRows);
+            rows.addAll(sheetRows);
+        }
+        if (rows.isEmpty()) {
+            return null;
+        }
+
+        fieldNormalizer.normalize(rows);
+        reconcileBankNames(rows, data, documentBanks);
+        skuCatalog.resolve(rows);
+        boolean accepted = true;
+        for (Map.Entry<String, List<OfferRow>> layout : rowsByLayout.entrySet()) {
+            double invalidRatio = invalidRatio(layout.getValue());
+            if (!layoutCatalog.accepts(layout.getKey(), invalidRatio)) {
+                logger.warn("Layout {} converted {} rows with {}% invalid, falling back to the model", layout.getKey(),
+                    layout.getValue().size(), Math.round(invalidRatio * 100));
+                layoutCatalog.recordMiss(layout.getKey());
+                accepted = false;
+            }
+        }
+        if (!accepted) {
+            return null;
+        }
+        long elapsed = System.nanoTime() - start;
+        for (String fingerprint : rowsByLayout.keySet()) {
+            layoutCatalog.recordHit(fingerprint, elapsed / rowsByLayout.size());
+        }
+        logger.info("Converted {} rows from {} learned layout(s) in {} ms without calling the model", rows.size(),
+            rowsByLayout.size(), elapsed / 1_000_000);
+        return rows;
+    }
+
+    private boolean hasDataRows(TabularData.SheetData sheet) {
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            if (row.getRowNumber() > sheet.getHeaderRowNumber()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double invalidRatio(List<OfferRow> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        int invalid = 0;
+        for (OfferValidationReport.RowReport report : validator.validateRows(rows).getRows()) {
+            if (!report.getErrors().isEmpty()) {
+                invalid++;
+            }
+        }
+        return (double) invalid / rows.size();
+    }
+
+    /**
+     * Asks the model how this sheet's columns map to offer fields, showing it the headers, the
+     * first rows and the offers it extracted from them.
+     */
+    private SheetLayoutCatalog.LayoutMapping askForLayoutMapping(TabularData.SheetData sheet, List<OfferRow> modelRows)
+            throws Exception {
+        Map<String, List<OfferRow>> offersBySourceRow = new HashMap<>();
+        for (OfferRow row : modelRows) {
+            offersBySourceRow.computeIfAbsent(row.getSourceRow(), sourceRow -> new ArrayList<>()).add(row);
+        }
+        StringBuilder examples = new StringBuilder("Headers: ").append(String.join("\t", sheet.getHeaders())).append("\n\n");
+        int shown = 0;
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            List<OfferRow> offers = offersBySourceRow.get(sheet.getIndex() + ":" + row.getRowNumber());
+            if (row.getRowNumber() <= sheet.getHeaderRowNumber() || offers == null) {
+                continue;
+            }
+            examples.append("Row ").append(row.getRowNumber()).append(": ").append(String.join("\t", row.getCells()))
+                .append("\nOffers: ").append(MAPPER.writeValueAsString(offers)).append("\n\n");
+            if (++shown >= LAYOUT_EXAMPLE_ROWS) {
+                break;
+            }
+        }
+        if (shown == 0) {
+            return null;
+        }
+
+        String prompt = "You are given the header row and some data rows of a spreadsheet, each followed by the offer " +
+            "rows that were extracted from it. Describe how to produce those offer fields directly from the columns, " +
+            "so that the rest of the sheet can be converted without you.\n\n" +
+            "Return a single JSON object:\n" +
+            "{\n" +
+            "  \"skip_rows_without\": \"header of a column that is empty on rows that are not offers\",\n" +
+            "  \"fields\": {\n" +
+            "    \"<offer field>\": {\"columns\": [\"<header>\", ...], \"separator\": \"<text between joined columns>\"}\n" +
+            "      or {\"constant\": \"<value used for every row>\"} (not for dates, amounts or bank_name)\n" +
+            "      or {\"type_from\": \"<header>\"} (amount type fields only: Percentage if that column has a %, else Fixed)\n" +
+            "  }\n" +
+            "}\n\n" +
+            "RULES:\n" +
+            "1. Use the header names exactly as written in the Headers line\n" +
+            "2. Offer fields are: " + String.join(", ", OfferRow.FIELDS) + "; leave out fields that are always empty\n" +
+            "3. Copy values as written; dates and amounts are normalized afterwards\n" +
+            "4. If one row produced several offers, or a field cannot be derived from the columns, return {\"fields\": {}}\n" +
+            "5. Dates, amounts and bank_name must come from columns, never a constant, even when the sheet states them " +
+            "only once (e.g. in a title row); if they cannot, return {\"fields\": {}}\n\n" +
+            examples;
+        JsonNode node = callAIService(prompt, examples.toString(), false, this::readOfferSummary,
+            result -> result != null && result.has("fields"));
+        return MAPPER.treeToValue(node, SheetLayoutCatalog.LayoutMapping.class);
+    }
+
+    /**
+     * Converts the sheet with a proposed mapping and compares the result field by field with
+     * the model's own rows for the same source rows. {@code documentBanks} are the banks of the
+     * whole upload, found when it was extracted.
+     */
+    private SheetLayoutCatalog.Replay replayLayout(SheetLayoutCatalog.LayoutMapping mapping, TabularData data,
+                                                   TabularData.SheetData sheet, List<OfferRow> modelRows,
+                                                   Set<String> documentBanks) {
+        List<OfferRow> localRows = layoutCatalog.apply(mapping, sheet);
+        fieldNormalizer.normalize(localRows);
+        reconcileBankNames(localRows, data, documentBanks);
+        skuCatalog.resolve(localRows);
+
+        String sheetPrefix = sheet.getIndex() + ":";
+        Map<String, List<OfferRow>> modelBySourceRow = new HashMap<>();
+        int modelCount = 0;
+        for (OfferRow row : modelRows) {
+            if (row.getSourceRow() != null && row.getSourceRow().startsWith(sheetPrefix)) {
+                modelBySourceRow.computeIfAbsent(row.getSourceRow(), sourceRow -> new ArrayList<>()).add(row);
+                modelCount++;
+            }
+        }
+        double matchedFields = 0;
+        for (OfferRow local : localRows) {
+            List<OfferRow> candidates = modelBySourceRow.get(local.getSourceRow());
+            // A source row the model made several offers of can never agree with a one-row mapping
+            if (candidates == null || candidates.size() != 1) {
+                continue;
+            }
+            OfferRow model = candidates.get(0);
+            for (String field : OfferRow.FIELDS) {
+                if (sameValue(local.get(field), model.get(field))) {
+                    matchedFields++;
+                }
+            }
+        }
+        int compared = Math.max(localRows.size(), modelCount);
+        double agreement = compared == 0 ? 0 : matchedFields / ((double) compared * OfferRow.FIELDS.length);
+        return new SheetLayoutCatalog.Replay(agreement, invalidRatio(localRows));
+    }
+
+    private static boolean sameValue(String a, String b) {
+        String left = a != null ? a.trim() : "";
+        String right = b != null ? b.trim() : "";
+        return left.equalsIgnoreCase(right);
+    }
+
+    private int[] lastSourceRow(List<OfferRow> rows) {
+        int[] last = null;
+        for (OfferRow row : rows) {
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            if (sourceRow != null && (last == null || compareSourceRows(sourceRow, last) > 0)) {
+                last = sourceRow;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * The source row to continue after once {@code replyRows}, the rows just added to
+     * {@code rows}, were cut off. The offers of the reply's last source row are removed from
+     * {@code rows} and the row before it is returned, or {@code 0:0} when there is none. When the
+     * reply covered nothing but that row, asking again would be cut off the same way, so its
+     * offers are kept and it counts as completed. Null when the rows carry no source rows.
+     */
+    private int[] lastCompletedSourceRow(List<OfferRow> rows, List<OfferRow> replyRows) {
+        int[] last = lastSourceRow(replyRows);
+        if (last == null) {
+            return lastSourceRow(rows);
+        }
+        boolean onlyLastRow = true;
+        for (OfferRow row : replyRows) {
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            if (sourceRow == null || compareSourceRows(sourceRow, last) != 0) {
+                onlyLastRow = false;
+                break;
+            }
+        }
+        if (onlyLastRow) {
+            return last;
+        }
+        rows.removeIf(row -> {
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            return sourceRow != null && compareSourceRows(sourceRow, last) == 0;
+        });
+        int[] completed = lastSourceRow(rows);
+        return completed != null ? completed : new int[]{0, 0};
+    }
+
+    private int compareSourceRows(int[] a, int[] b) {
+        return a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]);
+    }
+
+    private JsonNode callForOfferSummary(String prompt, String inputContent) throws Exception {
+        return callAIService(prompt, inputContent, false, this::readOfferSummary, this::isCompleteOfferSummary);
+    }
+
+    private <T> T callAIService(String prompt, String inputContent, boolean offerRows,
+                                ChoiceReader<T> reader, Predicate<T> isComplete) throws Exception {
+        return callAIService(prompt, modelRouter.route(prompt, inputContent), offerRows, reader, isComplete);
+    }
+
+    private <T> T callAIService(String prompt, ModelRouter.Route route, boolean offerRows,
+                                ChoiceReader<T> reader, Predicate<T> isComplete) throws Exception {
+        if (route == ModelRouter.Route.SMALL) {
+            try {
+                T result = callDeployment(prompt, route, offerRows, reader);
+                if (isComplete.test(result)) {
+                    return result;
+                }
+                logger.warn("Small model output failed validation, escalating to large deployment");
+            } catch (RequestCancelledException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.warn("Small model call failed, escalating to large deployment: {}", e.getMessage());
+            }
+            modelRouter.recordEscalation();
+        }
+        return callDeployment(prompt, ModelRouter.Route.LARGE, offerRows, reader);
+    }
+
+    private <T> T callDeployment(String prompt, ModelRouter.Route route, boolean offerRows,
+                                 ChoiceReader<T> reader) throws Exception {
+        // No point paying for a call whose reply would arrive after the client has given up
+        RequestDeadline.checkpoint("llm", TimeUnit.MILLISECONDS.toNanos(minLlmMs));
+        ChatCompletionsOptions options = buildChatOptions(prompt, offerRows);
+        long start = System.nanoTime();
+        try (Span span = Tracing.start("llm.call")) {
+            span.setAttribute("llm.route", route.name().toLowerCase());
+            span.setAttribute("llm.tool_call", offerRows);
+            span.setAttribute("prompt.tokens", ModelRouter.estimateTokens(prompt));
+            try {
+                ChatCompletions chatCompletions = RequestDeadline.interruptibly("llm", () -> llmScheduler.call(
+                        ModelRouter.estimateTokens(prompt), () -> llmHedger.getChatCompletions(route, options)));
+
+                if (chatCompletions.getChoices() != null && !chatCompletions.getChoices().isEmpty()) {
+                    T result;
+                    try (Span parse = Tracing.start("llm.response.parse")) {
+                        result = reader.read(chatCompletions.getChoices().get(0));
+                    }
+                    modelRouter.recordSuccess(route, System.nanoTime() - start);
+                    return result;
+                }
+
+                throw new Exception("No response from Azure OpenAI");
+            } catch (RequestCancelledException e) {
+                // An aborted call says nothing about the route's health
+                span.recordError(e);
+                throw e;
+            } catch (Exception e) {
+                span.recordError(e);
+                modelRouter.recordFailure(route, System.nanoTime() - start);
+                throw e;
+            }
+        }
+    }
+
+    private ChatCompletionsOptions buildChatOptions(String prompt, boolean offerRows) {
         List<ChatRequestMessage> chatMessages = new ArrayList<>();
         chatMessages.add(new ChatRequestUserMessage(prompt));
 
         ChatCompletionsOptions options = new ChatCompletionsOptions(chatMessages)
                 .setTemperature(0.3);
+        if (offerRows) {
+            // Force a record_offers call so the reply binds straight to OfferRow objects
+            options.setTools(Collections.singletonList(OfferOutputSchema.RECORD_OFFERS_TOOL))
+                    .setToolChoice(OfferOutputSchema.RECORD_OFFERS_TOOL_CHOICE);
+        } else {
+            options.setResponseFormat(new ChatCompletionsJsonResponseFormat());
+        }
+        return options;
+    }
 
-        ChatCompletions chatCompletions = client.getChatCompletions(deploymentId, options);
-        
-        if (chatCompletions.getChoices() != null && !chatCompletions.getChoices().isEmpty()) {
-            String response = chatCompletions.getChoices().get(0).getMessage().getContent();
-            // Clean the response to ensure it's valid JSON
-            return cleanJsonResponse(response);
+    private ExtractedRows readOfferRows(ChatChoice choice) throws IOException {
+        ChatResponseMessage message = choice.getMessage();
+        boolean truncated = CompletionsFinishReason.TOKEN_LIMIT_REACHED.equals(choice.getFinishReason());
+        if (message.getToolCalls() != null) {
+            for (ChatCompletionsToolCall toolCall : message.getToolCalls()) {
+                if (toolCall instanceof ChatCompletionsFunctionToolCall) {
+                    FunctionCall function = ((ChatCompletionsFunctionToolCall) toolCall).getFunction();
+                    if (OfferOutputSchema.RECORD_OFFERS_FUNCTION.equals(function.getName())) {
+                        Tracing.attribute("llm.truncated", truncated);
+                        if (truncated) {
+                            return new ExtractedRows(IncrementalOfferRowParser.parseCompleteRows(function.getArguments()), true);
+                        }
+                        OfferOutputSchema.OfferRowsArguments arguments = OFFER_ROWS_READER.readValue(function.getArguments());
+                        return new ExtractedRows(arguments.getOffers(), false);
+                    }
+                }
+            }
+        }
+        // Deployments without tool support answer in plain content
+        logger.warn("No {} call in AI response, falling back to JSON cleanup", OfferOutputSchema.RECORD_OFFERS_FUNCTION);
+        Tracing.attribute("json.cleanup", true);
+        Tracing.attribute("llm.truncated", truncated);
+        String content = message.getContent();
+        if (truncated && content != null) {
+            int start = content.indexOf('[') >= 0 ? content.indexOf('[') : Math.max(content.indexOf('{'), 0);
+            return new ExtractedRows(IncrementalOfferRowParser.parseCompleteRows(content.substring(start)), true);
+        }
+        return new ExtractedRows(toOfferRows(MAPPER.readTree(cleanJsonResponse(content))), false);
+    }
+
+    private JsonNode readOfferSummary(ChatChoice choice) throws IOException {
+        String content = choice.getMessage().getContent();
+        try {
+            // JSON mode guarantees a single well-formed object, so one parse is enough
+            return MAPPER.readTree(content);
+        } catch (JsonProcessingException e) {
+            logger.warn("AI response is not plain JSON, falling back to JSON cleanup");
+            Tracing.attribute("json.cleanup", true);
+            return MAPPER.readTree(cleanJsonResponse(content));
         }
-        
-        throw new Exception("No response from Azure OpenAI");
+    }
+
+    private List<OfferRow> toOfferRows(JsonNode node) throws IOException {
+        if (node.isObject() && node.has("offers")) {
+            node = node.get("offers");
+        }
+        List<OfferRow> rows = new ArrayList<>();
+        if (node.isArray()) {
+            for (JsonNode offerNode : node) {
+                rows.add(MAPPER.treeToValue(offerNode, OfferRow.class));
+            }
+        } else {
+            logger.info("Converting single object to array");
+            rows.add(MAPPER.treeToValue(node, OfferRow.class));
+        }
+        return rows;
+    }
+
+    // Decides whether small-model rows stand or go to the large model
+    private boolean isCompleteOfferRows(List<OfferRow> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return false;
+        }
+        for (OfferRow row : rows) {
+            for (String field : OfferRow.FIELDS) {
+                if (row.get(field) == null) {
+                    return false;
+                }
+            }
+        }
+        // The schema makes every field present (usually as ""), so judge the rows as validated after normalizing
+        List<OfferRow> normalized = new ArrayList<>(Arrays.asList(MAPPER.convertValue(rows, OfferRow[].class)));
+        fieldNormalizer.normalize(normalized);
+        double invalid = invalidRatio(normalized);
+        if (invalid > maxInvalidRatio) {
+            logger.info("{}% of {} small model rows failed validation", Math.round(invalid * 100), rows.size());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isCompleteOfferSummary(JsonNode node) {
+        if (node == null || !node.isObject()) {
+            return false;
+        }
+        for (String field : OfferValidator.SUMMARY_FIELDS) {
+            if (!node.has(field)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private String cleanJsonResponse(String response) throws IOException {
         try {
             // First try to parse the response directly
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.readTree(response);
+            MAPPER.readTree(response);
             return response;
         } catch (Exception e) {
             // If direct parsing fails, try to extract JSON from the response
@@ -757,8 +1387,7 @@ public class OfferExtractionService {
                 String potentialJson = response.substring(startIndex, endIndex + 1);
                 try {
                     // Validate the extracted content
-                    ObjectMapper mapper = new ObjectMapper();
-                    mapper.readTree(potentialJson);
+                    MAPPER.readTree(potentialJson);
                     logger.info("Successfully extracted and validated JSON: {}", potentialJson);
                     return potentialJson;
                 } catch (Exception ex) {
@@ -772,6 +1401,21 @@ public class OfferExtractionService {
         }
     }
 
+    public byte[] processExcelFile(MultipartFile file) throws IOException {
+        byte[] fileBytes = readWorkbookUpload(file);
+        try (HeapBudget.Reservation reservation = heapBudget.reserve(uploadKind(fileBytes), fileBytes.length)) {
+            return processExcelFile(fileBytes);
+        }
+    }
+
+    // Workbooks are loaded whole by POI, so they keep a tighter size limit than CSV uploads
+    private byte[] readWorkbookUpload(MultipartFile file) throws IOException {
+        if (file.getSize() > maxWorkbookBytes) {
+            throw new IllegalArgumentException("Excel files are limited to " + (maxWorkbookBytes >> 20) + " MB");
+        }
+        return file.getBytes();
+    }
+
     public byte[] processExcelFile(byte[] fileBytes) throws IOException {
         logger.info("Starting Excel file processing");
         try {
@@ -781,174 +1425,120 @@ public class OfferExtractionService {
             }
 
             // Read Excel content
-            String excelContent = readExcelFile(new ByteArrayInputStream(fileBytes));
+            RequestDeadline.checkpoint("parse");
+            TabularData excelData = readWorkbook(new ByteArrayInputStream(fileBytes));
+            HeapBudget.sample();
+            String excelContent = excelData.toPromptText();
             logger.info("Excel Content (first 1000 chars):\n{}", excelContent.substring(0, Math.min(1000, excelContent.length())));
 
-            // Create AI prompt
-            String prompt = "You are a business assistant AI. Your task is to extract structured offer data from a product offer sheet provided in Excel format. Each row in the Excel sheet represents a distinct offer entry and must be processed individually.\n\n" +
-                "### INSTRUCTIONS:\n" +
-                "1. Process **every row** in every sheet.\n" +
-                "2. Each row should be mapped to **one JSON object**.\n" +
-                "3. Your final output must be a **JSON array** of multiple offer objects.\n" +
-                "4. Do **not** merge or combine information across rows.\n" +
-                "5. If a sheet has 4 rows, your output must have 4 JSON objects.\n" +
-                "6. **DO NOT OMIT ANY ROW** – include all, even if some fields are missing.\n" +
-                "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
-                "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
-                "- Each row contains the product name, variant, and Product ID. Combine these to form the SKU like:\n" +
-                "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
-                "- Use this combined value as the **`sku_code`** field.\n" +
-                "- If a row applies to multiple SKUs, list them as comma-separated.\n" +
-                "- If the offer applies to all SKUs, use `\"All\"`.\n" +
-                "- If no SKU info is present, use `\"NA\"`.\n\n" +
-                "### YOUR OUTPUT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
-                "[\n" +
-                "  {\n" +
-                "    \"sku_code\": \"\",\n" +
-                "    \"min_amount\": \"\",\n" +
-                "    \"max_amount\": \"\",\n" +
-                "    \"include_states\": \"\",\n" +
-                "    \"exclude_states\": \"\",\n" +
-                "    \"bank_name\": \"\",\n" +
-                "    \"card_type\": \"\",\n" +
-                "    \"full_swipe_offer_amount_type\": \"\",\n" +
-                "    \"full_swipe_offer_value\": \"\",\n" +
-                "    \"full_swipe_offer_max_amount\": \"\",\n" +
-                "    \"emi_offer_amount_type\": \"\",\n" +
-                "    \"emi_offer_value\": \"\",\n" +
-                "    \"emi_offer_max_amount\": \"\",\n" +
-                "    \"full_swipe_subvention_type\": \"\",\n" +
-                "    \"full_swipe_bank_subvention_value\": \"\",\n" +
-                "    \"full_swipe_brand_subvention_value\": \"\",\n" +
-                "    \"emi_subvention_type\": \"\",\n" +
-                "    \"emi_bank_subvention_value\": \"\",\n" +
-                "    \"emi_brand_subvention_value\": \"\",\n" +
-                "    \"start_date\": \"\",\n" +
-                "    \"end_date\": \"\"\n" +
-                "  }\n" +
-                "]\n\n" +
-                "### ADDITIONAL INSTRUCTIONS:\n" +
-                "1. For dates, use format: YYYY-MM-DD HH:mm:ss\n" +
-                "2. For amount fields, use numbers without currency symbols\n" +
-                "3. For percentage fields, use the word \"Percentage\"\n" +
-                "4. For fixed amount fields, use the word \"Fixed\"\n" +
-                "5. For card type, use \"Credit\", \"Debit\", or \"Both\"\n" +
-                "6. For bank name, use the actual bank name or \"All\"\n\n" +
-                "Excel Data:\n" + excelContent;
 
             // Call AI service to process the Excel content
-            String jsonResponse = callAIService(prompt);
-            logger.info("AI Response:\n{}", jsonResponse);
+            List<OfferRow> rows = extractTabularRows(this::buildExcelRowsPrompt, excelContent, excelData);
+            logger.info("AI returned {} offer rows", rows.size());
+            long extractionId = offerStore.save("excel", rows);
+            searchIndex.submit(extractionId, "excel", rows, excelData, null);
 
-            // Parse the AI response
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(jsonResponse);
-            
-            if (!rootNode.isArray()) {
-                logger.info("Converting single object to array");
-                ArrayNode arrayNode = mapper.createArrayNode();
-                arrayNode.add(rootNode);
-                rootNode = arrayNode;
-            }
-            
             // Create Excel workbook with the processed data
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Offer Details");
-                
-                // Create header style
-                CellStyle headerStyle = workbook.createCellStyle();
-                Font headerFont = workbook.createFont();
-                headerFont.setBold(true);
-                headerStyle.setFont(headerFont);
-                headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-                headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-                headerStyle.setAlignment(HorizontalAlignment.CENTER);
-                headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-                headerStyle.setBorderBottom(BorderStyle.THIN);
-                headerStyle.setBorderTop(BorderStyle.THIN);
-                headerStyle.setBorderLeft(BorderStyle.THIN);
-                headerStyle.setBorderRight(BorderStyle.THIN);
-                headerStyle.setWrapText(true);
-                
-                String[] headers = {
-                    "Sku Code (All/Specific SKU/NA)*",
-                    "Min Amount*",
-                    "Max Amount",
-                    "Include States",
-                    "Exclude States",
-                    "Bank Name (All/Specific Bank/Few Banks)*",
-                    "Card Type (Credit/Debit/Both)",
-                    "Full Swipe Offer Amount Type (Fixed/Percentage)*",
-                    "Full Swipe Offer Value",
-                    "Full Swipe Offer Max Amount (Percentage Type Case)",
-                    "EMI Offer Amount Type (Fixed/Percentage)*",
-                    "EMI Offer Value",
-                    "EMI Offer Max Amount (Percentage Type Case)",
-                    "Full Swipe Subvention Type (Fixed/Percentage)",
-                    "Full Swipe Bank Subvention Value",
-                    "Full Swipe Brand Subvention Value",
-                    "EMI Subvention Type (Fixed/Percentage)",
-                    "EMI Bank Subvention Value",
-                    "EMI Brand Subvention Value",
-                    "Start Date(yyyy-MM-dd HH:mm:sss)",
-                    "End Date(yyyy-MM-dd HH:mm:sss)"
-                };
-
-                // Create header row
-                Row headerRow = sheet.createRow(0);
-                for (int i = 0; i < headers.length; i++) {
-                    Cell cell = headerRow.createCell(i);
-                    cell.setCellValue(headers[i]);
-                    cell.setCellStyle(headerStyle);
-                    sheet.setColumnWidth(i, 256 * 30);
-                }
-                headerRow.setHeight((short) 900);
-
-                // Process each object from AI response
-                int rowNum = 1;
-                for (JsonNode offerNode : rootNode) {
-                    Row dataRow = sheet.createRow(rowNum++);
-                    int colNum = 0;
-                    
-                    // Map JSON fields to Excel columns
-                    createCell(dataRow, colNum++, offerNode.get("sku_code"));
-                    createCell(dataRow, colNum++, offerNode.get("min_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("include_states"));
-                    createCell(dataRow, colNum++, offerNode.get("exclude_states"));
-                    createCell(dataRow, colNum++, offerNode.get("bank_name"));
-                    createCell(dataRow, colNum++, offerNode.get("card_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("start_date"));
-                    createCell(dataRow, colNum++, offerNode.get("end_date"));
-                }
+            RequestDeadline.checkpoint("workbook");
+            HeapBudget.recordRows(rows.size());
+            byte[] result = writeOfferWorkbook(rows, "Offer Details", excelData.getSkippedSheets());
+            HeapBudget.sample();
+            logger.info("Generated Excel file size: {} bytes", result.length);
+            return result;
+        } catch (RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error processing Excel file: ", e);
+            throw new IOException("Error processing Excel file: " + e.getMessage());
+        }
+    }
 
-                // Auto-size columns
-                for (int i = 0; i < headers.length; i++) {
-                    sheet.autoSizeColumn(i);
-                }
+    /**
+     * Processes an uploaded CSV (or Excel) file. A CSV of at least
+     * {@code offer.csv.parallel.min-bytes} is memory-mapped and parsed in parallel by
+     * {@link ParallelCsvReader} instead of being read onto the heap first.
+     */
+    public byte[] processCsvFile(MultipartFile file) throws IOException {
+        byte[] signature = new byte[4];
+        int read;
+        try (InputStream in = file.getInputStream()) {
+            read = in.readNBytes(signature, 0, signature.length);
+        }
+        if (read == signature.length && isExcelFile(signature)) {
+            byte[] fileBytes = readWorkbookUpload(file);
+            try (HeapBudget.Reservation reservation = heapBudget.reserve(uploadKind(fileBytes), fileBytes.length)) {
+                return processCsvFile(fileBytes);
+            }
+        }
+        boolean mapped = read == signature.length && csvReader.accepts(file.getSize());
+        // A mapped CSV is extracted chunk by chunk, so only the segments parsed ahead are on the heap
+        try (HeapBudget.Reservation reservation = mapped
+                ? heapBudget.reserve(HeapBudget.Kind.MAPPED_CSV, csvReader.bufferedBytes(file.getSize()))
+                : heapBudget.reserve(HeapBudget.Kind.CSV, file.getSize())) {
+            return mapped ? processLargeCsvFile(file) : processCsvFile(file.getBytes());
+        }
+    }
 
-                // Write to byte array
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                workbook.write(outputStream);
-                byte[] result = outputStream.toByteArray();
-                logger.info("Generated Excel file size: {} bytes", result.length);
-                return result;
+    /**
+     * Extracts a mapped CSV one chunk of rows at a time, as {@link ParallelCsvReader} hands the
+     * chunks on: each gets its own prompt (or learned-layout conversion), and only its offers
+     * and their source text are kept once it is done.
+     */
+    private byte[] processLargeCsvFile(MultipartFile file) throws IOException {
+        logger.info("Starting large CSV processing ({} MB)", file.getSize() >> 20);
+        Path upload = Files.createTempFile("offer-upload-", ".csv");
+        try {
+            // transferTo moves the multipart's own temp file into place rather than copying it
+            Files.delete(upload);
+            file.transferTo(upload.toFile());
+            RequestDeadline.checkpoint("parse");
+            if (LlmScheduler.currentPriority() == LlmScheduler.Priority.FILE) {
+                // Bulk uploads yield to interactive and regular file work
+                LlmScheduler.setPriority(LlmScheduler.Priority.BATCH);
+            }
+            List<OfferRow> rows = new ArrayList<>();
+            List<OfferSearchIndex.PendingOffer> indexed = new ArrayList<>();
+            String[] fingerprint = new String[1];
+            boolean read;
+            try (Span span = Tracing.start("parse.csv.mapped")) {
+                span.setAttribute("file.size", file.getSize());
+                read = csvReader.read(upload, "CSV", chunk -> {
+                    TabularData.SheetData sheet = chunk.getSheets().get(0);
+                    // Later chunks have the first one's layout, whatever their own first rows look like
+                    if (fingerprint[0] == null) {
+                        fingerprint[0] = layoutCatalog.fingerprint(sheet);
+                    }
+                    sheet.setLayoutFingerprint(fingerprint[0]);
+                    List<OfferRow> chunkRows = extractTabularRows(this::buildTabularRowsPrompt, chunk.toPromptText(), chunk);
+                    logger.info("AI returned {} offer rows for records up to {}", chunkRows.size(), sheet.getTotalRows());
+                    rows.addAll(chunkRows);
+                    indexed.addAll(searchIndex.pending(chunkRows, chunk, null));
+                    HeapBudget.sample();
+                });
+                span.setAttribute("offer.rows", rows.size());
+            }
+            if (!read) {
+                logger.info("UTF-16 CSV, reading it on the heap");
+                try (HeapBudget.Reservation reservation = heapBudget.reserve(HeapBudget.Kind.CSV, file.getSize())) {
+                    return processCsvFile(Files.readAllBytes(upload));
+                }
             }
+            long extractionId = offerStore.save("csv", rows);
+            searchIndex.submit(extractionId, "csv", indexed);
+
+            RequestDeadline.checkpoint("workbook");
+            HeapBudget.recordRows(rows.size());
+            byte[] result = writeOfferWorkbook(rows, "Offer Details");
+            HeapBudget.sample();
+            logger.info("Generated Excel file size: {} bytes", result.length);
+            return result;
+        } catch (RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
-            logger.error("Error processing Excel file: ", e);
-            throw new IOException("Error processing Excel file: " + e.getMessage());
+            logger.error("Error processing file: {}", e.getMessage());
+            throw new IOException("Error processing file: " + e.getMessage());
+        } finally {
+            Files.deleteIfExists(upload);
         }
     }
 
@@ -961,189 +1551,55 @@ public class OfferExtractionService {
             }
 
             // Detect file type and process accordingly
-            String fileContent;
+            RequestDeadline.checkpoint("parse");
+            TabularData fileData;
+            String source;
             if (isExcelFile(fileBytes)) {
                 logger.info("Detected Excel file, processing as Excel");
-                fileContent = readExcelFile(new ByteArrayInputStream(fileBytes));
+                fileData = readWorkbook(new ByteArrayInputStream(fileBytes));
+                source = "excel";
             } else {
                 logger.info("Detected CSV file, processing as CSV");
-                fileContent = new String(fileBytes);
-            }
-            
-            logger.info("File Content (first 1000 chars):\n{}", fileContent.substring(0, Math.min(1000, fileContent.length())));
-
-            // Create AI prompt for processing
-            String prompt = "You are a business assistant AI. Your task is to extract structured offer data from a product offer sheet provided in tabular format. Each row represents a distinct offer entry and must be processed individually.\n\n" +
-                "### INSTRUCTIONS:\n" +
-                "1. Process **every row** in the data.\n" +
-                "2. Each row should be mapped to **one JSON object**.\n" +
-                "3. Your final output must be a **JSON array** of multiple offer objects.\n" +
-                "4. Do **not** merge or combine information across rows.\n" +
-                "5. If there are 4 rows, your output must have 4 JSON objects.\n" +
-                "6. **DO NOT OMIT ANY ROW** – include all, even if some fields are missing.\n" +
-                "7. If a value is missing, return it as an **empty string** in the JSON.\n\n" +
-                "### SPECIAL CLARIFICATION FOR `sku_code`:\n" +
-                "- Each row contains the product name, variant, and Product ID. Combine these to form the SKU like:\n" +
-                "  `\"Xiaomi Pad 6|6GB+128GB|47867\"` or `\"Redmi Pad|4GB+128GB|43553\"`\n" +
-                "- Use this combined value as the **`sku_code`** field.\n" +
-                "- If a row applies to multiple SKUs, list them as comma-separated.\n" +
-                "- If the offer applies to all SKUs, use `\"All\"`.\n" +
-                "- If no SKU info is present, use `\"NA\"`.\n\n" +
-                "### YOUR OUTPUT MUST FOLLOW THIS EXACT JSON STRUCTURE:\n" +
-                "[\n" +
-                "  {\n" +
-                "    \"sku_code\": \"\",\n" +
-                "    \"min_amount\": \"\",\n" +
-                "    \"max_amount\": \"\",\n" +
-                "    \"include_states\": \"\",\n" +
-                "    \"exclude_states\": \"\",\n" +
-                "    \"bank_name\": \"\",\n" +
-                "    \"card_type\": \"\",\n" +
-                "    \"full_swipe_offer_amount_type\": \"\",\n" +
-                "    \"full_swipe_offer_value\": \"\",\n" +
-                "    \"full_swipe_offer_max_amount\": \"\",\n" +
-                "    \"emi_offer_amount_type\": \"\",\n" +
-                "    \"emi_offer_value\": \"\",\n" +
-                "    \"emi_offer_max_amount\": \"\",\n" +
-                "    \"full_swipe_subvention_type\": \"\",\n" +
-                "    \"full_swipe_bank_subvention_value\": \"\",\n" +
-                "    \"full_swipe_brand_subvention_value\": \"\",\n" +
-                "    \"emi_subvention_type\": \"\",\n" +
-                "    \"emi_bank_subvention_value\": \"\",\n" +
-                "    \"emi_brand_subvention_value\": \"\",\n" +
-                "    \"start_date\": \"\",\n" +
-                "    \"end_date\": \"\"\n" +
-                "  }\n" +
-                "]\n\n" +
-                "### ADDITIONAL INSTRUCTIONS:\n" +
-                "1. For dates, use format: YYYY-MM-DD HH:mm:ss\n" +
-                "2. For amount fields, use numbers without currency symbols\n" +
-                "3. For percentage fields, use the word \"Percentage\"\n" +
-                "4. For fixed amount fields, use the word \"Fixed\"\n" +
-                "5. For card type, use \"Credit\", \"Debit\", or \"Both\"\n" +
-                "6. For bank name, use the actual bank name or \"All\"\n\n" +
-                "Data:\n" + fileContent;
-
-            // Call AI service
-            String response = callAIService(prompt);
-            logger.info("Raw AI Response:\n{}", response);
-
-            // Clean and validate JSON response
-            String cleanedResponse = cleanJsonResponse(response);
-            logger.info("Cleaned JSON Response:\n{}", cleanedResponse);
-
-            // Parse JSON response
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode rootNode = mapper.readTree(cleanedResponse);
-            
-            if (!rootNode.isArray()) {
-                logger.info("Converting single object to array");
-                ArrayNode arrayNode = mapper.createArrayNode();
-                arrayNode.add(rootNode);
-                rootNode = arrayNode;
-            }
-            
-            // Create Excel workbook with the processed data
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Offer Details");
-                
-                // Create header style
-                CellStyle headerStyle = workbook.createCellStyle();
-                Font headerFont = workbook.createFont();
-                headerFont.setBold(true);
-                headerStyle.setFont(headerFont);
-                headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-                headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-                headerStyle.setAlignment(HorizontalAlignment.CENTER);
-                headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-                headerStyle.setBorderBottom(BorderStyle.THIN);
-                headerStyle.setBorderTop(BorderStyle.THIN);
-                headerStyle.setBorderLeft(BorderStyle.THIN);
-                headerStyle.setBorderRight(BorderStyle.THIN);
-                headerStyle.setWrapText(true);
-                
-                String[] headers = {
-                    "Sku Code (All/Specific SKU/NA)*",
-                    "Min Amount*",
-                    "Max Amount",
-                    "Include States",
-                    "Exclude States",
-                    "Bank Name (All/Specific Bank/Few Banks)*",
-                    "Card Type (Credit/Debit/Both)",
-                    "Full Swipe Offer Amount Type (Fixed/Percentage)*",
-                    "Full Swipe Offer Value",
-                    "Full Swipe Offer Max Amount (Percentage Type Case)",
-                    "EMI Offer Amount Type (Fixed/Percentage)*",
-                    "EMI Offer Value",
-                    "EMI Offer Max Amount (Percentage Type Case)",
-                    "Full Swipe Subvention Type (Fixed/Percentage)",
-                    "Full Swipe Bank Subvention Value",
-                    "Full Swipe Brand Subvention Value",
-                    "EMI Subvention Type (Fixed/Percentage)",
-                    "EMI Bank Subvention Value",
-                    "EMI Brand Subvention Value",
-                    "Start Date(yyyy-MM-dd HH:mm:sss)",
-                    "End Date(yyyy-MM-dd HH:mm:sss)"
-                };
-
-                // Create header row
-                Row headerRow = sheet.createRow(0);
-                for (int i = 0; i < headers.length; i++) {
-                    Cell cell = headerRow.createCell(i);
-                    cell.setCellValue(headers[i]);
-                    cell.setCellStyle(headerStyle);
-                    sheet.setColumnWidth(i, 256 * 30);
-                }
-                headerRow.setHeight((short) 900);
-
-                // Process each object from AI response
-                int rowNum = 1;
-                for (JsonNode offerNode : rootNode) {
-                    Row dataRow = sheet.createRow(rowNum++);
-                    int colNum = 0;
-                    
-                    // Map JSON fields to Excel columns
-                    createCell(dataRow, colNum++, offerNode.get("sku_code"));
-                    createCell(dataRow, colNum++, offerNode.get("min_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("include_states"));
-                    createCell(dataRow, colNum++, offerNode.get("exclude_states"));
-                    createCell(dataRow, colNum++, offerNode.get("bank_name"));
-                    createCell(dataRow, colNum++, offerNode.get("card_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_amount_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_offer_max_amount"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("full_swipe_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_subvention_type"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_bank_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("emi_brand_subvention_value"));
-                    createCell(dataRow, colNum++, offerNode.get("start_date"));
-                    createCell(dataRow, colNum++, offerNode.get("end_date"));
-                }
-
-                // Auto-size columns
-                for (int i = 0; i < headers.length; i++) {
-                    sheet.autoSizeColumn(i);
-                }
-
-                // Write to byte array
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                workbook.write(outputStream);
-                byte[] result = outputStream.toByteArray();
-                logger.info("Generated Excel file size: {} bytes", result.length);
-                return result;
+                fileData = readCsv(fileBytes);
+                source = "csv";
             }
+            return processTabularData(fileData, source);
+        } catch (RequestCancelledException | HeapBudgetExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Error processing file: {}", e.getMessage());
             throw new IOException("Error processing file: " + e.getMessage());
         }
     }
 
+    private byte[] processTabularData(TabularData fileData, String source) throws Exception {
+        HeapBudget.sample();
+        String fileContent = fileData.toPromptText();
+        
+        logger.info("File Content (first 1000 chars):\n{}", fileContent.substring(0, Math.min(1000, fileContent.length())));
+
+        // Call AI service
+        List<OfferRow> rows = extractTabularRows(this::buildTabularRowsPrompt, fileContent, fileData);
+        logger.info("AI returned {} offer rows", rows.size());
+        long extractionId = offerStore.save(source, rows);
+        searchIndex.submit(extractionId, source, rows, fileData, null);
+
+        // Create Excel workbook with the processed data
+        RequestDeadline.checkpoint("workbook");
+        HeapBudget.recordRows(rows.size());
+        byte[] result = writeOfferWorkbook(rows, "Offer Details", fileData.getSkippedSheets());
+        HeapBudget.sample();
+        logger.info("Generated Excel file size: {} bytes", result.length);
+        return result;
+    }
+
+    private HeapBudget.Kind uploadKind(byte[] fileBytes) {
+        if (!isExcelFile(fileBytes)) {
+            return HeapBudget.Kind.CSV;
+        }
+        return fileBytes[0] == 0x50 ? HeapBudget.Kind.XLSX : HeapBudget.Kind.XLS;
+    }
+
     private boolean isExcelFile(byte[] fileBytes) {
         // Check for Excel file signature
         if (fileBytes.length >= 4) {
@@ -1197,14 +1653,34 @@ public class OfferExtractionService {
             }
         }
 
-        // Auto-size columns
-        for (int i = 0; i < sheet.getRow(0).getLastCellNum(); i++) {
-            sheet.autoSizeColumn(i);
+        // Size columns to their longest value
+        OfferWorkbookTemplate.ColumnWidths widths = new OfferWorkbookTemplate.ColumnWidths(sheet.getRow(0).getLastCellNum());
+        DataFormatter formatter = new DataFormatter();
+        for (Row row : sheet) {
+            for (Cell cell : row) {
+                widths.record(cell.getColumnIndex(), formatter.formatCellValue(cell));
+            }
         }
+        widths.apply(sheet);
 
         // Write workbook to byte array
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         sheet.getWorkbook().write(outputStream);
         return outputStream.toByteArray();
     }
-} 
\ No newline at end of file
+
+    private static class ExtractedRows {
+        private final List<OfferRow> rows;
+        // The completion hit the token limit, so rows after the last one are missing
+        private final boolean truncated;
+
+        ExtractedRows(List<OfferRow> rows, boolean truncated) {
+            this.rows = rows;
+            this.truncated = truncated;
+        }
+    }
+
+    private interface ChoiceReader<T> {
+        T read(ChatChoice choice) throws IOException;
+    }
+}
@@ -0,0 +1,211 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes offer row fields locally after extraction: dates to {@code yyyy-MM-dd HH:mm:ss},
+ * amounts to plain numbers (Indian digit grouping, currency symbols and lakh/crore suffixes
+ * removed) and card/amount types to their canonical values. All formatters and patterns are
+ * immutable and built once, so a single instance is safe to share across request threads.
+ */
+@Component
+public class OfferFieldNormalizer {
+    public static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+
+    private static final Pattern CANONICAL_DATE_TIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}");
+    private static final Pattern AMOUNT = Pattern.compile("^-?\\d+(\\.\\d+)?$");
+    private static final Pattern AMOUNT_NOISE = Pattern.compile("(?i)(₹|rs\\.?|inr|/-|,|\\s)");
+    private static final Pattern AMOUNT_WITH_UNIT = Pattern.compile("(?i)^(-?\\d+(?:\\.\\d+)?)(k|l|lac|lakh|lakhs|cr|crore|crores)?%?$");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final List<DateTimeFormatter> DATE_TIME_FORMATS = Arrays.asList(
+        formatter("uuuu-MM-dd HH:mm:ss"),
+        formatter("uuuu-MM-dd'T'HH:mm:ss"),
+        formatter("uuuu-MM-dd HH:mm"),
+        formatter("dd-MM-uuuu HH:mm:ss"),
+        formatter("dd/MM/uuuu HH:mm:ss"),
+        formatter("dd/MM/uuuu HH:mm")
+    );
+
+    // Day-first before month-first: Indian brand sheets write 05/04/2025 for 5 April
+    private static final List<DateTimeFormatter> DATE_FORMATS = Arrays.asList(
+        formatter("uuuu-MM-dd"),
+        formatter("uuuu/MM/dd"),
+        formatter("d-M-uuuu"),
+        formatter("d/M/uuuu"),
+        formatter("d.M.uuuu"),
+        formatter("d-MMM-uuuu"),
+        formatter("d-MMM-uu"),
+        formatter("d MMM uuuu"),
+        formatter("d MMMM uuuu"),
+        formatter("MMM d, uuuu"),
+        formatter("MMMM d, uuuu"),
+        formatter("d/M/uu")
+    );
+
+    private static final String[] AMOUNT_FIELDS = {
+        "min_amount", "max_amount", "full_swipe_offer_value", "full_swipe_offer_max_amount",
+        "emi_offer_value", "emi_offer_max_amount", "full_swipe_bank_subvention_value",
+        "full_swipe_brand_subvention_value", "emi_bank_subvention_value", "emi_brand_subvention_value"
+    };
+
+    private static final String[] AMOUNT_TYPE_FIELDS = {
+        "full_swipe_offer_amount_type", "emi_offer_amount_type", "full_swipe_subvention_type", "emi_subvention_type"
+    };
+
+    private static final Map<String, String> CARD_TYPES = new HashMap<>();
+    private static final Map<String, String> AMOUNT_TYPES = new HashMap<>();
+
+    static {
+        for (String alias : new String[]{"credit", "credit card", "credit cards", "cc"}) {
+            CARD_TYPES.put(alias, "Credit");
+        }
+        for (String alias : new String[]{"debit", "debit card", "debit cards", "dc"}) {
+            CARD_TYPES.put(alias, "Debit");
+        }
+        for (String alias : new String[]{"both", "all", "credit/debit", "credit & debit", "credit and debit",
+                "debit/credit", "cc/dc", "cc & dc", "credit, debit", "credit & debit cards", "credit and debit cards"}) {
+            CARD_TYPES.put(alias, "Both");
+        }
+        for (String alias : new String[]{"fixed", "flat", "amount", "absolute", "rs", "inr", "₹", "fixed amount", "flat amount"}) {
+            AMOUNT_TYPES.put(alias, "Fixed");
+        }
+        for (String alias : new String[]{"percentage", "percent", "%", "pct", "per cent", "percentage (%)"}) {
+            AMOUNT_TYPES.put(alias, "Percentage");
+        }
+    }
+
+    private static DateTimeFormatter formatter(String pattern) {
+        return new DateTimeFormatterBuilder()
+                .parseCaseInsensitive()
+                .appendPattern(pattern)
+                .toFormatter(Locale.ENGLISH)
+                .withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    public void normalize(List<OfferRow> rows) {
+        for (OfferRow row : rows) {
+            normalize(row);
+        }
+    }
+
+    public void normalize(OfferRow row) {
+        for (String field : AMOUNT_TYPE_FIELDS) {
+            row.set(field, normalizeAmountType(row.get(field)));
+        }
+        for (String field : AMOUNT_FIELDS) {
+            String raw = row.get(field);
+            row.set(field, normalizeAmount(raw));
+            // "10%" in a value column says the offer is a percentage even if the type was left out
+            if (raw != null && raw.contains("%") && field.endsWith("_offer_value")) {
+                String typeField = field.replace("_value", "_amount_type");
+                if (row.get(typeField) == null || row.get(typeField).isEmpty()) {
+                    row.set(typeField, "Percentage");
+                }
+            }
+        }
+        row.setCardType(normalizeCardType(row.getCardType()));
+        row.setStartDate(normalizeDate(row.getStartDate(), false));
+        row.setEndDate(normalizeDate(row.getEndDate(), true));
+    }
+
+    /**
+     * Text of a date cell. A cell with no time of day is written as a date, so an end date
+     * still gets the end of that day from {@link #normalizeDate}.
+     */
+    public String formatCellDate(LocalDateTime dateTime) {
+        if (dateTime.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return DateTimeFormatter.ISO_LOCAL_DATE.format(dateTime);
+        }
+        return DATE_TIME_FORMAT.format(dateTime);
+    }
+
+    /**
+     * Parses a date in any of the supported layouts into {@code yyyy-MM-dd HH:mm:ss}. Date-only
+     * values start at midnight, or end at 23:59:59 when {@code endOfDay} is set. Values that match
+     * no layout are returned unchanged for validation to report.
+     */
+    public String normalizeDate(String value, boolean endOfDay) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = WHITESPACE.matcher(value.trim()).replaceAll(" ");
+        if (trimmed.isEmpty() || CANONICAL_DATE_TIME.matcher(trimmed).matches()) {
+            return trimmed;
+        }
+        for (DateTimeFormatter format : DATE_TIME_FORMATS) {
+            try {
+                return DATE_TIME_FORMAT.format(LocalDateTime.parse(trimmed, format));
+            } catch (DateTimeParseException e) {
+                // Try the next layout
+            }
+        }
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                LocalDate date = LocalDate.parse(trimmed, format);
+                return DATE_TIME_FORMAT.format(date.atTime(endOfDay ? LocalTime.of(23, 59, 59) : LocalTime.MIDNIGHT));
+            } catch (DateTimeParseException e) {
+                // Try the next layout
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * Turns amounts such as "₹1,00,000", "Rs. 5,000/-", "1.5 lakh" or "10%" into plain numbers.
+     */
+    public String normalizeAmount(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        if (trimmed.isEmpty() || AMOUNT.matcher(trimmed).matches()) {
+            return trimmed;
+        }
+        String cleaned = AMOUNT_NOISE.matcher(trimmed).replaceAll("");
+        Matcher matcher = AMOUNT_WITH_UNIT.matcher(cleaned);
+        if (!matcher.matches()) {
+            return trimmed;
+        }
+        BigDecimal amount = new BigDecimal(matcher.group(1));
+        String unit = matcher.group(2) != null ? matcher.group(2).toLowerCase(Locale.ROOT) : "";
+        if (unit.equals("k")) {
+            amount = amount.multiply(BigDecimal.valueOf(1_000));
+        } else if (unit.startsWith("l")) {
+            amount = amount.multiply(BigDecimal.valueOf(100_000));
+        } else if (unit.startsWith("cr")) {
+            amount = amount.multiply(BigDecimal.valueOf(10_000_000));
+        }
+        return amount.stripTrailingZeros().toPlainString();
+    }
+
+    public String normalizeCardType(String value) {
+        return canonicalize(value, CARD_TYPES);
+    }
+
+    public String normalizeAmountType(String value) {
+        return canonicalize(value, AMOUNT_TYPES);
+    }
+
+    private String canonicalize(String value, Map<String, String> aliases) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        String canonical = aliases.get(WHITESPACE.matcher(trimmed.toLowerCase(Locale.ROOT)).replaceAll(" "));
+        return canonical != null ? canonical : trimmed;
+    }
+}
@@ -0,0 +1,81 @@
+package com.ezetap.server.web.portal.service;
+
+import com.azure.ai.openai.models.ChatCompletionsFunctionToolDefinition;
+import com.azure.ai.openai.models.FunctionDefinition;
+import com.azure.core.util.BinaryData;
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Function-calling schema for offer row extraction. The model is forced to call
+ * {@code record_offers} with an {@code offers} array whose items match {@link OfferRow}, so the
+ * arguments can be bound straight to typed objects without any text cleanup.
+ */
+final class OfferOutputSchema {
+    static final String RECORD_OFFERS_FUNCTION = "record_offers";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final ChatCompletionsFunctionToolDefinition RECORD_OFFERS_TOOL = new ChatCompletionsFunctionToolDefinition(
+            new FunctionDefinition(RECORD_OFFERS_FUNCTION)
+                    .setDescription("Record every offer extracted from the input, one object per offer row")
+                    .setParameters(BinaryData.fromObject(buildParameters())));
+
+    static final BinaryData RECORD_OFFERS_TOOL_CHOICE = BinaryData.fromObject(buildToolChoice());
+
+    private OfferOutputSchema() {
+    }
+
+    // BinaryData.fromString would embed these as JSON strings, so they are built as trees
+    private static ObjectNode buildToolChoice() {
+        ObjectNode toolChoice = MAPPER.createObjectNode();
+        toolChoice.put("type", "function");
+        toolChoice.putObject("function").put("name", RECORD_OFFERS_FUNCTION);
+        return toolChoice;
+    }
+
+    private static ObjectNode buildParameters() {
+        ObjectNode offerProperties = MAPPER.createObjectNode();
+        ArrayNode required = MAPPER.createArrayNode();
+        for (String field : OfferRow.FIELDS) {
+            offerProperties.putObject(field).put("type", "string");
+            required.add(field);
+        }
+        offerProperties.putObject("source_row")
+                .put("type", "string")
+                .put("description", "sheet:row of the input row this offer came from, e.g. 1:15");
+
+        ObjectNode offer = MAPPER.createObjectNode();
+        offer.put("type", "object");
+        offer.set("properties", offerProperties);
+        offer.set("required", required);
+
+        ObjectNode parameters = MAPPER.createObjectNode();
+        parameters.put("type", "object");
+        ObjectNode offers = parameters.putObject("properties").putObject("offers");
+        offers.put("type", "array");
+        offers.set("items", offer);
+        parameters.putArray("required").add("offers");
+        return parameters;
+    }
+
+    /**
+     * Arguments of a {@code record_offers} call.
+     */
+    static class OfferRowsArguments {
+        private List<OfferRow> offers = new ArrayList<>();
+
+        public List<OfferRow> getOffers() {
+            return offers;
+        }
+
+        public void setOffers(List<OfferRow> offers) {
+            this.offers = offers;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.ezetap.shared.api.output.brand.emi.OfferSearchResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.facet.*;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded Lucene index of every extraction, one document per offer row: the offer fields and
+ * the source text or sheet row it came from are searchable, and brand, bank, card type and
+ * start month are facets. Documents are added by a background indexer thread and become
+ * visible within {@code offer.search.refresh-ms} (near-real-time reopen from the writer);
+ * the index is committed to disk periodically and on shutdown. Queued work holds only the
+ * offers and their source text, never the upload, and at most {@code max-queued-offers} offers
+ * wait at a time; extractions beyond that are not indexed.
+ */
+@Component
+public class OfferSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(OfferSearchIndex.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] FACET_DIMS = {"brand", "bank", "card_type", "month"};
+    private static final int MAX_SOURCE_TEXT = 2000;
+    private static final int FACET_TOP_N = 10;
+    // Same sortable yyyyMMddHHmmss numbers as OfferValidator.parseDateTime
+    private static final DateTimeFormatter POINT_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    @Value("${offer.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.search.index-dir:./data/search-index}")
+    private String indexDir;
+
+    @Value("${offer.search.refresh-ms:1000}")
+    private long refreshMs;
+
+    @Value("${offer.search.commit-interval-ms:30000}")
+    private long commitIntervalMs;
+
+    @Value("${offer.search.max-queued-offers:50000}")
+    private long maxQueuedOffers;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final FacetsConfig facetsConfig = new FacetsConfig();
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ExecutorService indexer;
+    private final AtomicLong queuedOffers = new AtomicLong();
+    private ScheduledExecutorService maintenance;
+    // Facet ordinals for the current reader; rebuilt only when a refresh opens a new reader
+    private volatile FacetState facetState;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            logger.info("Offer search index disabled (offer.search.enabled=false)");
+            return;
+        }
+        facetsConfig.setMultiValued("bank", true);
+        directory = FSDirectory.open(Paths.get(indexDir));
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+            .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+
+        indexer = Executors.newSingleThreadExecutor(daemon("offer-indexer"));
+        maintenance = Executors.newSingleThreadScheduledExecutor(daemon("offer-index-refresh"));
+        maintenance.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::commit, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Opened offer search index at {} ({} documents)", indexDir, writer.getDocStats().numDocs);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        indexer.shutdown();
+        maintenance.shutdownNow();
+        try {
+            indexer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * Queues the rows of one extraction for indexing; returns immediately. {@code data} (sheet
+     * rows) or {@code rawText} supplies the source text stored with each offer. Extractions that
+     * {@link OfferStore} did not store ({@code extractionId} -1) are not indexed, since search
+     * results point to the stored extraction.
+     */
+    public void submit(long extractionId, String source, List<OfferRow> rows, TabularData data, String rawText) {
+        if (!enabled || rows.isEmpty() || extractionId < 0) {
+            return;
+        }
+        // The source text is looked up now, so the upload is not kept alive until the indexer gets to it
+        submit(extractionId, source, pending(rows, data, rawText));
+    }
+
+    /**
+     * Same as {@link #submit(long, String, List, TabularData, String)} for offers whose source
+     * text was taken with {@link #pending} while their part of the upload was at hand.
+     */
+    public void submit(long extractionId, String source, List<PendingOffer> pending) {
+        if (!enabled || pending.isEmpty() || extractionId < 0) {
+            return;
+        }
+        if (queuedOffers.addAndGet(pending.size()) > maxQueuedOffers) {
+            queuedOffers.addAndGet(-pending.size());
+            logger.warn("Indexing queue full ({} offers waiting), not indexing {} offers of extraction {}",
+                queuedOffers.get(), pending.size(), extractionId);
+            return;
+        }
+        indexer.execute(() -> {
+            try {
+                index(extractionId, source, pending);
+            } catch (Exception e) {
+                logger.error("Failed to index {} offers of extraction {}: {}", pending.size(), extractionId, e.getMessage());
+            } finally {
+                queuedOffers.addAndGet(-pending.size());
+            }
+        });
+    }
+
+    /** {@code rows} with their source text from {@code data} or {@code rawText}, for indexing later. */
+    public List<PendingOffer> pending(List<OfferRow> rows, TabularData data, String rawText) {
+        if (!enabled) {
+            return Collections.emptyList();
+        }
+        List<PendingOffer> pending = new ArrayList<>(rows.size());
+        for (OfferRow row : rows) {
+            pending.add(new PendingOffer(row, data, rawText));
+        }
+        return pending;
+    }
+
+    private void index(long extractionId, String source, List<PendingOffer> offers) throws IOException {
+        String indexedAt = OfferFieldNormalizer.DATE_TIME_FORMAT.format(LocalDateTime.now());
+        List<Document> documents = new ArrayList<>(offers.size());
+        for (PendingOffer offer : offers) {
+            OfferRow row = offer.row;
+            Document document = new Document();
+            document.add(new LongPoint("extraction_id", extractionId));
+            document.add(new StoredField("extraction_id", extractionId));
+            document.add(new StringField("source", source, Field.Store.YES));
+            document.add(new StoredField("indexed_at", indexedAt));
+            document.add(new StoredField("offer", MAPPER.writeValueAsString(row)));
+
+            String sourceText = offer.sourceText;
+            if (offer.sheet != null) {
+                document.add(new StoredField("sheet", offer.sheet));
+            }
+            if (offer.fromSheetRow) {
+                document.add(new StoredField("source_row", row.getSourceRow()));
+            }
+            if (sourceText != null) {
+                document.add(new StoredField("source_text", truncate(sourceText)));
+            }
+
+            StringBuilder content = new StringBuilder();
+            for (String field : OfferRow.FIELDS) {
+                String value = row.get(field);
+                if (value != null && !value.isEmpty()) {
+                    content.append(value).append('\n');
+                }
+            }
+            if (sourceText != null) {
+                content.append(sourceText);
+            }
+            document.add(new TextField("content", content.toString(), Field.Store.NO));
+
+            long start = OfferValidator.parseDateTime(row.getStartDate());
+            long end = OfferValidator.parseDateTime(row.getEndDate());
+            if (start >= 0 && end >= 0) {
+                document.add(new LongPoint("start_at", start));
+                document.add(new LongPoint("end_at", end));
+                document.add(new SortedSetDocValuesFacetField("month", row.getStartDate().substring(0, 7)));
+            }
+            String brand = OfferStore.deriveBrand(row.getSkuCode());
+            if (brand != null) {
+                document.add(new SortedSetDocValuesFacetField("brand", brand));
+            }
+            if (row.getBankName() != null) {
+                Set<String> banks = new LinkedHashSet<>();
+                for (String bank : row.getBankName().split(",")) {
+                    if (!bank.trim().isEmpty()) {
+                        banks.add(bank.trim());
+                    }
+                }
+                for (String bank : banks) {
+                    document.add(new SortedSetDocValuesFacetField("bank", bank));
+                }
+            }
+            if (row.getCardType() != null && !row.getCardType().trim().isEmpty()) {
+                document.add(new SortedSetDocValuesFacetField("card_type", row.getCardType().trim()));
+            }
+            documents.add(facetsConfig.build(document));
+        }
+        writer.addDocuments(documents);
+        logger.info("Indexed {} offers of extraction {}", documents.size(), extractionId);
+    }
+
+    /**
+     * Full-text search with optional drill-down on facet values. Facet counts are computed
+     * drill-sideways, so each dimension still shows the counts of its other values.
+     */
+    public OfferSearchResult search(String queryText, Map<String, String> filters, LocalDateTime activeAt, int limit) throws IOException {
+        long startTime = System.nanoTime();
+        OfferSearchResult result = new OfferSearchResult();
+        if (!enabled) {
+            return result;
+        }
+
+        Query textQuery;
+        if (queryText == null || queryText.trim().isEmpty()) {
+            textQuery = new MatchAllDocsQuery();
+        } else {
+            SimpleQueryParser parser = new SimpleQueryParser(analyzer, "content");
+            parser.setDefaultOperator(BooleanClause.Occur.MUST);
+            textQuery = parser.parse(queryText);
+        }
+        BooleanQuery.Builder baseQuery = new BooleanQuery.Builder().add(textQuery, BooleanClause.Occur.MUST);
+        if (activeAt != null) {
+            long time = Long.parseLong(activeAt.format(POINT_TIME_FORMAT));
+            baseQuery.add(LongPoint.newRangeQuery("start_at", Long.MIN_VALUE, time), BooleanClause.Occur.FILTER);
+            baseQuery.add(LongPoint.newRangeQuery("end_at", time, Long.MAX_VALUE), BooleanClause.Occur.FILTER);
+        }
+        DrillDownQuery drillDown = new DrillDownQuery(facetsConfig, baseQuery.build());
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (filter.getValue() != null && !filter.getValue().trim().isEmpty()) {
+                drillDown.add(filter.getKey(), filter.getValue().trim());
+            }
+        }
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            SortedSetDocValuesReaderState state = facetState(searcher.getIndexReader());
+            TopDocs topDocs;
+            if (state == null) {
+                // No faceted documents yet
+                topDocs = searcher.search(drillDown, limit);
+            } else {
+                DrillSideways.DrillSidewaysResult sideways = new DrillSideways(searcher, facetsConfig, state).search(drillDown, limit);
+                topDocs = sideways.hits;
+                for (String dim : FACET_DIMS) {
+                    List<OfferSearchResult.FacetValue> values = new ArrayList<>();
+                    FacetResult facet = null;
+                    try {
+                        facet = sideways.facets.getTopChildren(FACET_TOP_N, dim);
+                    } catch (IllegalArgumentException e) {
+                        // Dimension has no values in the index yet
+                    }
+                    if (facet != null) {
+                        for (LabelAndValue label : facet.labelValues) {
+                            values.add(new OfferSearchResult.FacetValue(label.label, label.value.intValue()));
+                        }
+                    }
+                    result.getFacets().put(dim, values);
+                }
+            }
+
+            result.setTotalHits(topDocs.totalHits.value);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                result.getHits().add(toHit(searcher.doc(scoreDoc.doc), scoreDoc.score));
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        result.setTookMs((System.nanoTime() - startTime) / 1_000_000);
+        return result;
+    }
+
+    private OfferSearchResult.Hit toHit(Document document, float score) throws IOException {
+        OfferSearchResult.Hit hit = new OfferSearchResult.Hit();
+        hit.setExtractionId(document.getField("extraction_id").numericValue().longValue());
+        hit.setSource(document.get("source"));
+        hit.setSheet(document.get("sheet"));
+        hit.setSourceRow(document.get("source_row"));
+        hit.setSourceText(document.get("source_text"));
+        hit.setIndexedAt(document.get("indexed_at"));
+        hit.setScore(score);
+        hit.setOffer(MAPPER.readValue(document.get("offer"), OfferRow.class));
+        return hit;
+    }
+
+    private SortedSetDocValuesReaderState facetState(IndexReader reader) throws IOException {
+        FacetState current = facetState;
+        if (current != null && current.reader == reader) {
+            return current.state;
+        }
+        synchronized (this) {
+            current = facetState;
+            if (current == null || current.reader != reader) {
+                SortedSetDocValuesReaderState state = null;
+                try {
+                    state = new DefaultSortedSetDocValuesReaderState(reader, facetsConfig);
+                } catch (IllegalArgumentException e) {
+                    // Thrown while the index has no facet values at all
+                }
+                current = new FacetState(reader, state);
+                facetState = current;
+            }
+            return current.state;
+        }
+    }
+
+    private void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            logger.warn("Failed to refresh offer search index: {}", e.getMessage());
+        }
+    }
+
+    private void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to commit offer search index: {}", e.getMessage());
+        }
+    }
+
+    private static String truncate(String text) {
+        return text.length() <= MAX_SOURCE_TEXT ? text : text.substring(0, MAX_SOURCE_TEXT);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // An offer waiting to be indexed with the text of the input it came from
+    public static final class PendingOffer {
+        private final OfferRow row;
+        private final boolean fromSheetRow;
+        private final String sheet;
+        private final String sourceText;
+
+        PendingOffer(OfferRow row, TabularData data, String rawText) {
+            this.row = row;
+            int[] sourceRow = IncrementalOfferRowParser.parseSourceRow(row.getSourceRow());
+            fromSheetRow = data != null && sourceRow != null;
+            if (fromSheetRow) {
+                TabularData.SheetRow sheetRow = data.findRow(sourceRow[0], sourceRow[1]);
+                sourceText = sheetRow != null ? String.join(" | ", sheetRow.getCells()) : null;
+                TabularData.SheetData sourceSheet = data.getSheet(sourceRow[0]);
+                sheet = sourceSheet != null ? sourceSheet.getName() : null;
+            } else {
+                sourceText = rawText;
+                sheet = null;
+            }
+        }
+    }
+
+    private static class FacetState {
+        private final IndexReader reader;
+        private final SortedSetDocValuesReaderState state;
+
+        FacetState(IndexReader reader, SortedSetDocValuesReaderState state) {
+            this.reader = reader;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferPage;
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.ezetap.shared.api.output.brand.emi.StoredOffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Keeps extracted offers in the embedded H2 database so they can be queried later instead of
+ * re-running extraction. Offers are written with batched inserts in one transaction per
+ * extraction; IDs come from a sequence in one round trip, so the per-(SKU, bank) scope rows
+ * can be batched alongside. Reads use keyset pagination on the offer ID and go through the
+ * brand, scope and date-window indexes.
+ */
+@Component
+public class OfferStore {
+    private static final Logger logger = LoggerFactory.getLogger(OfferStore.class);
+
+    private static final String INSERT_OFFER_SQL;
+    private static final String INSERT_SCOPE_SQL = "INSERT INTO offer_scope (offer_id, sku_key, bank_key) VALUES (?, ?, ?)";
+    private static final Set<String> NON_SKU_VALUES = new HashSet<>(Arrays.asList("", "all", "na", "n/a"));
+    // Column sizes in schema.sql; longer model output is cut rather than failing the whole batch
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final int MAX_FIELD_LENGTH = 1000;
+    private static final int MAX_TEXT_FIELD_LENGTH = 4000;
+    private static final Set<String> TEXT_FIELDS = new HashSet<>(Arrays.asList("sku_code"));
+
+    static {
+        StringBuilder columns = new StringBuilder("id, extraction_id, brand");
+        StringBuilder values = new StringBuilder("?, ?, ?");
+        for (String field : OfferRow.FIELDS) {
+            columns.append(", ").append(field);
+            values.append(", ?");
+        }
+        columns.append(", start_at, end_at, source_row, created_at");
+        values.append(", ?, ?, ?, ?");
+        INSERT_OFFER_SQL = "INSERT INTO offer (" + columns + ") VALUES (" + values + ")";
+    }
+
+    @Value("${offer.store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.store.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private BankEntityMatcher bankMatcher;
+
+    /**
+     * Stores the rows of one extraction and returns its ID, or -1 if nothing was stored. A store
+     * failure is logged and never fails the extraction itself.
+     */
+    public long save(String source, List<OfferRow> rows) {
+        if (!enabled || rows.isEmpty()) {
+            return -1;
+        }
+        long startTime = System.nanoTime();
+        try (Span span = Tracing.start("store.save")) {
+            span.setAttribute("offer.rows", rows.size());
+            Long extractionId = transactionTemplate.execute(status -> insert(source, rows));
+            logger.info("Stored {} offers from {} as extraction {} in {} ms", rows.size(), source, extractionId,
+                (System.nanoTime() - startTime) / 1_000_000);
+            return extractionId != null ? extractionId : -1;
+        } catch (DataAccessException e) {
+            logger.error("Failed to store {} offers from {}: {}", rows.size(), source, e.getMessage());
+            return -1;
+        }
+    }
+
+    private long insert(String source, List<OfferRow> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO extraction (source, row_count, created_at) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, fit(source, MAX_KEY_LENGTH));
+            statement.setInt(2, rows.size());
+            statement.setTimestamp(3, now);
+            return statement;
+        }, keyHolder);
+        long extractionId = keyHolder.getKey().longValue();
+
+        List<Long> ids = jdbcTemplate.queryForList(
+            "SELECT NEXT VALUE FOR offer_seq FROM SYSTEM_RANGE(1, ?)", Long.class, rows.size());
+        List<Object[]> scopes = new ArrayList<>();
+        List<Object[]> offers = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            OfferRow row = rows.get(i);
+            long id = ids.get(i);
+            Object[] values = new Object[OfferRow.FIELDS.length + 7];
+            values[0] = id;
+            values[1] = extractionId;
+            values[2] = fit(deriveBrand(row.getSkuCode()), MAX_KEY_LENGTH);
+            for (int f = 0; f < OfferRow.FIELDS.length; f++) {
+                String field = OfferRow.FIELDS[f];
+                values[3 + f] = fit(row.get(field), TEXT_FIELDS.contains(field) ? MAX_TEXT_FIELD_LENGTH : MAX_FIELD_LENGTH);
+            }
+            int next = 3 + OfferRow.FIELDS.length;
+            values[next] = toTimestamp(row.getStartDate());
+            values[next + 1] = toTimestamp(row.getEndDate());
+            values[next + 2] = fit(row.getSourceRow(), MAX_FIELD_LENGTH);
+            values[next + 3] = now;
+            offers.add(values);
+
+            for (String sku : skuKeys(row.getSkuCode())) {
+                for (String bank : bankKeys(row.getBankName())) {
+                    scopes.add(new Object[]{id, fit(sku, MAX_KEY_LENGTH), fit(bank, MAX_KEY_LENGTH)});
+                }
+            }
+        }
+        batchInsert(INSERT_OFFER_SQL, offers);
+        batchInsert(INSERT_SCOPE_SQL, scopes);
+        return extractionId;
+    }
+
+    private void batchInsert(String sql, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(rows.size(), from + batchSize)));
+        }
+    }
+
+    /**
+     * Reads stored offers with {@code id > after} in ID order. Every filter is optional: brand,
+     * bank and SKU (a product ID or a full sku_code item) match case-insensitively, offers
+     * stored for "All" banks or SKUs match any bank or SKU, and {@code activeAt} keeps offers
+     * whose window contains that time.
+     */
+    public OfferPage find(String brand, String bank, String sku, LocalDateTime activeAt, long after, int limit) {
+        StringBuilder filters = new StringBuilder();
+        List<Object> filterArgs = new ArrayList<>();
+        if (brand != null && !brand.trim().isEmpty()) {
+            filters.append(" AND o.brand = ?");
+            filterArgs.add(brand.trim());
+        }
+        if (activeAt != null) {
+            filters.append(" AND o.start_at <= ? AND o.end_at >= ?");
+            filterArgs.add(Timestamp.valueOf(activeAt));
+            filterArgs.add(Timestamp.valueOf(activeAt));
+        }
+        boolean hasBank = bank != null && !bank.trim().isEmpty();
+        boolean hasSku = sku != null && !sku.trim().isEmpty();
+        StringBuilder sql = new StringBuilder();
+        List<Object> args = new ArrayList<>();
+        if (hasBank || hasSku) {
+            // One branch per (key, "all") combination. Each walks its scope index in offer_id order
+            // from the cursor and stops after a page, so no page reads more than a page of entries
+            Set<String> banks = hasBank ? new LinkedHashSet<>(Arrays.asList(bankKey(bank), "all")) : Collections.singleton(null);
+            Set<String> skus = hasSku ? new LinkedHashSet<>(Arrays.asList(skuKey(sku), "all")) : Collections.singleton(null);
+            String keys = hasBank && hasSku ? "s.bank_key, s.sku_key" : hasBank ? "s.bank_key" : "s.sku_key";
+            StringJoiner branches = new StringJoiner(" UNION ");
+            for (String bankValue : banks) {
+                for (String skuValue : skus) {
+                    StringBuilder branch = new StringBuilder("SELECT offer_id FROM (SELECT DISTINCT ").append(keys)
+                        .append(", s.offer_id FROM offer_scope s JOIN offer o ON o.id = s.offer_id WHERE s.offer_id > ?");
+                    args.add(after);
+                    if (bankValue != null) {
+                        branch.append(" AND s.bank_key = ?");
+                        args.add(bankValue);
+                    }
+                    if (skuValue != null) {
+                        branch.append(" AND s.sku_key = ?");
+                        args.add(skuValue);
+                    }
+                    branch.append(filters).append(" ORDER BY ").append(keys).append(", s.offer_id LIMIT ?)");
+                    args.addAll(filterArgs);
+                    args.add(limit + 1);
+                    branches.add(branch);
+                }
+            }
+            sql.append("SELECT o.* FROM (").append(branches).append(") ids JOIN offer o ON o.id = ids.offer_id");
+        } else {
+            sql.append("SELECT o.* FROM offer o WHERE o.id > ?").append(filters);
+            args.add(after);
+            args.addAll(filterArgs);
+        }
+        sql.append(" ORDER BY o.id LIMIT ?");
+        args.add(limit + 1);
+
+        List<StoredOffer> offers = jdbcTemplate.query(sql.toString(), STORED_OFFER_MAPPER, args.toArray());
+        Long nextCursor = null;
+        if (offers.size() > limit) {
+            offers = new ArrayList<>(offers.subList(0, limit));
+            nextCursor = offers.get(limit - 1).getId();
+        }
+        return new OfferPage(offers, nextCursor);
+    }
+
+    private static final RowMapper<StoredOffer> STORED_OFFER_MAPPER = (resultSet, rowNum) -> {
+        OfferRow row = new OfferRow();
+        for (String field : OfferRow.FIELDS) {
+            row.set(field, resultSet.getString(field));
+        }
+        row.setSourceRow(resultSet.getString("source_row"));
+        StoredOffer offer = new StoredOffer();
+        offer.setId(resultSet.getLong("id"));
+        offer.setExtractionId(resultSet.getLong("extraction_id"));
+        offer.setBrand(resultSet.getString("brand"));
+        offer.setCreatedAt(OfferFieldNormalizer.DATE_TIME_FORMAT.format(resultSet.getTimestamp("created_at").toLocalDateTime()));
+        offer.setOffer(row);
+        return offer;
+    };
+
+    /**
+     * Brand of an offer, taken as the first word of the first specific product in its
+     * sku_code ("Xiaomi Pad 6|6GB+128GB|47867" is Xiaomi); null for "All"/"NA" offers.
+     */
+    static String deriveBrand(String skuCode) {
+        if (skuCode == null) {
+            return null;
+        }
+        for (String item : skuCode.split(",")) {
+            String name = item.split("\\|")[0].trim();
+            if (!NON_SKU_VALUES.contains(name.toLowerCase(Locale.ROOT)) && !name.chars().allMatch(Character::isDigit)) {
+                return name.split("\\s+")[0];
+            }
+        }
+        return null;
+    }
+
+    private static List<String> skuKeys(String skuCode) {
+        List<String> keys = new ArrayList<>();
+        if (skuCode != null) {
+            for (String item : skuCode.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    keys.add(skuKey(item));
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add("all");
+        }
+        return keys;
+    }
+
+    // A product ID when the item ends in one ("Redmi Pad|4GB+128GB|43553" -> 43553)
+    private static String skuKey(String item) {
+        String[] parts = item.trim().split("\\|");
+        String last = parts[parts.length - 1].trim();
+        if (!last.isEmpty() && last.chars().allMatch(Character::isDigit)) {
+            return last;
+        }
+        return item.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private List<String> bankKeys(String bankName) {
+        List<String> keys = new ArrayList<>();
+        if (bankName != null) {
+            for (String item : bankName.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    keys.add(bankKey(item));
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.add("all");
+        }
+        return keys;
+    }
+
+    private String bankKey(String bank) {
+        return bankMatcher.canonicalize(bank).toLowerCase(Locale.ROOT);
+    }
+
+    private static String fit(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    private static Timestamp toTimestamp(String dateTime) {
+        long parsed = OfferValidator.parseDateTime(dateTime);
+        return parsed < 0 ? null : Timestamp.valueOf(LocalDateTime.parse(dateTime, OfferFieldNormalizer.DATE_TIME_FORMAT));
+    }
+}
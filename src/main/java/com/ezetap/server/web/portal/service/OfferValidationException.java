@@ -0,0 +1,20 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferValidationReport;
+
+/**
+ * Thrown when extracted offers fail validation; carries the full per-row report so callers can
+ * return every error at once.
+ */
+public class OfferValidationException extends IllegalArgumentException {
+    private final OfferValidationReport report;
+
+    public OfferValidationException(OfferValidationReport report) {
+        super(report.getErrorCount() + " validation error(s) across " + report.getRowCount() + " row(s)");
+        this.report = report;
+    }
+
+    public OfferValidationReport getReport() {
+        return report;
+    }
+}
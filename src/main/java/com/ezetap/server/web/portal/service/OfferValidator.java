@@ -0,0 +1,374 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.ezetap.shared.api.output.brand.emi.OfferValidationReport;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Validates extracted offers against a schema compiled once into a flat list of checks: field
+ * accessors are resolved up front, enum sets are hashed and dates/numbers are checked by hand
+ * rather than with regular expressions. Each record runs through every check, so the report
+ * carries all problems of all rows instead of stopping at the first one.
+ */
+@Component
+public class OfferValidator {
+    // Fields of the single offer summary object
+    static final String[] SUMMARY_FIELDS = {
+        "brand", "offerType", "offerStartDate", "offerEndDate",
+        "offerDescription", "orgAcquisitionType", "velocityCheckType",
+        "commonVelocityEnabled", "velocityCheckApplied", "velocityCheckCount",
+        "priority", "offerCode"
+    };
+
+    // The starred columns of the bulk-upload sheet, plus the offer window
+    private static final String[] REQUIRED_ROW_FIELDS = {
+        "sku_code", "min_amount", "bank_name", "full_swipe_offer_amount_type", "emi_offer_amount_type",
+        "start_date", "end_date"
+    };
+
+    private static final String[] AMOUNT_FIELDS = {
+        "min_amount", "max_amount", "full_swipe_offer_value", "full_swipe_offer_max_amount",
+        "emi_offer_value", "emi_offer_max_amount", "full_swipe_bank_subvention_value",
+        "full_swipe_brand_subvention_value", "emi_bank_subvention_value", "emi_brand_subvention_value"
+    };
+
+    private static final String[] AMOUNT_TYPE_FIELDS = {
+        "full_swipe_offer_amount_type", "emi_offer_amount_type", "full_swipe_subvention_type", "emi_subvention_type"
+    };
+
+    private static final Set<String> AMOUNT_TYPES = new HashSet<>(Arrays.asList("Fixed", "Percentage"));
+    private static final Set<String> CARD_TYPES = new HashSet<>(Arrays.asList("Credit", "Debit", "Both"));
+
+    private final List<Check<OfferRow>> rowChecks = compileRowChecks();
+    private final List<Check<JsonNode>> summaryChecks = compileSummaryChecks();
+
+    /**
+     * Runs every row through the compiled checks. Warnings already attached to a row (unknown
+     * SKU, ...) are carried into the report without making it invalid.
+     */
+    public OfferValidationReport validateRows(List<OfferRow> rows) {
+        Collector collector = new Collector();
+        for (int i = 0; i < rows.size(); i++) {
+            OfferRow row = rows.get(i);
+            collector.startRow(i + 1, row.getSourceRow());
+            for (Check<OfferRow> check : rowChecks) {
+                check.apply(row, collector);
+            }
+            for (String warning : row.getWarnings()) {
+                collector.warning(null, warning);
+            }
+        }
+        return collector.finish(rows.size());
+    }
+
+    public OfferValidationReport validateSummary(JsonNode summary) {
+        Collector collector = new Collector();
+        collector.startRow(1, null);
+        if (summary == null || !summary.isObject()) {
+            collector.error(null, "Expected a JSON object");
+        } else {
+            for (Check<JsonNode> check : summaryChecks) {
+                check.apply(summary, collector);
+            }
+        }
+        return collector.finish(1);
+    }
+
+    /**
+     * Throws {@link OfferValidationException} with the full report if any row has an error.
+     */
+    public void requireValid(List<OfferRow> rows) {
+        OfferValidationReport report = validateRows(rows);
+        if (!report.isValid()) {
+            throw new OfferValidationException(report);
+        }
+    }
+
+    public void requireValid(JsonNode summary) {
+        OfferValidationReport report = validateSummary(summary);
+        if (!report.isValid()) {
+            throw new OfferValidationException(report);
+        }
+    }
+
+    private static List<Check<OfferRow>> compileRowChecks() {
+        List<Check<OfferRow>> checks = new ArrayList<>();
+        for (String field : REQUIRED_ROW_FIELDS) {
+            Function<OfferRow, String> value = accessor(field);
+            checks.add((row, issues) -> {
+                if (isBlank(value.apply(row))) {
+                    issues.error(field, "is required");
+                }
+            });
+        }
+        for (String field : AMOUNT_FIELDS) {
+            Function<OfferRow, String> value = accessor(field);
+            checks.add((row, issues) -> {
+                String amount = value.apply(row);
+                if (!isBlank(amount) && Double.isNaN(parseAmount(amount))) {
+                    issues.error(field, "must be a number, got '" + amount + "'");
+                }
+            });
+        }
+        for (String field : AMOUNT_TYPE_FIELDS) {
+            checks.add(oneOf(field, accessor(field), AMOUNT_TYPES));
+        }
+        checks.add(oneOf("card_type", OfferRow::getCardType, CARD_TYPES));
+        checks.add(dateTime("start_date", OfferRow::getStartDate));
+        checks.add(dateTime("end_date", OfferRow::getEndDate));
+
+        // Cross-field rules
+        checks.add((row, issues) -> {
+            double min = parseAmount(row.getMinAmount());
+            double max = parseAmount(row.getMaxAmount());
+            if (min > max) {
+                issues.error("max_amount", "must not be less than min_amount (" + row.getMinAmount() + " > " + row.getMaxAmount() + ")");
+            }
+        });
+        checks.add((row, issues) -> {
+            long start = parseDateTime(row.getStartDate());
+            long end = parseDateTime(row.getEndDate());
+            if (start >= 0 && end >= 0 && start >= end) {
+                issues.error("end_date", "must be after start_date (" + row.getStartDate() + " >= " + row.getEndDate() + ")");
+            }
+        });
+        checks.add(percentageOffer("full_swipe_offer_amount_type", OfferRow::getFullSwipeOfferAmountType,
+            "full_swipe_offer_value", OfferRow::getFullSwipeOfferValue,
+            "full_swipe_offer_max_amount", OfferRow::getFullSwipeOfferMaxAmount));
+        checks.add(percentageOffer("emi_offer_amount_type", OfferRow::getEmiOfferAmountType,
+            "emi_offer_value", OfferRow::getEmiOfferValue,
+            "emi_offer_max_amount", OfferRow::getEmiOfferMaxAmount));
+        return checks;
+    }
+
+    private static List<Check<JsonNode>> compileSummaryChecks() {
+        List<Check<JsonNode>> checks = new ArrayList<>();
+        for (String field : SUMMARY_FIELDS) {
+            checks.add((summary, issues) -> {
+                if (!summary.has(field)) {
+                    issues.error(field, "is required");
+                }
+            });
+        }
+        for (String field : new String[]{"offerStartDate", "offerEndDate"}) {
+            checks.add((summary, issues) -> {
+                String date = summary.path(field).asText("");
+                if (!date.isEmpty() && parseDate(date) < 0) {
+                    issues.error(field, "must be a date in yyyy-MM-dd format, got '" + date + "'");
+                }
+            });
+        }
+        checks.add((summary, issues) -> {
+            long start = parseDate(summary.path("offerStartDate").asText(""));
+            long end = parseDate(summary.path("offerEndDate").asText(""));
+            if (start >= 0 && end >= 0 && start > end) {
+                issues.error("offerEndDate", "must not be before offerStartDate");
+            }
+        });
+        return checks;
+    }
+
+    private static Check<OfferRow> oneOf(String field, Function<OfferRow, String> value, Set<String> allowed) {
+        String expected = String.join("/", new TreeSet<>(allowed));
+        return (row, issues) -> {
+            String actual = value.apply(row);
+            if (!isBlank(actual) && !allowed.contains(actual)) {
+                issues.error(field, "must be one of " + expected + ", got '" + actual + "'");
+            }
+        };
+    }
+
+    private static Check<OfferRow> dateTime(String field, Function<OfferRow, String> value) {
+        return (row, issues) -> {
+            String date = value.apply(row);
+            if (!isBlank(date) && parseDateTime(date) < 0) {
+                issues.error(field, "must be a date in yyyy-MM-dd HH:mm:ss format, got '" + date + "'");
+            }
+        };
+    }
+
+    /**
+     * A percentage offer needs a value of at most 100 and a max amount to cap it.
+     */
+    private static Check<OfferRow> percentageOffer(String typeField, Function<OfferRow, String> type,
+                                                   String valueField, Function<OfferRow, String> value,
+                                                   String maxField, Function<OfferRow, String> maxAmount) {
+        return (row, issues) -> {
+            if (!"Percentage".equals(type.apply(row))) {
+                return;
+            }
+            if (isBlank(maxAmount.apply(row))) {
+                issues.error(maxField, "is required when " + typeField + " is Percentage");
+            }
+            double percentage = parseAmount(value.apply(row));
+            if (percentage > 100) {
+                issues.error(valueField, "must not exceed 100 when " + typeField + " is Percentage");
+            }
+        };
+    }
+
+    private static Function<OfferRow, String> accessor(String field) {
+        switch (field) {
+            case "sku_code": return OfferRow::getSkuCode;
+            case "min_amount": return OfferRow::getMinAmount;
+            case "max_amount": return OfferRow::getMaxAmount;
+            case "include_states": return OfferRow::getIncludeStates;
+            case "exclude_states": return OfferRow::getExcludeStates;
+            case "bank_name": return OfferRow::getBankName;
+            case "card_type": return OfferRow::getCardType;
+            case "full_swipe_offer_amount_type": return OfferRow::getFullSwipeOfferAmountType;
+            case "full_swipe_offer_value": return OfferRow::getFullSwipeOfferValue;
+            case "full_swipe_offer_max_amount": return OfferRow::getFullSwipeOfferMaxAmount;
+            case "emi_offer_amount_type": return OfferRow::getEmiOfferAmountType;
+            case "emi_offer_value": return OfferRow::getEmiOfferValue;
+            case "emi_offer_max_amount": return OfferRow::getEmiOfferMaxAmount;
+            case "full_swipe_subvention_type": return OfferRow::getFullSwipeSubventionType;
+            case "full_swipe_bank_subvention_value": return OfferRow::getFullSwipeBankSubventionValue;
+            case "full_swipe_brand_subvention_value": return OfferRow::getFullSwipeBrandSubventionValue;
+            case "emi_subvention_type": return OfferRow::getEmiSubventionType;
+            case "emi_bank_subvention_value": return OfferRow::getEmiBankSubventionValue;
+            case "emi_brand_subvention_value": return OfferRow::getEmiBrandSubventionValue;
+            case "start_date": return OfferRow::getStartDate;
+            case "end_date": return OfferRow::getEndDate;
+            default: throw new IllegalArgumentException("Unknown offer field: " + field);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * Parses a plain decimal ("-12", "1500.50"), or returns NaN for blank or non-numeric values.
+     */
+    static double parseAmount(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        String trimmed = value.trim();
+        int length = trimmed.length();
+        int i = length > 0 && trimmed.charAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        boolean dot = false;
+        for (; i < length; i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && !dot && digits > 0) {
+                dot = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0 || trimmed.charAt(length - 1) == '.') {
+            return Double.NaN;
+        }
+        return Double.parseDouble(trimmed);
+    }
+
+    /**
+     * Parses {@code yyyy-MM-dd HH:mm:ss} into a sortable yyyyMMddHHmmss number, or -1 if the
+     * value is malformed or not a real calendar time.
+     */
+    static long parseDateTime(String value) {
+        if (value == null || value.length() != 19 || value.charAt(10) != ' '
+                || value.charAt(13) != ':' || value.charAt(16) != ':') {
+            return -1;
+        }
+        long date = parseDate(value, 0);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+        if (date < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return -1;
+        }
+        return date * 1_000_000L + hour * 10_000L + minute * 100L + second;
+    }
+
+    /**
+     * Parses {@code yyyy-MM-dd} into a sortable yyyyMMdd number, or -1.
+     */
+    static long parseDate(String value) {
+        return value == null || value.length() != 10 ? -1 : parseDate(value, 0);
+    }
+
+    private static long parseDate(String value, int offset) {
+        if (value.charAt(offset + 4) != '-' || value.charAt(offset + 7) != '-') {
+            return -1;
+        }
+        int year = digits(value, offset, 4);
+        int month = digits(value, offset + 5, 2);
+        int day = digits(value, offset + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return -1;
+        }
+        return year * 10_000L + month * 100L + day;
+    }
+
+    private static int digits(String value, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2: return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    private interface Check<T> {
+        void apply(T record, Collector issues);
+    }
+
+    /**
+     * Accumulates issues row by row; a row report is only allocated once the row has an issue.
+     */
+    private static class Collector {
+        private final OfferValidationReport report = new OfferValidationReport();
+        private int row;
+        private String sourceRow;
+        private OfferValidationReport.RowReport current;
+
+        void startRow(int row, String sourceRow) {
+            this.row = row;
+            this.sourceRow = sourceRow;
+            this.current = null;
+        }
+
+        void error(String field, String message) {
+            currentRow().getErrors().add(new OfferValidationReport.Issue(field, message));
+            report.setErrorCount(report.getErrorCount() + 1);
+        }
+
+        void warning(String field, String message) {
+            currentRow().getWarnings().add(new OfferValidationReport.Issue(field, message));
+            report.setWarningCount(report.getWarningCount() + 1);
+        }
+
+        private OfferValidationReport.RowReport currentRow() {
+            if (current == null) {
+                current = new OfferValidationReport.RowReport(row, sourceRow);
+                report.getRows().add(current);
+            }
+            return current;
+        }
+
+        OfferValidationReport finish(int rowCount) {
+            report.setRowCount(rowCount);
+            return report;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.ezetap.server.web.portal.service;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The generated offer workbook before any rows are written: the styled header row of the
+ * offer sheet and the styles the writers use. It is built once and each request opens its own
+ * copy, instead of creating the same fonts and styles again. Copies are streaming workbooks
+ * that keep only the last {@code ROW_WINDOW} rows of a sheet in memory and spill the rest to
+ * a temporary file, so they must be {@link SXSSFWorkbook#dispose disposed} after writing.
+ */
+@Component
+public class OfferWorkbookTemplate {
+    private static final Logger logger = LoggerFactory.getLogger(OfferWorkbookTemplate.class);
+    private static final String OFFER_SHEET = "Offer Details";
+    // Excel's limit for a column width, in characters
+    private static final int MAX_WIDTH_CHARS = 255;
+    private static final int ROW_WINDOW = 100;
+
+    // Column headers of the generated workbook, in OfferRow.FIELDS order
+    static final String[] OFFER_ROW_HEADERS = {
+        "Sku Code (All/Specific SKU/NA)*",
+        "Min Amount*",
+        "Max Amount",
+        "Include States",
+        "Exclude States",
+        "Bank Name (All/Specific Bank/Few Banks)*",
+        "Card Type (Credit/Debit/Both)",
+        "Full Swipe Offer Amount Type (Fixed/Percentage)*",
+        "Full Swipe Offer Value",
+        "Full Swipe Offer Max Amount (Percentage Type Case)",
+        "EMI Offer Amount Type (Fixed/Percentage)*",
+        "EMI Offer Value",
+        "EMI Offer Max Amount (Percentage Type Case)",
+        "Full Swipe Subvention Type (Fixed/Percentage)",
+        "Full Swipe Bank Subvention Value",
+        "Full Swipe Brand Subvention Value",
+        "EMI Subvention Type (Fixed/Percentage)",
+        "EMI Bank Subvention Value",
+        "EMI Brand Subvention Value",
+        "Start Date(yyyy-MM-dd HH:mm:sss)",
+        "End Date(yyyy-MM-dd HH:mm:sss)"
+    };
+
+    private byte[] template;
+    private short headerStyleIndex;
+    private short dateStyleIndex;
+
+    @PostConstruct
+    public void init() {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            CellStyle headerStyle = workbook.createCellStyle();
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
+            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            headerStyle.setAlignment(HorizontalAlignment.CENTER);
+            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+            headerStyle.setBorderBottom(BorderStyle.THIN);
+            headerStyle.setBorderTop(BorderStyle.THIN);
+            headerStyle.setBorderLeft(BorderStyle.THIN);
+            headerStyle.setBorderRight(BorderStyle.THIN);
+            headerStyle.setWrapText(true);
+            headerStyleIndex = headerStyle.getIndex();
+
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat((short) 14); // mm/dd/yyyy
+            dateStyleIndex = dateStyle.getIndex();
+
+            Sheet sheet = workbook.createSheet(OFFER_SHEET);
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < OFFER_ROW_HEADERS.length; i++) {
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(OFFER_ROW_HEADERS[i]);
+                cell.setCellStyle(headerStyle);
+            }
+            headerRow.setHeight((short) 900); // 45 points height
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            template = out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("Built offer workbook template ({} bytes)", template.length);
+    }
+
+    /** A new workbook whose first sheet, named {@code sheetName}, holds the offer header row. */
+    public SXSSFWorkbook newOfferWorkbook(String sheetName) throws IOException {
+        XSSFWorkbook copy = new XSSFWorkbook(new ByteArrayInputStream(template));
+        if (!OFFER_SHEET.equals(sheetName)) {
+            copy.setSheetName(0, sheetName);
+        }
+        return new SXSSFWorkbook(copy, ROW_WINDOW);
+    }
+
+    /** The header style of a workbook opened with {@link #newOfferWorkbook}. */
+    public CellStyle headerStyle(Workbook workbook) {
+        return workbook.getCellStyleAt(headerStyleIndex);
+    }
+
+    /** The date style of a workbook opened with {@link #newOfferWorkbook}. */
+    public CellStyle dateStyle(Workbook workbook) {
+        return workbook.getCellStyleAt(dateStyleIndex);
+    }
+
+    /**
+     * Column widths from the longest value written to each column, in characters. This stands
+     * in for {@code Sheet.autoSizeColumn}, which lays out every cell with AWT font metrics and
+     * dominated the time to write large workbooks; character counts are close enough for the
+     * default font.
+     */
+    public static class ColumnWidths {
+        private final int[] chars;
+
+        public ColumnWidths(int columns) {
+            chars = new int[columns];
+        }
+
+        /** Makes room for a header that wraps onto up to {@code lines} lines, unbroken words kept whole. */
+        public void header(int column, String text, int lines) {
+            int longestWord = 0;
+            for (String word : text.split("\\s+")) {
+                longestWord = Math.max(longestWord, word.length());
+            }
+            record(column, Math.max(longestWord, (text.length() + lines - 1) / lines));
+        }
+
+        public void record(int column, String value) {
+            if (value != null) {
+                record(column, value.length());
+            }
+        }
+
+        public void record(int column, int length) {
+            if (column < chars.length && length > chars[column]) {
+                chars[column] = length;
+            }
+        }
+
+        /** Sets the width of each column on {@code sheet}, with a character of padding on each side. */
+        public void apply(Sheet sheet) {
+            for (int i = 0; i < chars.length; i++) {
+                sheet.setColumnWidth(i, Math.min(MAX_WIDTH_CHARS, chars[i] + 2) * 256);
+            }
+        }
+    }
+}
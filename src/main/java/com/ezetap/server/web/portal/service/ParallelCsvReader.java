@@ -0,0 +1,400 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads large CSV uploads from a memory-mapped file on a fork-join pool. The file is cut into
+ * segments of {@code segment-bytes}; each segment is moved forward to the first record
+ * boundary after its nominal start and parsed by its own {@link CsvTokenizer}, and the rows
+ * are handed on in file order, in chunks of {@code chunk-rows} rows, as the segments finish.
+ *
+ * Whether a line break ends a record depends on everything before it (is it inside a quoted
+ * field?), so each segment is first run through the tokenizer's quoting rules from every
+ * possible starting state, in parallel. Chaining those results gives the exact state at each
+ * segment start, from which its first record boundary is found. At most
+ * {@code parallelism * 2} segments are parsed ahead of the one being handed on, and the file
+ * itself stays in the page cache rather than on the heap, so the heap holds one chunk and the
+ * segments parsed ahead of it whatever the file size.
+ */
+@Component
+public class ParallelCsvReader {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCsvReader.class);
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    // Scanner states mirroring CsvTokenizer: at a record start, at a field start, in an unquoted
+    // field (or after a closing quote), in a quoted field, on a quote inside a quoted field, after a CR
+    private static final int RECORD = 0;
+    private static final int FIELD = 1;
+    private static final int UNQUOTED = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTE_IN_QUOTED = 4;
+    private static final int AFTER_CR = 5;
+    private static final int STATES = 6;
+    // Sample for encoding and delimiter detection
+    private static final int HEAD_BYTES = 1024 * 1024;
+
+    @Value("${offer.csv.parallel.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.csv.parallel.min-bytes:33554432}")
+    private long minBytes;
+
+    @Value("${offer.csv.parallel.segment-bytes:8388608}")
+    private int segmentBytes;
+
+    // 0 = one thread per available processor
+    @Value("${offer.csv.parallel.threads:0}")
+    private int threads;
+
+    @Value("${offer.csv.parallel.chunk-rows:500}")
+    private int chunkRows;
+
+    private ForkJoinPool pool;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("csv-parser-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Whether an upload of {@code size} bytes should be read with this reader. A single
+     * mapping is limited to 2 GB.
+     */
+    public boolean accepts(long size) {
+        return enabled && size >= minBytes && size <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * The most bytes of an upload of {@code size} bytes held on the heap at once by {@link #read}:
+     * the segments parsed ahead of the chunk being handed on.
+     */
+    public long bufferedBytes(long size) {
+        return Math.min(size, (long) pool.getParallelism() * 2 * segmentBytes);
+    }
+
+    /**
+     * Reads {@code file} as a single sheet named {@code name}, the same as
+     * {@link TabularData#fromCsv} would, and passes it to {@code consumer} in chunks of at most
+     * {@code chunk-rows} data rows, in file order, on the calling thread. Each chunk is a model
+     * of its own carrying the file's header, its rows numbered by record in the whole file.
+     * Returns false, without calling {@code consumer}, if the file is UTF-16, which has to be
+     * transcoded on the heap.
+     */
+    public boolean read(Path file, String name, ChunkConsumer consumer) throws Exception {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] head = new byte[(int) Math.min(HEAD_BYTES, buffer.limit())];
+            buffer.duplicate().get(head);
+            CsvTokenizer.Format format = CsvTokenizer.Format.detect(head, head.length, head.length == buffer.limit());
+            if (format.isUtf16()) {
+                return false;
+            }
+
+            Chunker chunker = new Chunker(name, Math.max(1, chunkRows), consumer);
+            int total = parse(buffer, format, chunker::add);
+            chunker.finish(total);
+
+            long elapsed = System.nanoTime() - start;
+            files.incrementAndGet();
+            bytesRead.addAndGet(buffer.limit());
+            records.addAndGet(total);
+            parseNanos.addAndGet(elapsed);
+            logger.info("Read {} MB CSV as {} records in {} chunk(s) on {} thread(s) in {} ms", buffer.limit() >> 20,
+                total, chunker.chunks, pool.getParallelism(), elapsed / 1_000_000);
+            return true;
+        }
+    }
+
+    /**
+     * Parses the records of {@code buffer} after {@code format.offset} and passes the non-blank
+     * ones to {@code consumer} in file order, on the calling thread. Returns the number of
+     * records, blank ones included.
+     */
+    int parse(ByteBuffer buffer, CsvTokenizer.Format format, RowConsumer consumer) throws Exception {
+        int end = buffer.limit();
+        int first = format.offset;
+        int segments = Math.max(1, (int) (((long) end - first + segmentBytes - 1) / segmentBytes));
+        int[] nominal = new int[segments + 1];
+        for (int i = 0; i < segments; i++) {
+            nominal[i] = (int) Math.min(end, first + (long) i * segmentBytes);
+        }
+        nominal[segments] = end;
+
+        // Scanner state at each nominal start, chained from each segment's state transitions
+        byte[][] table = transitions(format.delimiter);
+        List<ForkJoinTask<int[]>> scans = new ArrayList<>(segments);
+        for (int i = 1; i < segments; i++) {
+            int from = nominal[i - 1];
+            int to = nominal[i];
+            scans.add(pool.submit(() -> scan(buffer, table, from, to)));
+        }
+        int[] states = new int[segments + 1];
+        states[0] = RECORD;
+        for (int i = 1; i < segments; i++) {
+            states[i] = scans.get(i - 1).join()[states[i - 1]];
+        }
+
+        int window = pool.getParallelism() * 2;
+        ArrayDeque<ForkJoinTask<Segment>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        int recordOffset = 0;
+        try {
+            for (int i = 0; i < segments; i++) {
+                while (submitted < segments && submitted < i + window) {
+                    int index = submitted++;
+                    pending.add(pool.submit(Tracing.wrap(() -> parseSegment(buffer, format, table, nominal, states, index))));
+                }
+                Segment segment = pending.poll().join();
+                RequestDeadline.checkpoint("parse");
+                for (int r = 0; r < segment.rows.size(); r++) {
+                    consumer.accept(recordOffset + segment.recordNumbers[r], segment.rows.get(r));
+                }
+                recordOffset += segment.recordCount;
+            }
+        } finally {
+            for (ForkJoinTask<Segment> task : pending) {
+                task.cancel(false);
+            }
+        }
+        return recordOffset;
+    }
+
+    // Next scanner state for each state and byte
+    private static byte[][] transitions(byte delimiter) {
+        byte[][] table = new byte[STATES][256];
+        for (int b = 0; b < 256; b++) {
+            int start = b == QUOTE ? QUOTED : UNQUOTED;
+            int unquoted = UNQUOTED;
+            if (b == (delimiter & 0xFF)) {
+                start = unquoted = FIELD;
+            } else if (b == LF) {
+                start = unquoted = RECORD;
+            } else if (b == CR) {
+                start = unquoted = AFTER_CR;
+            }
+            table[RECORD][b] = (byte) start;
+            table[FIELD][b] = (byte) start;
+            table[UNQUOTED][b] = (byte) unquoted;
+            table[QUOTED][b] = (byte) (b == QUOTE ? QUOTE_IN_QUOTED : QUOTED);
+            // A doubled quote stays quoted; anything after a closing quote is read as unquoted
+            table[QUOTE_IN_QUOTED][b] = (byte) (b == QUOTE ? QUOTED : unquoted);
+            // CRLF is a single record break
+            table[AFTER_CR][b] = (byte) (b == LF ? RECORD : start);
+        }
+        return table;
+    }
+
+    /**
+     * The state at {@code to} for each state at {@code from}. The runs from different starting
+     * states usually agree after the first delimiter, after which only one is followed.
+     */
+    private static int[] scan(ByteBuffer buffer, byte[][] table, int from, int to) {
+        int[] states = new int[STATES];
+        for (int s = 0; s < STATES; s++) {
+            states[s] = s;
+        }
+        int pos = from;
+        while (pos < to) {
+            int b = buffer.get(pos++) & 0xFF;
+            boolean same = true;
+            for (int s = 0; s < STATES; s++) {
+                states[s] = table[states[s]][b];
+                same &= states[s] == states[0];
+            }
+            if (same) {
+                break;
+            }
+        }
+        int state = states[0];
+        boolean converged = true;
+        for (int s = 1; s < STATES; s++) {
+            converged &= states[s] == state;
+        }
+        if (converged) {
+            while (pos < to) {
+                state = table[state][buffer.get(pos++) & 0xFF];
+            }
+            Arrays.fill(states, state);
+        }
+        return states;
+    }
+
+    private Segment parseSegment(ByteBuffer buffer, CsvTokenizer.Format format, byte[][] table, int[] nominal,
+                                 int[] states, int index) {
+        try (Span span = Tracing.start("parse.csv.segment")) {
+            span.setAttribute("segment", index);
+            Segment segment = parseSegmentRows(buffer, format, table, nominal, states, index);
+            span.setAttribute("rows", segment.rows.size());
+            return segment;
+        }
+    }
+
+    private Segment parseSegmentRows(ByteBuffer buffer, CsvTokenizer.Format format, byte[][] table, int[] nominal,
+                                     int[] states, int index) {
+        int last = nominal.length - 1;
+        int from = index == 0 ? nominal[0] : recordStart(buffer, table, nominal[index], states[index]);
+        int to = index + 1 == last ? nominal[last] : recordStart(buffer, table, nominal[index + 1], states[index + 1]);
+        Segment segment = new Segment();
+        if (from >= to) {
+            return segment;
+        }
+        // One bulk copy per segment: the tokenizer runs much faster over a heap array
+        byte[] bytes = new byte[to - from];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(from);
+        slice.get(bytes);
+        CsvTokenizer tokenizer = new CsvTokenizer(ByteBuffer.wrap(bytes), format.delimiter, format.charset);
+        List<String> fields = new ArrayList<>();
+        int[] recordNumbers = new int[64];
+        while (tokenizer.next(fields)) {
+            String[] columns = TabularData.csvColumns(fields);
+            if (columns == null) {
+                continue;
+            }
+            if (segment.rows.size() == recordNumbers.length) {
+                recordNumbers = Arrays.copyOf(recordNumbers, recordNumbers.length * 2);
+            }
+            recordNumbers[segment.rows.size()] = tokenizer.getRecordNumber();
+            segment.rows.add(columns);
+        }
+        segment.recordNumbers = recordNumbers;
+        segment.recordCount = tokenizer.getRecordNumber();
+        return segment;
+    }
+
+    // First record start at or after pos, given the scanner state at pos
+    private static int recordStart(ByteBuffer buffer, byte[][] table, int pos, int state) {
+        int end = buffer.limit();
+        while (pos < end) {
+            if (state == RECORD) {
+                return pos;
+            }
+            if (state == AFTER_CR) {
+                return buffer.get(pos) == LF ? pos + 1 : pos;
+            }
+            state = table[state][buffer.get(pos++) & 0xFF];
+        }
+        return end;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("minBytes", minBytes);
+        metrics.put("segmentBytes", segmentBytes);
+        metrics.put("threads", pool.getParallelism());
+        metrics.put("files", files.get());
+        metrics.put("bytes", bytesRead.get());
+        metrics.put("records", records.get());
+        long nanos = parseNanos.get();
+        metrics.put("mbPerSecond", nanos > 0 ? Math.round(bytesRead.get() / 1048576.0 / (nanos / 1e9)) : 0);
+        return metrics;
+    }
+
+    interface RowConsumer {
+        void accept(int recordNumber, String[] columns) throws Exception;
+    }
+
+    public interface ChunkConsumer {
+        void accept(TabularData chunk) throws Exception;
+    }
+
+    // Groups rows into chunk models; the first record is the header of every chunk
+    private static class Chunker {
+        private final String name;
+        private final int chunkRows;
+        private final ChunkConsumer consumer;
+        private List<String> headers;
+        private Map<String, Integer> headerMap;
+        private int headerRowNumber;
+        private TabularData chunk;
+        private int rows;
+        private int chunks;
+
+        Chunker(String name, int chunkRows, ChunkConsumer consumer) {
+            this.name = name;
+            this.chunkRows = chunkRows;
+            this.consumer = consumer;
+        }
+
+        void add(int recordNumber, String[] columns) throws Exception {
+            if (chunk == null) {
+                chunk = new TabularData();
+                TabularData.SheetData sheet = chunk.addSheet(name, 0);
+                if (headers != null) {
+                    sheet.setHeaders(headers);
+                    sheet.setHeaderMap(headerMap, headerRowNumber);
+                }
+            }
+            TabularData.SheetData sheet = chunk.getSheets().get(0);
+            sheet.addCsvRow(recordNumber, columns);
+            sheet.setTotalRows(recordNumber);
+            if (headers == null) {
+                headers = sheet.getHeaders();
+                headerMap = sheet.getHeaderMap();
+                headerRowNumber = sheet.getHeaderRowNumber();
+            } else if (++rows >= chunkRows) {
+                emit();
+            }
+        }
+
+        void finish(int totalRecords) throws Exception {
+            if (chunk == null && chunks == 0) {
+                // A blank file still yields one (empty) chunk
+                chunk = new TabularData();
+                chunk.addSheet(name, 0);
+            }
+            if (chunk != null) {
+                chunk.getSheets().get(0).setTotalRows(totalRecords);
+                emit();
+            }
+        }
+
+        private void emit() throws Exception {
+            TabularData full = chunk;
+            chunk = null;
+            rows = 0;
+            chunks++;
+            consumer.accept(full);
+        }
+    }
+
+    private static class Segment {
+        private final List<String[]> rows = new ArrayList<>();
+        private int[] recordNumbers = new int[0];
+        private int recordCount;
+    }
+}
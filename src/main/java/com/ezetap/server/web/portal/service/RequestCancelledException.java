@@ -0,0 +1,18 @@
+package com.ezetap.server.web.portal.service;
+
+/**
+ * Thrown at a stage boundary, or out of an interrupted LLM call, once the request's
+ * {@link RequestDeadline} has passed or the request was abandoned.
+ */
+public class RequestCancelledException extends RuntimeException {
+    private final String stage;
+
+    public RequestCancelledException(String stage, String reason) {
+        super("Request cancelled at " + stage + ": " + reason);
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+}
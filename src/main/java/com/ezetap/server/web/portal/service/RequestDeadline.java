@@ -0,0 +1,151 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a request's result is no longer wanted, bound to the thread
+ * handling the request (see {@link DeadlineTracker}). Work checks it cooperatively at stage
+ * boundaries with {@link #checkpoint}; LLM calls run through {@link #interruptibly}, so when
+ * the request is cancelled the handling thread is interrupted and the HTTP call to Azure is
+ * aborted instead of running to completion. Outside those calls the thread is never
+ * interrupted, so JDBC and file I/O are not disturbed.
+ */
+public class RequestDeadline {
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long timeoutNanos;
+    private final long deadlineNanos;
+    private final Thread owner;
+    private volatile String cancelReason;
+    private volatile String stage = "start";
+    // Guarded by this
+    private boolean interruptible;
+
+    RequestDeadline(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+        this.deadlineNanos = System.nanoTime() + timeoutNanos;
+        this.owner = Thread.currentThread();
+    }
+
+    static void bind(RequestDeadline deadline) {
+        CURRENT.set(deadline);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /** The deadline of the request handled by the current thread, or null. */
+    public static RequestDeadline current() {
+        return CURRENT.get();
+    }
+
+    /** Nanoseconds left for the current request; {@link Long#MAX_VALUE} without a deadline. */
+    public static long remainingNanos() {
+        RequestDeadline deadline = CURRENT.get();
+        return deadline == null ? Long.MAX_VALUE : deadline.deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * Marks the start of {@code stage} and throws {@link RequestCancelledException} if the
+     * current request has been cancelled or its deadline has passed.
+     */
+    public static void checkpoint(String stage) {
+        checkpoint(stage, 0);
+    }
+
+    /** As {@link #checkpoint(String)}, also giving up when less than {@code minRemainingNanos} is left. */
+    public static void checkpoint(String stage, long minRemainingNanos) {
+        RequestDeadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check(stage, minRemainingNanos);
+        }
+    }
+
+    /**
+     * Runs a blocking call that may be aborted by interrupting the current thread. If the
+     * request is cancelled while it runs, the thread is interrupted and the call's failure is
+     * rethrown as {@link RequestCancelledException}.
+     */
+    public static <T> T interruptibly(String stage, Callable<T> call) throws Exception {
+        RequestDeadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return call.call();
+        }
+        deadline.check(stage, 0);
+        synchronized (deadline) {
+            deadline.interruptible = true;
+        }
+        try {
+            return call.call();
+        } catch (Exception e) {
+            String reason = deadline.cancelReason;
+            if (reason != null) {
+                RequestCancelledException cancelled = new RequestCancelledException(stage, reason);
+                cancelled.initCause(e);
+                throw cancelled;
+            }
+            throw e;
+        } finally {
+            synchronized (deadline) {
+                deadline.interruptible = false;
+                if (deadline.cancelReason != null) {
+                    // Our own interrupt; it must not leak to the rest of the request
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the request: later checkpoints fail and an interruptible call in progress is
+     * interrupted. Safe to call from any thread, more than once.
+     */
+    public void cancel(String reason) {
+        synchronized (this) {
+            if (cancelReason != null) {
+                return;
+            }
+            cancelReason = reason;
+            if (interruptible) {
+                owner.interrupt();
+            }
+        }
+    }
+
+    void expire() {
+        cancel("deadline of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms exceeded");
+    }
+
+    private void check(String stage, long minRemainingNanos) {
+        this.stage = stage;
+        String reason = cancelReason;
+        if (reason == null) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                expire();
+                reason = cancelReason;
+            } else if (remaining < minRemainingNanos) {
+                reason = "only " + TimeUnit.NANOSECONDS.toMillis(remaining) + " ms left before the deadline";
+                cancel(reason);
+            }
+        }
+        if (reason != null) {
+            throw new RequestCancelledException(stage, reason);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelReason != null;
+    }
+
+    /** The last stage the request reached. */
+    public String getStage() {
+        return stage;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+}
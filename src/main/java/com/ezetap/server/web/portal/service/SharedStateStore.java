@@ -0,0 +1,35 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.Map;
+
+/**
+ * Key-value state shared by the nodes of a deployment: LLM results, claims on work in
+ * progress and the like. Keys live in a namespace and may expire; a {@code ttlMillis} of 0
+ * keeps the entry until it is removed or evicted. Which implementation is used is set with
+ * {@code offer.shared-state.store}: {@code in-process} (a single node) or {@code jdbc} (a
+ * database reachable by every node).
+ *
+ * Implementations must make {@link #putIfAbsent} atomic across all nodes sharing the store;
+ * it is what in-flight deduplication relies on. Store failures are logged and reported as a
+ * miss, never as a failed request.
+ */
+public interface SharedStateStore {
+
+    /** The value of {@code key}, or null if absent or expired. */
+    String get(String namespace, String key);
+
+    void put(String namespace, String key, String value, long ttlMillis);
+
+    /** Stores the value unless a live entry exists; true if it was stored. */
+    boolean putIfAbsent(String namespace, String key, String value, long ttlMillis);
+
+    void remove(String namespace, String key);
+
+    /**
+     * Removes the entry only while it still holds {@code value}, atomically; for releasing a
+     * claim that may have lapsed and been taken by another node.
+     */
+    void remove(String namespace, String key, String value);
+
+    Map<String, Object> getMetrics();
+}
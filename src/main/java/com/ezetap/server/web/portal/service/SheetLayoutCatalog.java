@@ -0,0 +1,523 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Learned column mappings for recurring sheet layouts. A sheet's fingerprint is a hash of its
+ * normalized headers and the dominant value type (number, date, text) of each column, so a
+ * brand sending its usual template again produces the same fingerprint. After an LLM
+ * extraction the model is asked once, in the background, for the mapping of that layout's
+ * columns to offer fields; the mapping is kept only if replaying it on the same sheet
+ * reproduces the model's rows, and later sheets with the fingerprint are then converted
+ * without an LLM call. Dates, amounts and banks must come from columns, since a constant
+ * would be the first upload's value replayed on every later one. A mapping whose output
+ * validates worse than when it was learned counts a miss, and after {@code max-misses} in a
+ * row it is dropped and learned again.
+ *
+ * Mappings are kept in the {@code sheet_layout} table and cached in memory.
+ */
+@Component
+public class SheetLayoutCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(SheetLayoutCatalog.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern CANONICAL_DATE_TIME = Pattern.compile("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}");
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final int TYPE_SAMPLE_ROWS = 50;
+    private static final String LEARNED = "LEARNED";
+    private static final String REJECTED = "REJECTED";
+    // Fields that change from one upload of a layout to the next, often taken from a title row
+    // or the sheet name, which the fingerprint does not cover; a constant would replay stale values
+    private static final Set<String> PER_UPLOAD_FIELDS = new HashSet<>(Arrays.asList(
+        "start_date", "end_date", "bank_name", "min_amount", "max_amount", "full_swipe_offer_value",
+        "full_swipe_offer_max_amount", "emi_offer_value", "emi_offer_max_amount", "full_swipe_bank_subvention_value",
+        "full_swipe_brand_subvention_value", "emi_bank_subvention_value", "emi_brand_subvention_value"));
+
+    @Value("${offer.layout.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.layout.min-agreement:0.9}")
+    private double minAgreement;
+
+    @Value("${offer.layout.invalid-tolerance:0.1}")
+    private double invalidTolerance;
+
+    @Value("${offer.layout.max-learn-attempts:2}")
+    private int maxLearnAttempts;
+
+    @Value("${offer.layout.max-misses:3}")
+    private int maxMisses;
+
+    @Value("${offer.layout.learn-queue-size:4}")
+    private int learnQueueSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OfferFieldNormalizer fieldNormalizer;
+
+    private ExecutorService learner;
+    // Fingerprint to entry; Optional.empty() caches "not in the table"
+    private final Map<String, Optional<LayoutEntry>> cache = new ConcurrentHashMap<>();
+    private final Set<String> learning = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong learned = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong localNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        // Queued work holds sample rows of an upload whose heap reservation is already released
+        learner = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, learnQueueSize)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "layout-learner");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    @PreDestroy
+    public void close() {
+        learner.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Fingerprint of a column-addressed sheet, or null when it has no header row to go by.
+     */
+    public String fingerprint(TabularData.SheetData sheet) {
+        Map<String, Integer> headerMap = sheet.getHeaderMap();
+        if (headerMap.isEmpty()) {
+            return null;
+        }
+        String[] headers = new String[Collections.max(headerMap.values()) + 1];
+        for (Map.Entry<String, Integer> entry : headerMap.entrySet()) {
+            headers[entry.getValue()] = entry.getKey();
+        }
+        StringBuilder layout = new StringBuilder();
+        for (int column = 0; column < headers.length; column++) {
+            layout.append(headers[column] != null ? headers[column] : "").append('\t')
+                .append(columnType(sheet, column)).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(layout.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Most common type of the column's values in the first data rows: D(ate), N(umber), T(ext), or - if empty
+    private char columnType(TabularData.SheetData sheet, int column) {
+        int dates = 0;
+        int numbers = 0;
+        int texts = 0;
+        int sampled = 0;
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            if (row.getRowNumber() <= sheet.getHeaderRowNumber()) {
+                continue;
+            }
+            if (sampled++ >= TYPE_SAMPLE_ROWS) {
+                break;
+            }
+            String[] columns = row.getColumns();
+            String value = columns != null && column < columns.length ? columns[column] : null;
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            if (CANONICAL_DATE_TIME.matcher(fieldNormalizer.normalizeDate(value, false)).matches()) {
+                dates++;
+            } else if (NUMBER.matcher(fieldNormalizer.normalizeAmount(value)).matches()) {
+                numbers++;
+            } else {
+                texts++;
+            }
+        }
+        if (dates + numbers + texts == 0) {
+            return '-';
+        }
+        return dates >= numbers && dates >= texts ? 'D' : numbers >= texts ? 'N' : 'T';
+    }
+
+    /** The learned mapping for {@code fingerprint}, or null. */
+    public LayoutMapping find(String fingerprint) {
+        LayoutEntry entry = entry(fingerprint);
+        return entry != null && LEARNED.equals(entry.status) ? entry.mapping : null;
+    }
+
+    /**
+     * Whether output converted with the learned mapping can be trusted: its share of rows that
+     * fail validation must be within {@code invalid-tolerance} of the share when it was learned.
+     */
+    public boolean accepts(String fingerprint, double invalidRatio) {
+        LayoutEntry entry = entry(fingerprint);
+        return entry != null && LEARNED.equals(entry.status) && invalidRatio <= entry.invalidRatio + invalidTolerance;
+    }
+
+    /**
+     * Offer rows of {@code sheet} according to {@code mapping}, one per data row that has a
+     * value in the mapping's {@code skip_rows_without} column. Values are copied as written;
+     * normalization is left to the caller, as for model output.
+     */
+    public List<OfferRow> apply(LayoutMapping mapping, TabularData.SheetData sheet) {
+        List<OfferRow> rows = new ArrayList<>();
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            if (row.getRowNumber() <= sheet.getHeaderRowNumber()) {
+                continue;
+            }
+            if (mapping.skipRowsWithout != null && sheet.getCellValue(row, mapping.skipRowsWithout).isEmpty()) {
+                continue;
+            }
+            OfferRow offer = new OfferRow();
+            boolean hasValue = false;
+            for (String field : OfferRow.FIELDS) {
+                FieldRule rule = mapping.fields.get(field);
+                String value = rule != null ? rule.value(sheet, row) : "";
+                hasValue |= rule != null && rule.constant == null && !value.isEmpty();
+                offer.set(field, value);
+            }
+            if (hasValue) {
+                offer.setSourceRow(sheet.getIndex() + ":" + row.getRowNumber());
+                rows.add(offer);
+            }
+        }
+        return rows;
+    }
+
+    public void recordHit(String fingerprint, long nanos) {
+        hits.incrementAndGet();
+        localNanos.addAndGet(nanos);
+        LayoutEntry entry = entry(fingerprint);
+        if (entry == null) {
+            return;
+        }
+        entry.misses.set(0);
+        try {
+            jdbcTemplate.update("UPDATE sheet_layout SET hits = hits + 1, misses = 0, updated_at = ? WHERE fingerprint = ?",
+                now(), fingerprint);
+        } catch (DataAccessException e) {
+            logger.warn("Failed to record hit of layout {}: {}", fingerprint, e.getMessage());
+        }
+    }
+
+    public void recordMiss(String fingerprint) {
+        misses.incrementAndGet();
+        LayoutEntry entry = entry(fingerprint);
+        if (entry == null) {
+            return;
+        }
+        int consecutive = entry.misses.incrementAndGet();
+        try {
+            if (consecutive >= maxMisses) {
+                logger.warn("Layout {} missed {} times in a row, dropping its mapping", fingerprint, consecutive);
+                jdbcTemplate.update("DELETE FROM sheet_layout WHERE fingerprint = ?", fingerprint);
+                cache.put(fingerprint, Optional.empty());
+            } else {
+                jdbcTemplate.update("UPDATE sheet_layout SET misses = ?, updated_at = ? WHERE fingerprint = ?",
+                    consecutive, now(), fingerprint);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Failed to record miss of layout {}: {}", fingerprint, e.getMessage());
+        }
+    }
+
+    /**
+     * Learns the mapping of {@code sheet}'s layout in the background, unless it is known, being
+     * learned, or has failed {@code max-learn-attempts} times. {@code ask} gets a mapping from
+     * the model; {@code replay} scores it against what the model extracted from the sheet.
+     * Both run after the request has returned, so {@code sheet} should be a
+     * {@link TabularData#sample} and they should hold no more than it. Runs as batch work so it
+     * never delays requests; when {@code learn-queue-size} sheets are already waiting, this one
+     * is left for a later upload.
+     */
+    public void learn(TabularData.SheetData sheet, Callable<LayoutMapping> ask, Function<LayoutMapping, Replay> replay) {
+        String fingerprint = sheet.getLayoutFingerprint();
+        if (!enabled || fingerprint == null) {
+            return;
+        }
+        LayoutEntry existing = entry(fingerprint);
+        if (existing != null && (LEARNED.equals(existing.status) || existing.attempts >= maxLearnAttempts)) {
+            return;
+        }
+        if (!learning.add(fingerprint)) {
+            return;
+        }
+        int attempts = existing != null ? existing.attempts + 1 : 1;
+        String headers = String.join("\t", sheet.getHeaders());
+        // Joins the trace of the request that taught it, after that request's root span ends
+        Runnable task = Tracing.wrap(() -> {
+            LlmScheduler.setPriority(LlmScheduler.Priority.BATCH);
+            try {
+                LayoutMapping mapping;
+                try (Span span = Tracing.start("layout.learn")) {
+                    span.setAttribute("layout.fingerprint", fingerprint);
+                    mapping = ask.call();
+                }
+                String problem = mapping != null ? mapping.problem(sheet) : "no mapping returned";
+                Replay score = problem == null ? replay.apply(mapping) : null;
+                if (score != null && score.agreement >= minAgreement) {
+                    store(fingerprint, headers, LEARNED, mapping, score, attempts);
+                    learned.incrementAndGet();
+                    logger.info("Learned layout {} of sheet '{}' ({}% agreement with the model)", fingerprint,
+                        sheet.getName(), Math.round(score.agreement * 100));
+                } else {
+                    store(fingerprint, headers, REJECTED, null, score, attempts);
+                    rejected.incrementAndGet();
+                    logger.info("Rejected mapping for layout {} of sheet '{}': {}", fingerprint, sheet.getName(),
+                        problem != null ? problem : Math.round(score.agreement * 100) + "% agreement with the model");
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to learn layout {}: {}", fingerprint, e.getMessage());
+            } finally {
+                LlmScheduler.clearPriority();
+                learning.remove(fingerprint);
+            }
+        });
+        try {
+            learner.execute(task);
+        } catch (RejectedExecutionException e) {
+            learning.remove(fingerprint);
+            dropped.incrementAndGet();
+            logger.info("Layout learning queue full, not learning layout {} of sheet '{}' now", fingerprint, sheet.getName());
+        }
+    }
+
+    private void store(String fingerprint, String headers, String status, LayoutMapping mapping, Replay score, int attempts)
+            throws JsonProcessingException {
+        Timestamp now = now();
+        jdbcTemplate.update("MERGE INTO sheet_layout (fingerprint, headers, status, mapping, agreement, invalid_ratio, " +
+                "attempts, hits, misses, created_at, updated_at) KEY (fingerprint) VALUES (?, ?, ?, ?, ?, ?, ?, 0, 0, ?, ?)",
+            fingerprint, truncate(headers), status, mapping != null ? MAPPER.writeValueAsString(mapping) : null,
+            score != null ? score.agreement : null, score != null ? score.invalidRatio : null, attempts, now, now);
+        cache.remove(fingerprint);
+    }
+
+    private LayoutEntry entry(String fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        return cache.computeIfAbsent(fingerprint, this::load).orElse(null);
+    }
+
+    private Optional<LayoutEntry> load(String fingerprint) {
+        try {
+            List<LayoutEntry> entries = jdbcTemplate.query(
+                "SELECT status, mapping, invalid_ratio, attempts, misses FROM sheet_layout WHERE fingerprint = ?",
+                (rs, rowNum) -> {
+                    LayoutEntry entry = new LayoutEntry();
+                    entry.status = rs.getString("status");
+                    String mapping = rs.getString("mapping");
+                    try {
+                        entry.mapping = mapping != null ? MAPPER.readValue(mapping, LayoutMapping.class) : null;
+                    } catch (JsonProcessingException e) {
+                        entry.status = REJECTED;
+                    }
+                    if (entry.mapping != null && entry.mapping.perUploadConstant() != null) {
+                        // Learned before such constants were refused; forget it so it is learned again
+                        return null;
+                    }
+                    entry.invalidRatio = rs.getDouble("invalid_ratio");
+                    entry.attempts = rs.getInt("attempts");
+                    entry.misses.set(rs.getInt("misses"));
+                    return entry;
+                }, fingerprint);
+            return entries.isEmpty() ? Optional.empty() : Optional.ofNullable(entries.get(0));
+        } catch (DataAccessException e) {
+            logger.warn("Failed to load layout {}: {}", fingerprint, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static Timestamp now() {
+        return Timestamp.valueOf(LocalDateTime.now());
+    }
+
+    private static String truncate(String value) {
+        return value.length() > 4000 ? value.substring(0, 4000) : value;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        try {
+            Map<String, Object> layouts = new LinkedHashMap<>();
+            jdbcTemplate.query("SELECT status, COUNT(*) AS layouts, SUM(hits) AS hits FROM sheet_layout GROUP BY status",
+                rs -> {
+                    Map<String, Object> counts = new LinkedHashMap<>();
+                    counts.put("layouts", rs.getLong("layouts"));
+                    counts.put("hits", rs.getLong("hits"));
+                    layouts.put(rs.getString("status").toLowerCase(Locale.ROOT), counts);
+                });
+            metrics.put("stored", layouts);
+        } catch (DataAccessException e) {
+            metrics.put("stored", null);
+        }
+        long hitCount = hits.get();
+        metrics.put("localConversions", hitCount);
+        metrics.put("avgLocalConversionMs", hitCount == 0 ? 0.0 : localNanos.get() / 1_000_000.0 / hitCount);
+        metrics.put("fallbacksToModel", misses.get());
+        metrics.put("learned", learned.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("learning", learning.size());
+        metrics.put("learnsDropped", dropped.get());
+        return metrics;
+    }
+
+    /** How well a mapping reproduced the model's rows when learned. */
+    public static class Replay {
+        private final double agreement;
+        private final double invalidRatio;
+
+        public Replay(double agreement, double invalidRatio) {
+            this.agreement = agreement;
+            this.invalidRatio = invalidRatio;
+        }
+    }
+
+    private static class LayoutEntry {
+        private String status;
+        private LayoutMapping mapping;
+        private double invalidRatio;
+        private int attempts;
+        private final AtomicInteger misses = new AtomicInteger();
+    }
+
+    /**
+     * Column to offer field mapping as returned by the model, e.g.
+     * {@code {"skip_rows_without": "Model", "fields": {"sku_code": {"columns": ["Model", "Variant"], "separator": "|"}}}}.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class LayoutMapping {
+        @JsonProperty("skip_rows_without")
+        private String skipRowsWithout;
+
+        @JsonProperty("fields")
+        private Map<String, FieldRule> fields = new LinkedHashMap<>();
+
+        // Why the mapping cannot be applied to the sheet it was made for, or null
+        String problem(TabularData.SheetData sheet) {
+            Set<String> known = new HashSet<>(Arrays.asList(OfferRow.FIELDS));
+            if (fields == null || fields.isEmpty()) {
+                return "no fields mapped";
+            }
+            List<String> columns = new ArrayList<>();
+            if (skipRowsWithout != null) {
+                columns.add(skipRowsWithout);
+            }
+            String constant = perUploadConstant();
+            if (constant != null) {
+                return "constant " + constant + " would be replayed on later uploads";
+            }
+            for (Map.Entry<String, FieldRule> field : fields.entrySet()) {
+                if (!known.contains(field.getKey()) || field.getValue() == null) {
+                    return "unknown field " + field.getKey();
+                }
+                columns.addAll(field.getValue().columns);
+                if (field.getValue().typeFrom != null) {
+                    columns.add(field.getValue().typeFrom);
+                }
+            }
+            for (String column : columns) {
+                if (!sheet.getHeaderMap().containsKey(TabularData.normalizeHeader(column))) {
+                    return "no column '" + column + "'";
+                }
+            }
+            return null;
+        }
+
+        // A field of PER_UPLOAD_FIELDS mapped to a constant, or null
+        String perUploadConstant() {
+            for (Map.Entry<String, FieldRule> field : fields.entrySet()) {
+                if (field.getValue() != null && field.getValue().constant != null && PER_UPLOAD_FIELDS.contains(field.getKey())) {
+                    return field.getKey();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One offer field: the named columns joined with {@code separator}, a {@code constant}, or
+     * (for amount-type fields) Percentage/Fixed depending on whether the {@code type_from}
+     * column holds a % value.
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class FieldRule {
+        @JsonProperty("columns")
+        private List<String> columns = new ArrayList<>();
+
+        @JsonProperty("separator")
+        private String separator;
+
+        @JsonProperty("constant")
+        private String constant;
+
+        @JsonProperty("type_from")
+        private String typeFrom;
+
+        @JsonProperty("column")
+        void setColumn(String column) {
+            if (column != null) {
+                columns.add(column);
+            }
+        }
+
+        String value(TabularData.SheetData sheet, TabularData.SheetRow row) {
+            if (constant != null) {
+                return constant;
+            }
+            if (typeFrom != null) {
+                String value = sheet.getCellValue(row, typeFrom);
+                return value.isEmpty() ? "" : value.contains("%") ? "Percentage" : "Fixed";
+            }
+            StringJoiner joined = new StringJoiner(separator != null ? separator : " ");
+            for (String column : columns) {
+                String value = sheet.getCellValue(row, column);
+                if (!value.isEmpty()) {
+                    joined.add(value);
+                }
+            }
+            return joined.toString();
+        }
+    }
+}
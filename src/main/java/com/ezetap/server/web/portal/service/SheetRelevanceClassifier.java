@@ -0,0 +1,231 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which sheets of an uploaded workbook go into the prompt. Brand workbooks often carry
+ * T&C text, pivot summaries, notes and hidden helper sheets next to the offer grid; each
+ * sheet is scored from its name, how many of its headers name offer fields, the share of
+ * numeric/date cells and its row count. Hidden sheets, pivot tables and sheets without data
+ * rows are skipped outright. If nothing would be left, the best-scoring sheet is kept.
+ */
+@Component
+public class SheetRelevanceClassifier {
+    private static final Logger logger = LoggerFactory.getLogger(SheetRelevanceClassifier.class);
+    private static final Pattern NUMERIC = Pattern.compile(
+        "(?i)(₹|rs\\.?|inr)?\\s*-?[\\d,]*\\d(\\.\\d+)?\\s*(%|/-)?|\\d{1,4}[-/.]\\d{1,2}[-/.]\\d{1,4}( \\d{2}:\\d{2}(:\\d{2})?)?");
+    private static final int SAMPLE_ROWS = 200;
+    // Average cell length above which a sheet reads as prose rather than a grid
+    private static final int PROSE_CELL_LENGTH = 60;
+
+    // Matched at the start of a word, so "valid" also covers "validity" and "max" "maximum"
+    private static final List<String> OFFER_HEADER_KEYWORDS = Arrays.asList(
+        "offer", "bank", "issuer", "card", "emi", "tenure", "cashback", "discount", "subvention", "sku",
+        "model", "product", "variant", "brand", "scheme", "valid", "start", "end", "date", "amount", "min",
+        "max", "cap", "price", "mrp", "percentage", "value", "code");
+    private static final List<String> NON_OFFER_NAME_KEYWORDS = Arrays.asList(
+        "t&c", "tnc", "t & c", "terms", "condition", "note", "readme", "read me", "instruction", "guideline",
+        "pivot", "summary", "dashboard", "chart", "lookup", "helper", "disclaimer", "faq", "contact", "legend",
+        "cover", "changelog");
+
+    @Value("${offer.sheet-filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${offer.sheet-filter.min-score:0.4}")
+    private double minScore;
+
+    private final AhoCorasickAutomaton headerKeywords = new AhoCorasickAutomaton(OFFER_HEADER_KEYWORDS);
+    private final AhoCorasickAutomaton nameKeywords = new AhoCorasickAutomaton(NON_OFFER_NAME_KEYWORDS);
+    private final AtomicLong sheetsSeen = new AtomicLong();
+    private final AtomicLong sheetsSkipped = new AtomicLong();
+    private final AtomicLong promptCharsSkipped = new AtomicLong();
+    private final Map<String, AtomicLong> skippedByReason = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Scores a sheet already read into {@code sheet}. {@code hidden} and {@code pivot} come
+     * from the workbook, which {@link TabularData} does not keep.
+     */
+    public Verdict classify(TabularData.SheetData sheet, boolean hidden, boolean pivot) {
+        int dataRows = 0;
+        int cells = 0;
+        int numericCells = 0;
+        long cellLength = 0;
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            if (row.getRowNumber() <= sheet.getHeaderRowNumber()) {
+                continue;
+            }
+            if (++dataRows > SAMPLE_ROWS) {
+                continue;
+            }
+            for (String cell : row.getCells()) {
+                if (cell.isEmpty()) {
+                    continue;
+                }
+                cells++;
+                cellLength += cell.length();
+                if (NUMERIC.matcher(cell).matches()) {
+                    numericCells++;
+                }
+            }
+        }
+        if (sheet.getRows().isEmpty()) {
+            return new Verdict(0, "empty", false);
+        }
+        if (dataRows == 0) {
+            return new Verdict(0, "no data rows", false);
+        }
+
+        int offerHeaders = 0;
+        for (String header : sheet.getHeaders()) {
+            if (containsWord(headerKeywords, header)) {
+                offerHeaders++;
+            }
+        }
+        double density = cells == 0 ? 0 : (double) numericCells / cells;
+        double score = 0.45 * Math.min(1.0, offerHeaders / 3.0)
+            + 0.35 * Math.min(1.0, density / 0.3)
+            + 0.2 * (dataRows >= 2 ? 1.0 : 0.5);
+        List<String> reasons = new ArrayList<>();
+        if (containsWord(nameKeywords, sheet.getName())) {
+            score -= 0.5;
+            reasons.add("sheet name");
+        }
+        if (cells > 0 && cellLength / cells > PROSE_CELL_LENGTH) {
+            score -= 0.3;
+            reasons.add("long text cells");
+        }
+        if (offerHeaders == 0) {
+            reasons.add("no offer headers");
+        }
+        if (density < 0.1) {
+            reasons.add(String.format(Locale.ROOT, "numeric density %.2f", density));
+        }
+        score = Math.max(0, score);
+        // Still scored, in case the fallback in filter() has to keep one of these
+        if (hidden) {
+            return new Verdict(score, "hidden", true);
+        }
+        if (pivot) {
+            return new Verdict(score, "pivot table", true);
+        }
+        return new Verdict(score, score >= minScore ? null
+            : "low relevance score" + (reasons.isEmpty() ? "" : " (" + String.join(", ", reasons) + ")"), true);
+    }
+
+    /**
+     * Skips the sheets whose verdict is not relevant, keeping the best-scoring sheet with data
+     * when every sheet would go, since the classifier may simply not know this layout.
+     */
+    public void filter(TabularData data, Map<TabularData.SheetData, Verdict> verdicts) {
+        sheetsSeen.addAndGet(verdicts.size());
+        if (!enabled) {
+            return;
+        }
+        TabularData.SheetData keep = null;
+        boolean anyRelevant = false;
+        for (Map.Entry<TabularData.SheetData, Verdict> entry : verdicts.entrySet()) {
+            Verdict verdict = entry.getValue();
+            anyRelevant |= verdict.isRelevant();
+            if (verdict.hasData && (keep == null || verdict.score > verdicts.get(keep).score)) {
+                keep = entry.getKey();
+            }
+        }
+        for (Map.Entry<TabularData.SheetData, Verdict> entry : verdicts.entrySet()) {
+            TabularData.SheetData sheet = entry.getKey();
+            Verdict verdict = entry.getValue();
+            if (verdict.isRelevant() || (!anyRelevant && sheet == keep)) {
+                continue;
+            }
+            logger.info("Skipping sheet '{}': {} (score {})", sheet.getName(), verdict.reason,
+                String.format(Locale.ROOT, "%.2f", verdict.score));
+            data.skipSheet(sheet, verdict.reason, verdict.score);
+            sheetsSkipped.incrementAndGet();
+            promptCharsSkipped.addAndGet(promptLength(sheet));
+            skippedByReason.computeIfAbsent(reasonKey(verdict.reason), reason -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    // True if a keyword starts at a word boundary in text
+    private static boolean containsWord(AhoCorasickAutomaton keywords, String text) {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        boolean[] found = new boolean[1];
+        keywords.scan(text, (start, end, pattern) -> {
+            if (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1))) {
+                found[0] = true;
+            }
+        });
+        return found[0];
+    }
+
+    private static String reasonKey(String reason) {
+        int detail = reason.indexOf(" (");
+        return detail < 0 ? reason : reason.substring(0, detail);
+    }
+
+    // Roughly what TabularData.toPromptText would have rendered for this sheet
+    private static long promptLength(TabularData.SheetData sheet) {
+        long length = sheet.getName().length() + 50;
+        for (String header : sheet.getHeaders()) {
+            length += header.length() + 1;
+        }
+        for (TabularData.SheetRow row : sheet.getRows()) {
+            length += 12;
+            for (String cell : row.getCells()) {
+                length += cell.length() + 1;
+            }
+        }
+        return length;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("minScore", minScore);
+        metrics.put("sheetsSeen", sheetsSeen.get());
+        metrics.put("sheetsSkipped", sheetsSkipped.get());
+        metrics.put("promptCharsSkipped", promptCharsSkipped.get());
+        Map<String, Long> reasons = new LinkedHashMap<>();
+        skippedByReason.forEach((reason, count) -> reasons.put(reason, count.get()));
+        metrics.put("skippedByReason", reasons);
+        return metrics;
+    }
+
+    public static class Verdict {
+        private final double score;
+        // Null when the sheet is relevant
+        private final String reason;
+        private final boolean hasData;
+
+        Verdict(double score, String reason, boolean hasData) {
+            this.score = score;
+            this.reason = reason;
+            this.hasData = hasData;
+        }
+
+        public boolean isRelevant() {
+            return reason == null;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.ezetap.server.web.portal.service;
+
+import com.ezetap.shared.api.output.brand.emi.OfferRow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-memory product catalog used to check generated {@code sku_code} values
+ * ("Name|Variant|ProductId"). Product IDs resolve through a primitive {@link LongIntHashMap};
+ * names resolve through a trigram index over "name variant", scored by Dice similarity, so a
+ * lookup touches only the postings of the query's trigrams rather than the whole catalog.
+ *
+ * The catalog is a CSV file ({@code product_id,product_name,variant}, header optional) at
+ * {@code offer.sku-catalog}; with no catalog configured SKU codes are left untouched.
+ */
+@Component
+public class SkuCatalogIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SkuCatalogIndex.class);
+    private static final Set<String> NON_SKU_VALUES = new HashSet<>(Arrays.asList("", "all", "na", "n/a"));
+    // Candidates re-scored exactly after the approximate posting count
+    private static final int RESCORE_CANDIDATES = 8;
+
+    @Value("${offer.sku-catalog:}")
+    private String catalogLocation;
+
+    @Value("${offer.sku-catalog.min-similarity:0.6}")
+    private double minSimilarity;
+
+    // Trigrams shared by more than this many entries ("pho", " 12") are skipped when counting
+    @Value("${offer.sku-catalog.max-postings:5000}")
+    private int maxPostings;
+
+    private long[] productIds = new long[0];
+    private String[] names = new String[0];
+    private String[] variants = new String[0];
+    private LongIntHashMap idIndex = new LongIntHashMap(4);
+    private LongIntHashMap trigramIndex = new LongIntHashMap(4);
+    private int[][] postings = new int[0][];
+    private ThreadLocal<CandidateCounter> counters;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (catalogLocation == null || catalogLocation.trim().isEmpty()) {
+            logger.info("No SKU catalog configured (offer.sku-catalog), sku_code values will not be checked");
+            return;
+        }
+        Resource resource = new DefaultResourceLoader().getResource(catalogLocation.trim());
+        List<String[]> records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> cells = splitCsvLine(line);
+                if (cells.size() < 2 || !isProductId(cells.get(0).trim())) {
+                    continue;
+                }
+                records.add(new String[]{cells.get(0).trim(), cells.get(1).trim(), cells.size() > 2 ? cells.get(2).trim() : ""});
+            }
+        }
+        build(records);
+        logger.info("Loaded {} SKUs ({} distinct trigrams) from {}", productIds.length, trigramIndex.size(), resource.getDescription());
+    }
+
+    public boolean isEnabled() {
+        return productIds.length > 0;
+    }
+
+    private void build(List<String[]> records) {
+        int size = records.size();
+        productIds = new long[size];
+        names = new String[size];
+        variants = new String[size];
+        idIndex = new LongIntHashMap(size);
+
+        // First pass: number the trigrams and size each posting list
+        trigramIndex = new LongIntHashMap(size * 8);
+        int[] postingSizes = new int[1024];
+        long[][] entryTrigrams = new long[size][];
+        for (int i = 0; i < size; i++) {
+            String[] record = records.get(i);
+            productIds[i] = Long.parseLong(record[0]);
+            names[i] = record[1];
+            variants[i] = record[2];
+            if (idIndex.get(productIds[i]) >= 0) {
+                logger.warn("Duplicate product ID {} in SKU catalog, keeping the first entry", productIds[i]);
+            } else {
+                idIndex.put(productIds[i], i);
+            }
+            entryTrigrams[i] = trigrams(record[1] + " " + record[2]);
+            for (long trigram : entryTrigrams[i]) {
+                int id = trigramIndex.get(trigram);
+                if (id < 0) {
+                    id = trigramIndex.size();
+                    trigramIndex.put(trigram, id);
+                    if (id == postingSizes.length) {
+                        postingSizes = Arrays.copyOf(postingSizes, id * 2);
+                    }
+                }
+                postingSizes[id]++;
+            }
+        }
+
+        // Second pass: fill the posting lists, entries in ascending order
+        postings = new int[trigramIndex.size()][];
+        for (int id = 0; id < postings.length; id++) {
+            postings[id] = new int[postingSizes[id]];
+        }
+        int[] filled = new int[postings.length];
+        for (int i = 0; i < size; i++) {
+            for (long trigram : entryTrigrams[i]) {
+                int id = trigramIndex.get(trigram);
+                postings[id][filled[id]++] = i;
+            }
+        }
+        counters = ThreadLocal.withInitial(() -> new CandidateCounter(size));
+    }
+
+    /**
+     * Resolves the {@code sku_code} of every row against the catalog. Codes whose product ID
+     * and name agree are rewritten in catalog spelling, codes with a wrong or missing ID are
+     * corrected from the closest name match, and anything else is kept and flagged as a warning.
+     */
+    public void resolve(List<OfferRow> rows) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (OfferRow row : rows) {
+            String skuCode = row.getSkuCode();
+            if (skuCode == null || NON_SKU_VALUES.contains(skuCode.trim().toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            List<String> resolved = new ArrayList<>();
+            for (String item : skuCode.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    resolved.add(resolveItem(item.trim(), row));
+                }
+            }
+            row.setSkuCode(String.join(", ", resolved));
+        }
+    }
+
+    private String resolveItem(String item, OfferRow row) {
+        String[] parts = item.split("\\|");
+        String last = parts[parts.length - 1].trim();
+        boolean hasId = isProductId(last);
+        String name = hasId ? String.join(" ", Arrays.copyOf(parts, parts.length - 1)) : String.join(" ", parts);
+
+        int entry = hasId ? idIndex.get(Long.parseLong(last)) : -1;
+        if (entry >= 0 && (name.trim().isEmpty() || similarity(trigrams(name), entry) >= minSimilarity)) {
+            return format(entry);
+        }
+        Match match = name.trim().isEmpty() ? null : bestMatch(name);
+        if (match != null && match.score >= minSimilarity) {
+            logger.info("Corrected sku_code '{}' to '{}' (similarity {})", item, format(match.entry),
+                String.format(Locale.ROOT, "%.2f", match.score));
+            return format(match.entry);
+        }
+        if (entry >= 0) {
+            row.addWarning("sku_code '" + item + "': product ID " + last + " is '" + format(entry) + "' in the SKU catalog");
+        } else {
+            row.addWarning("sku_code '" + item + "' is not in the SKU catalog");
+        }
+        return item;
+    }
+
+    /**
+     * Returns the catalog entry closest to {@code query} by trigram similarity, or null.
+     */
+    Match bestMatch(String query) {
+        long[] queryTrigrams = trigrams(query);
+        if (queryTrigrams.length == 0) {
+            return null;
+        }
+        CandidateCounter counter = counters.get();
+        try {
+            int rarest = -1;
+            for (long trigram : queryTrigrams) {
+                int id = trigramIndex.get(trigram);
+                if (id < 0) {
+                    continue;
+                }
+                if (postings[id].length <= maxPostings) {
+                    counter.addAll(postings[id]);
+                } else if (rarest < 0 || postings[id].length < postings[rarest].length) {
+                    rarest = id;
+                }
+            }
+            // Only very common trigrams matched: fall back to the least common of them
+            if (counter.touchedCount == 0 && rarest >= 0) {
+                counter.addAll(postings[rarest]);
+            }
+
+            Match best = null;
+            for (int entry : counter.top(RESCORE_CANDIDATES)) {
+                double score = similarity(queryTrigrams, entry);
+                if (best == null || score > best.score) {
+                    best = new Match(entry, score);
+                }
+            }
+            return best;
+        } finally {
+            counter.reset();
+        }
+    }
+
+    private double similarity(long[] queryTrigrams, int entry) {
+        long[] entryTrigrams = trigrams(names[entry] + " " + variants[entry]);
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < queryTrigrams.length && j < entryTrigrams.length) {
+            if (queryTrigrams[i] == entryTrigrams[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (queryTrigrams[i] < entryTrigrams[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int total = queryTrigrams.length + entryTrigrams.length;
+        return total == 0 ? 0 : 2.0 * common / total;
+    }
+
+    private String format(int entry) {
+        return variants[entry].isEmpty()
+            ? names[entry] + "|" + productIds[entry]
+            : names[entry] + "|" + variants[entry] + "|" + productIds[entry];
+    }
+
+    /**
+     * Sorted, distinct trigrams of the text lower-cased with punctuation folded to spaces,
+     * each packed into a long (three 16-bit chars).
+     */
+    static long[] trigrams(String text) {
+        StringBuilder normalized = new StringBuilder(text.length() + 2).append(' ');
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+            } else if (normalized.charAt(normalized.length() - 1) != ' ') {
+                normalized.append(' ');
+            }
+        }
+        if (normalized.charAt(normalized.length() - 1) != ' ') {
+            normalized.append(' ');
+        }
+        if (normalized.length() < 3) {
+            return new long[0];
+        }
+        long[] result = new long[normalized.length() - 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((long) normalized.charAt(i) << 32) | ((long) normalized.charAt(i + 1) << 16) | normalized.charAt(i + 2);
+        }
+        Arrays.sort(result);
+        int distinct = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
+    }
+
+    private static boolean isProductId(String value) {
+        if (value.isEmpty() || value.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> splitCsvLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    static class Match {
+        final int entry;
+        final double score;
+
+        Match(int entry, double score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Per-thread hit counter over catalog entries. Only touched slots are cleared afterwards,
+     * so a lookup costs the size of the postings it reads, not the size of the catalog.
+     */
+    private static class CandidateCounter {
+        private final int[] counts;
+        private int[] touched = new int[64];
+        private int touchedCount;
+
+        CandidateCounter(int size) {
+            counts = new int[size];
+        }
+
+        void addAll(int[] entries) {
+            for (int entry : entries) {
+                if (counts[entry]++ == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = entry;
+                }
+            }
+        }
+
+        int[] top(int limit) {
+            int[] best = new int[Math.min(limit, touchedCount)];
+            int found = 0;
+            for (int t = 0; t < touchedCount; t++) {
+                int entry = touched[t];
+                int position;
+                if (found < best.length) {
+                    position = found++;
+                } else if (counts[entry] > counts[best[best.length - 1]]) {
+                    position = best.length - 1;
+                } else {
+                    continue;
+                }
+                // Insertion into the small, count-descending candidate list
+                while (position > 0 && counts[best[position - 1]] < counts[entry]) {
+                    best[position] = best[position - 1];
+                    position--;
+                }
+                best[position] = entry;
+            }
+            return best;
+        }
+
+        void reset() {
+            for (int t = 0; t < touchedCount; t++) {
+                counts[touched[t]] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+}
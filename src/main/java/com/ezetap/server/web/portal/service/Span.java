@@ -0,0 +1,160 @@
+package com.ezetap.server.web.portal.service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One timed operation of a trace (see {@link Tracing}), with attributes describing it. A span
+ * is current on the thread that started it until it is closed, which ends it, makes its
+ * parent current again and hands it to the exporter. Spans are meant for try-with-resources.
+ */
+public class Span implements AutoCloseable {
+    static final Span NOOP = new Span();
+
+    public enum Kind { SERVER, INTERNAL, CLIENT }
+
+    private final TraceExporter exporter;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String name;
+    private final Kind kind;
+    private final boolean sampled;
+    private final Span previous;
+    private final Thread thread;
+    private final long startEpochNanos;
+    private final long startNanos;
+    // Guarded by this
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+    private String errorMessage;
+    private long durationNanos = -1;
+
+    private Span() {
+        this.exporter = null;
+        this.traceId = null;
+        this.spanId = null;
+        this.parentSpanId = null;
+        this.name = null;
+        this.kind = Kind.INTERNAL;
+        this.sampled = false;
+        this.previous = null;
+        this.thread = null;
+        this.startEpochNanos = 0;
+        this.startNanos = 0;
+    }
+
+    Span(TraceExporter exporter, String traceId, String parentSpanId, String name, Kind kind,
+         boolean sampled, Span previous) {
+        this.exporter = exporter;
+        this.traceId = traceId;
+        this.spanId = Tracing.randomHex(8);
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+        this.sampled = sampled;
+        this.previous = previous;
+        this.thread = Thread.currentThread();
+        Instant now = Instant.now();
+        this.startEpochNanos = TimeUnit.SECONDS.toNanos(now.getEpochSecond()) + now.getNano();
+        this.startNanos = System.nanoTime();
+    }
+
+    /** Sets an attribute: a string, number or boolean. Null values are ignored. */
+    public Span setAttribute(String key, Object value) {
+        if (this != NOOP && sampled && value != null) {
+            synchronized (this) {
+                attributes.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    /** Marks the span as failed with {@code error}. */
+    public void recordError(Throwable error) {
+        if (this == NOOP || !sampled) {
+            return;
+        }
+        synchronized (this) {
+            errorMessage = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+            attributes.put("exception.type", error.getClass().getName());
+        }
+    }
+
+    /** Marks the span as failed for a reason other than an exception. */
+    public synchronized void setError(String message) {
+        if (this != NOOP && sampled) {
+            errorMessage = message;
+        }
+    }
+
+    /** The W3C {@code traceparent} value naming this span as the parent of a downstream call. */
+    public String traceparent() {
+        return this == NOOP ? null : "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    @Override
+    public void close() {
+        if (this == NOOP) {
+            return;
+        }
+        synchronized (this) {
+            if (durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        if (Thread.currentThread() == thread && Tracing.current() == this) {
+            Tracing.restore(previous);
+        }
+        if (sampled) {
+            exporter.export(this);
+        }
+    }
+
+    TraceExporter exporter() {
+        return exporter;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public synchronized String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public synchronized Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+    }
+}
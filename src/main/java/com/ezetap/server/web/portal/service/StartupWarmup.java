@@ -0,0 +1,104 @@
+package com.ezetap.server.web.portal.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Warm-up phase run before the application reports ready: Spring Boot only moves readiness to
+ * ACCEPTING_TRAFFIC once all runners have finished, so a load balancer polling
+ * /api/health/ready sends no traffic until the synthetic extraction has loaded POI/XMLBeans and
+ * the Azure SDK serializers. The extraction is run twice; the second pass is the latency the
+ * first real request would see, and its completion time since JVM start is reported as the
+ * time to first fast response.
+ *
+ * With {@code offer.startup.exit-after-warmup} the JVM exits after warming up, which is how the
+ * {@code cds} Maven profile records the classes to put in the shared archive.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class StartupWarmup implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(StartupWarmup.class);
+
+    @Value("${offer.startup.warmup:true}")
+    private boolean enabled;
+
+    @Value("${offer.startup.exit-after-warmup:false}")
+    private boolean exitAfterWarmup;
+
+    @Value("${spring.main.lazy-initialization:false}")
+    private boolean lazyInitialization;
+
+    @Autowired
+    private OfferExtractionService offerService;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    // Published once the warm-up is done; requests can arrive while it runs
+    private volatile Map<String, Object> report = Collections.emptyMap();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long contextReadyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("contextReadyMs", contextReadyMs);
+        report.put("lazyInitialization", lazyInitialization);
+        report.put("cdsArchive", sharedArchiveFile());
+        if (enabled) {
+            try {
+                report.put("coldWarmupMs", timeWarmUp());
+                report.put("warmPassMs", timeWarmUp());
+            } catch (Exception e) {
+                // A failed warm-up only costs the first request its latency
+                logger.warn("Startup warm-up failed: {}", e.getMessage());
+            }
+        }
+        long readyMs = ManagementFactory.getRuntimeMXBean().getUptime();
+        report.put("timeToFirstFastResponseMs", readyMs);
+        logger.info("Startup: context ready at {} ms, warm-up {} ms, ready for fast responses at {} ms after JVM start (CDS archive: {})",
+            contextReadyMs, report.get("coldWarmupMs"), readyMs, report.get("cdsArchive"));
+        this.report = report;
+
+        if (exitAfterWarmup) {
+            logger.info("offer.startup.exit-after-warmup is set, exiting");
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    private long timeWarmUp() throws Exception {
+        long start = System.nanoTime();
+        offerService.warmUp();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // The application archive from the cds profile, if the JVM mapped one; "none" otherwise
+    private static String sharedArchiveFile() {
+        if (!System.getProperty("java.vm.info", "").contains("sharing")) {
+            return "none";
+        }
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-XX:SharedArchiveFile=")) {
+                return argument.substring("-XX:SharedArchiveFile=".length());
+            }
+        }
+        return "none";
+    }
+
+    public Map<String, Object> getReport() {
+        return report;
+    }
+}
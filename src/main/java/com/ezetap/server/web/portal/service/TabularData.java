@@ -0,0 +1,371 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sheet/row model of an uploaded workbook or CSV, rendered into the "=== Sheet / Headers / Row N"
+ * text the prompts are built from. Keeping the rows addressable lets a continuation prompt carry
+ * only the rows after a given {@code sheet:row} position.
+ */
+public class TabularData {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final List<SheetData> sheets = new ArrayList<>();
+    private final List<SkippedSheet> skippedSheets = new ArrayList<>();
+    private int addedSheets;
+
+    public List<SheetData> getSheets() {
+        return sheets;
+    }
+
+    /** Sheets left out of the prompt by {@link #skipSheet}, in workbook order. */
+    public List<SkippedSheet> getSkippedSheets() {
+        return skippedSheets;
+    }
+
+    /**
+     * The sheet numbered {@code index} ({@link SheetData#getIndex}), or null if there is none or
+     * it was skipped.
+     */
+    public SheetData getSheet(int index) {
+        for (SheetData sheet : sheets) {
+            if (sheet.getIndex() == index) {
+                return sheet;
+            }
+        }
+        return null;
+    }
+
+    /** Adds the next sheet of the workbook; sheets are numbered from 1 in the order added. */
+    public SheetData addSheet(String name, int totalRows) {
+        SheetData sheet = new SheetData(++addedSheets, name, totalRows);
+        sheets.add(sheet);
+        return sheet;
+    }
+
+    /**
+     * Builds a single-sheet model from a CSV upload, in the same shape as a workbook sheet: the
+     * first non-blank record is the header and every non-blank record is a row, numbered by
+     * its record number and addressable by column.
+     */
+    public static TabularData fromCsv(String name, byte[] bytes) {
+        TabularData data = new TabularData();
+        SheetData sheet = data.addSheet(name, 0);
+        CsvTokenizer tokenizer = CsvTokenizer.forBytes(bytes);
+        List<String> fields = new ArrayList<>();
+        while (tokenizer.next(fields)) {
+            String[] columns = csvColumns(fields);
+            if (columns != null) {
+                sheet.addCsvRow(tokenizer.getRecordNumber(), columns);
+            }
+        }
+        sheet.setTotalRows(tokenizer.getRecordNumber());
+        return data;
+    }
+
+    /** The fields of a CSV record trimmed like workbook string cells, or null if all are empty. */
+    static String[] csvColumns(List<String> fields) {
+        String[] columns = new String[fields.size()];
+        boolean rowHasData = false;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = fields.get(i).trim();
+            rowHasData |= !columns[i].isEmpty();
+        }
+        return rowHasData ? columns : null;
+    }
+
+    /**
+     * Removes a sheet from the model and records why. The other sheets keep their workbook
+     * numbers, so {@code sheet:row} positions still name the workbook tab.
+     */
+    public void skipSheet(SheetData sheet, String reason, double score) {
+        if (!sheets.remove(sheet)) {
+            return;
+        }
+        skippedSheets.add(new SkippedSheet(sheet.getName(), reason, score));
+    }
+
+    /**
+     * A model of {@code sheet} with its header and only its first {@code maxRows} data rows,
+     * under the same sheet number, for work that outlives the request holding the whole upload.
+     */
+    public static TabularData sample(SheetData sheet, int maxRows) {
+        TabularData data = new TabularData();
+        SheetData copy = new SheetData(sheet.getIndex(), sheet.getName(), sheet.getTotalRows());
+        copy.setHeaders(sheet.getHeaders());
+        copy.setHeaderMap(sheet.getHeaderMap(), sheet.getHeaderRowNumber());
+        copy.setLayoutFingerprint(sheet.getLayoutFingerprint());
+        int dataRows = 0;
+        for (SheetRow row : sheet.getRows()) {
+            if (row.getRowNumber() > sheet.getHeaderRowNumber() && dataRows++ >= maxRows) {
+                break;
+            }
+            copy.rows.add(row);
+        }
+        data.sheets.add(copy);
+        return data;
+    }
+
+    public int getDataRowCount() {
+        int count = 0;
+        for (SheetData sheet : sheets) {
+            count += sheet.getRows().size();
+        }
+        return count;
+    }
+
+    /**
+     * Looks up a row by its {@code sheet:row} position, or returns null if there is no such row.
+     */
+    public SheetRow findRow(int sheetIndex, int rowNumber) {
+        SheetData sheet = getSheet(sheetIndex);
+        if (sheet == null) {
+            return null;
+        }
+        // Rows are added in sheet order, so row numbers are ascending
+        List<SheetRow> rows = sheet.getRows();
+        int low = 0;
+        int high = rows.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int current = rows.get(mid).getRowNumber();
+            if (current == rowNumber) {
+                return rows.get(mid);
+            } else if (current < rowNumber) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return null;
+    }
+
+    /** Whether any data row (below its sheet's header) comes after {@code afterSheet:afterRow}. */
+    public boolean hasRowsAfter(int afterSheet, int afterRow) {
+        for (SheetData sheet : sheets) {
+            if (sheet.getIndex() < afterSheet) {
+                continue;
+            }
+            int minRow = Math.max(sheet.getHeaderRowNumber(), sheet.getIndex() == afterSheet ? afterRow : 0);
+            List<SheetRow> rows = sheet.getRows();
+            if (!rows.isEmpty() && rows.get(rows.size() - 1).getRowNumber() > minRow) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String toPromptText() {
+        return toPromptText(0, 0);
+    }
+
+    /**
+     * Renders only the rows that come after {@code afterSheet:afterRow}; sheets before that
+     * position are left out and every included sheet keeps its header line.
+     */
+    public String toPromptText(int afterSheet, int afterRow) {
+        StringBuilder text = new StringBuilder();
+        for (SheetData sheet : sheets) {
+            if (sheet.getIndex() < afterSheet) {
+                continue;
+            }
+            int minRow = sheet.getIndex() == afterSheet ? afterRow : 0;
+            List<SheetRow> rows = new ArrayList<>();
+            for (SheetRow row : sheet.getRows()) {
+                if (row.getRowNumber() > minRow) {
+                    rows.add(row);
+                }
+            }
+            if (rows.isEmpty() && minRow > 0) {
+                continue;
+            }
+
+            text.append("\n\n=== Sheet ").append(sheet.getIndex())
+                .append(": ").append(sheet.getName())
+                .append(" (Total Rows: ").append(sheet.getTotalRows())
+                .append(", Data Rows: ").append(rows.size()).append(") ===\n\n");
+
+            if (!sheet.getHeaders().isEmpty()) {
+                text.append("Headers: ");
+                for (String header : sheet.getHeaders()) {
+                    text.append(header).append("\t");
+                }
+                text.append("\n\n");
+            }
+
+            for (SheetRow row : rows) {
+                text.append("Row ").append(row.getRowNumber()).append(": ");
+                for (String cell : row.getCells()) {
+                    text.append(cell).append("\t");
+                }
+                text.append("\n");
+            }
+        }
+        return text.toString();
+    }
+
+    public static class SheetData {
+        // 1-based position in the workbook, skipped sheets included
+        private final int index;
+        private final String name;
+        private int totalRows;
+        private List<String> headers = Collections.emptyList();
+        private final List<SheetRow> rows = new ArrayList<>();
+        // Normalized header name to column index, when the rows are column-addressed
+        private Map<String, Integer> headerMap = Collections.emptyMap();
+        private int headerRowNumber;
+        private String layoutFingerprint;
+
+        SheetData(int index, String name, int totalRows) {
+            this.index = index;
+            this.name = name;
+            this.totalRows = totalRows;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getTotalRows() {
+            return totalRows;
+        }
+
+        public List<String> getHeaders() {
+            return headers;
+        }
+
+        public void setHeaders(List<String> headers) {
+            this.headers = headers;
+        }
+
+        public List<SheetRow> getRows() {
+            return rows;
+        }
+
+        public void addRow(int rowNumber, List<String> cells) {
+            rows.add(new SheetRow(rowNumber, cells, null));
+        }
+
+        /** Adds a row whose cells are also kept by column index, for {@link #getCellValue}. */
+        public void addRow(int rowNumber, List<String> cells, String[] columns) {
+            rows.add(new SheetRow(rowNumber, cells, columns));
+        }
+
+        /** Adds a CSV record from {@link #csvColumns}; the first one added is the header. */
+        void addCsvRow(int recordNumber, String[] columns) {
+            List<String> cells = Arrays.asList(columns);
+            if (headers.isEmpty()) {
+                Map<String, Integer> map = new HashMap<>();
+                for (int i = 0; i < columns.length; i++) {
+                    String header = normalizeHeader(columns[i]);
+                    if (!header.isEmpty()) {
+                        map.putIfAbsent(header, i);
+                    }
+                }
+                setHeaders(cells);
+                setHeaderMap(map, recordNumber);
+            }
+            rows.add(new SheetRow(recordNumber, cells, columns));
+        }
+
+        void setTotalRows(int totalRows) {
+            this.totalRows = totalRows;
+        }
+
+        public Map<String, Integer> getHeaderMap() {
+            return headerMap;
+        }
+
+        public void setHeaderMap(Map<String, Integer> headerMap, int headerRowNumber) {
+            this.headerMap = headerMap;
+            this.headerRowNumber = headerRowNumber;
+        }
+
+        public int getHeaderRowNumber() {
+            return headerRowNumber;
+        }
+
+        /** The value under {@code headerName} in {@code row}; "" if there is no such column or cell. */
+        public String getCellValue(SheetRow row, String headerName) {
+            Integer column = headerMap.get(normalizeHeader(headerName));
+            if (column == null || row.columns == null || column >= row.columns.length || row.columns[column] == null) {
+                return "";
+            }
+            return row.columns[column];
+        }
+
+        public String getLayoutFingerprint() {
+            return layoutFingerprint;
+        }
+
+        public void setLayoutFingerprint(String layoutFingerprint) {
+            this.layoutFingerprint = layoutFingerprint;
+        }
+    }
+
+    /** Header text as used for lookups and fingerprints: trimmed, lower case, single spaces. */
+    public static String normalizeHeader(String header) {
+        return header == null ? "" : WHITESPACE.matcher(header.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    public static class SkippedSheet {
+        private final String name;
+        private final String reason;
+        private final double score;
+
+        SkippedSheet(String name, String reason, double score) {
+            this.name = name;
+            this.reason = reason;
+            this.score = score;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    public static class SheetRow {
+        // 1-based row number as shown to the model ("Row N")
+        private final int rowNumber;
+        private final List<String> cells;
+        // Cells by column index (null where empty); null when the source has no columns
+        private final String[] columns;
+
+        SheetRow(int rowNumber, List<String> cells, String[] columns) {
+            this.rowNumber = rowNumber;
+            this.cells = cells;
+            this.columns = columns;
+        }
+
+        public int getRowNumber() {
+            return rowNumber;
+        }
+
+        public List<String> getCells() {
+            return cells;
+        }
+
+        public String[] getColumns() {
+            return columns;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.ezetap.server.web.portal.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports finished spans in batches as OTLP/JSON ({@code ExportTraceServiceRequest}), either
+ * appended one batch per line to a rolling local file or posted to an OTLP/HTTP collector
+ * such as {@code http://localhost:4318/v1/traces}. Neither needs a network beyond the host;
+ * the file can be loaded by a collector's {@code otlpjson} receiver or read directly.
+ *
+ * Spans wait in a bounded queue and are dropped, not blocked on, when it is full. Per span
+ * name durations are kept in memory for {@code /api/metrics/tracing}.
+ */
+@Component
+public class TraceExporter {
+    private static final Logger logger = LoggerFactory.getLogger(TraceExporter.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long MB = 1024 * 1024;
+
+    @Value("${offer.tracing.enabled:true}")
+    private boolean enabled;
+
+    // file, otlp or none (spans only counted)
+    @Value("${offer.tracing.exporter:file}")
+    private String exporterType;
+
+    @Value("${offer.tracing.sample-ratio:1.0}")
+    private double sampleRatio;
+
+    @Value("${offer.tracing.service-name:offer-creation-ai}")
+    private String serviceName;
+
+    @Value("${offer.tracing.file:./data/traces/spans.jsonl}")
+    private String file;
+
+    @Value("${offer.tracing.file-max-mb:64}")
+    private long fileMaxMb;
+
+    @Value("${offer.tracing.file-max-files:5}")
+    private int fileMaxFiles;
+
+    @Value("${offer.tracing.otlp-endpoint:http://localhost:4318/v1/traces}")
+    private String otlpEndpoint;
+
+    @Value("${offer.tracing.queue-size:10000}")
+    private int queueSize;
+
+    @Value("${offer.tracing.batch-size:512}")
+    private int batchSize;
+
+    @Value("${offer.tracing.export-interval-ms:2000}")
+    private long exportIntervalMs;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trace-exporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, SpanStats> stats = new ConcurrentHashMap<>();
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong exportFailures = new AtomicLong();
+    private BlockingQueue<Span> queue;
+    private HttpClient httpClient;
+    private Path filePath;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        if ("otlp".equals(exporterType)) {
+            httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            logger.info("Exporting traces to OTLP collector at {}", otlpEndpoint);
+        } else if ("file".equals(exporterType)) {
+            filePath = Paths.get(file).toAbsolutePath();
+            logger.info("Exporting traces to {}", filePath);
+        }
+        worker.scheduleWithFixedDelay(this::flush, exportIntervalMs, exportIntervalMs, TimeUnit.MILLISECONDS);
+        Tracing.setExporter(this);
+    }
+
+    @PreDestroy
+    public void close() {
+        Tracing.setExporter(null);
+        worker.shutdownNow();
+        if (queue != null) {
+            flush();
+        }
+    }
+
+    /** Whether a new trace is recorded, by {@code sample-ratio}. */
+    boolean sample() {
+        return sampleRatio >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRatio;
+    }
+
+    void export(Span span) {
+        stats.computeIfAbsent(span.getName(), name -> new SpanStats()).record(span);
+        if (!queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private synchronized void flush() {
+        List<Span> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                if (filePath != null) {
+                    writeToFile(toOtlpJson(batch));
+                } else if (httpClient != null) {
+                    post(toOtlpJson(batch));
+                }
+                exported.addAndGet(batch.size());
+            } catch (Exception e) {
+                exportFailures.incrementAndGet();
+                logger.warn("Could not export {} spans: {}", batch.size(), e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeToFile(byte[] line) throws IOException {
+        Files.createDirectories(filePath.getParent());
+        if (Files.exists(filePath) && Files.size(filePath) + line.length > fileMaxMb * MB) {
+            roll();
+        }
+        Files.write(filePath, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // spans.jsonl -> spans.jsonl.1 -> ... -> spans.jsonl.<max-files - 1>, the oldest deleted
+    private void roll() throws IOException {
+        Files.deleteIfExists(rolled(fileMaxFiles - 1));
+        for (int i = fileMaxFiles - 2; i >= 1; i--) {
+            if (Files.exists(rolled(i))) {
+                Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (fileMaxFiles > 1) {
+            Files.move(filePath, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(filePath);
+        }
+    }
+
+    private Path rolled(int index) {
+        return filePath.resolveSibling(filePath.getFileName() + "." + index);
+    }
+
+    private void post(byte[] body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(otlpEndpoint))
+            .timeout(Duration.ofSeconds(10))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+            .build();
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() >= 300) {
+            throw new IOException("collector returned " + response.statusCode());
+        }
+    }
+
+    private byte[] toOtlpJson(List<Span> batch) throws IOException {
+        ObjectNode request = MAPPER.createObjectNode();
+        ObjectNode resourceSpans = request.putArray("resourceSpans").addObject();
+        ArrayNode resourceAttributes = resourceSpans.putObject("resource").putArray("attributes");
+        addAttribute(resourceAttributes, "service.name", serviceName);
+        ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+        scopeSpans.putObject("scope").put("name", TraceExporter.class.getName());
+        ArrayNode spans = scopeSpans.putArray("spans");
+        for (Span span : batch) {
+            ObjectNode node = spans.addObject();
+            node.put("traceId", span.getTraceId());
+            node.put("spanId", span.getSpanId());
+            if (span.getParentSpanId() != null) {
+                node.put("parentSpanId", span.getParentSpanId());
+            }
+            node.put("name", span.getName());
+            // OTLP SpanKind: 1 internal, 2 server, 3 client
+            node.put("kind", span.getKind() == Span.Kind.SERVER ? 2 : span.getKind() == Span.Kind.CLIENT ? 3 : 1);
+            // 64-bit integers are strings in OTLP/JSON
+            node.put("startTimeUnixNano", Long.toString(span.getStartEpochNanos()));
+            node.put("endTimeUnixNano", Long.toString(span.getStartEpochNanos() + span.getDurationNanos()));
+            ArrayNode attributes = node.putArray("attributes");
+            for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+                addAttribute(attributes, attribute.getKey(), attribute.getValue());
+            }
+            String error = span.getErrorMessage();
+            if (error != null) {
+                node.putObject("status").put("code", 2).put("message", error);
+            }
+        }
+        byte[] json = MAPPER.writeValueAsBytes(request);
+        byte[] line = Arrays.copyOf(json, json.length + 1);
+        line[json.length] = '\n';
+        return line;
+    }
+
+    private static void addAttribute(ArrayNode attributes, String key, Object value) {
+        ObjectNode attribute = attributes.addObject();
+        attribute.put("key", key);
+        ObjectNode anyValue = attribute.putObject("value");
+        if (value instanceof Boolean) {
+            anyValue.put("boolValue", (Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            anyValue.put("doubleValue", ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            anyValue.put("intValue", Long.toString(((Number) value).longValue()));
+        } else {
+            anyValue.put("stringValue", String.valueOf(value));
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("exporter", exporterType);
+        metrics.put("target", filePath != null ? filePath.toString() : httpClient != null ? otlpEndpoint : "");
+        metrics.put("sampleRatio", sampleRatio);
+        metrics.put("exported", exported.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("exportFailures", exportFailures.get());
+        metrics.put("queued", queue != null ? queue.size() : 0);
+        Map<String, Object> spans = new TreeMap<>();
+        for (Map.Entry<String, SpanStats> entry : stats.entrySet()) {
+            spans.put(entry.getKey(), entry.getValue().toMap());
+        }
+        metrics.put("spans", spans);
+        return metrics;
+    }
+
+    private static class SpanStats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(Span span) {
+            count.incrementAndGet();
+            if (span.getErrorMessage() != null) {
+                errors.incrementAndGet();
+            }
+            totalNanos.addAndGet(span.getDurationNanos());
+            maxNanos.accumulateAndGet(span.getDurationNanos(), Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long spans = count.get();
+            map.put("count", spans);
+            map.put("errors", errors.get());
+            map.put("avgMs", spans == 0 ? 0.0 : Math.round(totalNanos.get() / (double) spans / 100_000) / 10.0);
+            map.put("maxMs", Math.round(maxNanos.get() / 100_000.0) / 10.0);
+            return map;
+        }
+    }
+}
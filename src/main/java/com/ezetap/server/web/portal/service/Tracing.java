@@ -0,0 +1,157 @@
+package com.ezetap.server.web.portal.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Request tracing in the OpenTelemetry model: a trace is a tree of timed {@link Span}s sharing
+ * a trace id, and the span a thread is working in is bound to it like {@link RequestDeadline}.
+ * Each request gets a root span from {@code TracingFilter}; stages below it open child spans
+ * with {@link #start}. Outside a traced request {@link #start} returns a span that records
+ * nothing, so warm-up and background work cost nothing.
+ *
+ * Work handed to another thread keeps its place in the trace when the task is passed through
+ * {@link #wrap}. Finished spans go to {@link TraceExporter}.
+ */
+public final class Tracing {
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static volatile TraceExporter exporter;
+
+    private Tracing() {
+    }
+
+    static void setExporter(TraceExporter traceExporter) {
+        exporter = traceExporter;
+    }
+
+    public static boolean isEnabled() {
+        return exporter != null;
+    }
+
+    /**
+     * Starts the root span of a request and makes it current. {@code traceparent} is the W3C
+     * header of a caller that is already tracing, whose trace the request then joins; null or
+     * malformed starts a new trace.
+     */
+    public static Span startRoot(String name, String traceparent) {
+        TraceExporter target = exporter;
+        if (target == null) {
+            return Span.NOOP;
+        }
+        String traceId = null;
+        String parentSpanId = null;
+        boolean sampled;
+        // version-traceid-parentid-flags, e.g. 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01
+        if (traceparent != null && traceparent.length() == 55 && traceparent.charAt(2) == '-'
+                && isId(traceparent, 3, 35) && isId(traceparent, 36, 52)
+                && Character.digit(traceparent.charAt(53), 16) >= 0 && Character.digit(traceparent.charAt(54), 16) >= 0) {
+            traceId = traceparent.substring(3, 35);
+            parentSpanId = traceparent.substring(36, 52);
+            sampled = (Integer.parseInt(traceparent.substring(53, 55), 16) & 1) == 1;
+        } else {
+            sampled = target.sample();
+        }
+        if (traceId == null) {
+            traceId = randomHex(16);
+        }
+        return open(new Span(target, traceId, parentSpanId, name, Span.Kind.SERVER, sampled, CURRENT.get()));
+    }
+
+    /** Starts a child of the current span and makes it current; a no-op span outside a trace. */
+    public static Span start(String name) {
+        return start(name, Span.Kind.INTERNAL);
+    }
+
+    /** As {@link #start(String)}; {@link Span.Kind#CLIENT} marks calls to other services. */
+    public static Span start(String name, Span.Kind kind) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        return open(new Span(parent.exporter(), parent.getTraceId(), parent.getSpanId(), name,
+            kind, parent.isSampled(), parent));
+    }
+
+    /** The span the current thread is working in, or null. */
+    public static Span current() {
+        return CURRENT.get();
+    }
+
+    /** Sets an attribute on the current span, if there is one. */
+    public static void attribute(String key, Object value) {
+        Span span = CURRENT.get();
+        if (span != null) {
+            span.setAttribute(key, value);
+        }
+    }
+
+    /** {@code task}, run as part of the span that is current now, on whatever thread runs it. */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /** As {@link #wrap(Callable)} for a {@link Runnable}. */
+    public static Runnable wrap(Runnable task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static Span open(Span span) {
+        CURRENT.set(span);
+        return span;
+    }
+
+    // Called by a closing span that is current on this thread
+    static void restore(Span previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    static String randomHex(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder hex = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            hex.append(Character.forDigit(random.nextInt(16), 16)).append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return hex.toString();
+    }
+
+    // Lowercase hex, not all zeros
+    private static boolean isId(String value, int from, int to) {
+        boolean nonZero = false;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (Character.digit(c, 16) < 0 || Character.isUpperCase(c)) {
+                return false;
+            }
+            nonZero |= c != '0';
+        }
+        return nonZero;
+    }
+}
@@ -0,0 +1,130 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Two extracted offers for the same SKU, bank and card type whose date windows overlap.
+ * {@code row_a}/{@code row_b} are 1-based positions in the extracted offer list, as in the
+ * validation report.
+ */
+public class OfferConflict {
+    public enum Type {
+        // Same window and the same offer terms
+        DUPLICATE,
+        // Windows overlap with different terms
+        OVERLAP
+    }
+
+    @JsonProperty("type")
+    private Type type;
+
+    @JsonProperty("row_a")
+    private int rowA;
+
+    @JsonProperty("row_b")
+    private int rowB;
+
+    @JsonProperty("source_row_a")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String sourceRowA;
+
+    @JsonProperty("source_row_b")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String sourceRowB;
+
+    @JsonProperty("sku_code")
+    private String skuCode;
+
+    @JsonProperty("bank_name")
+    private String bankName;
+
+    @JsonProperty("card_type")
+    private String cardType;
+
+    @JsonProperty("overlap_start")
+    private String overlapStart;
+
+    @JsonProperty("overlap_end")
+    private String overlapEnd;
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public int getRowA() {
+        return rowA;
+    }
+
+    public void setRowA(int rowA) {
+        this.rowA = rowA;
+    }
+
+    public int getRowB() {
+        return rowB;
+    }
+
+    public void setRowB(int rowB) {
+        this.rowB = rowB;
+    }
+
+    public String getSourceRowA() {
+        return sourceRowA;
+    }
+
+    public void setSourceRowA(String sourceRowA) {
+        this.sourceRowA = sourceRowA;
+    }
+
+    public String getSourceRowB() {
+        return sourceRowB;
+    }
+
+    public void setSourceRowB(String sourceRowB) {
+        this.sourceRowB = sourceRowB;
+    }
+
+    public String getSkuCode() {
+        return skuCode;
+    }
+
+    public void setSkuCode(String skuCode) {
+        this.skuCode = skuCode;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public void setBankName(String bankName) {
+        this.bankName = bankName;
+    }
+
+    public String getCardType() {
+        return cardType;
+    }
+
+    public void setCardType(String cardType) {
+        this.cardType = cardType;
+    }
+
+    public String getOverlapStart() {
+        return overlapStart;
+    }
+
+    public void setOverlapStart(String overlapStart) {
+        this.overlapStart = overlapStart;
+    }
+
+    public String getOverlapEnd() {
+        return overlapEnd;
+    }
+
+    public void setOverlapEnd(String overlapEnd) {
+        this.overlapEnd = overlapEnd;
+    }
+}
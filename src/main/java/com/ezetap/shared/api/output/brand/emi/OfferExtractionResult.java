@@ -0,0 +1,56 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracted offer rows together with the conflicts found between them and the problems found
+ * in each row.
+ */
+public class OfferExtractionResult {
+    @JsonProperty("offers")
+    private List<OfferRow> offers = new ArrayList<>();
+
+    @JsonProperty("conflicts")
+    private List<OfferConflict> conflicts = new ArrayList<>();
+
+    @JsonProperty("validation")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private OfferValidationReport validation;
+
+    public OfferExtractionResult() {
+    }
+
+    public OfferExtractionResult(List<OfferRow> offers, List<OfferConflict> conflicts, OfferValidationReport validation) {
+        this.offers = offers;
+        this.conflicts = conflicts;
+        this.validation = validation;
+    }
+
+    public List<OfferRow> getOffers() {
+        return offers;
+    }
+
+    public void setOffers(List<OfferRow> offers) {
+        this.offers = offers;
+    }
+
+    public List<OfferConflict> getConflicts() {
+        return conflicts;
+    }
+
+    public void setConflicts(List<OfferConflict> conflicts) {
+        this.conflicts = conflicts;
+    }
+
+    public OfferValidationReport getValidation() {
+        return validation;
+    }
+
+    public void setValidation(OfferValidationReport validation) {
+        this.validation = validation;
+    }
+}
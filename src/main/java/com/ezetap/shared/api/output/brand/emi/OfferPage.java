@@ -0,0 +1,42 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of stored offers. Pass {@code next_cursor} back as {@code after} to read the next
+ * page; it is null on the last page.
+ */
+public class OfferPage {
+    @JsonProperty("offers")
+    private List<StoredOffer> offers = new ArrayList<>();
+
+    @JsonProperty("next_cursor")
+    private Long nextCursor;
+
+    public OfferPage() {
+    }
+
+    public OfferPage(List<StoredOffer> offers, Long nextCursor) {
+        this.offers = offers;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<StoredOffer> getOffers() {
+        return offers;
+    }
+
+    public void setOffers(List<StoredOffer> offers) {
+        this.offers = offers;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,368 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One offer row in the bulk-upload Excel format. Property names match the JSON the LLM is asked
+ * to produce, and {@link #FIELDS} is the column order of the generated workbook.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({
+    "sku_code",
+    "min_amount",
+    "max_amount",
+    "include_states",
+    "exclude_states",
+    "bank_name",
+    "card_type",
+    "full_swipe_offer_amount_type",
+    "full_swipe_offer_value",
+    "full_swipe_offer_max_amount",
+    "emi_offer_amount_type",
+    "emi_offer_value",
+    "emi_offer_max_amount",
+    "full_swipe_subvention_type",
+    "full_swipe_bank_subvention_value",
+    "full_swipe_brand_subvention_value",
+    "emi_subvention_type",
+    "emi_bank_subvention_value",
+    "emi_brand_subvention_value",
+    "start_date",
+    "end_date",
+    "source_row",
+    "warnings"
+})
+public class OfferRow {
+    public static final String[] FIELDS = {
+        "sku_code", "min_amount", "max_amount", "include_states", "exclude_states", "bank_name",
+        "card_type", "full_swipe_offer_amount_type", "full_swipe_offer_value",
+        "full_swipe_offer_max_amount", "emi_offer_amount_type", "emi_offer_value",
+        "emi_offer_max_amount", "full_swipe_subvention_type", "full_swipe_bank_subvention_value",
+        "full_swipe_brand_subvention_value", "emi_subvention_type", "emi_bank_subvention_value",
+        "emi_brand_subvention_value", "start_date", "end_date"
+    };
+
+    @JsonProperty("sku_code")
+    private String skuCode;
+
+    @JsonProperty("min_amount")
+    private String minAmount;
+
+    @JsonProperty("max_amount")
+    private String maxAmount;
+
+    @JsonProperty("include_states")
+    private String includeStates;
+
+    @JsonProperty("exclude_states")
+    private String excludeStates;
+
+    @JsonProperty("bank_name")
+    private String bankName;
+
+    @JsonProperty("card_type")
+    private String cardType;
+
+    @JsonProperty("full_swipe_offer_amount_type")
+    private String fullSwipeOfferAmountType;
+
+    @JsonProperty("full_swipe_offer_value")
+    private String fullSwipeOfferValue;
+
+    @JsonProperty("full_swipe_offer_max_amount")
+    private String fullSwipeOfferMaxAmount;
+
+    @JsonProperty("emi_offer_amount_type")
+    private String emiOfferAmountType;
+
+    @JsonProperty("emi_offer_value")
+    private String emiOfferValue;
+
+    @JsonProperty("emi_offer_max_amount")
+    private String emiOfferMaxAmount;
+
+    @JsonProperty("full_swipe_subvention_type")
+    private String fullSwipeSubventionType;
+
+    @JsonProperty("full_swipe_bank_subvention_value")
+    private String fullSwipeBankSubventionValue;
+
+    @JsonProperty("full_swipe_brand_subvention_value")
+    private String fullSwipeBrandSubventionValue;
+
+    @JsonProperty("emi_subvention_type")
+    private String emiSubventionType;
+
+    @JsonProperty("emi_bank_subvention_value")
+    private String emiBankSubventionValue;
+
+    @JsonProperty("emi_brand_subvention_value")
+    private String emiBrandSubventionValue;
+
+    @JsonProperty("start_date")
+    private String startDate;
+
+    @JsonProperty("end_date")
+    private String endDate;
+
+    // "sheet:row" of the input row this offer was extracted from; not a workbook column
+    @JsonProperty("source_row")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String sourceRow;
+
+    // Problems found while checking the row locally (unknown SKU, ...); not a workbook column
+    @JsonProperty("warnings")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<String> warnings = new ArrayList<>();
+
+    /**
+     * Returns the value of the given JSON field name, or null if unknown.
+     */
+    public String get(String field) {
+        switch (field) {
+            case "sku_code": return skuCode;
+            case "min_amount": return minAmount;
+            case "max_amount": return maxAmount;
+            case "include_states": return includeStates;
+            case "exclude_states": return excludeStates;
+            case "bank_name": return bankName;
+            case "card_type": return cardType;
+            case "full_swipe_offer_amount_type": return fullSwipeOfferAmountType;
+            case "full_swipe_offer_value": return fullSwipeOfferValue;
+            case "full_swipe_offer_max_amount": return fullSwipeOfferMaxAmount;
+            case "emi_offer_amount_type": return emiOfferAmountType;
+            case "emi_offer_value": return emiOfferValue;
+            case "emi_offer_max_amount": return emiOfferMaxAmount;
+            case "full_swipe_subvention_type": return fullSwipeSubventionType;
+            case "full_swipe_bank_subvention_value": return fullSwipeBankSubventionValue;
+            case "full_swipe_brand_subvention_value": return fullSwipeBrandSubventionValue;
+            case "emi_subvention_type": return emiSubventionType;
+            case "emi_bank_subvention_value": return emiBankSubventionValue;
+            case "emi_brand_subvention_value": return emiBrandSubventionValue;
+            case "start_date": return startDate;
+            case "end_date": return endDate;
+            default: return null;
+        }
+    }
+
+    public void set(String field, String value) {
+        switch (field) {
+            case "sku_code": skuCode = value; break;
+            case "min_amount": minAmount = value; break;
+            case "max_amount": maxAmount = value; break;
+            case "include_states": includeStates = value; break;
+            case "exclude_states": excludeStates = value; break;
+            case "bank_name": bankName = value; break;
+            case "card_type": cardType = value; break;
+            case "full_swipe_offer_amount_type": fullSwipeOfferAmountType = value; break;
+            case "full_swipe_offer_value": fullSwipeOfferValue = value; break;
+            case "full_swipe_offer_max_amount": fullSwipeOfferMaxAmount = value; break;
+            case "emi_offer_amount_type": emiOfferAmountType = value; break;
+            case "emi_offer_value": emiOfferValue = value; break;
+            case "emi_offer_max_amount": emiOfferMaxAmount = value; break;
+            case "full_swipe_subvention_type": fullSwipeSubventionType = value; break;
+            case "full_swipe_bank_subvention_value": fullSwipeBankSubventionValue = value; break;
+            case "full_swipe_brand_subvention_value": fullSwipeBrandSubventionValue = value; break;
+            case "emi_subvention_type": emiSubventionType = value; break;
+            case "emi_bank_subvention_value": emiBankSubventionValue = value; break;
+            case "emi_brand_subvention_value": emiBrandSubventionValue = value; break;
+            case "start_date": startDate = value; break;
+            case "end_date": endDate = value; break;
+            default: throw new IllegalArgumentException("Unknown offer field: " + field);
+        }
+    }
+
+    public String getSkuCode() {
+        return skuCode;
+    }
+
+    public void setSkuCode(String skuCode) {
+        this.skuCode = skuCode;
+    }
+
+    public String getMinAmount() {
+        return minAmount;
+    }
+
+    public void setMinAmount(String minAmount) {
+        this.minAmount = minAmount;
+    }
+
+    public String getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void setMaxAmount(String maxAmount) {
+        this.maxAmount = maxAmount;
+    }
+
+    public String getIncludeStates() {
+        return includeStates;
+    }
+
+    public void setIncludeStates(String includeStates) {
+        this.includeStates = includeStates;
+    }
+
+    public String getExcludeStates() {
+        return excludeStates;
+    }
+
+    public void setExcludeStates(String excludeStates) {
+        this.excludeStates = excludeStates;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public void setBankName(String bankName) {
+        this.bankName = bankName;
+    }
+
+    public String getCardType() {
+        return cardType;
+    }
+
+    public void setCardType(String cardType) {
+        this.cardType = cardType;
+    }
+
+    public String getFullSwipeOfferAmountType() {
+        return fullSwipeOfferAmountType;
+    }
+
+    public void setFullSwipeOfferAmountType(String fullSwipeOfferAmountType) {
+        this.fullSwipeOfferAmountType = fullSwipeOfferAmountType;
+    }
+
+    public String getFullSwipeOfferValue() {
+        return fullSwipeOfferValue;
+    }
+
+    public void setFullSwipeOfferValue(String fullSwipeOfferValue) {
+        this.fullSwipeOfferValue = fullSwipeOfferValue;
+    }
+
+    public String getFullSwipeOfferMaxAmount() {
+        return fullSwipeOfferMaxAmount;
+    }
+
+    public void setFullSwipeOfferMaxAmount(String fullSwipeOfferMaxAmount) {
+        this.fullSwipeOfferMaxAmount = fullSwipeOfferMaxAmount;
+    }
+
+    public String getEmiOfferAmountType() {
+        return emiOfferAmountType;
+    }
+
+    public void setEmiOfferAmountType(String emiOfferAmountType) {
+        this.emiOfferAmountType = emiOfferAmountType;
+    }
+
+    public String getEmiOfferValue() {
+        return emiOfferValue;
+    }
+
+    public void setEmiOfferValue(String emiOfferValue) {
+        this.emiOfferValue = emiOfferValue;
+    }
+
+    public String getEmiOfferMaxAmount() {
+        return emiOfferMaxAmount;
+    }
+
+    public void setEmiOfferMaxAmount(String emiOfferMaxAmount) {
+        this.emiOfferMaxAmount = emiOfferMaxAmount;
+    }
+
+    public String getFullSwipeSubventionType() {
+        return fullSwipeSubventionType;
+    }
+
+    public void setFullSwipeSubventionType(String fullSwipeSubventionType) {
+        this.fullSwipeSubventionType = fullSwipeSubventionType;
+    }
+
+    public String getFullSwipeBankSubventionValue() {
+        return fullSwipeBankSubventionValue;
+    }
+
+    public void setFullSwipeBankSubventionValue(String fullSwipeBankSubventionValue) {
+        this.fullSwipeBankSubventionValue = fullSwipeBankSubventionValue;
+    }
+
+    public String getFullSwipeBrandSubventionValue() {
+        return fullSwipeBrandSubventionValue;
+    }
+
+    public void setFullSwipeBrandSubventionValue(String fullSwipeBrandSubventionValue) {
+        this.fullSwipeBrandSubventionValue = fullSwipeBrandSubventionValue;
+    }
+
+    public String getEmiSubventionType() {
+        return emiSubventionType;
+    }
+
+    public void setEmiSubventionType(String emiSubventionType) {
+        this.emiSubventionType = emiSubventionType;
+    }
+
+    public String getEmiBankSubventionValue() {
+        return emiBankSubventionValue;
+    }
+
+    public void setEmiBankSubventionValue(String emiBankSubventionValue) {
+        this.emiBankSubventionValue = emiBankSubventionValue;
+    }
+
+    public String getEmiBrandSubventionValue() {
+        return emiBrandSubventionValue;
+    }
+
+    public void setEmiBrandSubventionValue(String emiBrandSubventionValue) {
+        this.emiBrandSubventionValue = emiBrandSubventionValue;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(String startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+
+    public String getSourceRow() {
+        return sourceRow;
+    }
+
+    public void setSourceRow(String sourceRow) {
+        this.sourceRow = sourceRow;
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public void setWarnings(List<String> warnings) {
+        this.warnings = warnings;
+    }
+
+    public void addWarning(String warning) {
+        warnings.add(warning);
+    }
+}
@@ -0,0 +1,176 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matching offers from past extractions, with facet counts per dimension (brand, bank,
+ * card_type, month).
+ */
+public class OfferSearchResult {
+    @JsonProperty("total_hits")
+    private long totalHits;
+
+    @JsonProperty("took_ms")
+    private long tookMs;
+
+    @JsonProperty("hits")
+    private List<Hit> hits = new ArrayList<>();
+
+    @JsonProperty("facets")
+    private Map<String, List<FacetValue>> facets = new LinkedHashMap<>();
+
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(long totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    public long getTookMs() {
+        return tookMs;
+    }
+
+    public void setTookMs(long tookMs) {
+        this.tookMs = tookMs;
+    }
+
+    public List<Hit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<Hit> hits) {
+        this.hits = hits;
+    }
+
+    public Map<String, List<FacetValue>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, List<FacetValue>> facets) {
+        this.facets = facets;
+    }
+
+    public static class Hit {
+        @JsonProperty("extraction_id")
+        private long extractionId;
+
+        @JsonProperty("source")
+        private String source;
+
+        @JsonProperty("sheet")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private String sheet;
+
+        @JsonProperty("source_row")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private String sourceRow;
+
+        @JsonProperty("source_text")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private String sourceText;
+
+        @JsonProperty("indexed_at")
+        private String indexedAt;
+
+        @JsonProperty("score")
+        private float score;
+
+        @JsonProperty("offer")
+        private OfferRow offer;
+
+        public long getExtractionId() {
+            return extractionId;
+        }
+
+        public void setExtractionId(long extractionId) {
+            this.extractionId = extractionId;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public String getSheet() {
+            return sheet;
+        }
+
+        public void setSheet(String sheet) {
+            this.sheet = sheet;
+        }
+
+        public String getSourceRow() {
+            return sourceRow;
+        }
+
+        public void setSourceRow(String sourceRow) {
+            this.sourceRow = sourceRow;
+        }
+
+        public String getSourceText() {
+            return sourceText;
+        }
+
+        public void setSourceText(String sourceText) {
+            this.sourceText = sourceText;
+        }
+
+        public String getIndexedAt() {
+            return indexedAt;
+        }
+
+        public void setIndexedAt(String indexedAt) {
+            this.indexedAt = indexedAt;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        public void setScore(float score) {
+            this.score = score;
+        }
+
+        public OfferRow getOffer() {
+            return offer;
+        }
+
+        public void setOffer(OfferRow offer) {
+            this.offer = offer;
+        }
+    }
+
+    public static class FacetValue {
+        @JsonProperty("value")
+        private String value;
+
+        @JsonProperty("count")
+        private int count;
+
+        public FacetValue() {
+        }
+
+        public FacetValue(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
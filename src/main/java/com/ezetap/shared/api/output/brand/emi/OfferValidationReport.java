@@ -0,0 +1,131 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of validating extracted offers: every problem of every row, collected in one pass.
+ * Only rows with at least one error or warning are listed.
+ */
+public class OfferValidationReport {
+    @JsonProperty("row_count")
+    private int rowCount;
+
+    @JsonProperty("error_count")
+    private int errorCount;
+
+    @JsonProperty("warning_count")
+    private int warningCount;
+
+    @JsonProperty("rows")
+    private List<RowReport> rows = new ArrayList<>();
+
+    @JsonProperty("valid")
+    public boolean isValid() {
+        return errorCount == 0;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(int errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public int getWarningCount() {
+        return warningCount;
+    }
+
+    public void setWarningCount(int warningCount) {
+        this.warningCount = warningCount;
+    }
+
+    public List<RowReport> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<RowReport> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Problems of one row; {@code row} is the 1-based position in the extracted list.
+     */
+    public static class RowReport {
+        @JsonProperty("row")
+        private int row;
+
+        @JsonProperty("source_row")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private String sourceRow;
+
+        @JsonProperty("errors")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private List<Issue> errors = new ArrayList<>();
+
+        @JsonProperty("warnings")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private List<Issue> warnings = new ArrayList<>();
+
+        public RowReport() {
+        }
+
+        public RowReport(int row, String sourceRow) {
+            this.row = row;
+            this.sourceRow = sourceRow;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getSourceRow() {
+            return sourceRow;
+        }
+
+        public List<Issue> getErrors() {
+            return errors;
+        }
+
+        public List<Issue> getWarnings() {
+            return warnings;
+        }
+    }
+
+    public static class Issue {
+        @JsonProperty("field")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        private String field;
+
+        @JsonProperty("message")
+        private String message;
+
+        public Issue() {
+        }
+
+        public Issue(String field, String message) {
+            this.field = field;
+            this.message = message;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.ezetap.shared.api.output.brand.emi;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An offer row as kept in the offer store, with the extraction it came from.
+ */
+public class StoredOffer {
+    @JsonProperty("id")
+    private long id;
+
+    @JsonProperty("extraction_id")
+    private long extractionId;
+
+    @JsonProperty("brand")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private String brand;
+
+    @JsonProperty("created_at")
+    private String createdAt;
+
+    @JsonProperty("offer")
+    private OfferRow offer;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getExtractionId() {
+        return extractionId;
+    }
+
+    public void setExtractionId(long extractionId) {
+        this.extractionId = extractionId;
+    }
+
+    public String getBrand() {
+        return brand;
+    }
+
+    public void setBrand(String brand) {
+        this.brand = brand;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(String createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public OfferRow getOffer() {
+        return offer;
+    }
+
+    public void setOffer(OfferRow offer) {
+        this.offer = offer;
+    }
+}
@@ -0,0 +1,90 @@
+-- Embedded offer store. Created on startup if missing (spring.sql.init.mode=always).
+CREATE SEQUENCE IF NOT EXISTS offer_seq CACHE 1000;
+
+CREATE TABLE IF NOT EXISTS extraction (
+    id          BIGINT AUTO_INCREMENT PRIMARY KEY,
+    source      VARCHAR(255),
+    row_count   INT NOT NULL,
+    created_at  TIMESTAMP NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS offer (
+    id                                BIGINT PRIMARY KEY,
+    extraction_id                     BIGINT NOT NULL,
+    brand                             VARCHAR_IGNORECASE(255),
+    sku_code                          VARCHAR(4000),
+    min_amount                        VARCHAR(1000),
+    max_amount                        VARCHAR(1000),
+    include_states                    VARCHAR(1000),
+    exclude_states                    VARCHAR(1000),
+    bank_name                         VARCHAR(1000),
+    card_type                         VARCHAR(1000),
+    full_swipe_offer_amount_type      VARCHAR(1000),
+    full_swipe_offer_value            VARCHAR(1000),
+    full_swipe_offer_max_amount       VARCHAR(1000),
+    emi_offer_amount_type             VARCHAR(1000),
+    emi_offer_value                   VARCHAR(1000),
+    emi_offer_max_amount              VARCHAR(1000),
+    full_swipe_subvention_type        VARCHAR(1000),
+    full_swipe_bank_subvention_value  VARCHAR(1000),
+    full_swipe_brand_subvention_value VARCHAR(1000),
+    emi_subvention_type               VARCHAR(1000),
+    emi_bank_subvention_value         VARCHAR(1000),
+    emi_brand_subvention_value        VARCHAR(1000),
+    start_date                        VARCHAR(1000),
+    end_date                          VARCHAR(1000),
+    start_at                          TIMESTAMP,
+    end_at                            TIMESTAMP,
+    source_row                        VARCHAR(1000),
+    created_at                        TIMESTAMP NOT NULL
+);
+
+-- Widen stores created when these columns were VARCHAR(32)/VARCHAR(64); the model returns free-form text
+ALTER TABLE offer ALTER COLUMN min_amount SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN max_amount SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN card_type SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_offer_amount_type SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_offer_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_offer_max_amount SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_offer_amount_type SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_offer_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_offer_max_amount SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_subvention_type SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_bank_subvention_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN full_swipe_brand_subvention_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_subvention_type SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_bank_subvention_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN emi_brand_subvention_value SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN start_date SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN end_date SET DATA TYPE VARCHAR(1000);
+ALTER TABLE offer ALTER COLUMN source_row SET DATA TYPE VARCHAR(1000);
+
+CREATE INDEX IF NOT EXISTS idx_offer_brand ON offer (brand, id);
+CREATE INDEX IF NOT EXISTS idx_offer_window ON offer (start_at, end_at);
+CREATE INDEX IF NOT EXISTS idx_offer_extraction ON offer (extraction_id, id);
+
+-- One row per (SKU item, bank item) of an offer, so "HDFC Bank, Axis Bank" is found by either bank
+CREATE TABLE IF NOT EXISTS offer_scope (
+    offer_id  BIGINT NOT NULL,
+    sku_key   VARCHAR(255) NOT NULL,
+    bank_key  VARCHAR(255) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_scope_bank ON offer_scope (bank_key, offer_id);
+CREATE INDEX IF NOT EXISTS idx_scope_sku ON offer_scope (sku_key, offer_id);
+CREATE INDEX IF NOT EXISTS idx_scope_bank_sku ON offer_scope (bank_key, sku_key, offer_id);
+
+-- Learned column mappings of recurring sheet layouts, keyed by a hash of headers and column types
+CREATE TABLE IF NOT EXISTS sheet_layout (
+    fingerprint    VARCHAR(64) PRIMARY KEY,
+    headers        VARCHAR(4000) NOT NULL,
+    status         VARCHAR(16) NOT NULL,
+    mapping        CLOB,
+    agreement      DOUBLE,
+    invalid_ratio  DOUBLE,
+    attempts       INT NOT NULL,
+    hits           BIGINT NOT NULL,
+    misses         INT NOT NULL,
+    created_at     TIMESTAMP NOT NULL,
+    updated_at     TIMESTAMP NOT NULL
+);
@@ -0,0 +1,399 @@
+package com.ezetap.server.web.portal.service;
+
+import com.azure.ai.openai.models.ChatCompletions;
+import com.azure.ai.openai.models.ChatCompletionsOptions;
+import com.azure.ai.openai.models.ChatRequestUserMessage;
+import com.azure.core.exception.HttpResponseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link AzureOpenAIEndpointPool} against local HTTP servers standing in for Azure OpenAI
+ * deployments. Each server answers with its own name as the completion text, so a test can
+ * tell which target served a call.
+ */
+class AzureOpenAIEndpointPoolTest {
+    private final List<MockTarget> servers = new ArrayList<>();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @BeforeEach
+    void setUp() {
+        servers.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        for (MockTarget server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void sendsCallsToTheTargetWithFewestOutstandingRequestsPerWeight() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.holdReplies();
+        b.holdReplies();
+        AzureOpenAIEndpointPool pool = pool(3, 30000, target(a, 3), target(b, 1));
+
+        // Each call is admitted only once the previous one is outstanding on its target
+        List<Future<ChatCompletions>> calls = new ArrayList<>();
+        for (int i = 1; i <= 8; i++) {
+            calls.add(callers.submit(() -> call(pool)));
+            awaitRequests(i, a, b);
+        }
+        a.releaseReplies();
+        b.releaseReplies();
+        Map<String, Integer> served = new HashMap<>();
+        for (Future<ChatCompletions> future : calls) {
+            served.merge(servedBy(future.get(10, TimeUnit.SECONDS)), 1, Integer::sum);
+        }
+
+        // (outstanding + 1) / weight: a, a, a (tie, listed first), b, a, a, a (tie), b
+        assertEquals(6, a.requests.get());
+        assertEquals(2, b.requests.get());
+        assertEquals(6, served.get("a"));
+        assertEquals(2, served.get("b"));
+    }
+
+    @Test
+    void leavesAThrottledTargetAloneForItsRetryAfter() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(429, "Retry-After", "1");
+        AzureOpenAIEndpointPool pool = pool(3, 30000, target(a, 1), target(b, 1));
+
+        assertEquals("b", servedBy(call(pool)));
+        assertEquals("OPEN", metrics(pool, "a").get("state"));
+        assertEquals("b", servedBy(call(pool)));
+        assertEquals(1, a.requests.get());
+
+        Thread.sleep(1100);
+        a.reply(200);
+        assertEquals("HALF_OPEN", metrics(pool, "a").get("state"));
+        assertEquals("a", servedBy(call(pool)));
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+    }
+
+    @Test
+    void failsOverOnServerErrorsAndOpensAfterTheThreshold() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(503);
+        AzureOpenAIEndpointPool pool = pool(3, 30000, target(a, 10), target(b, 1));
+
+        for (int i = 1; i <= 3; i++) {
+            assertEquals("b", servedBy(call(pool)));
+            assertEquals(i, a.requests.get());
+            assertEquals(i < 3 ? "CLOSED" : "OPEN", metrics(pool, "a").get("state"));
+        }
+        assertEquals("b", servedBy(call(pool)));
+        assertEquals(3, a.requests.get());
+        assertEquals(3L, metrics(pool, "a").get("failures"));
+    }
+
+    @Test
+    void throwsTheLastErrorWhenEveryTargetFails() {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(500);
+        b.reply(502);
+        AzureOpenAIEndpointPool pool = pool(3, 30000, target(a, 1), target(b, 1));
+
+        HttpResponseException error = assertThrows(HttpResponseException.class, () -> call(pool));
+        assertEquals(502, error.getResponse().getStatusCode());
+        assertEquals(1, a.requests.get());
+        assertEquals(1, b.requests.get());
+    }
+
+    @Test
+    void doesNotFailOverOnClientErrors() {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(400);
+        AzureOpenAIEndpointPool pool = pool(1, 30000, target(a, 10), target(b, 1));
+
+        HttpResponseException error = assertThrows(HttpResponseException.class, () -> call(pool));
+        assertEquals(400, error.getResponse().getStatusCode());
+        assertEquals(0, b.requests.get());
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+    }
+
+    @Test
+    void probesAnOpenTargetOnceItsCoolDownEnds() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(500);
+        AzureOpenAIEndpointPool pool = pool(2, 300, target(a, 10), target(b, 1));
+
+        call(pool);
+        call(pool);
+        assertEquals("OPEN", metrics(pool, "a").get("state"));
+
+        // A failed probe opens the breaker again straight away
+        Thread.sleep(350);
+        assertEquals("HALF_OPEN", metrics(pool, "a").get("state"));
+        assertEquals("b", servedBy(call(pool)));
+        assertEquals(3, a.requests.get());
+        assertEquals("OPEN", metrics(pool, "a").get("state"));
+
+        // A successful probe closes it
+        Thread.sleep(350);
+        a.reply(200);
+        assertEquals("a", servedBy(call(pool)));
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+        assertEquals("a", servedBy(call(pool)));
+    }
+
+    @Test
+    void admitsOnlyOneProbeAtATime() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(500);
+        AzureOpenAIEndpointPool pool = pool(1, 300, target(a, 10), target(b, 1));
+        call(pool);
+        Thread.sleep(350);
+
+        a.reply(200);
+        a.holdReplies();
+        Future<ChatCompletions> probe = callers.submit(() -> call(pool));
+        awaitRequests(2, a);
+        // While the probe is out, other calls go elsewhere
+        assertEquals("b", servedBy(call(pool)));
+        a.releaseReplies();
+        assertEquals("a", servedBy(probe.get(10, TimeUnit.SECONDS)));
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+    }
+
+    @Test
+    void releasesTheProbeWhenItsCallIsCancelled() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        a.reply(500);
+        AzureOpenAIEndpointPool pool = pool(1, 300, target(a, 10), target(b, 1));
+        call(pool);
+        Thread.sleep(350);
+
+        // The probe is interrupted mid-call, as when a hedge wins or a deadline passes
+        a.reply(200);
+        a.holdReplies();
+        Future<ChatCompletions> probe = callers.submit(() -> call(pool));
+        awaitRequests(2, a);
+        probe.cancel(true);
+        awaitOutstanding(pool, "a", 0);
+        a.releaseReplies();
+
+        // Neither a success nor a failure: the breaker stays as it was and the next caller probes
+        assertEquals("HALF_OPEN", metrics(pool, "a").get("state"));
+        assertEquals(1L, metrics(pool, "a").get("failures"));
+        assertEquals("a", servedBy(call(pool)));
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+    }
+
+    @Test
+    void keepsTheProbeWhenAnOlderCallIsCancelled() throws Exception {
+        MockTarget a = start("a");
+        MockTarget b = start("b");
+        AzureOpenAIEndpointPool pool = pool(1, 300, target(a, 10), target(b, 1));
+
+        // A call admitted while the breaker was closed is still out when the breaker opens
+        a.holdReplies();
+        Future<ChatCompletions> older = callers.submit(() -> call(pool));
+        awaitRequests(1, a);
+        a.stopHolding();
+        a.reply(500);
+        assertEquals("b", servedBy(call(pool)));
+        Thread.sleep(350);
+
+        a.reply(200);
+        a.holdReplies();
+        Future<ChatCompletions> probe = callers.submit(() -> call(pool));
+        awaitRequests(3, a);
+        older.cancel(true);
+        awaitOutstanding(pool, "a", 1);
+
+        // Only the probe's own completion lets another call through
+        assertEquals("b", servedBy(call(pool)));
+        assertEquals(3, a.requests.get());
+        a.releaseReplies();
+        assertEquals("a", servedBy(probe.get(10, TimeUnit.SECONDS)));
+        assertEquals("CLOSED", metrics(pool, "a").get("state"));
+    }
+
+    private MockTarget start(String name) {
+        MockTarget server = new MockTarget(name);
+        servers.add(server);
+        return server;
+    }
+
+    private static AzureOpenAIPoolProperties.Target target(MockTarget server, int weight) {
+        AzureOpenAIPoolProperties.Target target = new AzureOpenAIPoolProperties.Target();
+        target.setName(server.name);
+        target.setEndpoint(server.url());
+        target.setKey("test-key");
+        target.setDeploymentId("deployment-" + server.name);
+        target.setWeight(weight);
+        return target;
+    }
+
+    private static AzureOpenAIEndpointPool pool(int failureThreshold, long openDurationMs,
+                                                AzureOpenAIPoolProperties.Target... targets) {
+        AzureOpenAIPoolProperties properties = new AzureOpenAIPoolProperties();
+        properties.setTargets(new ArrayList<>(Arrays.asList(targets)));
+        properties.setFailureThreshold(failureThreshold);
+        properties.setOpenDurationMs(openDurationMs);
+        AzureOpenAIEndpointPool pool = new AzureOpenAIEndpointPool();
+        ReflectionTestUtils.setField(pool, "properties", properties);
+        pool.init();
+        return pool;
+    }
+
+    private static ChatCompletions call(AzureOpenAIEndpointPool pool) throws Exception {
+        ChatCompletionsOptions options = new ChatCompletionsOptions(
+            Collections.singletonList(new ChatRequestUserMessage("Extract the offers")));
+        return pool.getChatCompletions(ModelRouter.Route.LARGE, options);
+    }
+
+    private static String servedBy(ChatCompletions completions) {
+        return completions.getChoices().get(0).getMessage().getContent();
+    }
+
+    private static Map<String, Object> metrics(AzureOpenAIEndpointPool pool, String name) {
+        for (Map<String, Object> metrics : pool.getMetrics()) {
+            if (name.equals(metrics.get("name"))) {
+                return metrics;
+            }
+        }
+        throw new AssertionError("No target " + name);
+    }
+
+    private static void awaitRequests(int count, MockTarget... targets) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            int requests = 0;
+            for (MockTarget target : targets) {
+                requests += target.requests.get();
+            }
+            if (requests >= count) {
+                return;
+            }
+            assertTrue(System.nanoTime() < deadline, "Expected " + count + " requests, got " + requests);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitOutstanding(AzureOpenAIEndpointPool pool, String name, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (((Number) metrics(pool, name).get("outstanding")).intValue() != count) {
+            assertTrue(System.nanoTime() < deadline, "Calls to " + name + " still outstanding");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Local stand-in for one Azure OpenAI deployment. Replies with a fixed status (and header),
+     * and can hold replies until released to keep calls outstanding.
+     */
+    private static class MockTarget {
+        private final String name;
+        private final HttpServer server;
+        private final ExecutorService handlers = Executors.newCachedThreadPool();
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile String headerName;
+        private volatile String headerValue;
+        private volatile CountDownLatch hold = new CountDownLatch(0);
+
+        MockTarget(String name) {
+            this.name = name;
+            try {
+                server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            server.createContext("/", this::handle);
+            server.setExecutor(handlers);
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void reply(int status) {
+            reply(status, null, null);
+        }
+
+        void reply(int status, String headerName, String headerValue) {
+            this.headerName = headerName;
+            this.headerValue = headerValue;
+            this.status = status;
+        }
+
+        void holdReplies() {
+            hold = new CountDownLatch(1);
+        }
+
+        void releaseReplies() {
+            hold.countDown();
+        }
+
+        // New requests are answered straight away; those already held stay held
+        void stopHolding() {
+            hold = new CountDownLatch(0);
+        }
+
+        void stop() {
+            releaseReplies();
+            server.stop(0);
+            handlers.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.readAllBytes();
+            }
+            int replyStatus = status;
+            String replyHeader = headerName;
+            CountDownLatch replyHold = hold;
+            requests.incrementAndGet();
+            try {
+                replyHold.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String json = replyStatus == 200
+                ? "{\"id\":\"" + name + "\",\"created\":1,\"model\":\"m\",\"choices\":[{\"index\":0,\"finish_reason\":\"stop\"," +
+                  "\"message\":{\"role\":\"assistant\",\"content\":\"" + name + "\"}}]," +
+                  "\"usage\":{\"prompt_tokens\":1,\"completion_tokens\":1,\"total_tokens\":2}}"
+                : "{\"error\":{\"code\":\"" + replyStatus + "\",\"message\":\"" + name + " failed\"}}";
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (replyHeader != null) {
+                exchange.getResponseHeaders().set(replyHeader, headerValue);
+            }
+            exchange.sendResponseHeaders(replyStatus, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            } catch (IOException e) {
+                // The caller gave up on the call
+            }
+        }
+    }
+}